@@ -39,6 +39,7 @@ import org.mjsip.sip.provider.SipProvider;
 import org.mjsip.sip.provider.SipStack;
 import org.mjsip.time.ConfiguredScheduler;
 import org.mjsip.time.SchedulerConfig;
+import org.mjsip.time.ThreadSupport;
 import org.mjsip.ua.MediaAgent;
 import org.mjsip.ua.MediaConfig;
 import org.mjsip.ua.RegisteringMultipleUAS;
@@ -119,6 +120,7 @@ public class AnsweringMachine extends RegisteringMultipleUAS {
 		}
 
 		StreamerFactory streamerFactory = ExampleStreamerFactory.createStreamerFactory(mediaConfig, uaConfig);
+		ThreadSupport.configure(schedulerConfig);
 		SipProvider sipProvider = new SipProvider(sipConfig, new ConfiguredScheduler(schedulerConfig));
 		new AnsweringMachine(sipProvider, uaConfig, mediaConfig, streamerFactory, portConfig.createPool(), serviceConfig);
 	}
@@ -31,6 +31,7 @@ import org.mjsip.sip.provider.SipProvider;
 import org.mjsip.sip.provider.SipProviderListener;
 import org.mjsip.time.ConfiguredScheduler;
 import org.mjsip.time.SchedulerConfig;
+import org.mjsip.time.ThreadSupport;
 
 
 
@@ -88,6 +89,7 @@ public class DummyUAS implements SipProviderListener {
 		
 		sipConfig.normalize();
 		
+		ThreadSupport.configure(schedulerConfig);
 		SipProvider sipProvider = new SipProvider(sipConfig, new ConfiguredScheduler(schedulerConfig));
 		
 		new DummyUAS(sipProvider, config.code, config.reason);
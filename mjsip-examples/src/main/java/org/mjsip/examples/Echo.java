@@ -42,6 +42,7 @@ import org.mjsip.sip.transaction.TransactionClient;
 import org.mjsip.sip.transaction.TransactionServer;
 import org.mjsip.time.ConfiguredScheduler;
 import org.mjsip.time.SchedulerConfig;
+import org.mjsip.time.ThreadSupport;
 import org.mjsip.ua.MediaAgent;
 import org.mjsip.ua.RegisteringMultipleUAS;
 import org.mjsip.ua.ServiceConfig;
@@ -150,6 +151,7 @@ public class Echo extends RegisteringMultipleUAS {
 		sipConfig.normalize();
 		uaConfig.normalize(sipConfig);
 		
+		ThreadSupport.configure(schedulerConfig);
 		new Echo(new SipProvider(sipConfig, new ConfiguredScheduler(schedulerConfig)),new LoopbackStreamerFactory(),uaConfig,portConfig.createPool(), config.forceReverseRoute, serviceConfig);
 
 		// Prompt before exit
@@ -34,6 +34,7 @@ import org.mjsip.sip.provider.SipProvider;
 import org.mjsip.sip.provider.SipStack;
 import org.mjsip.time.ConfiguredScheduler;
 import org.mjsip.time.SchedulerConfig;
+import org.mjsip.time.ThreadSupport;
 import org.mjsip.ua.MediaAgent;
 import org.mjsip.ua.RegisteringMultipleUAS;
 import org.mjsip.ua.ServiceConfig;
@@ -121,6 +122,7 @@ public class Jukebox extends RegisteringMultipleUAS {
 		mediaConfig.setAudio(true);
 		mediaConfig.setVideo(false);
 		uaConfig.setSendOnly(true);
+		ThreadSupport.configure(schedulerConfig);
 		new Jukebox(new SipProvider(sipConfig, new ConfiguredScheduler(schedulerConfig)),uaConfig, mediaConfig, portConfig.createPool(), serviceConfig, config.mediaPath);
 		
 		// Prompt before exit
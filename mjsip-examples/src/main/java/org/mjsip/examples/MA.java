@@ -9,6 +9,7 @@ import org.mjsip.sip.provider.SipConfig;
 import org.mjsip.sip.provider.SipProvider;
 import org.mjsip.time.ConfiguredScheduler;
 import org.mjsip.time.SchedulerConfig;
+import org.mjsip.time.ThreadSupport;
 import org.mjsip.ua.UAConfig;
 import org.mjsip.ua.UIConfig;
 import org.mjsip.ua.registration.RegistrationClient;
@@ -35,6 +36,7 @@ public class MA {
 		sipConfig.normalize();
 		uaConfig.normalize(sipConfig);
 		
+		ThreadSupport.configure(schedulerConfig);
 		SipProvider sip_provider = new SipProvider(sipConfig, new ConfiguredScheduler(schedulerConfig));
 		MessageAgentCli cli=new MessageAgentCli(sip_provider,uaConfig);
 		
@@ -31,6 +31,7 @@ import org.mjsip.sip.provider.SipProvider;
 import org.mjsip.sip.provider.SipStack;
 import org.mjsip.time.ConfiguredScheduler;
 import org.mjsip.time.SchedulerConfig;
+import org.mjsip.time.ThreadSupport;
 import org.mjsip.ua.ServiceConfig;
 import org.mjsip.ua.ServiceOptions;
 import org.mjsip.ua.UAConfig;
@@ -96,6 +97,7 @@ public class MiniJukebox extends UserAgentCli {
 		mediaConfig.setVideo(false);
 		uaConfig.setSendOnly(true);
 		
+		ThreadSupport.configure(schedulerConfig);
 		new MiniJukebox(new SipProvider(sipConfig, new ConfiguredScheduler(schedulerConfig)),portConfig.createPool(),serviceConfig, uaConfig, uiConfig, mediaConfig);
 	}    
 	
@@ -37,6 +37,7 @@ import org.mjsip.sip.provider.SipProvider;
 import org.mjsip.sip.provider.SipStack;
 import org.mjsip.time.ConfiguredScheduler;
 import org.mjsip.time.SchedulerConfig;
+import org.mjsip.time.ThreadSupport;
 import org.mjsip.ua.MediaAgent;
 import org.mjsip.ua.RegisteringUserAgent;
 import org.mjsip.ua.ServiceConfig;
@@ -466,6 +467,7 @@ public class UserAgentCli implements UserAgentListenerAdapter {
 		uaConfig.normalize(sipConfig);
 		mediaConfig.normalize();
 
+		ThreadSupport.configure(schedulerConfig);
 		SipProvider sip_provider = new SipProvider(sipConfig, new ConfiguredScheduler(schedulerConfig));
 		UserAgentCli cli = new UserAgentCli(sip_provider, portConfig.createPool(), serviceConfig, uaConfig, uiConfig, mediaConfig);
 		cli.run();
@@ -13,6 +13,7 @@ module org.mjsip.net {
 	requires org.slf4j;
 
 	requires java.desktop;
+	requires java.naming;
 
 	exports org.mjsip.net;
 	exports org.zoolu.net;
@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.zoolu.net.IpAddress;
+
+/**
+ * Non-blocking host name resolution with a cache for successful and failed lookups.
+ *
+ * <p>
+ * Lookups are performed by a {@link HostResolver} in the background. Concurrent requests for the
+ * same name share a single lookup. Results are cached for a fixed time to live, failures for a
+ * (usually shorter) negative time to live. IP address literals are converted without a lookup.
+ * </p>
+ *
+ * @see ServerLocator
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class DnsResolver {
+
+	/** Default time to live of a resolved name in milliseconds. */
+	public static final long DEFAULT_TTL = 60000;
+
+	/** Default time to live of a failed lookup in milliseconds. */
+	public static final long DEFAULT_NEGATIVE_TTL = 10000;
+
+	/** Default number of threads performing lookups in the background. */
+	public static final int DEFAULT_THREADS = 4;
+
+	/** Time in seconds after which an idle lookup thread terminates. */
+	private static final long IDLE_TIMEOUT = 30;
+
+	/**
+	 * Number of entries of a cache above which expired entries are purged.
+	 */
+	private static final int PURGE_SIZE = 1024;
+
+	private final HostResolver _resolver;
+
+	private final long _ttl;
+
+	private final long _negativeTtl;
+
+	private final Executor _executor;
+
+	/** Whether {@link #_executor} was created by this resolver and is shut down by {@link #halt()}. */
+	private final boolean _ownExecutor;
+
+	private final Map<String, Entry<List<InetAddress>>> _addresses = new ConcurrentHashMap<>();
+
+	private final Map<String, Entry<List<SrvRecord>>> _srv = new ConcurrentHashMap<>();
+
+	private final Map<String, Entry<List<NaptrRecord>>> _naptr = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a {@link DnsResolver} performing lookups in at most {@link #DEFAULT_THREADS} daemon
+	 * threads.
+	 *
+	 * @param resolver
+	 *        The lookup implementation.
+	 * @param ttl
+	 *        The time in milliseconds a resolved name is cached.
+	 * @param negativeTtl
+	 *        The time in milliseconds a failed lookup is cached.
+	 */
+	public DnsResolver(HostResolver resolver, long ttl, long negativeTtl) {
+		this(resolver, ttl, negativeTtl, createExecutor(DEFAULT_THREADS), true);
+	}
+
+	/**
+	 * Creates a {@link DnsResolver}.
+	 *
+	 * @param resolver
+	 *        The lookup implementation.
+	 * @param ttl
+	 *        The time in milliseconds a resolved name is cached.
+	 * @param negativeTtl
+	 *        The time in milliseconds a failed lookup is cached.
+	 * @param executor
+	 *        The executor performing lookups, not shut down by {@link #halt()}.
+	 */
+	public DnsResolver(HostResolver resolver, long ttl, long negativeTtl, Executor executor) {
+		this(resolver, ttl, negativeTtl, executor, false);
+	}
+
+	private DnsResolver(HostResolver resolver, long ttl, long negativeTtl, Executor executor, boolean ownExecutor) {
+		_resolver = resolver;
+		_ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+		_negativeTtl = TimeUnit.MILLISECONDS.toNanos(negativeTtl);
+		_executor = executor;
+		_ownExecutor = ownExecutor;
+	}
+
+	/**
+	 * Creates an executor for lookups running on at most the given number of daemon threads.
+	 *
+	 * <p>
+	 * Lookups exceeding the number of threads wait in a queue. Idle threads terminate after some
+	 * time.
+	 * </p>
+	 */
+	public static Executor createExecutor(int threads) {
+		AtomicInteger count = new AtomicInteger();
+		ThreadPoolExecutor result = new ThreadPoolExecutor(threads, threads, IDLE_TIMEOUT, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), task -> {
+					Thread thread = new Thread(task, "DnsResolver-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		result.allowCoreThreadTimeOut(true);
+		return result;
+	}
+
+	/**
+	 * Whether the given host is an IPv4 or IPv6 address literal that can be converted without a
+	 * lookup.
+	 */
+	public static boolean isLiteral(String host) {
+		if (host.indexOf(':') >= 0) {
+			return isIPv6Literal(host);
+		}
+		return isIPv4Literal(host, 0, host.length());
+	}
+
+	private static boolean isIPv4Literal(String host, int start, int end) {
+		if (start == end) {
+			return false;
+		}
+		for (int n = start; n < end; n++) {
+			char ch = host.charAt(n);
+			if ((ch < '0' || ch > '9') && ch != '.') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Whether the given host is an IPv6 address, optionally in brackets and with a zone index
+	 * (e.g. <code>[fe80::1%eth0]</code>), possibly ending with an embedded IPv4 address.
+	 */
+	private static boolean isIPv6Literal(String host) {
+		int start = 0;
+		int end = host.length();
+		if (end > 0 && host.charAt(0) == '[') {
+			if (host.charAt(end - 1) != ']') {
+				return false;
+			}
+			start++;
+			end--;
+		}
+		int zone = host.indexOf('%', start);
+		if (zone >= 0 && zone < end) {
+			if (zone == end - 1) {
+				return false;
+			}
+			end = zone;
+		}
+
+		int groups = 0;
+		boolean compressed = false;
+		int pos = start;
+		if (host.startsWith("::", pos)) {
+			compressed = true;
+			pos += 2;
+			if (pos == end) {
+				return true;
+			}
+		}
+		while (true) {
+			int groupEnd = pos;
+			while (groupEnd < end && Character.digit(host.charAt(groupEnd), 16) >= 0) {
+				groupEnd++;
+			}
+			if (groupEnd < end && host.charAt(groupEnd) == '.') {
+				// Embedded IPv4 address as last part, counts as two groups.
+				int dots = 0;
+				for (int n = pos; n < end; n++) {
+					if (host.charAt(n) == '.') {
+						dots++;
+					}
+				}
+				if (dots != 3 || !isIPv4Literal(host, pos, end)) {
+					return false;
+				}
+				groups += 2;
+				break;
+			}
+			if (groupEnd == pos || groupEnd - pos > 4) {
+				return false;
+			}
+			groups++;
+			if (groupEnd == end) {
+				break;
+			}
+			if (host.charAt(groupEnd) != ':') {
+				return false;
+			}
+			pos = groupEnd + 1;
+			if (pos < end && host.charAt(pos) == ':') {
+				if (compressed) {
+					return false;
+				}
+				compressed = true;
+				pos++;
+				if (pos == end) {
+					break;
+				}
+			} else if (pos == end) {
+				return false;
+			}
+		}
+		return compressed ? groups < 8 : groups == 8;
+	}
+
+	/**
+	 * Resolves the given host to its first address.
+	 *
+	 * <p>
+	 * The result is already completed, if the host is an address literal or its address is cached.
+	 * </p>
+	 *
+	 * @return The address, or a future completed with an {@link UnknownHostException}.
+	 */
+	public CompletableFuture<IpAddress> resolveAsync(String host) {
+		return resolveAllAsync(host).thenApply(addresses -> new IpAddress(addresses.get(0)));
+	}
+
+	/**
+	 * Resolves all addresses of the given host.
+	 *
+	 * @see #resolveAsync(String)
+	 */
+	public CompletableFuture<List<InetAddress>> resolveAllAsync(String host) {
+		if (isLiteral(host)) {
+			try {
+				return CompletableFuture.completedFuture(List.of(InetAddress.getByName(host)));
+			} catch (UnknownHostException ex) {
+				return CompletableFuture.failedFuture(ex);
+			}
+		}
+		return lookup(_addresses, host.toLowerCase(), () -> {
+			List<InetAddress> result = _resolver.lookupAddresses(host);
+			if (result.isEmpty()) {
+				throw new UnknownHostException(host);
+			}
+			return result;
+		});
+	}
+
+	/**
+	 * Resolves the given host, blocking only if its address is not cached.
+	 *
+	 * @throws UnknownHostException
+	 *         If the host cannot be resolved.
+	 */
+	public IpAddress resolve(String host) throws UnknownHostException {
+		try {
+			return resolveAsync(host).join();
+		} catch (CompletionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof UnknownHostException) {
+				throw (UnknownHostException) cause;
+			}
+			UnknownHostException problem = new UnknownHostException(host);
+			problem.initCause(cause);
+			throw problem;
+		}
+	}
+
+	/**
+	 * Looks up the SRV records with the given name.
+	 */
+	public CompletableFuture<List<SrvRecord>> lookupSrv(String name) {
+		return lookup(_srv, name.toLowerCase(), () -> _resolver.lookupSrv(name));
+	}
+
+	/**
+	 * Looks up the NAPTR records of the given domain.
+	 */
+	public CompletableFuture<List<NaptrRecord>> lookupNaptr(String domain) {
+		return lookup(_naptr, domain.toLowerCase(), () -> _resolver.lookupNaptr(domain));
+	}
+
+	/**
+	 * Stops the lookup threads created by this resolver.
+	 *
+	 * <p>
+	 * Lookups not answered from the cache fail afterwards. An executor passed to the constructor is
+	 * not shut down.
+	 * </p>
+	 */
+	public void halt() {
+		if (_ownExecutor) {
+			((ExecutorService) _executor).shutdown();
+		}
+	}
+
+	/**
+	 * Drops all cached results.
+	 */
+	public void clear() {
+		_addresses.clear();
+		_srv.clear();
+		_naptr.clear();
+	}
+
+	private <T> CompletableFuture<T> lookup(Map<String, Entry<T>> cache, String key, Callable<T> lookup) {
+		long now = System.nanoTime();
+		Entry<T> entry = cache.get(key);
+		if (entry != null && !entry.isExpired(now)) {
+			return entry._result;
+		}
+
+		Entry<T> created = new Entry<>();
+		Entry<T> current = cache.compute(key, (k, old) -> old == null || old.isExpired(now) ? created : old);
+		if (current == created) {
+			if (cache.size() > PURGE_SIZE) {
+				cache.values().removeIf(x -> x.isExpired(now));
+			}
+			try {
+				_executor.execute(() -> {
+					try {
+						created.complete(lookup.call(), _ttl);
+					} catch (Throwable ex) {
+						created.fail(ex, _negativeTtl);
+					}
+				});
+			} catch (RejectedExecutionException ex) {
+				created.fail(ex, _negativeTtl);
+			}
+		}
+		return current._result;
+	}
+
+	private static final class Entry<T> {
+
+		final CompletableFuture<T> _result = new CompletableFuture<>();
+
+		/**
+		 * The {@link System#nanoTime()} when this entry expires, valid after completion.
+		 */
+		private volatile long _expires;
+
+		private volatile boolean _done;
+
+		boolean isExpired(long now) {
+			return _done && now - _expires >= 0;
+		}
+
+		void complete(T value, long ttl) {
+			_expires = System.nanoTime() + ttl;
+			_done = true;
+			_result.complete(value);
+		}
+
+		void fail(Throwable problem, long ttl) {
+			_expires = System.nanoTime() + ttl;
+			_done = true;
+			_result.completeExceptionally(problem);
+		}
+
+	}
+
+}
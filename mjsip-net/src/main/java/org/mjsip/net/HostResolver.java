@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Blocking name service lookups performed by a {@link DnsResolver}.
+ *
+ * <p>
+ * The default implementation is {@link SystemHostResolver}. Tests may plug in a local table.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public interface HostResolver {
+
+	/**
+	 * Looks up the addresses (A and AAAA records) of the given host.
+	 *
+	 * @return The addresses, never empty.
+	 * @throws UnknownHostException
+	 *         If the host has no address.
+	 */
+	List<InetAddress> lookupAddresses(String host) throws UnknownHostException;
+
+	/**
+	 * Looks up the SRV records with the given name, e.g. <code>_sip._udp.example.com</code>.
+	 *
+	 * @return The records in no particular order, empty if there are none.
+	 */
+	default List<SrvRecord> lookupSrv(String name) {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Looks up the NAPTR records of the given domain.
+	 *
+	 * @return The records in no particular order, empty if there are none.
+	 */
+	default List<NaptrRecord> lookupNaptr(String domain) {
+		return Collections.emptyList();
+	}
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.net;
+
+/**
+ * DNS NAPTR record (RFC 3403).
+ *
+ * <p>
+ * Only records with the <code>S</code> flag pointing to an SRV name by their replacement are used
+ * for locating SIP servers (RFC 3263).
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public final class NaptrRecord {
+
+	private final int _order;
+
+	private final int _preference;
+
+	private final String _flags;
+
+	private final String _service;
+
+	private final String _replacement;
+
+	/**
+	 * Creates a {@link NaptrRecord}.
+	 */
+	public NaptrRecord(int order, int preference, String flags, String service, String replacement) {
+		_order = order;
+		_preference = preference;
+		_flags = flags;
+		_service = service;
+		_replacement = replacement;
+	}
+
+	/**
+	 * The order, lower values are processed first.
+	 */
+	public int getOrder() {
+		return _order;
+	}
+
+	/**
+	 * The preference among records of the same order.
+	 */
+	public int getPreference() {
+		return _preference;
+	}
+
+	/**
+	 * The flags, e.g. <code>S</code> for a replacement that is an SRV name.
+	 */
+	public String getFlags() {
+		return _flags;
+	}
+
+	/**
+	 * The service, e.g. <code>SIP+D2U</code>.
+	 */
+	public String getService() {
+		return _service;
+	}
+
+	/**
+	 * The next name to look up.
+	 */
+	public String getReplacement() {
+		return _replacement;
+	}
+
+	@Override
+	public String toString() {
+		return _order + " " + _preference + " \"" + _flags + "\" \"" + _service + "\" " + _replacement;
+	}
+
+}
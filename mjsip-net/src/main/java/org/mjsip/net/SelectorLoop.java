@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.net;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single I/O thread multiplexing many non-blocking channels through a {@link Selector}.
+ *
+ * <p>
+ * All channel operations of channels registered with a {@link SelectorLoop} must be performed on
+ * the loop thread. Other threads pass work to the loop using {@link #execute(Runnable)}.
+ * </p>
+ *
+ * <p>
+ * A loop created with a tick period additionally calls its {@link TickHandler}s periodically on
+ * the loop thread. The tick is measured with {@link System#nanoTime()} against a fixed schedule,
+ * so that a late tick does not delay the following ones. If the loop falls behind by more than a
+ * full period, missed ticks are skipped.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class SelectorLoop implements Executor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SelectorLoop.class);
+
+	/**
+	 * Callback for channels registered with a {@link SelectorLoop}.
+	 */
+	public interface Handler {
+
+		/**
+		 * Called on the loop thread, when the given key is ready for one of its interest
+		 * operations.
+		 */
+		void onSelected(SelectionKey key);
+
+	}
+
+	/**
+	 * Callback invoked periodically on the loop thread of a ticking {@link SelectorLoop}.
+	 */
+	public interface TickHandler {
+
+		/**
+		 * Called on the loop thread once per tick.
+		 *
+		 * @param now
+		 *        The current {@link System#nanoTime()}.
+		 */
+		void onTick(long now);
+
+	}
+
+	private final Selector _selector;
+
+	private final Thread _thread;
+
+	private final Queue<Runnable> _tasks = new ConcurrentLinkedQueue<>();
+
+	private final long _tickNanos;
+
+	private final List<TickHandler> _tickHandlers = new ArrayList<>();
+
+	private volatile boolean _stopped;
+
+	/**
+	 * Creates and starts a {@link SelectorLoop} without ticks.
+	 *
+	 * @param name
+	 *        The name of the loop thread.
+	 */
+	public SelectorLoop(String name) throws IOException {
+		this(name, 0);
+	}
+
+	/**
+	 * Creates and starts a {@link SelectorLoop}.
+	 *
+	 * @param name
+	 *        The name of the loop thread.
+	 * @param tickNanos
+	 *        The period of {@link TickHandler} calls in nanoseconds, <code>0</code> for no ticks.
+	 */
+	public SelectorLoop(String name, long tickNanos) throws IOException {
+		_tickNanos = tickNanos;
+		_selector = Selector.open();
+		_thread = new Thread(this::run, name);
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	/**
+	 * Whether the current thread is the loop thread.
+	 */
+	public boolean inLoop() {
+		return Thread.currentThread() == _thread;
+	}
+
+	/**
+	 * Executes the given task on the loop thread.
+	 *
+	 * <p>
+	 * If called from the loop thread, the task is executed immediately.
+	 * </p>
+	 */
+	@Override
+	public void execute(Runnable task) {
+		if (inLoop()) {
+			task.run();
+		} else {
+			_tasks.add(task);
+			_selector.wakeup();
+		}
+	}
+
+	/**
+	 * Registers the given channel with this loop.
+	 *
+	 * <p>
+	 * Must be called on the loop thread.
+	 * </p>
+	 *
+	 * @param channel
+	 *        The non-blocking channel to register.
+	 * @param ops
+	 *        The initial interest set.
+	 * @param handler
+	 *        The callback to invoke when the channel becomes ready.
+	 * @return The selection key of the registration.
+	 */
+	public SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException {
+		assert inLoop() : "Registration must happen on the loop thread.";
+		return channel.register(_selector, ops, handler);
+	}
+
+	/**
+	 * The period of ticks in nanoseconds, <code>0</code> if this loop does not tick.
+	 */
+	public long getTickNanos() {
+		return _tickNanos;
+	}
+
+	/**
+	 * Adds a handler to be called on each tick.
+	 *
+	 * <p>
+	 * Must be called on the loop thread.
+	 * </p>
+	 */
+	public void addTickHandler(TickHandler handler) {
+		assert inLoop() : "Tick handlers must be added on the loop thread.";
+		if (_tickNanos <= 0) {
+			throw new IllegalStateException("Loop '" + this + "' has no tick.");
+		}
+		_tickHandlers.add(handler);
+	}
+
+	/**
+	 * Removes a handler added with {@link #addTickHandler(TickHandler)}.
+	 *
+	 * <p>
+	 * Must be called on the loop thread, it may be called from within a tick.
+	 * </p>
+	 */
+	public void removeTickHandler(TickHandler handler) {
+		assert inLoop() : "Tick handlers must be removed on the loop thread.";
+		_tickHandlers.remove(handler);
+	}
+
+	/**
+	 * The number of channels currently registered with this loop.
+	 */
+	public int getChannelCount() {
+		return _selector.keys().size();
+	}
+
+	/**
+	 * Stops the loop thread.
+	 *
+	 * <p>
+	 * Registered channels are not closed.
+	 * </p>
+	 */
+	public void halt() {
+		_stopped = true;
+		_selector.wakeup();
+	}
+
+	private void run() {
+		long nextTick = System.nanoTime() + _tickNanos;
+		try {
+			while (!_stopped) {
+				if (_tickNanos > 0) {
+					long timeout = (nextTick - System.nanoTime() + 999_999) / 1_000_000;
+					if (timeout > 0) {
+						_selector.select(timeout);
+					} else {
+						_selector.selectNow();
+					}
+				} else {
+					_selector.select();
+				}
+				runTasks();
+
+				Iterator<SelectionKey> it = _selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					try {
+						((Handler) key.attachment()).onSelected(key);
+					} catch (RuntimeException ex) {
+						LOG.warn("Handler failed in {}.", _thread.getName(), ex);
+					}
+				}
+
+				if (_tickNanos > 0) {
+					long now = System.nanoTime();
+					if (now - nextTick >= 0) {
+						runTick(now);
+						nextTick += _tickNanos;
+						if (now - nextTick >= 0) {
+							// Skip missed ticks.
+							nextTick = now + _tickNanos;
+						}
+					}
+				}
+			}
+		} catch (IOException ex) {
+			LOG.error("Selector failed in {}.", _thread.getName(), ex);
+		} finally {
+			try {
+				_selector.close();
+			} catch (IOException ex) {
+				// Ignore.
+			}
+		}
+	}
+
+	private void runTick(long now) {
+		List<TickHandler> handlers = _tickHandlers;
+		// Iterate backwards to allow handlers removing themselves.
+		for (int n = handlers.size() - 1; n >= 0; n--) {
+			if (n >= handlers.size()) {
+				continue;
+			}
+			try {
+				handlers.get(n).onTick(now);
+			} catch (RuntimeException ex) {
+				LOG.warn("Tick handler failed in {}.", _thread.getName(), ex);
+			}
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = _tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException ex) {
+				LOG.warn("Task failed in {}.", _thread.getName(), ex);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return _thread.getName();
+	}
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.net;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of {@link SelectorLoop}s channels are distributed to.
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class SelectorPool {
+
+	private final SelectorLoop[] _loops;
+
+	private final AtomicInteger _next = new AtomicInteger();
+
+	/**
+	 * Creates a {@link SelectorPool} and starts its loops.
+	 *
+	 * @param name
+	 *        The name prefix for the loop threads.
+	 * @param size
+	 *        The number of I/O threads.
+	 */
+	public SelectorPool(String name, int size) throws IOException {
+		this(name, size, 0);
+	}
+
+	/**
+	 * Creates a {@link SelectorPool} with ticking loops and starts them.
+	 *
+	 * @param name
+	 *        The name prefix for the loop threads.
+	 * @param size
+	 *        The number of I/O threads.
+	 * @param tickNanos
+	 *        The tick period of the loops in nanoseconds, see {@link SelectorLoop#getTickNanos()}.
+	 */
+	public SelectorPool(String name, int size, long tickNanos) throws IOException {
+		if (size < 1) {
+			throw new IllegalArgumentException("At least one I/O thread required: " + size);
+		}
+		_loops = new SelectorLoop[size];
+		try {
+			for (int n = 0; n < size; n++) {
+				_loops[n] = new SelectorLoop(name + "-" + n, tickNanos);
+			}
+		} catch (IOException ex) {
+			halt();
+			throw ex;
+		}
+	}
+
+	/**
+	 * The number of loops in this pool.
+	 */
+	public int size() {
+		return _loops.length;
+	}
+
+	/**
+	 * The loop with the given index.
+	 */
+	public SelectorLoop get(int index) {
+		return _loops[index];
+	}
+
+	/**
+	 * Selects the loop for the next channel in round-robin order.
+	 */
+	public SelectorLoop next() {
+		return _loops[Math.floorMod(_next.getAndIncrement(), _loops.length)];
+	}
+
+	/**
+	 * Stops all loops.
+	 */
+	public void halt() {
+		for (SelectorLoop loop : _loops) {
+			if (loop != null) {
+				loop.halt();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.net;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.zoolu.net.IpAddress;
+
+/**
+ * Selects the servers to contact for a SIP URI host following the NAPTR, SRV and address lookup
+ * procedure of RFC 3263.
+ *
+ * <ul>
+ * <li>An address literal or a host with explicit port is contacted directly.</li>
+ * <li>For a host with explicit transport, the SRV records of that transport are used.</li>
+ * <li>Otherwise, the NAPTR records of the domain select the SRV names to look up. Without NAPTR
+ * records, the SRV records of all supported transports are tried.</li>
+ * <li>Without any SRV records, the addresses of the host are contacted at the default port.</li>
+ * </ul>
+ *
+ * <p>
+ * All lookups go through a {@link DnsResolver} and do not block the caller.
+ * </p>
+ *
+ * <p>
+ * A server that could not be contacted or answered with 503 (Service Unavailable) can be reported
+ * with {@link #markFailed(ServerTarget)}. For some time, it is moved behind all other servers of
+ * subsequent results, so that the next server of the list is tried instead.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class ServerLocator {
+
+	/** The UDP transport. */
+	public static final String UDP = "udp";
+
+	/** The TCP transport. */
+	public static final String TCP = "tcp";
+
+	/** The TLS transport. */
+	public static final String TLS = "tls";
+
+	/** Default port of the UDP and TCP transport. */
+	public static final int DEFAULT_PORT = 5060;
+
+	/** Default port of the TLS transport. */
+	public static final int DEFAULT_TLS_PORT = 5061;
+
+	/** Time in milliseconds a failed server is moved to the end of the results. */
+	public static final long FAILURE_TIMEOUT = 30000;
+
+	/**
+	 * Number of failed servers above which expired entries are purged.
+	 */
+	private static final int PURGE_SIZE = 256;
+
+	private static final String[] TRANSPORTS = { UDP, TCP, TLS };
+
+	private static final Comparator<NaptrRecord> NAPTR_ORDER =
+			Comparator.comparingInt(NaptrRecord::getOrder).thenComparingInt(NaptrRecord::getPreference);
+
+	private final DnsResolver _resolver;
+
+	private final Predicate<String> _supported;
+
+	/**
+	 * The {@link System#nanoTime()} until which a server is considered to have failed.
+	 */
+	private final Map<ServerTarget, Long> _failed = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a {@link ServerLocator}.
+	 *
+	 * @param resolver
+	 *        The resolver performing lookups.
+	 * @param supported
+	 *        Filter for the transports of the client.
+	 */
+	public ServerLocator(DnsResolver resolver, Predicate<String> supported) {
+		_resolver = resolver;
+		_supported = supported;
+	}
+
+	/**
+	 * Computes the servers to contact in order of preference.
+	 *
+	 * @param host
+	 *        The host of the SIP URI.
+	 * @param port
+	 *        The port of the SIP URI, or a value less or equal to zero if not given.
+	 * @param transport
+	 *        The transport requested by the URI, or <code>null</code> if not given.
+	 * @param secure
+	 *        Whether the URI is a SIPS URI.
+	 * @return The servers to contact, empty if none was found.
+	 */
+	public CompletableFuture<List<ServerTarget>> locate(String host, int port, String transport, boolean secure) {
+		CompletableFuture<List<ServerTarget>> result = lookup(host, port, transport, secure);
+		if (_failed.isEmpty()) {
+			return result;
+		}
+		return result.thenApply(this::preferAvailable);
+	}
+
+	/**
+	 * Reports that the given server could not be contacted, or answered with 503 (Service
+	 * Unavailable).
+	 *
+	 * <p>
+	 * For {@link #FAILURE_TIMEOUT} milliseconds, the server is tried only after all other servers
+	 * of a result.
+	 * </p>
+	 */
+	public void markFailed(ServerTarget target) {
+		long now = System.nanoTime();
+		if (_failed.size() > PURGE_SIZE) {
+			_failed.values().removeIf(until -> now - until >= 0);
+		}
+		_failed.put(target, Long.valueOf(now + TimeUnit.MILLISECONDS.toNanos(FAILURE_TIMEOUT)));
+	}
+
+	/**
+	 * Moves failed servers to the end of the given list, keeping the order otherwise.
+	 */
+	private List<ServerTarget> preferAvailable(List<ServerTarget> targets) {
+		long now = System.nanoTime();
+		List<ServerTarget> result = new ArrayList<>(targets.size());
+		List<ServerTarget> failed = null;
+		for (ServerTarget target : targets) {
+			Long until = _failed.get(target);
+			if (until != null && now - until.longValue() >= 0) {
+				_failed.remove(target, until);
+				until = null;
+			}
+			if (until == null) {
+				result.add(target);
+			} else {
+				if (failed == null) {
+					failed = new ArrayList<>();
+				}
+				failed.add(target);
+			}
+		}
+		if (failed != null) {
+			result.addAll(failed);
+		}
+		return result;
+	}
+
+	private CompletableFuture<List<ServerTarget>> lookup(String host, int port, String transport, boolean secure) {
+		if (transport == null && (port > 0 || DnsResolver.isLiteral(host))) {
+			transport = secure ? TLS : UDP;
+		}
+		if (transport != null) {
+			String requested = transport.toLowerCase();
+			if (port > 0 || DnsResolver.isLiteral(host)) {
+				return addresses(requested, host, port > 0 ? port : defaultPort(requested));
+			}
+			return srv(requested, srvName(requested, host)).thenCompose(
+					targets -> targets.isEmpty() ? addresses(requested, host, defaultPort(requested)) : done(targets));
+		}
+
+		return _resolver.lookupNaptr(host).exceptionally(ex -> Collections.emptyList())
+			.thenCompose(records -> naptr(records, secure))
+			.thenCompose(targets -> targets.isEmpty() ? srvAll(host, secure) : done(targets))
+			.thenCompose(targets -> {
+				if (!targets.isEmpty()) {
+					return done(targets);
+				}
+				String fallback = secure ? TLS : UDP;
+				return addresses(fallback, host, defaultPort(fallback));
+			});
+	}
+
+	private CompletableFuture<List<ServerTarget>> naptr(List<NaptrRecord> records, boolean secure) {
+		List<NaptrRecord> sorted = new ArrayList<>(records);
+		sorted.sort(NAPTR_ORDER);
+
+		CompletableFuture<List<ServerTarget>> result = done(new ArrayList<>());
+		for (NaptrRecord record : sorted) {
+			if (!"s".equalsIgnoreCase(record.getFlags())) {
+				continue;
+			}
+			String transport = naptrTransport(record.getService());
+			if (transport == null || (secure && !TLS.equals(transport)) || !_supported.test(transport)) {
+				continue;
+			}
+			result = append(result, srv(transport, record.getReplacement()));
+		}
+		return result;
+	}
+
+	private CompletableFuture<List<ServerTarget>> srvAll(String host, boolean secure) {
+		CompletableFuture<List<ServerTarget>> result = done(new ArrayList<>());
+		for (String transport : TRANSPORTS) {
+			if ((secure && !TLS.equals(transport)) || !_supported.test(transport)) {
+				continue;
+			}
+			result = append(result, srv(transport, srvName(transport, host)));
+		}
+		return result;
+	}
+
+	private CompletableFuture<List<ServerTarget>> srv(String transport, String name) {
+		return _resolver.lookupSrv(name).exceptionally(ex -> Collections.emptyList()).thenCompose(records -> {
+			CompletableFuture<List<ServerTarget>> result = done(new ArrayList<>());
+			for (SrvRecord record : order(records)) {
+				if (".".equals(record.getTarget()) || record.getTarget().isEmpty()) {
+					// Service explicitly not available.
+					continue;
+				}
+				result = append(result,
+						addresses(transport, record.getTarget(), record.getPort())
+							.exceptionally(ex -> Collections.emptyList()));
+			}
+			return result;
+		});
+	}
+
+	private CompletableFuture<List<ServerTarget>> addresses(String transport, String host, int port) {
+		return _resolver.resolveAllAsync(host).thenApply(addresses -> {
+			List<ServerTarget> result = new ArrayList<>(addresses.size());
+			for (InetAddress address : addresses) {
+				result.add(new ServerTarget(transport, new IpAddress(address), port));
+			}
+			return result;
+		});
+	}
+
+	/**
+	 * Orders SRV records by priority and, within the same priority, by a weighted random selection
+	 * (RFC 2782).
+	 */
+	static List<SrvRecord> order(List<SrvRecord> records) {
+		List<SrvRecord> sorted = new ArrayList<>(records);
+		sorted.sort(Comparator.comparingInt(SrvRecord::getPriority));
+
+		List<SrvRecord> result = new ArrayList<>(sorted.size());
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int start = 0;
+		while (start < sorted.size()) {
+			int priority = sorted.get(start).getPriority();
+			int end = start;
+			int totalWeight = 0;
+			while (end < sorted.size() && sorted.get(end).getPriority() == priority) {
+				totalWeight += sorted.get(end).getWeight();
+				end++;
+			}
+
+			List<SrvRecord> group = new ArrayList<>(sorted.subList(start, end));
+			while (!group.isEmpty()) {
+				int selected = 0;
+				if (totalWeight > 0) {
+					int threshold = random.nextInt(totalWeight + 1);
+					int sum = 0;
+					for (int n = 0, cnt = group.size(); n < cnt; n++) {
+						sum += group.get(n).getWeight();
+						if (sum >= threshold) {
+							selected = n;
+							break;
+						}
+					}
+				}
+				SrvRecord record = group.remove(selected);
+				totalWeight -= record.getWeight();
+				result.add(record);
+			}
+			start = end;
+		}
+		return result;
+	}
+
+	private static CompletableFuture<List<ServerTarget>> append(CompletableFuture<List<ServerTarget>> result,
+			CompletableFuture<List<ServerTarget>> more) {
+		return result.thenCombine(more, (targets, additional) -> {
+			targets.addAll(additional);
+			return targets;
+		});
+	}
+
+	private static CompletableFuture<List<ServerTarget>> done(List<ServerTarget> targets) {
+		return CompletableFuture.completedFuture(targets);
+	}
+
+	private static String naptrTransport(String service) {
+		switch (service.toUpperCase()) {
+			case "SIP+D2U":
+				return UDP;
+			case "SIP+D2T":
+				return TCP;
+			case "SIPS+D2T":
+				return TLS;
+			default:
+				return null;
+		}
+	}
+
+	private static String srvName(String transport, String host) {
+		switch (transport) {
+			case TLS:
+				return "_sips._tcp." + host;
+			case TCP:
+				return "_sip._tcp." + host;
+			default:
+				return "_sip._" + transport + "." + host;
+		}
+	}
+
+	/**
+	 * The default port of the given transport.
+	 */
+	public static int defaultPort(String transport) {
+		return TLS.equals(transport) ? DEFAULT_TLS_PORT : DEFAULT_PORT;
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.net;
+
+import org.zoolu.net.IpAddress;
+
+/**
+ * A transport, address and port to contact a server, as selected by a {@link ServerLocator}.
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public final class ServerTarget {
+
+	private final String _transport;
+
+	private final IpAddress _address;
+
+	private final int _port;
+
+	/**
+	 * Creates a {@link ServerTarget}.
+	 */
+	public ServerTarget(String transport, IpAddress address, int port) {
+		_transport = transport;
+		_address = address;
+		_port = port;
+	}
+
+	/**
+	 * The transport protocol, one of {@link ServerLocator#UDP}, {@link ServerLocator#TCP}, or
+	 * {@link ServerLocator#TLS}.
+	 */
+	public String getTransport() {
+		return _transport;
+	}
+
+	/**
+	 * The server address.
+	 */
+	public IpAddress getAddress() {
+		return _address;
+	}
+
+	/**
+	 * The server port.
+	 */
+	public int getPort() {
+		return _port;
+	}
+
+	@Override
+	public int hashCode() {
+		return (_transport.hashCode() * 31 + _address.hashCode()) * 31 + _port;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof ServerTarget)) {
+			return false;
+		}
+		ServerTarget other = (ServerTarget) obj;
+		return _port == other._port && _transport.equals(other._transport) && _address.equals(other._address);
+	}
+
+	@Override
+	public String toString() {
+		return _transport + ":" + _address + ":" + _port;
+	}
+
+}
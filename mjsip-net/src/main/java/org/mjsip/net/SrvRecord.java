@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.net;
+
+/**
+ * DNS SRV record (RFC 2782).
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public final class SrvRecord {
+
+	private final int _priority;
+
+	private final int _weight;
+
+	private final int _port;
+
+	private final String _target;
+
+	/**
+	 * Creates a {@link SrvRecord}.
+	 */
+	public SrvRecord(int priority, int weight, int port, String target) {
+		_priority = priority;
+		_weight = weight;
+		_port = port;
+		_target = target;
+	}
+
+	/**
+	 * The priority, lower values are tried first.
+	 */
+	public int getPriority() {
+		return _priority;
+	}
+
+	/**
+	 * The relative weight among records of the same priority.
+	 */
+	public int getWeight() {
+		return _weight;
+	}
+
+	/**
+	 * The port of the service.
+	 */
+	public int getPort() {
+		return _port;
+	}
+
+	/**
+	 * The host providing the service.
+	 */
+	public String getTarget() {
+		return _target;
+	}
+
+	@Override
+	public String toString() {
+		return _priority + " " + _weight + " " + _port + " " + _target;
+	}
+
+}
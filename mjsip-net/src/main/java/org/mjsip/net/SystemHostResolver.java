@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link HostResolver} using the name service of the JVM for addresses and the JNDI DNS provider
+ * for SRV and NAPTR records.
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class SystemHostResolver implements HostResolver {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SystemHostResolver.class);
+
+	/** The singleton instance. */
+	public static final SystemHostResolver INSTANCE = new SystemHostResolver();
+
+	private SystemHostResolver() {
+		// Singleton constructor.
+	}
+
+	@Override
+	public List<InetAddress> lookupAddresses(String host) throws UnknownHostException {
+		return Arrays.asList(InetAddress.getAllByName(host));
+	}
+
+	@Override
+	public List<SrvRecord> lookupSrv(String name) {
+		List<SrvRecord> result = new ArrayList<>();
+		for (String value : lookup(name, "SRV")) {
+			List<String> fields = fields(value);
+			if (fields.size() < 4) {
+				continue;
+			}
+			try {
+				result.add(new SrvRecord(Integer.parseInt(fields.get(0)), Integer.parseInt(fields.get(1)),
+						Integer.parseInt(fields.get(2)), stripDot(fields.get(3))));
+			} catch (NumberFormatException ex) {
+				LOG.debug("Invalid SRV record for {}: {}", name, value);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public List<NaptrRecord> lookupNaptr(String domain) {
+		List<NaptrRecord> result = new ArrayList<>();
+		for (String value : lookup(domain, "NAPTR")) {
+			List<String> fields = fields(value);
+			if (fields.size() < 6) {
+				continue;
+			}
+			try {
+				result.add(new NaptrRecord(Integer.parseInt(fields.get(0)), Integer.parseInt(fields.get(1)),
+						fields.get(2), fields.get(3), stripDot(fields.get(5))));
+			} catch (NumberFormatException ex) {
+				LOG.debug("Invalid NAPTR record for {}: {}", domain, value);
+			}
+		}
+		return result;
+	}
+
+	private static List<String> lookup(String name, String type) {
+		Hashtable<String, String> env = new Hashtable<>();
+		env.put("java.naming.factory.initial", "com.sun.jndi.dns.DnsContextFactory");
+		env.put("java.naming.provider.url", "dns:");
+		try {
+			DirContext context = new InitialDirContext(env);
+			try {
+				Attributes attributes = context.getAttributes(name, new String[] { type });
+				Attribute attribute = attributes.get(type);
+				if (attribute == null) {
+					return Collections.emptyList();
+				}
+				List<String> result = new ArrayList<>();
+				NamingEnumeration<?> values = attribute.getAll();
+				while (values.hasMore()) {
+					result.add(values.next().toString());
+				}
+				return result;
+			} finally {
+				context.close();
+			}
+		} catch (NamingException ex) {
+			LOG.debug("No {} record for {}: {}", type, name, ex.getMessage());
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Splits a record value at white space, respecting double-quoted strings.
+	 */
+	static List<String> fields(String value) {
+		List<String> result = new ArrayList<>();
+		int length = value.length();
+		int pos = 0;
+		while (pos < length) {
+			char ch = value.charAt(pos);
+			if (Character.isWhitespace(ch)) {
+				pos++;
+			} else if (ch == '"') {
+				int end = value.indexOf('"', pos + 1);
+				if (end < 0) {
+					end = length;
+				}
+				result.add(value.substring(pos + 1, end));
+				pos = end + 1;
+			} else {
+				int end = pos;
+				while (end < length && !Character.isWhitespace(value.charAt(end))) {
+					end++;
+				}
+				result.add(value.substring(pos, end));
+				pos = end;
+			}
+		}
+		return result;
+	}
+
+	private static String stripDot(String name) {
+		return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+	}
+
+}
@@ -93,6 +93,7 @@ public class IpAddress {
 	/** Wthether it is equal to Object <i>obj</i> */
 	@Override
 	public boolean equals(Object obj) {
+		if (obj==this) return true;
 		try {
 			IpAddress ipaddr=(IpAddress)obj;
 			if (!toString().equals(ipaddr.toString())) return false;
@@ -123,6 +123,7 @@ public class SocketAddress {
 	/** Whether it is equal to Object <i>obj</i>. */
 	@Override
 	public boolean equals(Object obj) {
+		if (obj==this) return true;
 		try {
 			SocketAddress saddr=(SocketAddress)obj;
 			if (port!=saddr.port) return false;
@@ -32,12 +32,13 @@ import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
 
+import org.mjsip.time.ThreadSupport;
 import org.slf4j.LoggerFactory;
 
 
 /** TcpConnection provides a TCP connection oriented transport service.
   */
-public class TcpConnection extends Thread {
+public class TcpConnection implements Runnable {
 	
 	private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(TcpConnection.class);
 
@@ -68,6 +69,9 @@ public class TcpConnection extends Thread {
 	/** Whether it is running */
 	boolean is_running; 
 
+	/** The thread running the loop */
+	Thread thread;
+
 	/** TcpConnection listener */
 	TcpConnectionListener listener;
 
@@ -76,14 +80,14 @@ public class TcpConnection extends Thread {
 	/** Constructs a new TcpConnection.*/
 	public TcpConnection(TcpSocket socket, TcpConnectionListener listener) throws IOException {
 		init(socket,0,listener);
-		start();
+		thread=ThreadSupport.start(this,getClass().getSimpleName(),Thread.currentThread().isDaemon());
 	}
 
 
 	/** Constructs a new TcpConnection.*/
 	public TcpConnection(TcpSocket socket, long alive_time, TcpConnectionListener listener) throws IOException {
 		init(socket,alive_time,listener);
-		start();
+		thread=ThreadSupport.start(this,getClass().getSimpleName(),Thread.currentThread().isDaemon());
 	}
 
 
@@ -107,6 +111,62 @@ public class TcpConnection extends Thread {
 	}
 
 
+	/** Gets the thread running the loop.
+	  * It is created by {@link ThreadSupport}, and may be a virtual thread. */
+	public Thread getThread() {
+		return thread;
+	}
+
+
+	/** Starts the loop thread.
+	  * The thread is already started on construction, so this fails like a second call to {@link Thread#start()}.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public void start() {
+		thread.start();
+	}
+
+
+	/** Waits for the loop thread to terminate.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public void join() throws InterruptedException {
+		thread.join();
+	}
+
+
+	/** Waits at most the given number of milliseconds for the loop thread to terminate.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public void join(long millis) throws InterruptedException {
+		thread.join(millis);
+	}
+
+
+	/** Whether the loop thread is alive.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public boolean isAlive() {
+		return thread.isAlive();
+	}
+
+
+	/** Gets the name of the loop thread.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public String getName() {
+		return thread.getName();
+	}
+
+
+	/** Interrupts the loop thread.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public void interrupt() {
+		thread.interrupt();
+	}
+
+
 	/** Gets the TcpSocket. */ 
 	public TcpSocket getSocket() {
 		return socket;
@@ -28,11 +28,13 @@ import java.io.InterruptedIOException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 
+import org.mjsip.time.ThreadSupport;
+
 
 
 /** TcpServer implements a TCP server wainting for incoming connection.
   */
-public class TcpServer extends Thread {
+public class TcpServer implements Runnable {
 	
 	/** Default value for the maximum time that the tcp server can remain active after been halted (in milliseconds) */
 	public static final int DEFAULT_SOCKET_TIMEOUT=5000; // 5sec 
@@ -64,6 +66,9 @@ public class TcpServer extends Thread {
 	/** Whether it is running */
 	boolean is_running; 
 
+	/** The thread running the loop */
+	Thread thread;
+
 	/** TcpServer listener */
 	TcpServerListener listener;
 
@@ -75,28 +80,28 @@ public class TcpServer extends Thread {
 		InetAddress iaddress=server_socket.getInetAddress();
 		IpAddress bind_ipaddr=(iaddress!=null)? new IpAddress(iaddress) : null;
 		init(server_socket,port,bind_ipaddr,0,listener);
-		start();
+		thread=ThreadSupport.start(this,getClass().getSimpleName(),Thread.currentThread().isDaemon());
 	}
 
 
 	/** Costructs a new TcpServer */
 	public TcpServer(int port, TcpServerListener listener)  throws java.io.IOException {
 		init(null,port,null,0,listener);
-		start();
+		thread=ThreadSupport.start(this,getClass().getSimpleName(),Thread.currentThread().isDaemon());
 	}
 
 
 	/** Costructs a new TcpServer */
 	public TcpServer(int port, IpAddress bind_ipaddr, TcpServerListener listener)  throws java.io.IOException {
 		init(null,port,bind_ipaddr,0,listener);
-		start();
+		thread=ThreadSupport.start(this,getClass().getSimpleName(),Thread.currentThread().isDaemon());
 	}
 
 
 	/** Costructs a new TcpServer */
 	public TcpServer(int port, IpAddress bind_ipaddr, long alive_time, TcpServerListener listener)  throws java.io.IOException {
 		init(null,port,bind_ipaddr,alive_time,listener);
-		start();
+		thread=ThreadSupport.start(this,getClass().getSimpleName(),Thread.currentThread().isDaemon());
 	}
 
 
@@ -129,6 +134,62 @@ public class TcpServer extends Thread {
 	}
 
 
+	/** Gets the thread running the loop.
+	  * It is created by {@link ThreadSupport}, and may be a virtual thread. */
+	public Thread getThread() {
+		return thread;
+	}
+
+
+	/** Starts the loop thread.
+	  * The thread is already started on construction, so this fails like a second call to {@link Thread#start()}.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public void start() {
+		thread.start();
+	}
+
+
+	/** Waits for the loop thread to terminate.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public void join() throws InterruptedException {
+		thread.join();
+	}
+
+
+	/** Waits at most the given number of milliseconds for the loop thread to terminate.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public void join(long millis) throws InterruptedException {
+		thread.join(millis);
+	}
+
+
+	/** Whether the loop thread is alive.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public boolean isAlive() {
+		return thread.isAlive();
+	}
+
+
+	/** Gets the name of the loop thread.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public String getName() {
+		return thread.getName();
+	}
+
+
+	/** Interrupts the loop thread.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public void interrupt() {
+		thread.interrupt();
+	}
+
+
 	/** Stops running */
 	public void halt() {
 		stop=true;
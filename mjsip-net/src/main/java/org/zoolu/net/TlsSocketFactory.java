@@ -44,6 +44,9 @@ import javax.net.ssl.X509TrustManager;
 public class TlsSocketFactory {
 	
 
+	/** SSLContext */
+	SSLContext ssl_context;
+
 	/** SSLSocketFactory */
 	SSLSocketFactory ssl_factory;
 
@@ -87,10 +90,17 @@ public class TlsSocketFactory {
 		SSLContext sc=SSLContext.getInstance("SSL");
 		sc.init(key_managers,trust_managers,null/*new java.security.SecureRandom()*/);
 		// get the socket factory
+		ssl_context=sc;
 		ssl_factory=sc.getSocketFactory();
 	}
 
 
+	/** Gets the SSLContext, e.g. for creating an SSLEngine for non-blocking connections. */
+	public SSLContext getSSLContext() {
+		return ssl_context;
+	}
+
+
 	/** Sets whether using client (or server) mode in its first handshake.
 	  * Servers normally authenticate themselves, and clients are not required to do so. */
 	public void setUseClientMode(boolean flag) {
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.zoolu.net;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.function.Consumer;
+
+/**
+ * {@link UdpSocket} based on a {@link DatagramChannel} that does not allocate per packet.
+ *
+ * <p>
+ * A {@link DatagramSocket} wraps each {@link DatagramPacket} into a new buffer when sending or
+ * receiving. This socket instead copies packet data through direct {@link ByteBuffer}s that are
+ * allocated once per socket. The target {@link InetSocketAddress} of sent packets is reused as
+ * long as the destination does not change. When reusing the same {@link UdpPacket} for all
+ * {@link #send(UdpPacket)} and {@link #receive(UdpPacket)} calls, a stream of packets from and to
+ * a single peer produces no garbage, which matters for media streams sending 50 packets per
+ * second each.
+ * </p>
+ *
+ * <p>
+ * Sending and receiving may happen concurrently from different threads. The socket timeout is
+ * implemented with a private {@link Selector}.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class UdpChannelSocket extends UdpSocket {
+
+	/** Default size of the packet buffers. */
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	private static final Consumer<SelectionKey> IGNORE = key -> {
+		// Only wait for readability.
+	};
+
+	private final DatagramChannel _channel;
+
+	private final Object _sendLock = new Object();
+
+	private final Object _receiveLock = new Object();
+
+	private final Object _selectorLock = new Object();
+
+	private ByteBuffer _sendBuffer;
+
+	private final ByteBuffer _receiveBuffer;
+
+	private InetAddress _lastAddress;
+
+	private int _lastPort;
+
+	private InetSocketAddress _lastTarget;
+
+	private Selector _selector;
+
+	private volatile int _timeout;
+
+	/**
+	 * Creates a {@link UdpChannelSocket} bound to the given local port on all interfaces.
+	 */
+	public UdpChannelSocket(int port) throws IOException {
+		this(port, null, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a {@link UdpChannelSocket} bound to the given local port and address.
+	 */
+	public UdpChannelSocket(int port, IpAddress ipaddr) throws IOException {
+		this(port, ipaddr, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a {@link UdpChannelSocket}.
+	 *
+	 * @param port
+	 *        The local port, <code>0</code> for an ephemeral port.
+	 * @param ipaddr
+	 *        The local address to bind to, <code>null</code> for all interfaces.
+	 * @param bufferSize
+	 *        The maximum size of a received packet. Larger datagrams are truncated.
+	 */
+	public UdpChannelSocket(int port, IpAddress ipaddr, int bufferSize) throws IOException {
+		_channel = DatagramChannel.open();
+		try {
+			_channel.bind(ipaddr == null ? new InetSocketAddress(port)
+					: new InetSocketAddress(ipaddr.getInetAddress(), port));
+			_channel.configureBlocking(false);
+		} catch (IOException ex) {
+			_channel.close();
+			throw ex;
+		}
+		_sendBuffer = ByteBuffer.allocateDirect(bufferSize);
+		_receiveBuffer = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	/**
+	 * The non-blocking channel of this socket.
+	 *
+	 * <p>
+	 * Allows to register the socket with an event loop that receives packets with
+	 * {@link #receiveNow(ByteBuffer)} instead of {@link #receive(UdpPacket)}. The channel must
+	 * stay in non-blocking mode.
+	 * </p>
+	 */
+	public DatagramChannel getChannel() {
+		return _channel;
+	}
+
+	@Override
+	public void close() {
+		try {
+			synchronized (_selectorLock) {
+				if (_selector != null) {
+					// Wakes up a blocked receive.
+					_selector.close();
+				}
+			}
+			_channel.close();
+		} catch (IOException ex) {
+			// Ignore.
+		}
+	}
+
+	@Override
+	public IpAddress getLocalAddress() {
+		return new IpAddress(_channel.socket().getLocalAddress());
+	}
+
+	@Override
+	public int getLocalPort() {
+		return _channel.socket().getLocalPort();
+	}
+
+	@Override
+	public int getSoTimeout() {
+		return _timeout;
+	}
+
+	@Override
+	public void setSoTimeout(int timeout) {
+		_timeout = timeout;
+	}
+
+	@Override
+	public void send(UdpPacket pkt) throws IOException {
+		DatagramPacket packet = pkt.packet;
+		synchronized (_sendLock) {
+			InetAddress address = packet.getAddress();
+			int port = packet.getPort();
+			if (_lastTarget == null || port != _lastPort || !address.equals(_lastAddress)) {
+				_lastAddress = address;
+				_lastPort = port;
+				_lastTarget = new InetSocketAddress(address, port);
+			}
+
+			int length = packet.getLength();
+			if (_sendBuffer.capacity() < length) {
+				_sendBuffer = ByteBuffer.allocateDirect(length);
+			}
+			_sendBuffer.clear();
+			_sendBuffer.put(packet.getData(), packet.getOffset(), length);
+			_sendBuffer.flip();
+			if (_channel.send(_sendBuffer, _lastTarget) == 0) {
+				// Send buffer of the socket is full, the packet is dropped like in a congested network.
+				return;
+			}
+			sender_packet_count++;
+			sender_octect_count += length;
+		}
+	}
+
+	@Override
+	public void receive(UdpPacket pkt) throws IOException {
+		DatagramPacket packet = pkt.packet;
+		synchronized (_receiveLock) {
+			_receiveBuffer.clear();
+			InetSocketAddress source = (InetSocketAddress) _channel.receive(_receiveBuffer);
+			while (source == null) {
+				if (awaitReadable() == 0) {
+					throw new SocketTimeoutException("Receive timed out.");
+				}
+				source = (InetSocketAddress) _channel.receive(_receiveBuffer);
+			}
+			_receiveBuffer.flip();
+
+			byte[] data = packet.getData();
+			int offset = packet.getOffset();
+			int length = Math.min(_receiveBuffer.remaining(), data.length - offset);
+			_receiveBuffer.get(data, offset, length);
+			packet.setLength(length);
+			packet.setAddress(source.getAddress());
+			packet.setPort(source.getPort());
+
+			receiver_packet_count++;
+			receiver_octect_count += length;
+		}
+	}
+
+	/**
+	 * Receives a packet without waiting, if one is available.
+	 *
+	 * <p>
+	 * The packet data is received directly into the given buffer starting at its position, which
+	 * is advanced by the packet length.
+	 * </p>
+	 *
+	 * @return The source of the received packet, <code>null</code> if no packet is available.
+	 */
+	public InetSocketAddress receiveNow(ByteBuffer buffer) throws IOException {
+		synchronized (_receiveLock) {
+			int start = buffer.position();
+			InetSocketAddress source = (InetSocketAddress) _channel.receive(buffer);
+			if (source != null) {
+				receiver_packet_count++;
+				receiver_octect_count += buffer.position() - start;
+			}
+			return source;
+		}
+	}
+
+	/**
+	 * Waits until the channel becomes readable or the timeout expires.
+	 *
+	 * @return The number of ready keys, <code>0</code> on timeout.
+	 */
+	private int awaitReadable() throws IOException {
+		Selector selector;
+		synchronized (_selectorLock) {
+			if (_selector == null) {
+				if (!_channel.isOpen()) {
+					throw new SocketException("Socket closed.");
+				}
+				_selector = Selector.open();
+				_channel.register(_selector, SelectionKey.OP_READ);
+			}
+			selector = _selector;
+		}
+		try {
+			int timeout = _timeout;
+			int ready = timeout > 0 ? selector.select(IGNORE, timeout) : selector.select(IGNORE);
+			if (ready == 0 && !_channel.isOpen()) {
+				throw new SocketException("Socket closed.");
+			}
+			return timeout > 0 ? ready : Math.max(ready, 1);
+		} catch (ClosedSelectorException ex) {
+			throw new SocketException("Socket closed.");
+		}
+	}
+
+	@Override
+	public long getReceiverBufferSize() throws SocketException {
+		try {
+			return _channel.getOption(StandardSocketOptions.SO_RCVBUF).intValue();
+		} catch (IOException ex) {
+			throw socketException(ex);
+		}
+	}
+
+	@Override
+	public void setReceiverBufferSize(int size) throws SocketException {
+		try {
+			_channel.setOption(StandardSocketOptions.SO_RCVBUF, Integer.valueOf(size));
+		} catch (IOException ex) {
+			throw socketException(ex);
+		}
+	}
+
+	private static SocketException socketException(IOException ex) {
+		if (ex instanceof SocketException) {
+			return (SocketException) ex;
+		}
+		SocketException result = new SocketException(ex.getMessage());
+		result.initCause(ex);
+		return result;
+	}
+
+}
@@ -25,7 +25,7 @@ package org.zoolu.net;
 
 
 import java.net.DatagramPacket;
-//import java.net.InetAddress;
+import java.net.InetAddress;
 
 
 /** UdpPacket provides a uniform interface to UDP packets,
@@ -86,6 +86,12 @@ public class UdpPacket {
 		return new IpAddress(packet.getAddress());
 	}
 
+	/** Gets the InetAddress of the machine to which this datagram is being sent or from which the datagram was received.
+	  * In contrast to {@link #getIpAddress()}, no new object is created. */
+	public InetAddress getInetAddress() {
+		return packet.getAddress();
+	}
+
 	/** Gets the data received or the data to be sent. */
 	public byte[] getData() {
 		return packet.getData();
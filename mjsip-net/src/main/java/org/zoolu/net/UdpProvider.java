@@ -27,6 +27,8 @@ package org.zoolu.net;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 
+import org.mjsip.time.ThreadSupport;
+
 
 /** UdpProvider provides an UDP send/receive service.
   * On the receiver side it waits for UDP datagrams and passes them
@@ -38,7 +40,7 @@ import java.io.InterruptedIOException;
   * <p> Method onServiceTerminated(UdpProvider) is fired when the the UdpProvider stops 
   * receiving packets.
   */
-public class UdpProvider extends Thread {
+public class UdpProvider implements Runnable {
 	
 	/** The reading buffer size */
 	public static final int BUFFER_SIZE=65535;
@@ -67,19 +69,22 @@ public class UdpProvider extends Thread {
 	/** Whether it is running */
 	protected boolean is_running; 
 
+	/** The thread running the loop */
+	protected Thread thread;
+
 
 	  
 	/** Creates a new UdpProvider. */ 
 	public UdpProvider(UdpSocket socket, UdpProviderListener listener) {
 		init(socket,0,listener);
-		start();
+		thread=ThreadSupport.start(this,getClass().getSimpleName(),Thread.currentThread().isDaemon());
 	}
 
 
 	/** Creates a new UdpProvider. */ 
 	public UdpProvider(UdpSocket socket, long alive_time, UdpProviderListener listener) {
 		init(socket,alive_time,listener);
-		start();
+		thread=ThreadSupport.start(this,getClass().getSimpleName(),Thread.currentThread().isDaemon());
 	}
 
 
@@ -113,6 +118,62 @@ public class UdpProvider extends Thread {
 	}
 
 
+	/** Gets the thread running the loop.
+	  * It is created by {@link ThreadSupport}, and may be a virtual thread. */
+	public Thread getThread() {
+		return thread;
+	}
+
+
+	/** Starts the loop thread.
+	  * The thread is already started on construction, so this fails like a second call to {@link Thread#start()}.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public void start() {
+		thread.start();
+	}
+
+
+	/** Waits for the loop thread to terminate.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public void join() throws InterruptedException {
+		thread.join();
+	}
+
+
+	/** Waits at most the given number of milliseconds for the loop thread to terminate.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public void join(long millis) throws InterruptedException {
+		thread.join(millis);
+	}
+
+
+	/** Whether the loop thread is alive.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public boolean isAlive() {
+		return thread.isAlive();
+	}
+
+
+	/** Gets the name of the loop thread.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public String getName() {
+		return thread.getName();
+	}
+
+
+	/** Interrupts the loop thread.
+	  * @deprecated This class no longer extends {@link Thread}, use {@link #getThread()}. */
+	@Deprecated
+	public void interrupt() {
+		thread.interrupt();
+	}
+
+
 	/** Sets the maximum time that the UDP service can remain active after been halted. */
 	public void setSoTimeout(int timeout) {
 		socket_timeout=timeout;
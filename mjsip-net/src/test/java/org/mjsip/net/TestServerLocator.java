@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test case for {@link DnsResolver} and {@link ServerLocator} using a local {@link HostResolver}.
+ */
+@SuppressWarnings("javadoc")
+class TestServerLocator {
+
+	@Test
+	void testCache() throws Exception {
+		LocalResolver local = new LocalResolver();
+		local.address("sip.example.com", "192.0.2.1");
+
+		DnsResolver resolver = new DnsResolver(local, 60000, 60000, Runnable::run);
+		Assertions.assertEquals("192.0.2.1", resolver.resolve("sip.example.com").toString());
+		Assertions.assertEquals("192.0.2.1", resolver.resolve("SIP.example.com").toString());
+		Assertions.assertEquals(1, local._lookups);
+
+		Assertions.assertThrows(UnknownHostException.class, () -> resolver.resolve("unknown.example.com"));
+		Assertions.assertThrows(UnknownHostException.class, () -> resolver.resolve("unknown.example.com"));
+		Assertions.assertEquals(2, local._lookups);
+
+		// Literals are not looked up.
+		Assertions.assertEquals("10.0.0.1", resolver.resolve("10.0.0.1").toString());
+		Assertions.assertEquals(2, local._lookups);
+	}
+
+	@Test
+	void testLiteral() {
+		Assertions.assertTrue(DnsResolver.isLiteral("192.0.2.1"));
+		Assertions.assertTrue(DnsResolver.isLiteral("::1"));
+		Assertions.assertTrue(DnsResolver.isLiteral("::"));
+		Assertions.assertTrue(DnsResolver.isLiteral("[2001:db8::1]"));
+		Assertions.assertTrue(DnsResolver.isLiteral("2001:db8:0:0:0:0:0:1"));
+		Assertions.assertTrue(DnsResolver.isLiteral("fe80::1%eth0"));
+		Assertions.assertTrue(DnsResolver.isLiteral("::ffff:192.0.2.1"));
+
+		Assertions.assertFalse(DnsResolver.isLiteral(""));
+		Assertions.assertFalse(DnsResolver.isLiteral("sip.example.com"));
+		Assertions.assertFalse(DnsResolver.isLiteral("sip.example.com:5060"));
+		Assertions.assertFalse(DnsResolver.isLiteral("192.0.2.1:5060"));
+		Assertions.assertFalse(DnsResolver.isLiteral("2001:db8::1::2"));
+		Assertions.assertFalse(DnsResolver.isLiteral("2001:db8:0:0:0:0:1"));
+		Assertions.assertFalse(DnsResolver.isLiteral("12345::1"));
+		Assertions.assertFalse(DnsResolver.isLiteral("[::1"));
+	}
+
+	@Test
+	void testHalt() {
+		LocalResolver local = new LocalResolver();
+		local.address("sip.example.com", "192.0.2.1");
+
+		DnsResolver resolver = new DnsResolver(local, 60000, 60000);
+		resolver.halt();
+		Assertions.assertThrows(UnknownHostException.class, () -> resolver.resolve("sip.example.com"));
+		Assertions.assertEquals(0, local._lookups);
+	}
+
+	@Test
+	void testExpiry() throws Exception {
+		LocalResolver local = new LocalResolver();
+		local.address("sip.example.com", "192.0.2.1");
+
+		DnsResolver resolver = new DnsResolver(local, 0, 0, Runnable::run);
+		resolver.resolve("sip.example.com");
+		local.address("sip.example.com", "192.0.2.2");
+		Assertions.assertEquals("192.0.2.2", resolver.resolve("sip.example.com").toString());
+		Assertions.assertEquals(2, local._lookups);
+	}
+
+	@Test
+	void testPendingLookupShared() {
+		LocalResolver local = new LocalResolver();
+		local.address("sip.example.com", "192.0.2.1");
+
+		List<Runnable> pending = new ArrayList<>();
+		DnsResolver resolver = new DnsResolver(local, 60000, 60000, pending::add);
+
+		CompletableFuture<?> first = resolver.resolveAsync("sip.example.com");
+		CompletableFuture<?> second = resolver.resolveAsync("sip.example.com");
+		Assertions.assertFalse(first.isDone());
+		Assertions.assertEquals(1, pending.size());
+
+		pending.get(0).run();
+		Assertions.assertTrue(first.isDone());
+		Assertions.assertTrue(second.isDone());
+		Assertions.assertTrue(resolver.resolveAsync("sip.example.com").isDone());
+	}
+
+	@Test
+	void testNaptr() {
+		LocalResolver local = new LocalResolver();
+		local.naptr("example.com", new NaptrRecord(50, 50, "s", "SIP+D2U", "_sip._udp.example.com"));
+		local.naptr("example.com", new NaptrRecord(10, 50, "s", "SIP+D2T", "_sip._tcp.example.com"));
+		local.naptr("example.com", new NaptrRecord(20, 50, "s", "SIPS+D2T", "_sips._tcp.example.com"));
+		local.srv("_sip._udp.example.com", new SrvRecord(0, 0, 5070, "udp.example.com"));
+		local.srv("_sip._tcp.example.com", new SrvRecord(0, 0, 5080, "tcp.example.com"));
+		local.srv("_sips._tcp.example.com", new SrvRecord(0, 0, 5081, "tls.example.com"));
+		local.address("udp.example.com", "192.0.2.1");
+		local.address("tcp.example.com", "192.0.2.2");
+		local.address("tls.example.com", "192.0.2.3");
+
+		DnsResolver resolver = new DnsResolver(local, 60000, 60000, Runnable::run);
+		ServerLocator locator = new ServerLocator(resolver, transport -> !transport.equals(ServerLocator.TLS));
+
+		Assertions.assertEquals("[tcp:192.0.2.2:5080, udp:192.0.2.1:5070]", locate(locator, "example.com", 0, null, false));
+		Assertions.assertEquals("[tls:192.0.2.3:5081]",
+				locate(new ServerLocator(resolver, transport -> true), "example.com", 0, null, true));
+	}
+
+	@Test
+	void testSrv() {
+		LocalResolver local = new LocalResolver();
+		local.srv("_sip._udp.example.com", new SrvRecord(20, 0, 5070, "backup.example.com"));
+		local.srv("_sip._udp.example.com", new SrvRecord(10, 0, 5060, "primary.example.com"));
+		local.srv("_sip._udp.example.com", new SrvRecord(30, 0, 5060, "."));
+		local.srv("_sip._tcp.example.com", new SrvRecord(10, 0, 5060, "tcp.example.com"));
+		local.address("primary.example.com", "192.0.2.1");
+		local.address("backup.example.com", "192.0.2.2");
+		local.address("tcp.example.com", "192.0.2.3");
+
+		DnsResolver resolver = new DnsResolver(local, 60000, 60000, Runnable::run);
+		ServerLocator locator = new ServerLocator(resolver, transport -> true);
+
+		Assertions.assertEquals("[udp:192.0.2.1:5060, udp:192.0.2.2:5070, tcp:192.0.2.3:5060]",
+				locate(locator, "example.com", 0, null, false));
+		Assertions.assertEquals("[tcp:192.0.2.3:5060]", locate(locator, "example.com", 0, "TCP", false));
+	}
+
+	@Test
+	void testMarkFailed() {
+		LocalResolver local = new LocalResolver();
+		local.srv("_sip._udp.example.com", new SrvRecord(10, 0, 5060, "primary.example.com"));
+		local.srv("_sip._udp.example.com", new SrvRecord(20, 0, 5060, "backup.example.com"));
+		local.srv("_sip._udp.example.com", new SrvRecord(30, 0, 5060, "last.example.com"));
+		local.address("primary.example.com", "192.0.2.1");
+		local.address("backup.example.com", "192.0.2.2");
+		local.address("last.example.com", "192.0.2.3");
+
+		DnsResolver resolver = new DnsResolver(local, 60000, 60000, Runnable::run);
+		ServerLocator locator = new ServerLocator(resolver, transport -> true);
+
+		List<ServerTarget> targets = locator.locate("example.com", 0, "udp", false).join();
+		locator.markFailed(targets.get(0));
+		Assertions.assertEquals("[udp:192.0.2.2:5060, udp:192.0.2.3:5060, udp:192.0.2.1:5060]",
+				locate(locator, "example.com", 0, "udp", false));
+
+		locator.markFailed(targets.get(1));
+		Assertions.assertEquals("[udp:192.0.2.3:5060, udp:192.0.2.1:5060, udp:192.0.2.2:5060]",
+				locate(locator, "example.com", 0, "udp", false));
+
+		// Other hosts are not affected.
+		Assertions.assertEquals("[tcp:192.0.2.1:5060]", locate(locator, "192.0.2.1", 0, "tcp", false));
+	}
+
+	@Test
+	void testFallback() {
+		LocalResolver local = new LocalResolver();
+		local.address("example.com", "192.0.2.1");
+
+		DnsResolver resolver = new DnsResolver(local, 60000, 60000, Runnable::run);
+		ServerLocator locator = new ServerLocator(resolver, transport -> true);
+
+		Assertions.assertEquals("[udp:192.0.2.1:5060]", locate(locator, "example.com", 0, null, false));
+		Assertions.assertEquals("[tls:192.0.2.1:5061]", locate(locator, "example.com", 0, null, true));
+		Assertions.assertEquals("[tcp:192.0.2.1:5062]", locate(locator, "example.com", 5062, "tcp", false));
+		Assertions.assertEquals("[udp:10.0.0.1:5060]", locate(locator, "10.0.0.1", 0, null, false));
+		Assertions.assertThrows(CompletionException.class, () -> locate(locator, "unknown.example.com", 0, null, false));
+	}
+
+	private static String locate(ServerLocator locator, String host, int port, String transport, boolean secure) {
+		CompletableFuture<List<ServerTarget>> targets = locator.locate(host, port, transport, secure);
+		Assertions.assertTrue(targets.isDone());
+		return targets.join().stream().map(ServerTarget::toString).collect(Collectors.toList()).toString();
+	}
+
+	private static class LocalResolver implements HostResolver {
+
+		final Map<String, InetAddress> _addresses = new HashMap<>();
+
+		final Map<String, List<SrvRecord>> _srv = new HashMap<>();
+
+		final Map<String, List<NaptrRecord>> _naptr = new HashMap<>();
+
+		int _lookups;
+
+		void address(String host, String address) {
+			try {
+				_addresses.put(host, InetAddress.getByName(address));
+			} catch (UnknownHostException ex) {
+				throw new AssertionError(ex);
+			}
+		}
+
+		void srv(String name, SrvRecord record) {
+			_srv.computeIfAbsent(name, x -> new ArrayList<>()).add(record);
+		}
+
+		void naptr(String domain, NaptrRecord record) {
+			_naptr.computeIfAbsent(domain, x -> new ArrayList<>()).add(record);
+		}
+
+		@Override
+		public List<InetAddress> lookupAddresses(String host) throws UnknownHostException {
+			_lookups++;
+			InetAddress result = _addresses.get(host.toLowerCase());
+			if (result == null) {
+				throw new UnknownHostException(host);
+			}
+			return List.of(result);
+		}
+
+		@Override
+		public List<SrvRecord> lookupSrv(String name) {
+			return _srv.getOrDefault(name, List.of());
+		}
+
+		@Override
+		public List<NaptrRecord> lookupNaptr(String domain) {
+			return _naptr.getOrDefault(domain, List.of());
+		}
+
+	}
+
+}
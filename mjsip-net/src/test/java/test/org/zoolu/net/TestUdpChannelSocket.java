@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package test.org.zoolu.net;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.zoolu.net.IpAddress;
+import org.zoolu.net.UdpChannelSocket;
+import org.zoolu.net.UdpPacket;
+
+/**
+ * Test case for {@link UdpChannelSocket}.
+ */
+@SuppressWarnings("javadoc")
+class TestUdpChannelSocket {
+
+	private UdpChannelSocket _sender;
+
+	private UdpChannelSocket _receiver;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		_sender = new UdpChannelSocket(0);
+		_receiver = new UdpChannelSocket(0);
+	}
+
+	@AfterEach
+	void tearDown() {
+		_sender.close();
+		_receiver.close();
+	}
+
+	@Test
+	void testSendReceive() throws IOException {
+		IpAddress localhost = IpAddress.getByName("127.0.0.1");
+		byte[] data = { 1, 2, 3, 4, 5 };
+		UdpPacket out = new UdpPacket(data, 1, 3, localhost, _receiver.getLocalPort());
+		_receiver.setSoTimeout(5000);
+
+		byte[] buffer = new byte[100];
+		UdpPacket in = new UdpPacket(buffer, 10, 90);
+		for (int n = 0; n < 3; n++) {
+			_sender.send(out);
+			_receiver.receive(in);
+
+			assertEquals(3, in.getLength());
+			assertEquals(10, in.getOffset());
+			assertEquals(2, buffer[10]);
+			assertEquals(4, buffer[12]);
+			assertEquals(_sender.getLocalPort(), in.getPort());
+			assertEquals(localhost.getInetAddress(), in.getInetAddress());
+		}
+		assertEquals(3, _sender.getSenderPacketCounter());
+		assertEquals(9, _sender.getSenderOctectCounter());
+		assertEquals(3, _receiver.getReceiverPacketCounter());
+		assertEquals(9, _receiver.getReceiverOctectCounter());
+	}
+
+	@Test
+	void testReceiveNow() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(100);
+		assertNull(_receiver.receiveNow(buffer));
+		assertEquals(0, buffer.position());
+
+		IpAddress localhost = IpAddress.getByName("127.0.0.1");
+		_sender.send(new UdpPacket(new byte[] { 1, 2, 3 }, localhost, _receiver.getLocalPort()));
+		InetSocketAddress source = null;
+		long stop = System.currentTimeMillis() + 5000;
+		while (source == null && System.currentTimeMillis() < stop) {
+			source = _receiver.receiveNow(buffer);
+			Thread.sleep(1);
+		}
+		assertNotNull(source);
+		assertEquals(_sender.getLocalPort(), source.getPort());
+		assertEquals(3, buffer.position());
+		assertEquals(3, buffer.get(2));
+		assertEquals(1, _receiver.getReceiverPacketCounter());
+		assertEquals(3, _receiver.getReceiverOctectCounter());
+	}
+
+	@Test
+	void testTimeout() throws IOException {
+		_receiver.setSoTimeout(50);
+		long start = System.currentTimeMillis();
+		assertThrows(SocketTimeoutException.class, () -> _receiver.receive(new UdpPacket(new byte[100])));
+		assertTrue(System.currentTimeMillis() - start >= 40);
+	}
+
+	@Test
+	void testCloseUnblocksReceive() throws Exception {
+		AtomicReference<Exception> error = new AtomicReference<>();
+		Thread thread = new Thread(() -> {
+			try {
+				_receiver.receive(new UdpPacket(new byte[100]));
+			} catch (Exception ex) {
+				error.set(ex);
+			}
+		});
+		thread.start();
+		Thread.sleep(100);
+		assertTrue(thread.isAlive());
+
+		_receiver.close();
+		thread.join(5000);
+		assertFalse(thread.isAlive());
+		assertTrue(error.get() instanceof IOException);
+	}
+
+}
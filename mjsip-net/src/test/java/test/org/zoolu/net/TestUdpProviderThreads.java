@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package test.org.zoolu.net;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mjsip.time.SchedulerConfig;
+import org.mjsip.time.ThreadSupport;
+import org.zoolu.net.IpAddress;
+import org.zoolu.net.UdpPacket;
+import org.zoolu.net.UdpProvider;
+import org.zoolu.net.UdpProviderListener;
+import org.zoolu.net.UdpSocket;
+
+/**
+ * Test case for running the {@link UdpProvider} loop on threads created by {@link ThreadSupport}.
+ */
+@SuppressWarnings("javadoc")
+class TestUdpProviderThreads {
+
+	@AfterEach
+	void tearDown() {
+		ThreadSupport.setThreadFactory(null);
+	}
+
+	@Test
+	void testPlatformThread() throws Exception {
+		assertNull(ThreadSupport.getThreadFactory());
+		checkLoop(thread -> assertFalse(isVirtual(thread)));
+	}
+
+	@Test
+	void testFactoryThread() throws Exception {
+		Set<Thread> created = ConcurrentHashMap.newKeySet();
+		ThreadFactory inner = Executors.defaultThreadFactory();
+		ThreadSupport.setThreadFactory(task -> {
+			Thread result = inner.newThread(task);
+			created.add(result);
+			return result;
+		});
+
+		checkLoop(thread -> assertTrue(created.contains(thread)));
+	}
+
+	@Test
+	void testConfigureDisabled() {
+		assertFalse(ThreadSupport.configure(new SchedulerConfig()));
+		assertNull(ThreadSupport.getThreadFactory());
+	}
+
+	@Test
+	void testVirtualThreads() throws Exception {
+		assumeTrue(ThreadSupport.isVirtualThreadSupported(), "Virtual threads require Java 21.");
+
+		SchedulerConfig config = new SchedulerConfig();
+		config.setVirtualThreads(true);
+		assertTrue(ThreadSupport.configure(config));
+
+		checkLoop(thread -> assertTrue(isVirtual(thread)));
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	void testThreadCompatibility() throws Exception {
+		UdpSocket socket = new UdpSocket(0);
+		UdpProvider provider = new UdpProvider(socket, null);
+		Thread thread = provider.getThread();
+		try {
+			assertTrue(provider.isAlive());
+			assertEquals(thread.getName(), provider.getName());
+			assertThrows(IllegalThreadStateException.class, provider::start);
+		} finally {
+			provider.halt();
+			socket.close();
+		}
+		provider.join(5000);
+		assertFalse(provider.isAlive());
+	}
+
+	/**
+	 * Checks that the loop of a {@link UdpProvider} runs on the thread reported by
+	 * {@link UdpProvider#getThread()}, and that this thread can be joined after halting.
+	 */
+	private void checkLoop(Consumer<Thread> check) throws Exception {
+		BlockingQueue<Thread> receivers = new ArrayBlockingQueue<>(10);
+		UdpSocket socket = new UdpSocket(0);
+		UdpProvider provider = new UdpProvider(socket, new UdpProviderListener() {
+			@Override
+			public void onReceivedPacket(UdpProvider udp, UdpPacket packet) {
+				receivers.add(Thread.currentThread());
+			}
+
+			@Override
+			public void onServiceTerminated(UdpProvider udp, Exception error) {
+				// Ignore.
+			}
+		});
+		Thread thread = provider.getThread();
+		try {
+			assertNotNull(thread);
+			assertTrue(thread.isAlive());
+			check.accept(thread);
+
+			UdpSocket sender = new UdpSocket(0);
+			try {
+				sender.send(new UdpPacket(new byte[] { 1, 2, 3 }, 3, IpAddress.getByName("127.0.0.1"),
+						socket.getLocalPort()));
+			} finally {
+				sender.close();
+			}
+			assertSame(thread, receivers.poll(5, TimeUnit.SECONDS));
+		} finally {
+			provider.halt();
+			socket.close();
+		}
+		thread.join(5000);
+		assertFalse(thread.isAlive());
+		assertFalse(provider.isRunning());
+	}
+
+	private static boolean isVirtual(Thread thread) {
+		try {
+			return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+		} catch (ReflectiveOperationException ex) {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package test.org.zoolu.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.mjsip.time.ThreadSupport;
+import org.zoolu.net.IpAddress;
+import org.zoolu.net.UdpPacket;
+import org.zoolu.net.UdpProvider;
+import org.zoolu.net.UdpProviderListener;
+import org.zoolu.net.UdpSocket;
+
+/**
+ * Compares thread count, heap footprint, and loopback latency of {@link UdpProvider} receive loops
+ * running on platform threads and on virtual threads.
+ *
+ * <p>
+ * Usage: <code>UdpProviderBenchmark [providers] [round-trips]</code>
+ * </p>
+ */
+@SuppressWarnings("javadoc")
+public class UdpProviderBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int providers = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int roundTrips = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+		run("platform", null, providers, roundTrips);
+
+		ThreadFactory virtual = ThreadSupport.virtualThreadFactory();
+		if (virtual == null) {
+			System.out.println("virtual: unsupported by this JVM");
+		} else {
+			run("virtual", virtual, providers, roundTrips);
+		}
+	}
+
+	private static void run(String mode, ThreadFactory factory, int providers, int roundTrips) throws Exception {
+		ThreadSupport.setThreadFactory(factory);
+		try {
+			System.gc();
+			int threadsBefore = Thread.activeCount();
+			long heapBefore = usedHeap();
+
+			List<UdpProvider> idle = new ArrayList<>();
+			for (int n = 0; n < providers; n++) {
+				idle.add(new UdpProvider(new UdpSocket(0), NOOP));
+			}
+
+			System.gc();
+			int threads = Thread.activeCount() - threadsBefore;
+			long heap = usedHeap() - heapBefore;
+
+			double latency = measureLatency(roundTrips);
+
+			for (UdpProvider provider : idle) {
+				provider.halt();
+				provider.getUdpSocket().close();
+			}
+
+			System.out.printf("%s: %d providers, %d platform threads, %d KB heap, %.1f us round-trip%n", mode,
+					providers, threads, heap / 1024, latency / 1000);
+		} finally {
+			ThreadSupport.setThreadFactory(null);
+		}
+	}
+
+	private static double measureLatency(int roundTrips) throws Exception {
+		IpAddress localhost = IpAddress.getByName("127.0.0.1");
+		BlockingQueue<UdpPacket> replies = new ArrayBlockingQueue<>(1);
+
+		UdpProvider echo = new UdpProvider(new UdpSocket(0), new UdpProviderListener() {
+			@Override
+			public void onReceivedPacket(UdpProvider udp, UdpPacket packet) {
+				try {
+					udp.send(new UdpPacket(packet.getData(), packet.getOffset(), packet.getLength(),
+							packet.getIpAddress(), packet.getPort()));
+				} catch (Exception ex) {
+					// Ignore.
+				}
+			}
+
+			@Override
+			public void onServiceTerminated(UdpProvider udp, Exception error) {
+				// Ignore.
+			}
+		});
+		UdpProvider client = new UdpProvider(new UdpSocket(0), new UdpProviderListener() {
+			@Override
+			public void onReceivedPacket(UdpProvider udp, UdpPacket packet) {
+				replies.offer(packet);
+			}
+
+			@Override
+			public void onServiceTerminated(UdpProvider udp, Exception error) {
+				// Ignore.
+			}
+		});
+
+		try {
+			byte[] data = new byte[160];
+			int port = echo.getUdpSocket().getLocalPort();
+			int warmup = roundTrips / 10;
+			long start = 0;
+			for (int n = 0; n < warmup + roundTrips; n++) {
+				if (n == warmup) {
+					start = System.nanoTime();
+				}
+				client.send(new UdpPacket(data, localhost, port));
+				if (replies.poll(1, TimeUnit.SECONDS) == null) {
+					throw new IllegalStateException("Packet lost at round-trip " + n + ".");
+				}
+			}
+			return (double) (System.nanoTime() - start) / roundTrips;
+		} finally {
+			echo.halt();
+			client.halt();
+			echo.getUdpSocket().close();
+			client.getUdpSocket().close();
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static final UdpProviderListener NOOP = new UdpProviderListener() {
+		@Override
+		public void onReceivedPacket(UdpProvider udp, UdpPacket packet) {
+			// Ignore.
+		}
+
+		@Override
+		public void onServiceTerminated(UdpProvider udp, Exception error) {
+			// Ignore.
+		}
+	};
+
+}
@@ -63,6 +63,7 @@ import org.mjsip.sip.provider.SipProvider;
 import org.mjsip.sip.provider.SipStack;
 import org.mjsip.time.ConfiguredScheduler;
 import org.mjsip.time.SchedulerConfig;
+import org.mjsip.time.ThreadSupport;
 import org.mjsip.ua.MediaAgent;
 import org.mjsip.ua.MediaConfig;
 import org.mjsip.ua.MediaOptions;
@@ -721,6 +722,7 @@ public class UserAgentGui extends JFrame implements UserAgentListenerAdapter {
 		sipConfig.normalize();
 		uaConfig.normalize(sipConfig);
 
+		ThreadSupport.configure(schedulerConfig);
 		new UserAgentGui(new SipProvider(sipConfig, new ConfiguredScheduler(schedulerConfig)), portConfig.createPool(), uaConfig, uiConfig, mediaConfig);
 	}
 	
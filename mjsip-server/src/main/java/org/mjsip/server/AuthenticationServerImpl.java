@@ -22,6 +22,17 @@
 package org.mjsip.server;
 
 
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
 import org.mjsip.sip.authentication.DigestAuthentication;
 import org.mjsip.sip.header.AuthenticationHeader;
 import org.mjsip.sip.header.AuthenticationInfoHeader;
@@ -38,6 +49,13 @@ import org.zoolu.util.MD5;
 
 /** Class AuthenticationServerImpl implements an AuthenticationServer
   * for HTTP Digest authentication.
+  * <p>
+  * By default, a single nonce is shared by all clients and replaced after each successful
+  * authentication. With a nonce lifetime, each challenge carries a stateless nonce instead,
+  * consisting of its issue time, a random value, and an HMAC over both. Such a nonce can be
+  * verified by any thread or server sharing the same key, and is accepted until it expires,
+  * as long as the client increases its nonce count (nc) with each request. Clients not using
+  * a qop send no nonce count; they may reuse a nonce until it expires.
   */
 public class AuthenticationServerImpl implements AuthenticationServer {
 	
@@ -65,6 +83,33 @@ public class AuthenticationServerImpl implements AuthenticationServer {
 	/** The current random value. */
 	protected byte[] rand;
 
+	/** Lifetime of stateless nonces in milliseconds, or 0 for a single shared nonce. */
+	protected long nonce_lifetime=0;
+
+	/** The key for signing stateless nonces. */
+	private byte[] nonce_key;
+
+	/** HMAC of each thread, initialized with the {@link #nonce_key}. */
+	private final ThreadLocal<Mac> nonce_mac=ThreadLocal.withInitial(this::createMac);
+
+	/** Highest nonce counts seen for stateless nonces. */
+	private NonceCounts nonce_counts;
+
+	/** Length of a stateless nonce in bytes: issue time, random value, and HMAC. */
+	private static final int NONCE_LENGTH=8+8+16;
+
+	/** Maximum number of nonces whose counts are remembered. */
+	private static final int MAX_NONCE_COUNTS=65536;
+
+	/** Nonce status: valid. */
+	static final int NONCE_VALID=0;
+
+	/** Nonce status: correctly signed, but expired or reused. */
+	static final int NONCE_STALE=1;
+
+	/** Nonce status: missing or not issued by this server. */
+	static final int NONCE_INVALID=2;
+
 	private SipProvider sip_provider;
 
 	/** DIGEST */
@@ -80,6 +125,22 @@ public class AuthenticationServerImpl implements AuthenticationServer {
 		this.sip_provider = sip_provider;
 		init(realm, authentication_service);
 	}
+
+	/** Costructs a new AuthenticationServerImpl using stateless nonces.
+	  * @param nonce_lifetime the time in milliseconds a nonce is accepted
+	  * @param nonce_key the key for signing nonces, shared by all servers that must accept each other's nonces, or <i>null</i> for a random key */
+	public AuthenticationServerImpl(SipProvider sip_provider, String realm, AuthenticationService authentication_service, long nonce_lifetime, byte[] nonce_key) {
+		this(sip_provider, realm, authentication_service);
+		if (nonce_lifetime>0) {
+			if (nonce_key==null) {
+				nonce_key=new byte[32];
+				new SecureRandom().nextBytes(nonce_key);
+			}
+			this.nonce_lifetime=nonce_lifetime;
+			this.nonce_key=nonce_key;
+			this.nonce_counts=new NonceCounts(nonce_lifetime,MAX_NONCE_COUNTS);
+		}
+	}
  
 	
 	/** Inits the AuthenticationServerImpl. */
@@ -141,7 +202,8 @@ public class AuthenticationServerImpl implements AuthenticationServer {
 		if (type==SERVER_AUTHENTICATION) ah=msg.getAuthorizationHeader();
 		else ah=msg.getProxyAuthorizationHeader();
 			
-		if (ah!=null && ah.getNonceParam().equals(HEX(rand))) {
+		int nonce_status=checkNonce(ah);
+		if (nonce_status==NONCE_VALID) {
 			
 			//String username=ah.getUsernameParam();
 			String realm=ah.getRealmParam();
@@ -160,7 +222,14 @@ public class AuthenticationServerImpl implements AuthenticationServer {
 					// check user's authentication response
 					boolean is_authorized=auth.checkResponse();
 
-					rand=pickRandBytes();        
+					if (nonce_lifetime>0) {
+						if (is_authorized && isReplayed(nonce,ah)) {
+							// replayed request, the client has to use a fresh nonce
+							LOG.info("Nonce count of '{}' not increased, re-challenging.", user);
+							return createChallenge(msg,type,true);
+						}
+					}
+					else rand=pickRandBytes();        
 						
 					if (!is_authorized) {
 						err_resp=sip_provider.messageFactory().createResponse(msg,SipResponses.FORBIDDEN,null,null);
@@ -187,29 +256,147 @@ public class AuthenticationServerImpl implements AuthenticationServer {
 		else {
 			// no Authorization header found
 			LOG.info("No Authorization header found or nonce mismatching");
-			int result;
-			if (type==SERVER_AUTHENTICATION) result=401; // response code 401 ("Unauthorized")
-			else result=407; // response code 407 ("Proxy Authentication Required")
-			err_resp=sip_provider.messageFactory().createResponse(msg,result,null,null);
-			AuthenticationHeader wah;
-			if (type==SERVER_AUTHENTICATION) wah=new WwwAuthenticateHeader("Digest");
-			else wah=new ProxyAuthenticateHeader("Digest");
-			wah.addRealmParam(realm);
-			wah.addQopOptionsParam(qop_options);
-			wah.addNonceParam(HEX(rand));
-			err_resp.setHeader(wah); 
+			err_resp=createChallenge(msg,type,nonce_status==NONCE_STALE);
 		}
 		return err_resp;
 	}
 
 
+	/** Creates a 401 or 407 response challenging the client with a new nonce.
+	  * @param stale whether the client's credentials were valid, but its nonce is outdated */
+	private SipMessage createChallenge(SipMessage msg, int type, boolean stale) {
+		int result;
+		if (type==SERVER_AUTHENTICATION) result=401; // response code 401 ("Unauthorized")
+		else result=407; // response code 407 ("Proxy Authentication Required")
+		SipMessage err_resp=sip_provider.messageFactory().createResponse(msg,result,null,null);
+		AuthenticationHeader wah;
+		if (type==SERVER_AUTHENTICATION) wah=new WwwAuthenticateHeader("Digest");
+		else wah=new ProxyAuthenticateHeader("Digest");
+		wah.addRealmParam(realm);
+		wah.addQopOptionsParam(qop_options);
+		wah.addNonceParam(currentNonce());
+		if (stale) wah.addUnquotedParameter("stale","true");
+		err_resp.setHeader(wah); 
+		return err_resp;
+	}
+
+
+	/** Checks the nonce of the given credentials.
+	  * @return {@link #NONCE_VALID}, {@link #NONCE_STALE}, or {@link #NONCE_INVALID} */
+	private int checkNonce(AuthorizationHeader ah) {
+		if (ah==null || !ah.hasNonceParam()) return NONCE_INVALID;
+		return checkNonce(ah.getNonceParam());
+	}
+
+
+	/** Checks the given nonce.
+	  * @return {@link #NONCE_VALID}, {@link #NONCE_STALE}, or {@link #NONCE_INVALID} */
+	int checkNonce(String nonce) {
+		if (nonce_lifetime<=0) return nonce.equals(HEX(rand))? NONCE_VALID : NONCE_INVALID;
+		// else
+		if (nonce.length()!=2*NONCE_LENGTH) return NONCE_INVALID;
+		byte[] data;
+		try {
+			data=ByteUtils.hexStringToBytes(nonce);
+		}
+		catch (RuntimeException e) {
+			return NONCE_INVALID;
+		}
+		if (!MessageDigest.isEqual(sign(data),ByteUtils.copy(data,16,16))) return NONCE_INVALID;
+		// else
+		long age=System.currentTimeMillis()-ByteUtils.eightBytesToInt(data);
+		if (age>nonce_lifetime) return NONCE_STALE;
+		if (age<-nonce_lifetime) return NONCE_INVALID;
+		return NONCE_VALID;
+	}
+
+
+	/** Checks whether a request with valid credentials replays a stateless nonce.
+	  * Only requests with a qop carry a nonce count, requests without qop (RFC 2069) are not tracked
+	  * and their nonce is accepted until it expires.
+	  * @return whether the nonce count has not increased since the last use */
+	boolean isReplayed(String nonce, AuthorizationHeader ah) {
+		if (!ah.hasQopParam()) return false;
+		// else
+		return !updateNonceCount(nonce,nonceCount(ah));
+	}
+
+
+	/** Records a use of a valid stateless nonce.
+	  * @param nc the nonce count of the request
+	  * @return whether the nonce count has increased since the last use */
+	boolean updateNonceCount(String nonce, long nc) {
+		return nonce_counts.update(nonce,issueTime(nonce),nc);
+	}
+
+
+	/** Gets the nonce to send to clients. */
+	String currentNonce() {
+		if (nonce_lifetime<=0) return HEX(rand);
+		// else
+		return createNonce(System.currentTimeMillis());
+	}
+
+
+	/** Creates a stateless nonce.
+	  * @param issue_time the time in milliseconds the nonce is issued */
+	String createNonce(long issue_time) {
+		byte[] data=new byte[NONCE_LENGTH];
+		ByteUtils.intToEightBytes(issue_time,data,0);
+		ByteUtils.copy(org.zoolu.util.Random.nextBytes(8),data,8);
+		ByteUtils.copy(sign(data),data,16);
+		return HEX(data);
+	}
+
+
+	/** Calculates the HMAC over the issue time and random value of a stateless nonce. */
+	private byte[] sign(byte[] nonce) {
+		Mac mac=nonce_mac.get();
+		mac.update(nonce,0,16);
+		mac.update(realm.getBytes(StandardCharsets.UTF_8));
+		return ByteUtils.copy(mac.doFinal(),0,16);
+	}
+
+
+	/** Creates the HMAC for signing nonces with the {@link #nonce_key}. */
+	private Mac createMac() {
+		try {
+			Mac mac=Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(nonce_key,"HmacSHA256"));
+			return mac;
+		}
+		catch (GeneralSecurityException e) {
+			throw new IllegalStateException("HMAC not available.", e);
+		}
+	}
+
+
+	/** Gets the issue time of a valid stateless nonce. */
+	private static long issueTime(String nonce) {
+		return ByteUtils.eightBytesToInt(ByteUtils.hexStringToBytes(nonce.substring(0,16)));
+	}
+
+
+	/** Gets the nonce count of the given credentials, or -1 if missing or invalid. */
+	private static long nonceCount(AuthorizationHeader ah) {
+		if (!ah.hasNcParam()) return -1;
+		// else
+		try {
+			return Long.parseLong(ah.getNcParam(),16);
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+
 	/** Gets AuthenticationInfoHeader. */
 	@Override
 	public AuthenticationInfoHeader getAuthenticationInfoHeader() {
 		AuthenticationInfoHeader aih=new AuthenticationInfoHeader();
 		aih.addRealmParam(realm);
 		aih.addQopOptionsParam(qop_options);
-		aih.addNextnonceParam(HEX(rand));
+		aih.addNextnonceParam(currentNonce());
 		return aih;
 	}
 
@@ -239,4 +426,76 @@ public class AuthenticationServerImpl implements AuthenticationServer {
 		return ByteUtils.asHex(bb);
 	}
 
+
+	/** Bounded table of the highest nonce count seen for each stateless nonce.
+	  * <p>
+	  * When the table is full, the oldest entries are dropped. Nonces issued before the
+	  * latest dropped one are no longer accepted, so that a dropped entry cannot be replayed. */
+	static class NonceCounts {
+		
+		/** Issue time and highest count of a nonce. */
+		private static class Count {
+			final long issued;
+			long nc;
+			Count(long issued, long nc) {
+				this.issued=issued;
+				this.nc=nc;
+			}
+		}
+
+		private final long lifetime;
+
+		private final int max_size;
+
+		private final LinkedHashMap<String,Count> counts=new LinkedHashMap<>();
+
+		/** Latest issue time of a dropped, not yet expired nonce. */
+		private long dropped_before=Long.MIN_VALUE;
+
+		NonceCounts(long lifetime, int max_size) {
+			this.lifetime=lifetime;
+			this.max_size=max_size;
+		}
+
+		/** Records a use of the given nonce.
+		  * @return whether the nonce count has increased since the last use */
+		synchronized boolean update(String nonce, long issued, long nc) {
+			if (nc<=0) return false;
+			// else
+			Count count=counts.get(nonce);
+			if (count==null) {
+				if (issued<=dropped_before) return false;
+				// else
+				counts.put(nonce,new Count(issued,nc));
+				purge();
+				return true;
+			}
+			// else
+			if (nc<=count.nc) return false;
+			// else
+			count.nc=nc;
+			return true;
+		}
+
+		/** Gets the number of nonces whose counts are remembered. */
+		synchronized int size() {
+			return counts.size();
+		}
+
+		private void purge() {
+			long expired=System.currentTimeMillis()-lifetime;
+			Iterator<Map.Entry<String,Count>> it=counts.entrySet().iterator();
+			while (it.hasNext()) {
+				Count eldest=it.next().getValue();
+				if (eldest.issued<expired) it.remove();
+				else
+				if (counts.size()>max_size) {
+					dropped_before=Math.max(dropped_before,eldest.issued);
+					it.remove();
+				}
+				else break;
+			}
+		}
+	}
+
 }
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server;
+
+/**
+ * Callback informed by an {@link ExpiringLocationService} about bindings that have lapsed.
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public interface ContactExpiryListener {
+
+	/**
+	 * Called after the given contact has been removed from the location service, because its
+	 * registration has expired.
+	 *
+	 * @param user
+	 *        The user the contact was bound to.
+	 * @param uri
+	 *        The URI of the expired contact.
+	 */
+	void onUserContactExpired(String user, String uri);
+
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mjsip.sip.address.NameAddress;
+import org.mjsip.time.ExpiryQueue;
+import org.mjsip.time.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link LocationService} removing bindings of another {@link LocationService} as soon as they
+ * expire.
+ *
+ * <p>
+ * Non-static bindings are kept in an index ordered by expiration time. A single timer is scheduled
+ * for the earliest expiration, which removes all lapsed bindings from the underlying service and
+ * informs the {@link ContactExpiryListener}. Adding, refreshing, and removing a binding costs a
+ * logarithmic index update, the index only holds live registrations. Expired contacts therefore
+ * no longer need to be searched by scanning all users.
+ * </p>
+ *
+ * <p>
+ * All changes should be made through this service to keep the index consistent.
+ * </p>
+ *
+ * <p>
+ * Only the index is guarded by a lock. Calls to the underlying service, including the
+ * {@link #sync()} after removing expired bindings, are made without holding it, so that changes do
+ * not wait for each other or for the underlying service persisting its state. A binding is only
+ * removed on expiration, if it has not been refreshed in the meantime.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class ExpiringLocationService implements LocationService {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ExpiringLocationService.class);
+
+	private final LocationService _delegate;
+
+	private final ContactExpiryListener _listener;
+
+	/**
+	 * Bindings ordered by expiration time.
+	 */
+	private final ExpiryQueue<Expiry> _queue;
+
+	/**
+	 * Index entries by user and contact URI.
+	 */
+	private final Map<String, Expiry> _entries = new HashMap<>();
+
+	/**
+	 * Lock guarding {@link #_queue} and {@link #_entries}.
+	 */
+	private final Object _lock = new Object();
+
+	/**
+	 * Creates a {@link ExpiringLocationService}.
+	 *
+	 * <p>
+	 * Bindings of the given service that have already expired are removed with the first timer,
+	 * which is scheduled immediately.
+	 * </p>
+	 *
+	 * @param delegate
+	 *        The service storing the bindings.
+	 * @param scheduler
+	 *        The scheduler running the expiration timer.
+	 * @param listener
+	 *        Callback informed about expired bindings.
+	 */
+	public ExpiringLocationService(LocationService delegate, Scheduler scheduler, ContactExpiryListener listener) {
+		_delegate = delegate;
+		_listener = listener;
+		_queue = new ExpiryQueue<>(_lock, scheduler, this::expire);
+
+		synchronized (_lock) {
+			for (Enumeration<String> u = delegate.getUsers(); u.hasMoreElements();) {
+				String user = u.nextElement();
+				Enumeration<String> c = delegate.getUserContactURIs(user);
+				if (c == null) {
+					continue;
+				}
+				while (c.hasMoreElements()) {
+					String uri = c.nextElement();
+					if (!delegate.isUserContactStatic(user, uri)) {
+						index(user, uri, delegate.getUserContactExpirationDate(user, uri).getTime());
+					}
+				}
+			}
+			_queue.schedule();
+		}
+	}
+
+	/**
+	 * The service storing the bindings.
+	 */
+	public LocationService getDelegate() {
+		return _delegate;
+	}
+
+	/**
+	 * The number of bindings waiting for expiration.
+	 */
+	public int pending() {
+		synchronized (_lock) {
+			return _queue.size();
+		}
+	}
+
+	@Override
+	public void sync() {
+		_delegate.sync();
+	}
+
+	@Override
+	public int size() {
+		return _delegate.size();
+	}
+
+	@Override
+	public Enumeration<String> getUsers() {
+		return _delegate.getUsers();
+	}
+
+	@Override
+	public boolean hasUser(String user) {
+		return _delegate.hasUser(user);
+	}
+
+	@Override
+	public Repository addUser(String user) {
+		_delegate.addUser(user);
+		return this;
+	}
+
+	@Override
+	public Repository removeUser(String user) {
+		Enumeration<String> c = _delegate.getUserContactURIs(user);
+		if (c != null) {
+			synchronized (_lock) {
+				while (c.hasMoreElements()) {
+					unindex(user, c.nextElement());
+				}
+			}
+		}
+		_delegate.removeUser(user);
+		return this;
+	}
+
+	@Override
+	public Repository removeAllUsers() {
+		synchronized (_lock) {
+			_queue.clear();
+			_entries.clear();
+		}
+		_delegate.removeAllUsers();
+		return this;
+	}
+
+	@Override
+	public boolean hasUserContact(String user, String uri) {
+		return _delegate.hasUserContact(user, uri);
+	}
+
+	@Override
+	public LocationService addUserContact(String user, NameAddress contact, Date expire) {
+		return addUserContact(user, contact, expire, 1);
+	}
+
+	@Override
+	public LocationService addUserContact(String user, NameAddress contact, Date expire, float q) {
+		String uri = contact.getAddress().toString();
+		if (!_delegate.hasUserContact(user, uri)) {
+			_delegate.addUserContact(user, contact, expire, q);
+			if (expire.getTime() < LocationServiceImpl.NEVER) {
+				synchronized (_lock) {
+					index(user, uri, expire.getTime());
+					_queue.schedule();
+				}
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public Enumeration<String> getUserContactURIs(String user) {
+		return _delegate.getUserContactURIs(user);
+	}
+
+	@Override
+	public LocationService removeUserContact(String user, String uri) {
+		synchronized (_lock) {
+			unindex(user, uri);
+		}
+		_delegate.removeUserContact(user, uri);
+		return this;
+	}
+
+	@Override
+	public NameAddress getUserContactNameAddress(String user, String uri) {
+		return _delegate.getUserContactNameAddress(user, uri);
+	}
+
+	@Override
+	public Date getUserContactExpirationDate(String user, String uri) {
+		return _delegate.getUserContactExpirationDate(user, uri);
+	}
+
+	@Override
+	public float getUserContactPriority(String user, String uri) {
+		return _delegate.getUserContactPriority(user, uri);
+	}
+
+	@Override
+	public boolean isUserContactExpired(String user, String uri) {
+		return _delegate.isUserContactExpired(user, uri);
+	}
+
+	@Override
+	public LocationService addUserStaticContact(String user, NameAddress name_addresss) {
+		// Like the delegate, an existing contact is not replaced, and stays indexed.
+		if (!_delegate.hasUserContact(user, name_addresss.getAddress().toString())) {
+			_delegate.addUserStaticContact(user, name_addresss);
+		}
+		return this;
+	}
+
+	@Override
+	public boolean isUserContactStatic(String user, String uri) {
+		return _delegate.isUserContactStatic(user, uri);
+	}
+
+	@Override
+	public String toString() {
+		return _delegate.toString();
+	}
+
+	private void index(String user, String uri, long expires) {
+		Expiry entry = new Expiry(user, uri);
+		Expiry clash = _entries.put(entry.key(), entry);
+		if (clash != null) {
+			_queue.remove(clash);
+		}
+		_queue.add(entry, expires);
+	}
+
+	private void unindex(String user, String uri) {
+		Expiry entry = _entries.remove(Expiry.key(user, uri));
+		if (entry != null) {
+			_queue.remove(entry);
+		}
+	}
+
+	/**
+	 * Removes all lapsed bindings.
+	 */
+	private void expire() {
+		List<Expiry> due = new ArrayList<>();
+		synchronized (_lock) {
+			long now = System.currentTimeMillis();
+			Expiry entry;
+			while ((entry = _queue.pollDue(now)) != null) {
+				_entries.remove(entry.key());
+				due.add(entry);
+			}
+			_queue.schedule();
+		}
+
+		List<Expiry> expired = new ArrayList<>();
+		for (Expiry entry : due) {
+			if (isRefreshed(entry)) {
+				continue;
+			}
+			_delegate.removeUserContact(entry._user, entry._uri);
+			expired.add(entry);
+		}
+		if (!expired.isEmpty()) {
+			_delegate.sync();
+		}
+
+		for (Expiry entry : expired) {
+			LOG.debug("Contact of user '{}' expired: {}", entry._user, entry._uri);
+			try {
+				_listener.onUserContactExpired(entry._user, entry._uri);
+			} catch (RuntimeException ex) {
+				LOG.error("Failed to process expiration of contact: {}", entry._uri, ex);
+			}
+		}
+	}
+
+	/**
+	 * Whether the binding of the given lapsed entry has been removed or replaced with a later
+	 * expiration after the entry was taken from the index.
+	 */
+	private boolean isRefreshed(Expiry entry) {
+		Date expires = _delegate.getUserContactExpirationDate(entry._user, entry._uri);
+		return expires == null || expires.getTime() > entry.getDue();
+	}
+
+	private static final class Expiry extends ExpiryQueue.Entry {
+
+		final String _user;
+
+		final String _uri;
+
+		Expiry(String user, String uri) {
+			_user = user;
+			_uri = uri;
+		}
+
+		String key() {
+			return key(_user, _uri);
+		}
+
+		static String key(String user, String uri) {
+			return user + ' ' + uri;
+		}
+
+	}
+
+}
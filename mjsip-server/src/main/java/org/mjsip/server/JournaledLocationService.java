@@ -0,0 +1,506 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mjsip.sip.address.NameAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link LocationService} keeping bindings in concurrent maps and persisting each change as a
+ * record appended to a journal file.
+ *
+ * <p>
+ * Lookups do not lock and do not write. Each change appends a single line to the journal, which
+ * is flushed by {@link #sync()}. When the journal has grown to more than twice the number of live
+ * records, it is compacted by writing a snapshot of the current bindings to a new file that
+ * atomically replaces the journal. The snapshot is written without holding the lock, changes made
+ * in the meantime are appended to the new file before it replaces the journal. On startup, the
+ * journal is replayed without parsing contact addresses, these are parsed on access.
+ * </p>
+ *
+ * <p>
+ * Journal records are:
+ * </p>
+ *
+ * <ul>
+ * <li><code>U user</code> - user added,</li>
+ * <li><code>D user</code> - user removed,</li>
+ * <li><code>C user expires[;q] uri name-address</code> - contact added, expiration in
+ * milliseconds since the epoch, optionally followed by the q-value of the contact,</li>
+ * <li><code>R user uri</code> - contact removed,</li>
+ * <li><code>X</code> - all users removed.</li>
+ * </ul>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class JournaledLocationService implements LocationService {
+
+	private static final Logger LOG = LoggerFactory.getLogger(JournaledLocationService.class);
+
+	/**
+	 * Minimum number of journal records before the journal is compacted.
+	 */
+	private static final int MIN_COMPACTION_SIZE = 1024;
+
+	private final Path _file;
+
+	private final Map<String, Map<String, Binding>> _users = new ConcurrentHashMap<>();
+
+	/**
+	 * Lock serializing changes, so that the journal order matches the order of changes.
+	 */
+	private final Object _lock = new Object();
+
+	private Writer _journal;
+
+	private int _journalRecords;
+
+	private int _liveRecords;
+
+	private boolean _dirty;
+
+	/**
+	 * Records appended while a compaction is in progress, <code>null</code> otherwise.
+	 */
+	private List<String> _pending;
+
+	/**
+	 * Creates a {@link JournaledLocationService}.
+	 *
+	 * @param file_name
+	 *        The journal file, or <code>null</code> to keep bindings in memory only.
+	 */
+	public JournaledLocationService(String file_name) {
+		if (file_name == null) {
+			LOG.warn("no file has been provided for location DB: only temporary memory (RAM) will be used.");
+			_file = null;
+		} else {
+			_file = new File(file_name).toPath();
+			load();
+		}
+	}
+
+	@Override
+	public void sync() {
+		Map<String, List<Binding>> snapshot;
+		synchronized (_lock) {
+			if (_journal == null) {
+				return;
+			}
+			try {
+				if (_dirty) {
+					_journal.flush();
+					_dirty = false;
+				}
+			} catch (IOException ex) {
+				LOG.warn("error trying to write on file \"{}\"", _file, ex);
+				return;
+			}
+			if (_pending != null || _journalRecords <= MIN_COMPACTION_SIZE || _journalRecords <= 2 * _liveRecords) {
+				return;
+			}
+			snapshot = snapshot();
+			_pending = new ArrayList<>();
+		}
+		compact(snapshot);
+	}
+
+	/**
+	 * Flushes and closes the journal.
+	 */
+	public void close() {
+		synchronized (_lock) {
+			if (_journal == null) {
+				return;
+			}
+			try {
+				_journal.close();
+			} catch (IOException ex) {
+				LOG.warn("error trying to close file \"{}\"", _file, ex);
+			}
+			_journal = null;
+		}
+	}
+
+	@Override
+	public int size() {
+		return _users.size();
+	}
+
+	@Override
+	public Enumeration<String> getUsers() {
+		return Collections.enumeration(_users.keySet());
+	}
+
+	@Override
+	public boolean hasUser(String user) {
+		return _users.containsKey(user);
+	}
+
+	@Override
+	public Repository addUser(String user) {
+		synchronized (_lock) {
+			if (addUserInternal(user)) {
+				append("U " + user);
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public Repository removeUser(String user) {
+		synchronized (_lock) {
+			if (removeUserInternal(user)) {
+				append("D " + user);
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public Repository removeAllUsers() {
+		synchronized (_lock) {
+			_users.clear();
+			_liveRecords = 0;
+			append("X");
+		}
+		return this;
+	}
+
+	@Override
+	public boolean hasUserContact(String user, String uri) {
+		Map<String, Binding> contacts = _users.get(user);
+		return contacts != null && contacts.containsKey(uri);
+	}
+
+	@Override
+	public LocationService addUserContact(String user, NameAddress contact, Date expire) {
+		return addUserContact(user, contact, expire, 1);
+	}
+
+	@Override
+	public LocationService addUserContact(String user, NameAddress contact, Date expire, float q) {
+		Binding binding = new Binding(contact.getAddress().toString(), contact.toString(), expire.getTime(), q);
+		synchronized (_lock) {
+			if (addContactInternal(user, binding)) {
+				append(binding.record(user));
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public Enumeration<String> getUserContactURIs(String user) {
+		Map<String, Binding> contacts = _users.get(user);
+		if (contacts == null) {
+			return null;
+		}
+		return Collections.enumeration(contacts.keySet());
+	}
+
+	@Override
+	public LocationService removeUserContact(String user, String uri) {
+		synchronized (_lock) {
+			if (removeContactInternal(user, uri)) {
+				append("R " + user + " " + uri);
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public NameAddress getUserContactNameAddress(String user, String uri) {
+		Binding binding = getBinding(user, uri);
+		return binding == null ? null : NameAddress.parse(binding._nameAddress);
+	}
+
+	@Override
+	public Date getUserContactExpirationDate(String user, String uri) {
+		Binding binding = getBinding(user, uri);
+		return binding == null ? null : new Date(binding._expires);
+	}
+
+	@Override
+	public boolean isUserContactExpired(String user, String uri) {
+		Binding binding = getBinding(user, uri);
+		return binding == null || binding._expires < System.currentTimeMillis();
+	}
+
+	@Override
+	public float getUserContactPriority(String user, String uri) {
+		Binding binding = getBinding(user, uri);
+		return binding == null ? 1 : binding._q;
+	}
+
+	@Override
+	public LocationService addUserStaticContact(String user, NameAddress name_addresss) {
+		return addUserContact(user, name_addresss, new Date(LocationServiceImpl.NEVER));
+	}
+
+	@Override
+	public boolean isUserContactStatic(String user, String uri) {
+		Binding binding = getBinding(user, uri);
+		return binding != null && binding._expires >= LocationServiceImpl.NEVER;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (Map.Entry<String, Map<String, Binding>> user : _users.entrySet()) {
+			result.append("To: ").append(user.getKey()).append("\r\n");
+			for (Binding binding : user.getValue().values()) {
+				result.append("Contact: ").append(binding._nameAddress).append("; expires=");
+				if (binding._expires >= LocationServiceImpl.NEVER) {
+					result.append("\"NEVER\"");
+				} else {
+					result.append(new Date(binding._expires));
+				}
+				result.append("\r\n");
+			}
+		}
+		return result.toString();
+	}
+
+	private Binding getBinding(String user, String uri) {
+		Map<String, Binding> contacts = _users.get(user);
+		return contacts == null ? null : contacts.get(uri);
+	}
+
+	private boolean addUserInternal(String user) {
+		if (_users.putIfAbsent(user, new ConcurrentHashMap<>()) != null) {
+			return false;
+		}
+		_liveRecords++;
+		return true;
+	}
+
+	private boolean removeUserInternal(String user) {
+		Map<String, Binding> contacts = _users.remove(user);
+		if (contacts == null) {
+			return false;
+		}
+		_liveRecords -= 1 + contacts.size();
+		return true;
+	}
+
+	private boolean addContactInternal(String user, Binding binding) {
+		if (addUserInternal(user)) {
+			append("U " + user);
+		}
+		return putContactInternal(user, binding);
+	}
+
+	/**
+	 * Adds a contact to an existing user, an existing contact with the same URI is kept.
+	 */
+	private boolean putContactInternal(String user, Binding binding) {
+		if (_users.get(user).putIfAbsent(binding._uri, binding) != null) {
+			return false;
+		}
+		_liveRecords++;
+		return true;
+	}
+
+	private boolean removeContactInternal(String user, String uri) {
+		Map<String, Binding> contacts = _users.get(user);
+		if (contacts == null || contacts.remove(uri) == null) {
+			return false;
+		}
+		_liveRecords--;
+		return true;
+	}
+
+	private void append(String record) {
+		_journalRecords++;
+		if (_journal == null) {
+			return;
+		}
+		if (_pending != null) {
+			_pending.add(record);
+		}
+		try {
+			_journal.write(record);
+			_journal.write('\n');
+			_dirty = true;
+		} catch (IOException ex) {
+			LOG.warn("error trying to write on file \"{}\"", _file, ex);
+		}
+	}
+
+	private void load() {
+		synchronized (_lock) {
+			try (BufferedReader in = Files.newBufferedReader(_file, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = in.readLine()) != null) {
+					_journalRecords++;
+					try {
+						replay(line);
+					} catch (RuntimeException ex) {
+						LOG.warn("Skipping invalid record in \"{}\": {}", _file, line, ex);
+					}
+				}
+			} catch (NoSuchFileException ex) {
+				LOG.warn("file \"{}\" not found: created new empty DB", _file);
+			} catch (IOException ex) {
+				LOG.warn("error trying to read file \"{}\"", _file, ex);
+			}
+
+			try {
+				_journal = Files.newBufferedWriter(_file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+						StandardOpenOption.APPEND);
+			} catch (IOException ex) {
+				LOG.warn("error trying to open file \"{}\": only temporary memory (RAM) will be used.", _file, ex);
+			}
+		}
+	}
+
+	private void replay(String line) {
+		if (line.isEmpty()) {
+			return;
+		}
+		switch (line.charAt(0)) {
+			case 'U':
+				addUserInternal(line.substring(2));
+				break;
+			case 'D':
+				removeUserInternal(line.substring(2));
+				break;
+			case 'X':
+				_users.clear();
+				_liveRecords = 0;
+				break;
+			case 'C': {
+				int userEnd = line.indexOf(' ', 2);
+				int expiresEnd = line.indexOf(' ', userEnd + 1);
+				int uriEnd = line.indexOf(' ', expiresEnd + 1);
+				String user = line.substring(2, userEnd);
+				String expiresField = line.substring(userEnd + 1, expiresEnd);
+				int qStart = expiresField.indexOf(';');
+				long expires = Long.parseLong(qStart < 0 ? expiresField : expiresField.substring(0, qStart));
+				float q = qStart < 0 ? 1 : LocationService.parsePriority(expiresField.substring(qStart + 1));
+				Binding binding = new Binding(line.substring(expiresEnd + 1, uriEnd), line.substring(uriEnd + 1), expires, q);
+				addUserInternal(user);
+				putContactInternal(user, binding);
+				break;
+			}
+			case 'R': {
+				int userEnd = line.indexOf(' ', 2);
+				removeContactInternal(line.substring(2, userEnd), line.substring(userEnd + 1));
+				break;
+			}
+			default:
+				throw new IllegalArgumentException("Unknown record type.");
+		}
+	}
+
+	/**
+	 * Copies the current bindings, must be called with the lock held.
+	 */
+	private Map<String, List<Binding>> snapshot() {
+		Map<String, List<Binding>> result = new LinkedHashMap<>();
+		for (Map.Entry<String, Map<String, Binding>> user : _users.entrySet()) {
+			result.put(user.getKey(), new ArrayList<>(user.getValue().values()));
+		}
+		return result;
+	}
+
+	/**
+	 * Replaces the journal with the records of the given snapshot and the changes made since it
+	 * was taken.
+	 */
+	private void compact(Map<String, List<Binding>> snapshot) {
+		Path tmp = _file.resolveSibling(_file.getFileName() + ".tmp");
+		try {
+			int records = 0;
+			try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+				for (Map.Entry<String, List<Binding>> user : snapshot.entrySet()) {
+					out.write("U " + user.getKey() + "\n");
+					records++;
+					for (Binding binding : user.getValue()) {
+						out.write(binding.record(user.getKey()));
+						out.write('\n');
+						records++;
+					}
+				}
+			}
+
+			synchronized (_lock) {
+				if (_journal == null) {
+					// Closed in the meantime.
+					Files.deleteIfExists(tmp);
+					return;
+				}
+				try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8,
+						StandardOpenOption.APPEND)) {
+					for (String record : _pending) {
+						out.write(record);
+						out.write('\n');
+					}
+				}
+				records += _pending.size();
+
+				_journal.close();
+				try {
+					Files.move(tmp, _file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} finally {
+					_journal = Files.newBufferedWriter(_file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+				}
+				_journalRecords = records;
+			}
+			LOG.debug("Compacted location journal \"{}\" to {} records.", _file, records);
+		} catch (IOException ex) {
+			LOG.warn("error trying to compact file \"{}\"", _file, ex);
+		} finally {
+			synchronized (_lock) {
+				_pending = null;
+			}
+		}
+	}
+
+	private static final class Binding {
+
+		final String _uri;
+
+		final String _nameAddress;
+
+		final long _expires;
+
+		final float _q;
+
+		Binding(String uri, String nameAddress, long expires, float q) {
+			_uri = uri;
+			_nameAddress = nameAddress;
+			_expires = expires;
+			_q = q;
+		}
+
+		String record(String user) {
+			String expires = _q < 1 ? _expires + ";" + _q : Long.toString(_expires);
+			return "C " + user + " " + expires + " " + _uri + " " + _nameAddress;
+		}
+
+	}
+
+}
@@ -57,6 +57,24 @@ public interface LocationService extends Repository {
 	  * @return this object */
 	public LocationService addUserContact(String user, NameAddress contact, Date expire);
 
+	/** Adds a contact with a preference.
+	  * @param user the user name
+	  * @param contact the contact NameAddress
+	  * @param expire the contact expire Date
+	  * @param q the preference (q-value) of the contact, from 0 to 1
+	  * @return this object */
+	public default LocationService addUserContact(String user, NameAddress contact, Date expire, float q) {
+		return addUserContact(user,contact,expire);
+	}
+
+	/** Gets the preference of the user contact.
+	  * @param user the user name
+	  * @param uri the contact URI
+	  * @return the q-value of the contact, 1 if the contact has no preference */
+	public default float getUserContactPriority(String user, String uri) {
+		return 1;
+	}
+
 	/** Gets the user contacts that are not expired.
 	  * @param user the user name
 	  * @return the list of contact URIs as Enumeration of String */
@@ -103,5 +121,19 @@ public interface LocationService extends Repository {
 	  * @param uri the contact URI
 	  * @return true if it static */
 	public boolean isUserContactStatic(String user, String uri);
+
+	/** Parses a q-value.
+	  * @param value the value of a <i>q</i> parameter, or null
+	  * @return the q-value, 1 if not given or invalid */
+	public static float parsePriority(String value) {
+		if (value==null) return 1;
+		try {
+			float q=Float.parseFloat(value);
+			return (q>=0 && q<=1)? q : 1;
+		}
+		catch (NumberFormatException e) {
+			return 1;
+		}
+	}
 	
 }
@@ -173,9 +173,20 @@ public class LocationServiceImpl implements LocationService {
 	  * @return this object */
 	@Override
 	public LocationService addUserContact(String user, NameAddress name_addresss, Date expire) {
+		return addUserContact(user,name_addresss,expire,1);
+	}
+
+	/** Adds a contact with a preference.
+	  * @param user the user name
+	  * @param name_addresss the contact NameAddress
+	  * @param expire the contact expire Date
+	  * @param q the preference (q-value) of the contact
+	  * @return this object */
+	@Override
+	public LocationService addUserContact(String user, NameAddress name_addresss, Date expire, float q) {
 		if (!hasUser(user)) addUser(user);
 		UserBindingInfo ur=getUserBindingInfo(user);
-		ur.addContact(name_addresss,expire);
+		ur.addContact(name_addresss,expire,q);
 		changed=true;
 		return this;
 	}
@@ -237,6 +248,17 @@ public class LocationServiceImpl implements LocationService {
 		//else
 		return getUserBindingInfo(user).isExpired(uri);
 	}
+
+	/** Gets the preference of the user contact.
+	  * @param user the user name
+	  * @param uri the contact URI
+	  * @return the q-value of the contact */
+	@Override
+	public float getUserContactPriority(String user, String uri) {
+		if (!hasUser(user)) return 1;
+		//else
+		return getUserBindingInfo(user).getPriority(uri);
+	}
 	
 	/** Removes all contacts from the database.
 	  * @return this object */
@@ -322,11 +344,13 @@ public class LocationServiceImpl implements LocationService {
 				if (line.startsWith(SipHeaders.Contact)) {
 					SipParser par = new SipParser(line);
 					NameAddress name_address = ((SipParser) par.skipString()).getNameAddress();
+					int params = line.indexOf(';', line.lastIndexOf('>'));
+					float q = params < 0 ? 1 : LocationService.parsePriority(new SipParser(line.substring(params + 1)).getParameter("q"));
 					String expire_value = par.goTo("expires=").skipN(8).getStringUnquoted();
-					if (expire_value.equalsIgnoreCase("NEVER")) addUserStaticContact(user, name_address);
+					if (expire_value.equalsIgnoreCase("NEVER")) addUserContact(user, name_address, new Date(NEVER), q);
 					else {
 						Date expire_time = (new SipParser(expire_value)).getDate();
-						addUserContact(user, name_address, expire_time);
+						addUserContact(user, name_address, expire_time, q);
 					}
 					Date date = getUserContactExpirationDate(user, name_address.getAddress().toString());
 					continue;
@@ -405,8 +429,21 @@ class UserBindingInfo {
 	  * @param expire the expire value (Date) 
 	  * @return this object */
 	public UserBindingInfo addContact(NameAddress contact, Date expire) {
+		return addContact(contact,expire,1);
+	}
+ 
+	/** Adds a new contact with a preference.
+	  * @param contact the contact address (NameAddress) 
+	  * @param expire the expire value (Date) 
+	  * @param q the preference (q-value) 
+	  * @return this object */
+	public UserBindingInfo addContact(NameAddress contact, Date expire, float q) {
 		String key=contact.getAddress().toString();
-		if (!contact_list.containsKey(key)) contact_list.put(key,(new ContactHeader(contact)).setExpires(expire));
+		if (!contact_list.containsKey(key)) {
+			ContactHeader ch=new ContactHeader(contact);
+			if (q<1) ch.setParameter("q",Float.toString(q));
+			contact_list.put(key,ch.setExpires(expire));
+		}
 		return this;
 	}
  
@@ -434,6 +471,14 @@ class UserBindingInfo {
 		else return true;
 	}
 	
+	/** Gets the preference of a contact.
+	  * @param uri the contact URI (String) 
+	  * @return the q-value, 1 if not given or if the contact is not present */
+	public float getPriority(String uri) {
+		if (contact_list.containsKey(uri)) return LocationService.parsePriority((contact_list.get(uri)).getParameter("q"));
+		else return 1;
+	}
+
 	/** Gets expiration date.
 	  * @param uri the contact URI (String) 
 	  * @return the expire Date */
@@ -41,6 +41,7 @@ import org.mjsip.sip.provider.SipConfig;
 import org.mjsip.sip.provider.SipProvider;
 import org.mjsip.time.ConfiguredScheduler;
 import org.mjsip.time.SchedulerConfig;
+import org.mjsip.time.ThreadSupport;
 import org.slf4j.LoggerFactory;
 import org.zoolu.util.Flags;
 
@@ -53,6 +54,12 @@ public class Proxy extends Registrar {
 	
 	private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(Proxy.class);
 
+	/** Compiled authenticated proxying rules (for requests from local users). */
+	private volatile RoutingTable auth_routing_table=RoutingTable.EMPTY;
+
+	/** Compiled proxying rules. */
+	private volatile RoutingTable routing_table=RoutingTable.EMPTY;
+
 	/** Costructs a void Proxy */
 	protected Proxy() {}
 
@@ -60,6 +67,7 @@ public class Proxy extends Registrar {
 	/** Costructs a new Proxy that acts also as location server for registered users. */
 	public Proxy(SipProvider provider, ServerProfile server_profile) {
 		super(provider,server_profile);
+		updateProxyingRules();
 	}
 
 
@@ -269,22 +277,22 @@ public class Proxy extends Registrar {
 	}
 	
 
+	/** Compiles the proxying rules of the server profile.
+	  * It can be called at runtime, after the rules of the server profile have been changed. */
+	public void updateProxyingRules() {
+		auth_routing_table=new RoutingTable(server_profile.authenticatedPhoneProxyingRules,server_profile.authenticatedDomainProxyingRules);
+		routing_table=new RoutingTable(server_profile.phoneProxyingRules,server_profile.domainProxyingRules);
+		LOG.debug("proxying rules: authenticated={}, other={}", auth_routing_table, routing_table);
+	}
+
+
 	/** Gets a new target according to the domain-based forwarding rules. */
 	protected SipURI getAuthDomainBasedProxyingTarget(GenericURI request_uri) {
 		LOG.trace("inside getAuthDomainBasedProxyingTarget(uri)");
 		// authenticated rules
-		for (int i=0; i<server_profile.authenticatedDomainProxyingRules.length; i++) {
-			ProxyingRule rule=(ProxyingRule)server_profile.authenticatedDomainProxyingRules[i];
-			SipURI nexthop=rule.getNexthop(request_uri);
-			if (nexthop!=null) {
-				LOG.debug("domain-based authenticated forwarding: {}; YES",rule);
-				LOG.debug("target={}",nexthop);
-				return nexthop;
-			}
-			else 
-				LOG.debug("domain-based authenticated forwarding: {}:NO",rule);
-		}
-		return null;
+		SipURI nexthop=auth_routing_table.getDomainTarget(request_uri);
+		if (nexthop!=null) LOG.debug("domain-based authenticated forwarding: target={}",nexthop);
+		return nexthop;
 	}
 
 
@@ -292,17 +300,9 @@ public class Proxy extends Registrar {
 	protected SipURI getDomainBasedProxyingTarget(GenericURI request_uri) {
 		LOG.trace("inside getDomainBasedForwardingTarget(uri)");
 		// non-authenticated rules
-		for (int i=0; i<server_profile.domainProxyingRules.length; i++) {
-			ProxyingRule rule=(ProxyingRule)server_profile.domainProxyingRules[i];
-			SipURI nexthop=rule.getNexthop(request_uri);
-			if (nexthop!=null) {
-				LOG.debug("domain-based forwarding: {}: YES", rule);
-				LOG.debug("target={}", nexthop);
-				return nexthop;
-			}
-			else LOG.debug("domain-based forwarding: {}: NO", rule);
-		}
-		return null;
+		SipURI nexthop=routing_table.getDomainTarget(request_uri);
+		if (nexthop!=null) LOG.debug("domain-based forwarding: target={}", nexthop);
+		return nexthop;
 	}
 
 
@@ -316,18 +316,9 @@ public class Proxy extends Registrar {
 		if (username==null || !isPhoneNumber(username))  return null;
 		// else
 		// authenticated rules
-		LOG.trace("authenticated prefix-based rules: {}", server_profile.authenticatedPhoneProxyingRules.length);
-		for (int i=0; i<server_profile.authenticatedPhoneProxyingRules.length; i++) {
-			ProxyingRule rule=(ProxyingRule)server_profile.authenticatedPhoneProxyingRules[i];
-			SipURI nexthop=rule.getNexthop(request_uri);
-			if (nexthop!=null) {
-				LOG.debug("prefix-based authenticated forwarding: {}: YES", rule);
-				LOG.debug("target={}", nexthop);
-				return nexthop;
-			}
-			else LOG.debug("prefix-based authenticated forwarding: {}: NO", rule);
-		}
-		return null;
+		SipURI nexthop=auth_routing_table.getPrefixTarget(request_uri);
+		if (nexthop!=null) LOG.debug("prefix-based authenticated forwarding: target={}", nexthop);
+		return nexthop;
 	}
 
 
@@ -341,18 +332,9 @@ public class Proxy extends Registrar {
 		if (username==null || !isPhoneNumber(username))  return null;
 		// else
 		// non-authenticated rules
-		LOG.trace("prefix-based rules: {}", server_profile.phoneProxyingRules.length);
-		for (int i=0; i<server_profile.phoneProxyingRules.length; i++) {
-			ProxyingRule rule=(ProxyingRule)server_profile.phoneProxyingRules[i];
-			SipURI nexthop=rule.getNexthop(request_uri);
-			if (nexthop!=null) {
-				LOG.debug("prefix-based forwarding: {}: YES", rule);
-				LOG.debug("target= {}", nexthop.toString());
-				return nexthop;
-			}
-			else LOG.debug("prefix-based forwarding: {}: NO", rule);
-		}
-		return null;
+		SipURI nexthop=routing_table.getPrefixTarget(request_uri);
+		if (nexthop!=null) LOG.debug("prefix-based forwarding: target={}", nexthop);
+		return nexthop;
 	}
 
 
@@ -382,6 +364,7 @@ public class Proxy extends Registrar {
 		sipConfig.normalize();
 		server_profile.normalize();
 					
+		ThreadSupport.configure(schedulerConfig);
 		SipProvider sip_provider=new SipProvider(sipConfig, new ConfiguredScheduler(schedulerConfig));
 
 		new Proxy(sip_provider,server_profile);
@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ScheduledFuture;
+
+import org.mjsip.sip.header.Header;
+import org.mjsip.sip.header.SipHeaders;
+import org.mjsip.sip.header.StatusLine;
+import org.mjsip.sip.message.SipMessage;
+import org.mjsip.sip.message.SipResponses;
+import org.mjsip.sip.provider.SipId;
+import org.mjsip.sip.transaction.TransactionClient;
+import org.mjsip.sip.transaction.TransactionServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Forwarding of a request received by a {@link StatefulProxy} to one or more targets.
+ *
+ * <p>
+ * Each target is contacted through a client transaction, a branch of the fork. Branches are
+ * indexed by their transaction ID, so that processing a response does not depend on the number of
+ * targets. In parallel mode, all targets are contacted at once. In sequential mode, targets are
+ * contacted in groups of equal q-value in the order of decreasing q-value, the next group is
+ * started when all branches of the current group have completed or the group timeout expires.
+ * </p>
+ *
+ * <p>
+ * Responses are handled as described in RFC 3261, section 16.7: Provisional responses except
+ * <code>100 Trying</code> are forwarded immediately, as well as <code>2xx</code> responses. A
+ * <code>2xx</code> or <code>6xx</code> response cancels all pending branches of an
+ * <code>INVITE</code>. If no branch succeeds, the best final response is forwarded after all
+ * branches have completed, challenges of <code>401</code> and <code>407</code> responses are
+ * aggregated.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class ProxyFork {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ProxyFork.class);
+
+	private final StatefulProxy _proxy;
+
+	private final TransactionServer _server;
+
+	private final boolean _invite;
+
+	private final List<Target> _targets = new ArrayList<>();
+
+	/**
+	 * Active branches by the transaction ID of their client transaction.
+	 */
+	private final Map<SipId, Branch> _branches = new HashMap<>();
+
+	/**
+	 * Index of the first target not yet contacted.
+	 */
+	private int _next;
+
+	private boolean _sequential;
+
+	private long _groupTimeout;
+
+	private ScheduledFuture<?> _groupTimer;
+
+	/**
+	 * Whether no further branches are started, because the request has been answered or cancelled.
+	 */
+	private boolean _stopped;
+
+	/**
+	 * Whether a final response has been sent to the server transaction.
+	 */
+	private boolean _answered;
+
+	/**
+	 * The best non-2xx final response received so far.
+	 */
+	private SipMessage _best;
+
+	/**
+	 * Challenges of all 401 and 407 responses.
+	 */
+	private List<Header> _challenges;
+
+	/**
+	 * Creates a {@link ProxyFork}.
+	 *
+	 * @param proxy
+	 *        The proxy creating branches and forwarding responses.
+	 * @param server
+	 *        The server transaction of the forwarded request.
+	 */
+	public ProxyFork(StatefulProxy proxy, TransactionServer server) {
+		_proxy = proxy;
+		_server = server;
+		_invite = server.getRequestMessage().isInvite();
+	}
+
+	/**
+	 * The server transaction of the forwarded request.
+	 */
+	public TransactionServer getServer() {
+		return _server;
+	}
+
+	/**
+	 * The number of branches waiting for a final response.
+	 */
+	public synchronized int getPendingBranches() {
+		return _branches.size();
+	}
+
+	/**
+	 * Adds a target to contact.
+	 *
+	 * @param uri
+	 *        The target URI.
+	 * @param q
+	 *        The preference of the target (q-value).
+	 */
+	public synchronized void addTarget(String uri, float q) {
+		_targets.add(new Target(uri, q, _targets.size()));
+	}
+
+	/**
+	 * Starts contacting the targets.
+	 *
+	 * @param sequential
+	 *        Whether targets are contacted in groups of decreasing q-value instead of all at once.
+	 * @param groupTimeout
+	 *        Time in milliseconds after which pending branches of a group are cancelled and the
+	 *        next group is started, <code>0</code> to wait for the final responses.
+	 */
+	public synchronized void start(boolean sequential, long groupTimeout) {
+		_sequential = sequential;
+		_groupTimeout = groupTimeout;
+		if (sequential) {
+			_targets.sort(Comparator.comparingDouble((Target t) -> -t._q).thenComparingInt(t -> t._index));
+		}
+		if (!startNextGroup()) {
+			complete();
+		}
+	}
+
+	/**
+	 * Forwards the request through the given client transaction only.
+	 */
+	public synchronized void forward(TransactionClient client) {
+		addBranch(client);
+		client.request();
+	}
+
+	/**
+	 * Cancels all pending branches, e.g. because a <code>CANCEL</code> for the request was
+	 * received.
+	 */
+	public synchronized void cancel() {
+		LOG.debug("Cancelling {} pending branches.", _branches.size());
+		stop();
+	}
+
+	/**
+	 * Processes a provisional response received on a branch.
+	 */
+	public synchronized void onProvisionalResponse(TransactionClient client, SipMessage resp) {
+		Branch branch = _branches.get(client.getTransactionId());
+		if (branch == null) {
+			return;
+		}
+		branch._proceeding = true;
+		if (branch._cancelled) {
+			// A CANCEL can only be sent after a provisional response has been received.
+			if (!branch._cancelSent) {
+				sendCancel(branch);
+			}
+			return;
+		}
+		if (!_answered && resp.getStatusLine().getCode() != 100) {
+			_proxy.forwardProvisionalResponse(_server, resp);
+		}
+	}
+
+	/**
+	 * Processes a final response received on a branch.
+	 */
+	public synchronized void onFinalResponse(TransactionClient client, SipMessage resp) {
+		Branch branch = removeBranch(client);
+		if (branch == null) {
+			return;
+		}
+
+		int code = resp.getStatusLine().getCode();
+		if (code >= 200 && code < 300) {
+			if (!_answered) {
+				_answered = true;
+				_proxy.forwardFinalResponse(_server, resp);
+			} else if (_invite) {
+				// Further 2xx responses to an INVITE are forwarded as well, since they create separate
+				// dialogs.
+				_proxy.forwardResponse(resp);
+			}
+			stop();
+		} else {
+			if (!branch._ignore) {
+				select(resp);
+			}
+			if (code >= 600) {
+				stop();
+			}
+		}
+		complete();
+	}
+
+	/**
+	 * Processes the timeout of a branch.
+	 */
+	public synchronized void onTimeout(TransactionClient client) {
+		Branch branch = removeBranch(client);
+		if (branch == null) {
+			return;
+		}
+		if (branch._proceeding && !branch._cancelSent) {
+			// Timer C, see RFC 3261, section 16.8.
+			sendCancel(branch);
+		}
+		complete();
+	}
+
+	private void onGroupTimeout() {
+		synchronized (this) {
+			_groupTimer = null;
+			if (_stopped || _next >= _targets.size()) {
+				return;
+			}
+			LOG.debug("No final response from {} branches, trying next targets.", _branches.size());
+			for (Branch branch : _branches.values()) {
+				branch._ignore = true;
+				cancelBranch(branch);
+			}
+			startNextGroup();
+		}
+	}
+
+	/**
+	 * Starts branches to the next targets.
+	 *
+	 * @return Whether a branch has been started.
+	 */
+	private boolean startNextGroup() {
+		while (!_stopped && _next < _targets.size()) {
+			int start = _next;
+			if (_sequential) {
+				float q = _targets.get(start)._q;
+				do {
+					_next++;
+				} while (_next < _targets.size() && _targets.get(_next)._q == q);
+			} else {
+				_next = _targets.size();
+			}
+
+			List<TransactionClient> clients = new ArrayList<>(_next - start);
+			for (int n = start; n < _next; n++) {
+				TransactionClient client = _proxy.createBranch(_server, _targets.get(n)._uri);
+				if (client != null) {
+					addBranch(client);
+					clients.add(client);
+				}
+			}
+			if (clients.isEmpty()) {
+				continue;
+			}
+
+			if (_sequential && _groupTimeout > 0 && _next < _targets.size()) {
+				_groupTimer = _proxy.sip_provider.scheduler().schedule(_groupTimeout, this::onGroupTimeout);
+			}
+			for (TransactionClient client : clients) {
+				client.request();
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Sends the final response, if all branches have completed.
+	 */
+	private void complete() {
+		if (!_branches.isEmpty()) {
+			return;
+		}
+		cancelGroupTimer();
+		if (startNextGroup()) {
+			return;
+		}
+		if (!_answered) {
+			_answered = true;
+			_proxy.forwardFinalResponse(_server, bestResponse());
+		}
+		_proxy.state.removeFork(this);
+	}
+
+	/**
+	 * Stops starting new branches and cancels the pending ones.
+	 */
+	private void stop() {
+		_stopped = true;
+		cancelGroupTimer();
+		for (Branch branch : _branches.values()) {
+			cancelBranch(branch);
+		}
+	}
+
+	private void cancelGroupTimer() {
+		if (_groupTimer != null) {
+			_groupTimer.cancel(false);
+			_groupTimer = null;
+		}
+	}
+
+	private void cancelBranch(Branch branch) {
+		if (!_invite || branch._cancelled) {
+			return;
+		}
+		branch._cancelled = true;
+		if (branch._proceeding) {
+			sendCancel(branch);
+		}
+	}
+
+	private void sendCancel(Branch branch) {
+		branch._cancelSent = true;
+		_proxy.cancelBranch(branch._client);
+	}
+
+	private void addBranch(TransactionClient client) {
+		_branches.put(client.getTransactionId(), new Branch(client));
+		_proxy.state.addClient(client.getTransactionId(), this);
+	}
+
+	private Branch removeBranch(TransactionClient client) {
+		_proxy.state.removeClient(client.getTransactionId());
+		return _branches.remove(client.getTransactionId());
+	}
+
+	/**
+	 * Keeps the given response, if it is better than the best response so far.
+	 *
+	 * @see #isBetter(int, int)
+	 */
+	private void select(SipMessage resp) {
+		int code = resp.getStatusLine().getCode();
+		if (code == SipResponses.UNAUTHORIZED || code == SipResponses.PROXY_AUTHENTICATION_REQUIRED) {
+			if (_challenges == null) {
+				_challenges = new ArrayList<>();
+			}
+			_challenges.addAll(resp.getHeaders(SipHeaders.WWW_Authenticate));
+			_challenges.addAll(resp.getHeaders(SipHeaders.Proxy_Authenticate));
+		}
+		if (_best == null || isBetter(code, _best.getStatusLine().getCode())) {
+			_best = resp;
+		}
+	}
+
+	/**
+	 * Whether a response with the given code is preferred over a response with the other code.
+	 *
+	 * <p>
+	 * A <code>6xx</code> response is preferred over all others, otherwise the lowest response
+	 * class is preferred. Within a class, responses that may be repaired by the client (e.g. by
+	 * adding credentials) are preferred.
+	 * </p>
+	 */
+	static boolean isBetter(int code, int other) {
+		if (code >= 600 || other >= 600) {
+			return other < 600;
+		}
+		int cls = code / 100;
+		int otherCls = other / 100;
+		if (cls != otherCls) {
+			return cls < otherCls;
+		}
+		return isRepairable(code) && !isRepairable(other);
+	}
+
+	private static boolean isRepairable(int code) {
+		switch (code) {
+			case SipResponses.UNAUTHORIZED:
+			case SipResponses.PROXY_AUTHENTICATION_REQUIRED:
+			case SipResponses.UNSUPPORTED_MEDIA_TYPE:
+			case SipResponses.BAD_EXTENSION:
+			case SipResponses.ADDRESS_INCOMPLETE:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * The final response to forward if no branch succeeded.
+	 *
+	 * <p>
+	 * The selected response is copied, since it is adjusted for forwarding.
+	 * </p>
+	 */
+	private SipMessage bestResponse() {
+		if (_best == null) {
+			return _proxy.sip_provider.messageFactory().createResponse(_server.getRequestMessage(),
+				SipResponses.REQUEST_TIMEOUT, null, null);
+		}
+		SipMessage result = new SipMessage(_best);
+		int code = result.getStatusLine().getCode();
+		if (code == SipResponses.SERVICE_UNAVAILABLE) {
+			// A 503 would make the client believe that the proxy itself is unavailable.
+			result.setStatusLine(new StatusLine(SipResponses.SERVER_INTERNAL_ERROR,
+				SipResponses.reasonOf(SipResponses.SERVER_INTERNAL_ERROR)));
+		} else if (_challenges != null
+				&& (code == SipResponses.UNAUTHORIZED || code == SipResponses.PROXY_AUTHENTICATION_REQUIRED)) {
+			result.removeAllHeaders(SipHeaders.WWW_Authenticate);
+			result.removeAllHeaders(SipHeaders.Proxy_Authenticate);
+			result.addHeaders(new Vector<>(_challenges), false);
+		}
+		return result;
+	}
+
+	private static final class Target {
+
+		final String _uri;
+
+		final float _q;
+
+		final int _index;
+
+		Target(String uri, float q, int index) {
+			_uri = uri;
+			_q = q;
+			_index = index;
+		}
+
+	}
+
+	private static final class Branch {
+
+		final TransactionClient _client;
+
+		/**
+		 * Whether a provisional response has been received.
+		 */
+		boolean _proceeding;
+
+		/**
+		 * Whether the branch is cancelled. The CANCEL is sent as soon as the branch is proceeding.
+		 */
+		boolean _cancelled;
+
+		boolean _cancelSent;
+
+		/**
+		 * Whether the final response is not considered for the response to the client, since the
+		 * branch was cancelled in favor of other targets.
+		 */
+		boolean _ignore;
+
+		Branch(TransactionClient client) {
+			_client = client;
+		}
+
+	}
+
+}
@@ -34,6 +34,7 @@ import org.mjsip.sip.provider.SipConfig;
 import org.mjsip.sip.provider.SipProvider;
 import org.mjsip.time.ConfiguredScheduler;
 import org.mjsip.time.SchedulerConfig;
+import org.mjsip.time.ThreadSupport;
 import org.slf4j.LoggerFactory;
 import org.zoolu.util.Flags;
 
@@ -105,6 +106,7 @@ public class Redirect extends Registrar {
 		sipConfig.normalize();
 		server_profile.normalize();
 						
+		ThreadSupport.configure(schedulerConfig);
 		SipProvider sip_provider=new SipProvider(sipConfig, new ConfiguredScheduler(schedulerConfig));
 
 		new Redirect(sip_provider,server_profile);      
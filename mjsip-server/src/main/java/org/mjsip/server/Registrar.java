@@ -22,6 +22,7 @@
 package org.mjsip.server;
 
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Vector;
@@ -43,6 +44,7 @@ import org.mjsip.sip.provider.SipProvider;
 import org.mjsip.sip.transaction.TransactionServer;
 import org.mjsip.time.ConfiguredScheduler;
 import org.mjsip.time.SchedulerConfig;
+import org.mjsip.time.ThreadSupport;
 import org.slf4j.LoggerFactory;
 import org.zoolu.util.DateFormat;
 
@@ -165,34 +167,52 @@ public class Registrar extends ServerEngine {
 		GenericURI to_uri=msg.getToHeader().getNameAddress().getAddress();
 		
 		Enumeration<String> e=location_service.getUserContactURIs(user);
+		if (e==null) {
+			LOG.info("user {} not found", user);
+			return targets;
+		}
 		LOG.trace("message targets: ");  
-		for (int i=0; e.hasMoreElements(); i++) {
-			// if exipred, remove the contact URI
-			String contact= e.nextElement();
+		// iterate over a copy, expired contacts are removed by the location service at any time
+		for (String contact : Collections.list(e)) {
+			// if exipred, skip the contact URI
 			if (location_service.isUserContactExpired(user,contact)) {
-				location_service.removeUserContact(user,contact);
-			LOG.trace("target {} expired: contact URI removed", i);
+				LOG.trace("target {} expired: contact URI skipped", contact);
 			}
 			// otherwise add the URI to the target list
 			else {
 				targets.addElement(contact);
-				LOG.trace("target {}={}", i, targets.elementAt(i));
+				LOG.trace("target {}", contact);
 			}
 		}
 		// for SIPS request-uri remove non-SIPS targets
 		if (request_uri.equals(GenericURI.SCHEME_SIPS)) {
-			for (int i=0; i<targets.size(); i++) {
-				SipURI uri=SipURI.parseSipURI(targets.elementAt(i));
-				if (!uri.isSecure()) {
-					LOG.info("{} has not SIPS scheme: skipped", uri.toString());
-					targets.removeElementAt(i--);
-				}
-			}
+			targets.removeIf(target -> {
+				SipURI uri=SipURI.parseSipURI(target);
+				if (uri.isSecure()) return false;
+				// else
+				LOG.info("{} has not SIPS scheme: skipped", uri.toString());
+				return true;
+			});
 		}
 		return targets;
 	}
 
 
+	/** Gets the preference of a target of the request.
+	  * @param msg the request
+	  * @param target a target URI as returned by {@link #getTargets(SipMessage)}
+	  * @return the q-value of the registered contact, 1 if the target is not a registered contact */
+	protected float getTargetPriority(SipMessage msg, String target) {
+		if (location_service==null) return 1;
+		GenericURI request_uri=msg.getRequestLine().getAddress();
+		if (!request_uri.isSipURI()) return 1;
+		SipURI sip_uri=request_uri.toSipURI();
+		String username=sip_uri.getUserName();
+		if (username==null) return 1;
+		return location_service.getUserContactPriority(username+"@"+sip_uri.getHost(),target);
+	}
+
+
 	/** Updates the registration of a local user.
 	  * @return it returns the response message for the registration. */
 	protected SipMessage updateRegistration(SipMessage msg) {
@@ -247,6 +267,8 @@ public class Registrar extends ServerEngine {
 				if (expires>0) {
 					// not expired
 					ContactHeader ch=new ContactHeader(location_service.getUserContactNameAddress(user,contact));
+					float q=location_service.getUserContactPriority(user,contact);
+					if (q<1) ch.setParameter("q",Float.toString(q));
 					ch.setExpires(expires);
 					v.addElement(ch);
 				}
@@ -267,12 +289,13 @@ public class Registrar extends ServerEngine {
 				String contact= e.nextElement();
 				if (!location_service.isUserContactStatic(user,contact))  {
 					NameAddress name_address=location_service.getUserContactNameAddress(user,contact);
+					float q=location_service.getUserContactPriority(user,contact);
 					// update db
 					location_service.removeUserContact(user,contact);
 					LOG.trace("contact removed: {}", contact);
 					if (exp_secs>0) {
 						Date exp_date=new Date(System.currentTimeMillis()+((long)exp_secs)*1000);
-						location_service.addUserContact(user,name_address,exp_date);
+						location_service.addUserContact(user,name_address,exp_date,q);
 						//DateFormat df=new SimpleDateFormat("EEE, dd MMM yyyy hh:mm:ss 'GMT'",Locale.ITALIAN);
 						//printLog("contact added: "+uri+"; expire: "+df.format(location_service.getUserContactExpire(user,url)),LogWriter.LEVEL_LOW);
 						LOG.trace("contact added: {}; expire: {}", contact, DateFormat.formatEEEddMMMyyyyhhmmss(location_service.getUserContactExpirationDate(user,contact)));
@@ -298,12 +321,13 @@ public class Registrar extends ServerEngine {
 				if (exp_secs_i<0) exp_secs_i=0;
 				else
 				if (exp_secs_i>server_profile.expires) exp_secs_i=server_profile.expires;
+				float q=LocationService.parsePriority(ch_i.getParameter("q"));
 								
 				// update db
 				location_service.removeUserContact(user,contact);
 				if (exp_secs_i>0) {
 					Date exp_date=new Date(System.currentTimeMillis()+((long)exp_secs)*1000);
-					location_service.addUserContact(user,name_address,exp_date);
+					location_service.addUserContact(user,name_address,exp_date,q);
 					LOG.info("registration of user '{}' updated", user);
 				}           
 				ch_i.setExpires(exp_secs_i);
@@ -330,6 +354,7 @@ public class Registrar extends ServerEngine {
 		sipConfig.normalize();
 		server_profile.normalize();
 			
+		ThreadSupport.configure(schedulerConfig);
 		SipProvider sip_provider=new SipProvider(sipConfig, new ConfiguredScheduler(schedulerConfig));
 		
 		new Registrar(sip_provider,server_profile);
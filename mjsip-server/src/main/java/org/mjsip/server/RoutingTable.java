@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.mjsip.sip.address.GenericURI;
+import org.mjsip.sip.address.SipURI;
+import org.zoolu.net.SocketAddress;
+
+/**
+ * Compiled form of prefix and domain {@link ProxyingRule}s.
+ *
+ * <p>
+ * {@link PrefixProxyingRule}s are compiled into a trie over the user part of the request URI, the
+ * rule with the longest matching prefix is selected. A {@link PrefixProxyingRule#DEFAULT_PREFIX
+ * default} rule matches if no other prefix matches. {@link DomainProxyingRule}s are compiled into
+ * a hash map over the host name. If there are multiple rules for the same prefix or domain, the
+ * first one is used. The lookup cost therefore depends on the length of the user name only, not on
+ * the number of rules.
+ * </p>
+ *
+ * <p>
+ * Other {@link ProxyingRule} implementations cannot be compiled, these are evaluated in order if no
+ * compiled rule matches.
+ * </p>
+ *
+ * <p>
+ * A {@link RoutingTable} is immutable, rules are changed by replacing the table.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class RoutingTable {
+
+	/**
+	 * {@link RoutingTable} without rules.
+	 */
+	public static final RoutingTable EMPTY = new RoutingTable(new ProxyingRule[0], new ProxyingRule[0]);
+
+	private final Node _root = new Node();
+
+	private final Map<String, Route> _domains = new HashMap<>();
+
+	private final List<ProxyingRule> _otherPrefixRules = new ArrayList<>();
+
+	private final List<ProxyingRule> _otherDomainRules = new ArrayList<>();
+
+	/**
+	 * Creates a {@link RoutingTable}.
+	 *
+	 * @param prefixRules
+	 *        Rules selecting the next-hop by the user part of the request URI.
+	 * @param domainRules
+	 *        Rules selecting the next-hop by the host part of the request URI.
+	 */
+	public RoutingTable(ProxyingRule[] prefixRules, ProxyingRule[] domainRules) {
+		for (ProxyingRule rule : prefixRules) {
+			if (rule instanceof PrefixProxyingRule) {
+				PrefixProxyingRule prefixRule = (PrefixProxyingRule) rule;
+				String prefix = prefixRule.prefix;
+				if (prefix.equalsIgnoreCase(PrefixProxyingRule.DEFAULT_PREFIX)) {
+					prefix = "";
+				}
+				Node node = _root;
+				for (int n = 0, cnt = prefix.length(); n < cnt; n++) {
+					node = node.add(prefix.charAt(n));
+				}
+				if (node._route == null) {
+					node._route = new Route(rule, prefixRule.nexthop);
+				}
+			} else {
+				_otherPrefixRules.add(rule);
+			}
+		}
+		for (ProxyingRule rule : domainRules) {
+			if (rule instanceof DomainProxyingRule) {
+				DomainProxyingRule domainRule = (DomainProxyingRule) rule;
+				_domains.putIfAbsent(domainRule.domain.toLowerCase(Locale.ROOT), new Route(rule, domainRule.nexthop));
+			} else {
+				_otherDomainRules.add(rule);
+			}
+		}
+	}
+
+	/**
+	 * Looks up the next-hop by the user part of the given URI.
+	 *
+	 * @return The next-hop SIP URI, or <code>null</code> if no rule matches.
+	 */
+	public SipURI getPrefixTarget(GenericURI uri) {
+		if (!uri.isSipURI()) {
+			return null;
+		}
+		String username = uri.toSipURI().getUserName();
+		Route route = lookupPrefix(username);
+		if (route != null) {
+			return route.target(username);
+		}
+		return lookupOthers(_otherPrefixRules, uri);
+	}
+
+	/**
+	 * Looks up the next-hop by the host part of the given URI.
+	 *
+	 * @return The next-hop SIP URI, or <code>null</code> if no rule matches.
+	 */
+	public SipURI getDomainTarget(GenericURI uri) {
+		if (!uri.isSipURI()) {
+			return null;
+		}
+		SipURI sipUri = uri.toSipURI();
+		Route route = _domains.get(sipUri.getHost().toLowerCase(Locale.ROOT));
+		if (route != null) {
+			return route.target(sipUri.getUserName());
+		}
+		return lookupOthers(_otherDomainRules, uri);
+	}
+
+	/**
+	 * The rule matching the longest prefix of the given user name.
+	 */
+	private Route lookupPrefix(String username) {
+		Node node = _root;
+		Route result = node._route;
+		if (username != null) {
+			for (int n = 0, cnt = username.length(); n < cnt; n++) {
+				node = node.get(username.charAt(n));
+				if (node == null) {
+					break;
+				}
+				if (node._route != null) {
+					result = node._route;
+				}
+			}
+		}
+		return result;
+	}
+
+	private static SipURI lookupOthers(List<ProxyingRule> rules, GenericURI uri) {
+		for (int n = 0, cnt = rules.size(); n < cnt; n++) {
+			SipURI nexthop = rules.get(n).getNexthop(uri);
+			if (nexthop != null) {
+				return nexthop;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The number of compiled prefix rules.
+	 */
+	public int getPrefixRuleCount() {
+		return _root.count();
+	}
+
+	/**
+	 * The number of compiled domain rules.
+	 */
+	public int getDomainRuleCount() {
+		return _domains.size();
+	}
+
+	@Override
+	public String toString() {
+		return "{prefixes=" + getPrefixRuleCount() + ",domains=" + getDomainRuleCount() + ",others="
+			+ (_otherPrefixRules.size() + _otherDomainRules.size()) + "}";
+	}
+
+	private static final class Route {
+
+		final ProxyingRule _rule;
+
+		final String _host;
+
+		final int _port;
+
+		Route(ProxyingRule rule, SocketAddress nexthop) {
+			_rule = rule;
+			_host = nexthop.getAddress().toString();
+			_port = nexthop.getPort();
+		}
+
+		SipURI target(String username) {
+			return new SipURI(username, _host, _port);
+		}
+
+		@Override
+		public String toString() {
+			return _rule.toString();
+		}
+
+	}
+
+	/**
+	 * Trie node, children are kept sorted by their character.
+	 */
+	private static final class Node {
+
+		private static final char[] NO_KEYS = {};
+
+		private static final Node[] NO_CHILDREN = {};
+
+		char[] _keys = NO_KEYS;
+
+		Node[] _children = NO_CHILDREN;
+
+		Route _route;
+
+		Node get(char key) {
+			int index = Arrays.binarySearch(_keys, key);
+			return index < 0 ? null : _children[index];
+		}
+
+		Node add(char key) {
+			int index = Arrays.binarySearch(_keys, key);
+			if (index >= 0) {
+				return _children[index];
+			}
+			int pos = -index - 1;
+			int size = _keys.length;
+
+			char[] keys = new char[size + 1];
+			System.arraycopy(_keys, 0, keys, 0, pos);
+			System.arraycopy(_keys, pos, keys, pos + 1, size - pos);
+			keys[pos] = key;
+
+			Node[] children = new Node[size + 1];
+			System.arraycopy(_children, 0, children, 0, pos);
+			System.arraycopy(_children, pos, children, pos + 1, size - pos);
+			Node result = new Node();
+			children[pos] = result;
+
+			_keys = keys;
+			_children = children;
+			return result;
+		}
+
+		int count() {
+			int result = _route == null ? 0 : 1;
+			for (Node child : _children) {
+				result += child.count();
+			}
+			return result;
+		}
+
+	}
+
+}
@@ -22,9 +22,17 @@
 package org.mjsip.server;
 
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Vector;
 
+import org.mjsip.server.cdr.CdrFormat;
+import org.mjsip.server.cdr.CdrLogger;
+import org.mjsip.server.cdr.RotatingCdrWriter;
 import org.mjsip.sip.address.GenericURI;
 import org.mjsip.sip.address.SipURI;
 import org.mjsip.sip.header.Header;
@@ -79,11 +87,17 @@ public abstract class ServerEngine implements SipProviderListener {
 
 	/** AuthenticationServer. */
 	protected AuthenticationServer as;
+
+	/** CallLogger, or null if no call detail records are written. */
+	protected CallLogger call_logger;
+
+	/** Local domain names, as set of the domain names of the server profile. */
+	private volatile Set<String> local_domains;
 	
 	/** List of already supported location services */
-	protected static final String[] LOCATION_SERVICES={ "local" };
+	protected static final String[] LOCATION_SERVICES={ "local", "journal" };
 	/** List of location service Classes (ordered as in <i>LOCATION_SERVICES</i>) */
-	protected static final String[] LOCATION_SERVICE_CLASSES={ LocationServiceImpl.class.getName() };
+	protected static final String[] LOCATION_SERVICE_CLASSES={ LocationServiceImpl.class.getName(), JournaledLocationService.class.getName() };
 
 	/** List of already supported authentication services */
 	protected static final String[] AUTHENTICATION_SERVICES={ "local" };
@@ -111,6 +125,20 @@ public abstract class ServerEngine implements SipProviderListener {
 	public abstract void processResponse(SipMessage resp);
 	
 
+	/** Passes a message of a call to the call logger, if any. */
+	protected void logCall(SipMessage msg) {
+		if (call_logger!=null) call_logger.update(msg);
+	}
+
+
+	/** When the registration of a contact has expired and the contact has been removed from the location service.
+	  * @param user the user name
+	  * @param uri the contact URI */
+	protected void onUserContactExpired(String user, String uri) {
+		LOG.info("contact {} of user '{}' expired", uri, user);
+	}
+	
+
 	// ****************************** costructors *****************************
 
 	/** Costructs a void ServerEngine */
@@ -161,22 +189,18 @@ public abstract class ServerEngine implements SipProviderListener {
 			location_service.sync();
 			LOG.debug("LocationService \"{}\": cleaned\r\n", profile.locationDb);
 		}
-		else {
-			// remove all expired contacts
-			boolean changed=false;    
-			for (Enumeration<String> u=location_service.getUsers(); u.hasMoreElements(); ) {
-				String user= u.nextElement();
-				for (Enumeration<String> c=location_service.getUserContactURIs(user); c.hasMoreElements(); ) {
-					String contact= c.nextElement();
-					if ((changed=location_service.isUserContactExpired(user,contact))==true) location_service.removeUserContact(user,contact);
-				}
-				// Note: uncomment the next line, if you want that 'unbound' users (i.e. without registered contacts) are automatically removed
-				//if (!location_service.getUserContacts(user).hasMoreElements()) location_service.removeUser(user);   
-			}
-			if (changed) location_service.sync();
-		}  
+		// remove contacts as their registrations expire
+		location_service=new ExpiringLocationService(location_service,sip_provider.scheduler(),this::onUserContactExpired);
 		LOG.debug("LocationService ({}): size={}\r\n{}",profile.authenticationService, location_service.size(), location_service);
 
+		// CALL LOG
+		if (profile.callLog!=null) {
+			CdrLogger cdr_logger=new CdrLogger(new RotatingCdrWriter(new File(profile.callLog),CdrFormat.fromName(profile.callLogFormat),profile.callLogMaxSize,1000L*profile.callLogRotation));
+			Runtime.getRuntime().addShutdownHook(new Thread(cdr_logger::close,"CdrShutdown"));
+			call_logger=cdr_logger;
+			LOG.info("Call log: {}", profile.callLog);
+		}
+
 		// AUTHENTICATION SERVICE
 		if (server_profile.doAuthentication || server_profile.doProxyAuthentication) {
 			// first, init the proper authentication service
@@ -226,7 +250,8 @@ public abstract class ServerEngine implements SipProviderListener {
 			}
 			// use default authentication service
 			if (as == null)
-				as = new AuthenticationServerImpl(sip_provider, realm, authentication_service);
+				as = new AuthenticationServerImpl(sip_provider, realm, authentication_service, 1000L * profile.nonceLifetime,
+						profile.nonceSecret == null ? null : profile.nonceSecret.getBytes(StandardCharsets.UTF_8));
 			LOG.debug("AuthenticationServer: scheme: {}", profile.authenticationScheme);
 			LOG.debug("AuthenticationServer: realm: {}", profile.authenticationRealm);
 		}
@@ -253,6 +278,7 @@ public abstract class ServerEngine implements SipProviderListener {
 	@Override
 	public void onReceivedMessage(SipProvider provider, SipMessage msg) {
 		LOG.debug("message received");
+		logCall(msg);
 		if (msg.isRequest()) {
 			// it is an INVITE or ACK or BYE or OPTIONS or REGISTER or CANCEL
 			LOG.debug("message is a request");
@@ -381,11 +407,17 @@ public abstract class ServerEngine implements SipProviderListener {
 		// check host address
 		if (domain.equals(sip_provider.getViaAddress())) return true;
 		// check domain name
-		boolean result=false;
-		for (int i=0; i<server_profile.domainNames.length; i++) {
-			if (server_profile.domainNames[i].equals(domain)) { result=true; break; }
-		}
-		return result;
+		Set<String> domains=local_domains;
+		if (domains==null) local_domains=domains=new HashSet<>(Arrays.asList(server_profile.domainNames));
+		return domains.contains(domain);
+	}
+
+	/** Sets the domain names the server is responsible for.
+	  * It can be called at runtime for changing the local domains. */
+	public void setLocalDomains(String[] domain_names) {
+		server_profile.domainNames=domain_names;
+		local_domains=new HashSet<>(Arrays.asList(domain_names));
+		LOG.info("Domains={}", getLocalDomains());
 	}
 	
 	/** Whether the server is responsible for the request-uri of the request <i>req</i>. */
@@ -26,6 +26,14 @@ public class ServerProfile {
 	@Option(name = "--proxy-transaction-timeout", usage = "Proxy transaction timeout (in milliseconds), that corresponds to Timer 'C' of RFC2361; RFC2361 suggests C > 3min = 180000ms.")
 	public int proxyTransactionTimeout=180000;
 
+	@Option(name = "--sequential-forking", usage = "Whether the contacts of a user are tried in order of decreasing q-value instead of all at once. "
+			+ "Contacts with equal q-value are tried in parallel.", handler = YesNoHandler.class)
+	public boolean sequentialForking=false;
+
+	@Option(name = "--sequential-forking-timeout", usage = "Time (in milliseconds) to wait for a final response from contacts with equal q-value before trying the next contacts. "
+			+ "If 0 (default), the next contacts are tried only after all previous contacts have responded or timed out.")
+	public int sequentialForkingTimeout=0;
+
 	@Option(name = "--domain-names", usage = "The domain names that the server manages. "
 			+ "Specify the domain names for which the location service maintains user bindings. "
 			+ "Use 'auto-configuration' for automatic configuration of the domain name.", handler = DomainNamesHandler.class)
@@ -47,7 +55,8 @@ public class ServerProfile {
 	public boolean isOpenProxy=false;
 	
 	@Option(name = "--location-service", usage = "The type of location service. "
-			+ "Valid location service types are (local, ldap, radius, mysql) or a class name (e.g. local.server.LocationServiceImpl).")
+			+ "Valid location service types are (local, journal, ldap, radius, mysql) or a class name (e.g. local.server.LocationServiceImpl). "
+			+ "The 'journal' service persists each change incrementally instead of rewriting the DB.")
 	public String locationService="local";
 	
 	@Option(name = "--location-db", usage = "The file name of the location DB.")
@@ -77,6 +86,14 @@ public class ServerProfile {
 	@Option(name = "--authentication-db", usage = "The fila name of the authentication DB.")
 	public String authenticationDb="aaa.db";
 
+	@Option(name = "--nonce-lifetime", usage = "Time (in seconds) a stateless authentication nonce can be reused by a client. "
+			+ "If 0 (default), a single nonce is shared by all clients and replaced after each successful authentication.")
+	public int nonceLifetime=0;
+
+	@Option(name = "--nonce-secret", usage = "Key for signing stateless authentication nonces. "
+			+ "Servers sharing the same key accept each other's nonces. If not defined, a random key is used.")
+	public String nonceSecret=null;
+
 	@Option(name = "--on-route", usage = "Whether the server should stay in the signaling path (uses Record-Route/Route).", handler = YesNoHandler.class)
 	public boolean onRoute=false;
 	
@@ -117,8 +134,21 @@ public class ServerProfile {
 	@Option(name = "--memory-log", usage = "Whether maintaining a memory log.")
 	public boolean memoryLog=false;
 
+	@Option(name = "--call-log", usage = "The file call detail records are appended to, none for not writing call detail records.")
+	public String callLog=null;
+
+	@Option(name = "--call-log-format", usage = "The format of call detail records (csv, json).")
+	public String callLogFormat="csv";
+
+	@Option(name = "--call-log-max-size", usage = "Size (in bytes) after which the call log file is rotated, 0 for no limit.")
+	public long callLogMaxSize=10*1024*1024;
+
+	@Option(name = "--call-log-rotation", usage = "Time (in seconds) after which the call log file is rotated, 0 for no limit.")
+	public long callLogRotation=24*60*60;
+
 	public void normalize() {
 		if (authenticationRealm!=null && authenticationRealm.equals(Configure.NONE)) authenticationRealm=null;
+		if (callLog!=null && callLog.equals(Configure.NONE)) callLog=null;
 		if (domainNames==null) domainNames=new String[0];
 		
 		for (int n = 0, cnt = domainNames.length; n < cnt; n++) {
@@ -22,8 +22,6 @@
 package org.mjsip.server;
 
 
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Vector;
 
 import org.mjsip.config.MetaConfig;
@@ -31,18 +29,20 @@ import org.mjsip.config.OptionParser;
 import org.mjsip.sip.address.GenericURI;
 import org.mjsip.sip.address.SipURI;
 import org.mjsip.sip.header.RequestLine;
+import org.mjsip.sip.header.ViaHeader;
 import org.mjsip.sip.message.SipMessage;
 import org.mjsip.sip.message.SipMethods;
 import org.mjsip.sip.message.SipResponses;
 import org.mjsip.sip.provider.SipConfig;
+import org.mjsip.sip.provider.SipId;
 import org.mjsip.sip.provider.SipProvider;
 import org.mjsip.sip.transaction.InviteTransactionServer;
-import org.mjsip.sip.transaction.Transaction;
 import org.mjsip.sip.transaction.TransactionClient;
 import org.mjsip.sip.transaction.TransactionClientListener;
 import org.mjsip.sip.transaction.TransactionServer;
 import org.mjsip.time.ConfiguredScheduler;
 import org.mjsip.time.SchedulerConfig;
+import org.mjsip.time.ThreadSupport;
 import org.slf4j.LoggerFactory;
 
 
@@ -76,7 +76,7 @@ public class StatefulProxy extends Proxy implements TransactionClientListener {
 	private void init() {
 		sip_provider_client=sip_provider;
 		sip_provider_server=sip_provider;
-		state=new StatefulProxyState(sip_provider);
+		state=new StatefulProxyState();
 	}   
 
 		
@@ -115,6 +115,7 @@ public class StatefulProxy extends Proxy implements TransactionClientListener {
 			super.processRequestToLocalUser(msg);
 			return; 
 		}
+		if (msg.isCancel() && processCancel(msg)) return;
 		
 		TransactionServer ts;
 		if (msg.isInvite()) ts=new InviteTransactionServer(sip_provider_server,msg,null);
@@ -148,22 +149,13 @@ public class StatefulProxy extends Proxy implements TransactionClientListener {
 		}
 
 		LOG.debug("message will be forwarded to {} user's contact(s)", targets.size()); 
+		ProxyFork fork=new ProxyFork(this,ts);
 		for (int i=0; i<targets.size(); i++)  {
-			SipURI target_uri=SipURI.parseSipURI((targets.elementAt(i)));
-			SipMessage request=new SipMessage(msg);
-			request.removeRequestLine();
-			request.setRequestLine(new RequestLine(msg.getRequestLine().getMethod(),target_uri));
-
-			updateProxyingRequest(request);         
-
-			TransactionClient tc;
-			if (msg.isInvite()) tc=new ProxyInviteTransactionClient(sip_provider_client,request,server_profile.proxyTransactionTimeout, this);
-			else tc=new TransactionClient(sip_provider_client,request,this);
-			//printLog("DEBUG: processLocalRequest()\r\n"+tc.getRequestMessage().toString(),LogWriter.LEVEL_LOWER);
-			state.addClient(ts,tc);
+			String target=targets.elementAt(i);
+			fork.addTarget(target,getTargetPriority(msg,target));
 		}
-		HashSet<Transaction> clients=state.getClients(ts);
-		for (Iterator<Transaction> i=clients.iterator(); i.hasNext(); ) ((TransactionClient)i.next()).request();
+		state.addFork(fork);
+		fork.start(server_profile.sequentialForking,server_profile.sequentialForkingTimeout);
 	}
 
 	
@@ -177,6 +169,7 @@ public class StatefulProxy extends Proxy implements TransactionClientListener {
 			super.processRequestToRemoteUA(msg);
 			return; 
 		}
+		if (msg.isCancel() && processCancel(msg)) return;
 		TransactionServer ts;
 		if (msg.isInvite()) ts=new InviteTransactionServer(sip_provider_server,msg,null);
 		else ts=new TransactionServer(sip_provider_server,msg,null);
@@ -209,11 +202,9 @@ public class StatefulProxy extends Proxy implements TransactionClientListener {
 		
 		updateProxyingRequest(msg);         
 
-		TransactionClient tc;
-		if (msg.isInvite()) tc=new ProxyInviteTransactionClient(sip_provider_client,msg,server_profile.proxyTransactionTimeout, this);
-		else tc=new TransactionClient(sip_provider_client,msg,this);
-		state.addClient(ts,tc);
-		tc.request(); 
+		ProxyFork fork=new ProxyFork(this,ts);
+		state.addFork(fork);
+		fork.forward(createClient(msg));
 	}   
 
 
@@ -229,40 +220,98 @@ public class StatefulProxy extends Proxy implements TransactionClientListener {
 	/** Sends a server final response */
 	protected void sendStatefulServerResponse(TransactionServer ts, SipMessage resp) {
 		LOG.debug("inside sendStatefulServerResponse(msg)");
-	LOG.debug("Server response: {}", resp.getStatusLine());
+		LOG.debug("Server response: {}", resp.getStatusLine());
 		ts.respondWith(resp);
 	}   
 
 
+	/** Processes a CANCEL for a request that is currently forwarded.
+	  * @return true if the CANCEL matched a forwarded request */
+	protected boolean processCancel(SipMessage msg) {
+		ViaHeader via=msg.getViaHeader();
+		if (via==null) return false;
+		String branch=via.getBranch();
+		SipId invite_id=SipId.createTransactionId(false,msg.getCallIdHeader().getCallId(),msg.getCSeqHeader().getSequenceNumber(),SipMethods.INVITE,(branch==null)? via.getSentBy() : null,branch);
+		ProxyFork fork=state.getFork(invite_id);
+		if (fork==null) return false;
+		// else
+		LOG.debug("CANCEL received for a forwarded request");
+		TransactionServer ts=new TransactionServer(sip_provider_server,msg,null);
+		ts.respondWith(sip_provider.messageFactory().createResponse(msg,SipResponses.OK,null,null));
+		fork.cancel();
+		return true;
+	}
+
+
+	/** Creates a client transaction forwarding the request of <i>ts</i> to <i>target</i>.
+	  * @return the (not yet started) client transaction, or null if the target is invalid */
+	protected TransactionClient createBranch(TransactionServer ts, String target) {
+		SipMessage msg=ts.getRequestMessage();
+		SipURI target_uri=SipURI.parseSipURI(target);
+		if (target_uri==null) {
+			LOG.info("invalid target: {}", target);
+			return null;
+		}
+		SipMessage request=new SipMessage(msg);
+		request.removeRequestLine();
+		request.setRequestLine(new RequestLine(msg.getRequestLine().getMethod(),target_uri));
+
+		updateProxyingRequest(request);         
+		return createClient(request);
+	}
+
+
+	/** Creates a client transaction for the given request. */
+	protected TransactionClient createClient(SipMessage request) {
+		if (request.isInvite()) return new ProxyInviteTransactionClient(sip_provider_client,request,server_profile.proxyTransactionTimeout, this);
+		else return new TransactionClient(sip_provider_client,request,this);
+	}
+
+
+	/** Cancels the given client transaction. */
+	protected void cancelBranch(TransactionClient tc) {
+		SipMessage cancel=sip_provider.messageFactory().createCancelRequest(tc.getRequestMessage());
+		TransactionClient tc_cancel=new TransactionClient(sip_provider_server,cancel,null);
+		tc_cancel.request();
+	}
+
+
+	/** Forwards a provisional response to server <i>ts</i>. */
+	protected void forwardProvisionalResponse(TransactionServer ts, SipMessage resp) {
+		updateProxyingResponse(resp);
+		if (resp.hasViaHeader()) ts.respondWith(resp);
+	}
+
+
+	/** Forwards the final response to server <i>ts</i>. */
+	protected void forwardFinalResponse(TransactionServer ts, SipMessage resp) {
+		logCall(resp);
+		updateProxyingResponse(resp);
+		if (resp.hasViaHeader()) sendStatefulServerResponse(ts,resp);
+		else ts.terminate();
+	}
+
+
+	/** Forwards a response that does not belong to the server transaction anymore
+	  * (e.g. a further 2xx response of a forked INVITE). */
+	protected void forwardResponse(SipMessage resp) {
+		updateProxyingResponse(resp);
+		if (resp.hasViaHeader()) sip_provider_server.sendMessage(resp);
+	}
+
+
 	/** Process provisional response */
 	protected void processProvisionalResponse(TransactionClient transaction, SipMessage resp) {
 		LOG.debug("inside processProvisionalResponse(t,resp)");
-		int code=resp.getStatusLine().getCode();
-		TransactionServer ts=state.getServer(transaction);
-		if (ts!=null && code!=100) {
-			updateProxyingResponse(resp);
-			if (resp.hasViaHeader()) ts.respondWith(resp);
-		}
+		ProxyFork fork=state.getClientFork(transaction);
+		if (fork!=null) fork.onProvisionalResponse(transaction,resp);
 	}
 	
 	/** Process failure response */
 	protected void processFailureResponse(TransactionClient transaction, SipMessage resp) {
 		LOG.debug("inside processFailureResponse(t,resp)");
-		TransactionServer ts=state.getServer(transaction);
-		state.removeClient(transaction);
-		if (ts==null) return;
-		if (!state.hasServer(ts)) return;
-		// updates the non-2xx final response
-		state.setFinalResponse(ts,resp);
-		// if there are no more pending clients, sends the final response
-		HashSet<Transaction> clients=state.getClients(ts);
-		if (clients.isEmpty()) {
-			LOG.trace("only this t_client remained: send the response");
-			resp=state.getFinalResponse(ts);
-			updateProxyingResponse(resp);
-			if (resp.hasViaHeader()) ts.respondWith(resp); else ts.terminate();
-			state.removeServer(ts);
-		}
+		ProxyFork fork=state.getClientFork(transaction);
+		if (fork!=null) fork.onFinalResponse(transaction,resp);
 		LOG.trace("t_clients still active: {}", state.numOfClients());
 		LOG.trace("t_servers still active: {}", state.numOfServers());
 	}
@@ -270,36 +319,8 @@ public class StatefulProxy extends Proxy implements TransactionClientListener {
 	/** Process success response */
 	protected void processSuccessResponse(TransactionClient transaction, SipMessage resp) {
 		LOG.debug("inside processSuccessResponse(t,resp)");
-		TransactionServer ts=state.getServer(transaction);
-		state.removeClient(transaction);
-		if (ts==null) return;
-		updateProxyingResponse(resp);
-		if (resp.hasViaHeader()) {
-			ts.respondWith(resp);
-			if (!state.hasServer(ts)) return;
-			//else
-			// cancel all other pending transaction clients
-			HashSet<Transaction> clients=state.getClients(ts);
-			//printLog("Cancel pending clients..",LogWriter.LEVEL_LOW);
-			// cancel ONLY INVITE transaction clients
-			if (transaction.getTransactionMethod().equals(SipMethods.INVITE)) {
-				//LOG.trace("Cancelling {} pending clients", clients.size());
-				LOG.trace("{} pending clients", clients.size());
-				int canc_counter=0;
-				for (Iterator<Transaction> i=clients.iterator(); i.hasNext(); ) {
-					Transaction tc= i.next();
-					// cancel ONLY transaction clients that has (only) received a provisional response
-					if (tc.isProceeding()) {
-						SipMessage cancel=sip_provider.messageFactory().createCancelRequest(tc.getRequestMessage());
-						TransactionClient tc_cancel=new TransactionClient(sip_provider_server,cancel,null);
-						tc_cancel.request();
-						canc_counter++;
-					}
-				}
-				LOG.trace("Cancelled {} clients in \"proceeding\" state", canc_counter);
-			}
-			state.removeServer(ts);
-		}
+		ProxyFork fork=state.getClientFork(transaction);
+		if (fork!=null) fork.onFinalResponse(transaction,resp);
 		LOG.trace("t_clients still active: {}", state.numOfClients());
 		LOG.trace("t_servers still active: {}", state.numOfServers());
 	}
@@ -308,20 +329,8 @@ public class StatefulProxy extends Proxy implements TransactionClientListener {
 	/** Process tmeout */
 	protected void processTimeout(TransactionClient transaction) {
 		LOG.debug("inside processTimeout(t)");
-		TransactionServer ts=state.getServer(transaction);
-		state.removeClient(transaction);
-		if (ts==null) return;
-		HashSet<Transaction> clients=state.getClients(ts);
-		if (clients==null) return;
-		if (clients.isEmpty()) {
-			LOG.trace("responding..");
-			//printLog("DEBUG:\r\n"+state.getFinalResponse(ts),LogWriter.LEVEL_LOW);
-			SipMessage resp=state.getFinalResponse(ts);
-			updateProxyingResponse(resp);
-			if (resp.hasViaHeader()) sendStatefulServerResponse(ts,resp);
-			else ts.terminate();
-			state.removeServer(ts);
-		}      
+		ProxyFork fork=state.getClientFork(transaction);
+		if (fork!=null) fork.onTimeout(transaction);
 		LOG.trace("t_clients still active: {}", state.numOfClients());
 		LOG.trace("t_servers still active: {}", state.numOfServers());
 	}
@@ -365,6 +374,7 @@ public class StatefulProxy extends Proxy implements TransactionClientListener {
 		sipConfig.normalize();
 		server_profile.normalize();
 						
+		ThreadSupport.configure(schedulerConfig);
 		SipProvider sip_provider=new SipProvider(sipConfig, new ConfiguredScheduler(schedulerConfig));
 		
 		StatefulProxy sproxy=new StatefulProxy(sip_provider,server_profile);   
@@ -19,139 +19,89 @@
  * Luca Veltri (luca.veltri@unipr.it)
  */
 
+
 package org.mjsip.server;
 
 
-import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.mjsip.sip.message.SipMessage;
-import org.mjsip.sip.message.SipResponses;
 import org.mjsip.sip.provider.SipId;
-import org.mjsip.sip.provider.SipProvider;
-import org.mjsip.sip.transaction.Transaction;
 import org.mjsip.sip.transaction.TransactionClient;
 import org.mjsip.sip.transaction.TransactionServer;
 
 
 /** Class StatefulProxyState allows the record and management
-  * of all TransactionServer-to-TransactionClient mappings in a stateful proxy. */
+  * of all TransactionServer-to-TransactionClient mappings in a stateful proxy.
+  * <p> Each forwarded request is represented by a {@link ProxyFork}, that is indexed
+  * both by the transaction ID of its server transaction and by the transaction IDs
+  * (i.e. the branches) of its client transactions. */
 public class StatefulProxyState {
 	
-	/** Mapping between t_clients and t_servers, as table of (TransactionId)t_client-->(TransactionServer)t_server */
-	Hashtable<SipId, TransactionServer> c_server;
-	/** Mapping between t_servers and their t_clients, as table of (TransactionId)t_server-->(HashSet)t_clients */
-	Hashtable<SipId, HashSet<Transaction>> s_clients;
-	/** Mapping between t_servers and their response messages, as table of (TransactionId)t_server-->(Message)resp */
-	Hashtable<SipId, SipMessage> s_response;
-	private SipProvider sip_provider;
+	/** Mapping between t_servers and their forks, as table of (TransactionId)t_server-->(ProxyFork)fork */
+	Map<SipId, ProxyFork> s_fork=new ConcurrentHashMap<>();
+	/** Mapping between t_clients and the forks they belong to, as table of (TransactionId)t_client-->(ProxyFork)fork */
+	Map<SipId, ProxyFork> c_fork=new ConcurrentHashMap<>();
 
 	
 	/** Creates the StatefulProxyState */
-	public StatefulProxyState(SipProvider sip_provider) {
-		this.sip_provider = sip_provider;
-		if (c_server==null) c_server=new Hashtable<>();
-		if (s_clients==null) s_clients=new Hashtable<>();
-		if (s_response==null) s_response=new Hashtable<>();
+	public StatefulProxyState() {
 	}
 
-	/** Adds a new server <i>ts</i> */
-	public synchronized void addServer(TransactionServer ts) {
-		//printlog("addServer(ts)",LogWriter.LEVEL_LOW);
-		if (hasServer(ts)) return;
-		SipId sid=ts.getTransactionId();
-		s_clients.put(sid,new HashSet<>());
-		SipMessage request=new SipMessage(ts.getRequestMessage());
-		//printlog("creating a possible server 408 final response",LogWriter.LEVEL_LOW);
-		SipMessage resp=sip_provider.messageFactory().createResponse(request,SipResponses.REQUEST_TIMEOUT,null,null);
-		//printlog("DEBUG: addServer()\r\n"+resp,LogWriter.LEVEL_LOW);
-		s_response.put(sid,resp);
+	/** Adds a new fork. */
+	public void addFork(ProxyFork fork) {
+		s_fork.put(fork.getServer().getTransactionId(),fork);
 	}
 
-	/** Appends a new client to server <i>ts</i>.
-	  * If server <i>ts</i> is new, adds it. */
-	public synchronized void addClient(TransactionServer ts, Transaction tc) {
-		//printlog("addClient(ts,tc)",LogWriter.LEVEL_LOW);
-		c_server.put(tc.getTransactionId(),ts);
-		SipId sid=ts.getTransactionId();
-		HashSet<Transaction> clients= s_clients.get(sid);
-		if (clients==null) clients=new HashSet<>();
-		clients.add(tc);
-		s_clients.put(sid,clients);
-		SipMessage request=new SipMessage(ts.getRequestMessage());
-		//printlog("creating a possible server 408 final response",LogWriter.LEVEL_LOW);
-		SipMessage resp=sip_provider.messageFactory().createResponse(request, SipResponses.REQUEST_TIMEOUT,null,null);
-		//printlog("DEBUG addClient():\r\n"+resp,LogWriter.LEVEL_LOW);
-		s_response.put(sid,resp);
+	/** Removes a fork. */
+	public void removeFork(ProxyFork fork) {
+		s_fork.remove(fork.getServer().getTransactionId(),fork);
 	}
-	
-	/** Removes a client. */
-	public synchronized void removeClient(TransactionClient tc) {
-		SipId cid=tc.getTransactionId();
-		TransactionServer ts= c_server.get(cid);
-		if (ts==null) return;
-		c_server.remove(cid);
-		SipId sid=ts.getTransactionId();
-		HashSet<Transaction> clients=s_clients.get(sid);
-		if (clients==null) return;
-		Transaction target=null;
-		Transaction tc_i;
-		for (Iterator<Transaction> i=clients.iterator(); i.hasNext(); )
-			if ((tc_i= i.next()).getTransactionId().equals(cid)) target=tc_i;
-		if (target!=null) clients.remove(target);
+
+	/** Gets the fork of the server transaction with the given ID. */
+	public ProxyFork getFork(SipId server_id) {
+		return s_fork.get(server_id);
 	}
-	
-	/** Removes all clients bound to server <i>ts</i>. */
-	public synchronized void clearClients(TransactionServer ts) {
-		SipId sid=ts.getTransactionId();
-		s_clients.remove(sid);
-		s_clients.put(sid,new HashSet<>());
+
+	/** Gets the fork of server <i>ts</i>. */
+	public ProxyFork getFork(TransactionServer ts) {
+		return getFork(ts.getTransactionId());
 	}
 
 	/** Whether there is a server <i>ts</i>. */
 	public boolean hasServer(TransactionServer ts) {
-		SipId sid=ts.getTransactionId();
-		return s_clients.containsKey(sid);
+		return s_fork.containsKey(ts.getTransactionId());
 	}
 
-	/** Removes server <i>ts</i>. */
-	public synchronized void removeServer(TransactionServer ts) {
-		SipId sid=ts.getTransactionId();
-		s_clients.remove(sid);
-		s_response.remove(sid);
+	/** Appends the client transaction with the given ID to a fork. */
+	void addClient(SipId client_id, ProxyFork fork) {
+		c_fork.put(client_id,fork);
 	}
 
-	/** Gets the server bound to client <i>tc</i> */
-	public synchronized TransactionServer getServer(TransactionClient tc) {
-		return c_server.get(tc.getTransactionId());
+	/** Removes the client transaction with the given ID. */
+	void removeClient(SipId client_id) {
+		c_fork.remove(client_id);
 	}
 
-	/** Gets all clients bound to server <i>ts</i>. */
-	public synchronized HashSet<Transaction> getClients(TransactionServer ts) {
-		return s_clients.get(ts.getTransactionId());
-	}
-		
-	/** Sets the final response for server <i>ts</i>. */
-	public synchronized void setFinalResponse(TransactionServer ts, SipMessage resp) {
-		SipId sid=ts.getTransactionId();
-		s_response.remove(sid);
-		s_response.put(sid,resp);
+	/** Gets the fork client <i>tc</i> belongs to. */
+	public ProxyFork getClientFork(TransactionClient tc) {
+		return c_fork.get(tc.getTransactionId());
 	}
-	 
-	/** Gets the final response for server <i>ts</i>. */
-	public synchronized SipMessage getFinalResponse(TransactionServer ts) {
-		return s_response.get(ts.getTransactionId());
+
+	/** Gets the server bound to client <i>tc</i> */
+	public TransactionServer getServer(TransactionClient tc) {
+		ProxyFork fork=getClientFork(tc);
+		return (fork!=null)? fork.getServer() : null;
 	}
 	
 	/** Gets the number of active servers. */
 	public int numOfServers() {
-		return s_clients.size();
+		return s_fork.size();
 	}
 	
 	/** Gets the number of active clients. */
 	public int numOfClients() {
-		return c_server.size();
+		return c_fork.size();
 	}
 	
 }  
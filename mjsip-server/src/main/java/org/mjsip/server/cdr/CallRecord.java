@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server.cdr;
+
+/**
+ * Call detail record of a single call.
+ *
+ * <p>
+ * A record is created when the INVITE of a call is seen and collects all call events. It is
+ * updated by the SIP threads until the call ends, either by a failure response to the INVITE, by
+ * a BYE, or by being evicted from the set of tracked calls. Afterwards, the record is no longer
+ * modified and is passed to a {@link CdrWriter}.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public final class CallRecord {
+
+	/**
+	 * The phases of a call.
+	 */
+	public enum State {
+		/** The INVITE has been seen, but no final response. */
+		SETUP,
+
+		/** The INVITE has been accepted. */
+		CONNECTED,
+
+		/** The call was accepted and has ended with a BYE. */
+		COMPLETED,
+
+		/** The INVITE was rejected. */
+		FAILED,
+
+		/** The call was still in progress when its record was evicted. */
+		INCOMPLETE;
+
+		/**
+		 * Whether a call in this state has ended.
+		 */
+		public boolean isFinal() {
+			return ordinal() > CONNECTED.ordinal();
+		}
+	}
+
+	private final String _callId;
+
+	private final String _caller;
+
+	private final String _callee;
+
+	private final long _inviteTime;
+
+	private long _answerTime;
+
+	private long _endTime;
+
+	private int _status;
+
+	private String _reason;
+
+	private State _state = State.SETUP;
+
+	/**
+	 * Creates a {@link CallRecord}.
+	 *
+	 * @param callId
+	 *        The Call-ID of the INVITE.
+	 * @param caller
+	 *        The From address.
+	 * @param callee
+	 *        The To address.
+	 * @param inviteTime
+	 *        The time in milliseconds when the INVITE has been seen.
+	 */
+	public CallRecord(String callId, String caller, String callee, long inviteTime) {
+		_callId = callId;
+		_caller = caller;
+		_callee = callee;
+		_inviteTime = inviteTime;
+	}
+
+	/**
+	 * The Call-ID of the call.
+	 */
+	public String getCallId() {
+		return _callId;
+	}
+
+	/**
+	 * The From address of the INVITE.
+	 */
+	public String getCaller() {
+		return _caller;
+	}
+
+	/**
+	 * The To address of the INVITE.
+	 */
+	public String getCallee() {
+		return _callee;
+	}
+
+	/**
+	 * The time in milliseconds when the INVITE has been seen.
+	 */
+	public long getInviteTime() {
+		return _inviteTime;
+	}
+
+	/**
+	 * The time in milliseconds when the INVITE was accepted, <code>0</code> if it was not accepted.
+	 */
+	public synchronized long getAnswerTime() {
+		return _answerTime;
+	}
+
+	/**
+	 * The time in milliseconds when the call ended, <code>0</code> if the call did not end.
+	 */
+	public synchronized long getEndTime() {
+		return _endTime;
+	}
+
+	/**
+	 * The status code of the final response to the INVITE, <code>0</code> if there was none.
+	 */
+	public synchronized int getStatus() {
+		return _status;
+	}
+
+	/**
+	 * The reason phrase of the final response to the INVITE, <code>null</code> if there was none.
+	 */
+	public synchronized String getReason() {
+		return _reason;
+	}
+
+	/**
+	 * The current {@link State} of the call.
+	 */
+	public synchronized State getState() {
+		return _state;
+	}
+
+	/**
+	 * Milliseconds from the INVITE to its final response, <code>-1</code> if there was no final
+	 * response.
+	 */
+	public synchronized long getSetupTime() {
+		long response = _answerTime > 0 ? _answerTime : (_state == State.FAILED ? _endTime : 0);
+		return response > 0 ? response - _inviteTime : -1;
+	}
+
+	/**
+	 * Milliseconds from accepting the INVITE to the BYE, <code>-1</code> if the call was not
+	 * accepted or did not end with a BYE.
+	 */
+	public synchronized long getCallTime() {
+		return _state == State.COMPLETED ? _endTime - _answerTime : -1;
+	}
+
+	/**
+	 * Records the acceptance of the INVITE.
+	 *
+	 * @return Whether the record has changed.
+	 */
+	synchronized boolean answer(long time, int status, String reason) {
+		if (_state != State.SETUP) {
+			return false;
+		}
+		_state = State.CONNECTED;
+		_answerTime = time;
+		_status = status;
+		_reason = reason;
+		return true;
+	}
+
+	/**
+	 * Records the rejection of the INVITE.
+	 *
+	 * @return Whether the call has ended with this event.
+	 */
+	synchronized boolean fail(long time, int status, String reason) {
+		if (_state != State.SETUP) {
+			return false;
+		}
+		_state = State.FAILED;
+		_endTime = time;
+		_status = status;
+		_reason = reason;
+		return true;
+	}
+
+	/**
+	 * Records the BYE of an accepted call.
+	 *
+	 * @return Whether the call has ended with this event.
+	 */
+	synchronized boolean hangup(long time) {
+		if (_state != State.CONNECTED) {
+			return false;
+		}
+		_state = State.COMPLETED;
+		_endTime = time;
+		return true;
+	}
+
+	/**
+	 * Marks the call as incomplete, since its record is no longer tracked.
+	 *
+	 * @return Whether the call was still in progress.
+	 */
+	synchronized boolean evict() {
+		if (_state.isFinal()) {
+			return false;
+		}
+		_state = State.INCOMPLETE;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "CallRecord(" + _callId + ", " + getState() + ")";
+	}
+
+}
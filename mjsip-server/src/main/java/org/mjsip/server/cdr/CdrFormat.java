@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server.cdr;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Line formats for {@link CallRecord}s.
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public enum CdrFormat {
+
+	/**
+	 * Comma separated values with a header line.
+	 */
+	CSV {
+		@Override
+		public String header() {
+			return "invite,call-id,state,status,reason,caller,callee,answer,end,setup-time,call-time\n";
+		}
+
+		@Override
+		public void append(StringBuilder out, CallRecord record) {
+			appendTime(out, record.getInviteTime());
+			out.append(',');
+			appendCsv(out, record.getCallId());
+			out.append(',');
+			out.append(record.getState().name());
+			out.append(',');
+			appendStatus(out, record);
+			out.append(',');
+			appendCsv(out, record.getReason());
+			out.append(',');
+			appendCsv(out, record.getCaller());
+			out.append(',');
+			appendCsv(out, record.getCallee());
+			out.append(',');
+			appendTime(out, record.getAnswerTime());
+			out.append(',');
+			appendTime(out, record.getEndTime());
+			out.append(',');
+			appendDuration(out, record.getSetupTime());
+			out.append(',');
+			appendDuration(out, record.getCallTime());
+			out.append('\n');
+		}
+	},
+
+	/**
+	 * One JSON object per line.
+	 */
+	JSON {
+		@Override
+		public String header() {
+			return null;
+		}
+
+		@Override
+		public void append(StringBuilder out, CallRecord record) {
+			out.append("{\"invite\":\"");
+			appendTime(out, record.getInviteTime());
+			out.append("\",\"callId\":");
+			appendJson(out, record.getCallId());
+			out.append(",\"state\":\"").append(record.getState().name()).append('"');
+			int status = record.getStatus();
+			if (status > 0) {
+				out.append(",\"status\":").append(status);
+				out.append(",\"reason\":");
+				appendJson(out, record.getReason());
+			}
+			out.append(",\"caller\":");
+			appendJson(out, record.getCaller());
+			out.append(",\"callee\":");
+			appendJson(out, record.getCallee());
+			long answer = record.getAnswerTime();
+			if (answer > 0) {
+				out.append(",\"answer\":\"");
+				appendTime(out, answer);
+				out.append('"');
+			}
+			long end = record.getEndTime();
+			if (end > 0) {
+				out.append(",\"end\":\"");
+				appendTime(out, end);
+				out.append('"');
+			}
+			long setupTime = record.getSetupTime();
+			if (setupTime >= 0) {
+				out.append(",\"setupTime\":").append(setupTime);
+			}
+			long callTime = record.getCallTime();
+			if (callTime >= 0) {
+				out.append(",\"callTime\":").append(callTime);
+			}
+			out.append("}\n");
+		}
+	};
+
+	/**
+	 * The first line of a file in this format, or <code>null</code> if there is none.
+	 */
+	public abstract String header();
+
+	/**
+	 * Appends the line for the given record including the line separator.
+	 */
+	public abstract void append(StringBuilder out, CallRecord record);
+
+	/**
+	 * Looks up a format by its case-insensitive name.
+	 */
+	public static CdrFormat fromName(String name) {
+		for (CdrFormat format : values()) {
+			if (format.name().equalsIgnoreCase(name)) {
+				return format;
+			}
+		}
+		throw new IllegalArgumentException("No such call log format: " + name);
+	}
+
+	static void appendTime(StringBuilder out, long time) {
+		if (time > 0) {
+			DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(time), out);
+		}
+	}
+
+	static void appendDuration(StringBuilder out, long duration) {
+		if (duration >= 0) {
+			out.append(duration);
+		}
+	}
+
+	static void appendStatus(StringBuilder out, CallRecord record) {
+		int status = record.getStatus();
+		if (status > 0) {
+			out.append(status);
+		}
+	}
+
+	static void appendCsv(StringBuilder out, String value) {
+		if (value == null) {
+			return;
+		}
+		boolean quote = false;
+		for (int n = 0, cnt = value.length(); n < cnt; n++) {
+			char ch = value.charAt(n);
+			if (ch == ',' || ch == '"' || ch == '\n' || ch == '\r') {
+				quote = true;
+				break;
+			}
+		}
+		if (!quote) {
+			out.append(value);
+			return;
+		}
+		out.append('"');
+		for (int n = 0, cnt = value.length(); n < cnt; n++) {
+			char ch = value.charAt(n);
+			if (ch == '"') {
+				out.append('"');
+			}
+			out.append(ch);
+		}
+		out.append('"');
+	}
+
+	static void appendJson(StringBuilder out, String value) {
+		if (value == null) {
+			out.append("null");
+			return;
+		}
+		out.append('"');
+		for (int n = 0, cnt = value.length(); n < cnt; n++) {
+			char ch = value.charAt(n);
+			switch (ch) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				if (ch < 0x20) {
+					out.append(String.format("\\u%04x", (int) ch));
+				} else {
+					out.append(ch);
+				}
+			}
+		}
+		out.append('"');
+	}
+
+}
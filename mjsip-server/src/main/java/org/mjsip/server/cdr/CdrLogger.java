@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server.cdr;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.mjsip.server.CallLogger;
+import org.mjsip.sip.header.StatusLine;
+import org.mjsip.sip.message.SipMessage;
+import org.mjsip.sip.message.SipMethods;
+import org.mjsip.time.ThreadSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link CallLogger} producing a {@link CallRecord} per call.
+ *
+ * <p>
+ * Calls are tracked by their Call-ID in a concurrent map. The records are additionally queued in
+ * the order of their creation, if more than the maximum number of calls are tracked, the oldest
+ * record is dropped in constant time. Records of calls in progress are reported as
+ * {@link CallRecord.State#INCOMPLETE incomplete} when being dropped. Records of finished calls
+ * stay tracked until dropped to ignore retransmissions.
+ * </p>
+ *
+ * <p>
+ * A finished record is handed off to a writer thread through a lock-free {@link RingBuffer}. The
+ * writer thread drains the buffer in batches to the {@link CdrWriter} and flushes it periodically.
+ * The SIP threads calling {@link #update(SipMessage)} therefore never block on I/O or on the
+ * writer. If the writer cannot keep up and the buffer is full, records are dropped and counted
+ * (see {@link #getDropped()}). The writer thread is a daemon thread started with the first finished
+ * record, so that a logger that never finishes a call does not hold a thread.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class CdrLogger implements CallLogger {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CdrLogger.class);
+
+	/** Default maximum number of tracked calls. */
+	public static final int DEFAULT_MAX_CALLS = 10000;
+
+	/** Default capacity of the hand-off buffer. */
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	/** Default interval in milliseconds for flushing written records. */
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+	private static final int BATCH_SIZE = 256;
+
+	private final ConcurrentHashMap<String, CallRecord> _calls = new ConcurrentHashMap<>();
+
+	private final ConcurrentLinkedQueue<CallRecord> _order = new ConcurrentLinkedQueue<>();
+
+	private final AtomicInteger _size = new AtomicInteger();
+
+	private final int _maxCalls;
+
+	private final RingBuffer<CallRecord> _buffer;
+
+	private final AtomicLong _dropped = new AtomicLong();
+
+	private final CdrWriter _writer;
+
+	private final long _flushNanos;
+
+	/** The writer thread, <code>null</code> until the first record is finished. */
+	private volatile Thread _thread;
+
+	private volatile boolean _closed;
+
+	/**
+	 * Creates a {@link CdrLogger} with default settings.
+	 *
+	 * @param writer
+	 *        The writer receiving finished records.
+	 */
+	public CdrLogger(CdrWriter writer) {
+		this(writer, DEFAULT_MAX_CALLS, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_INTERVAL);
+	}
+
+	/**
+	 * Creates a {@link CdrLogger}.
+	 *
+	 * @param writer
+	 *        The writer receiving finished records.
+	 * @param maxCalls
+	 *        The maximum number of tracked calls.
+	 * @param bufferSize
+	 *        The number of finished records that can be waiting for the writer.
+	 * @param flushInterval
+	 *        The maximum time in milliseconds until a finished record is flushed.
+	 */
+	public CdrLogger(CdrWriter writer, int maxCalls, int bufferSize, long flushInterval) {
+		_writer = writer;
+		_maxCalls = maxCalls;
+		_buffer = new RingBuffer<>(bufferSize);
+		_flushNanos = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+	}
+
+	@Override
+	public void update(SipMessage msg) {
+		if (_closed) {
+			return;
+		}
+
+		String method = msg.getCSeqHeader().getMethod();
+		if (method.equalsIgnoreCase(SipMethods.INVITE)) {
+			String callId = msg.getCallIdHeader().getCallId();
+			if (msg.isRequest()) {
+				if (!_calls.containsKey(callId)) {
+					String caller = msg.getFromHeader().getNameAddress().getAddress().toString();
+					String callee = msg.getToHeader().getNameAddress().getAddress().toString();
+					track(new CallRecord(callId, caller, callee, System.currentTimeMillis()));
+				}
+			} else {
+				CallRecord record = _calls.get(callId);
+				if (record == null) {
+					return;
+				}
+				StatusLine statusLine = msg.getStatusLine();
+				int code = statusLine.getCode();
+				if (code >= 200 && code < 300) {
+					record.answer(System.currentTimeMillis(), code, statusLine.getReason());
+				} else if (code >= 300) {
+					if (record.fail(System.currentTimeMillis(), code, statusLine.getReason())) {
+						publish(record);
+					}
+				}
+			}
+		} else if (method.equalsIgnoreCase(SipMethods.BYE)) {
+			if (msg.isRequest()) {
+				CallRecord record = _calls.get(msg.getCallIdHeader().getCallId());
+				if (record != null && record.hangup(System.currentTimeMillis())) {
+					publish(record);
+				}
+			}
+		}
+	}
+
+	private void track(CallRecord record) {
+		if (_calls.putIfAbsent(record.getCallId(), record) != null) {
+			return;
+		}
+		_order.add(record);
+		if (_size.incrementAndGet() > _maxCalls) {
+			CallRecord oldest = _order.poll();
+			if (oldest != null) {
+				_size.decrementAndGet();
+				_calls.remove(oldest.getCallId(), oldest);
+				if (oldest.evict()) {
+					publish(oldest);
+				}
+			}
+		}
+	}
+
+	private void publish(CallRecord record) {
+		if (!_buffer.offer(record)) {
+			_dropped.incrementAndGet();
+		}
+		if (_thread == null) {
+			startWriter();
+		}
+	}
+
+	private synchronized void startWriter() {
+		if (_thread == null && !_closed) {
+			_thread = ThreadSupport.start(this::run, "CdrWriter", true);
+		}
+	}
+
+	/**
+	 * The number of currently tracked calls.
+	 */
+	public int getTrackedCalls() {
+		return _size.get();
+	}
+
+	/**
+	 * The number of finished records that were dropped, because the writer did not keep up.
+	 */
+	public long getDropped() {
+		return _dropped.get();
+	}
+
+	/**
+	 * Stops accepting updates, writes all pending records and closes the writer.
+	 */
+	public void close() {
+		Thread thread;
+		synchronized (this) {
+			if (_closed) {
+				return;
+			}
+			_closed = true;
+			thread = _thread;
+		}
+		if (thread == null) {
+			closeWriter();
+			return;
+		}
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void run() {
+		List<CallRecord> batch = new ArrayList<>(BATCH_SIZE);
+		long reported = 0;
+		boolean dirty = false;
+		while (true) {
+			boolean closing = _closed;
+
+			batch.clear();
+			int cnt = _buffer.drainTo(batch, BATCH_SIZE);
+			if (cnt > 0) {
+				try {
+					_writer.write(batch);
+					dirty = true;
+				} catch (IOException | RuntimeException ex) {
+					LOG.error("Failed to write " + cnt + " call records.", ex);
+				}
+				if (cnt == BATCH_SIZE) {
+					continue;
+				}
+			}
+
+			if (dirty) {
+				try {
+					_writer.flush();
+				} catch (IOException | RuntimeException ex) {
+					LOG.error("Failed to flush call records.", ex);
+				}
+				dirty = false;
+			}
+
+			long dropped = _dropped.get();
+			if (dropped != reported) {
+				LOG.warn("Dropped {} call records, the writer does not keep up.", dropped - reported);
+				reported = dropped;
+			}
+
+			if (closing) {
+				break;
+			}
+			LockSupport.parkNanos(this, _flushNanos);
+		}
+
+		closeWriter();
+	}
+
+	private void closeWriter() {
+		try {
+			_writer.close();
+		} catch (IOException ex) {
+			LOG.error("Failed to close call record writer.", ex);
+		}
+	}
+
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server.cdr;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Sink for finished {@link CallRecord}s.
+ *
+ * <p>
+ * A {@link CdrWriter} is only called from the writer thread of a {@link CdrLogger}, it may
+ * therefore block on I/O and needs no synchronization.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public interface CdrWriter extends Closeable {
+
+	/**
+	 * Writes a batch of records.
+	 */
+	void write(List<CallRecord> records) throws IOException;
+
+	/**
+	 * Forces written records to the underlying storage.
+	 */
+	void flush() throws IOException;
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server.cdr;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link CdrWriter} reporting records to a {@link Logger}.
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class LogCdrWriter implements CdrWriter {
+
+	private final Logger _log;
+
+	private final CdrFormat _format;
+
+	private final StringBuilder _buffer = new StringBuilder();
+
+	/**
+	 * Creates a {@link LogCdrWriter} reporting {@link CdrFormat#CSV} lines to the log of this
+	 * class.
+	 */
+	public LogCdrWriter() {
+		this(LoggerFactory.getLogger(LogCdrWriter.class), CdrFormat.CSV);
+	}
+
+	/**
+	 * Creates a {@link LogCdrWriter}.
+	 *
+	 * @param log
+	 *        The log to report to with level info.
+	 * @param format
+	 *        The line format.
+	 */
+	public LogCdrWriter(Logger log, CdrFormat format) {
+		_log = log;
+		_format = format;
+
+		String header = format.header();
+		if (header != null) {
+			_log.info(header.trim());
+		}
+	}
+
+	@Override
+	public void write(List<CallRecord> records) {
+		if (!_log.isInfoEnabled()) {
+			return;
+		}
+		for (int n = 0, cnt = records.size(); n < cnt; n++) {
+			_buffer.setLength(0);
+			_format.append(_buffer, records.get(n));
+			_buffer.setLength(_buffer.length() - 1);
+			_log.info(_buffer.toString());
+		}
+	}
+
+	@Override
+	public void flush() {
+		// Nothing buffered.
+	}
+
+	@Override
+	public void close() {
+		// Nothing to release.
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server.cdr;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue with many producers and a single consumer.
+ *
+ * <p>
+ * Each slot of the ring carries a sequence number that tells whether the slot is free for the
+ * producer claiming a certain position, or filled for the consumer reading that position.
+ * Producers claim positions by a compare-and-set on the tail counter, they never wait: if the ring
+ * is full, {@link #offer(Object)} fails immediately.
+ * </p>
+ *
+ * @param <E>
+ *        The element type.
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public final class RingBuffer<E> {
+
+	private final Object[] _elements;
+
+	private final AtomicLongArray _sequences;
+
+	private final int _mask;
+
+	private final AtomicLong _tail = new AtomicLong();
+
+	/**
+	 * The next position to read, only accessed by the consumer.
+	 */
+	private long _head;
+
+	/**
+	 * Creates a {@link RingBuffer}.
+	 *
+	 * @param capacity
+	 *        The number of elements the buffer can hold, rounded up to a power of two.
+	 */
+	public RingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		_elements = new Object[size];
+		_sequences = new AtomicLongArray(size);
+		for (int n = 0; n < size; n++) {
+			_sequences.set(n, n);
+		}
+		_mask = size - 1;
+	}
+
+	/**
+	 * The number of elements the buffer can hold.
+	 */
+	public int capacity() {
+		return _elements.length;
+	}
+
+	/**
+	 * Appends the given element, may be called concurrently from any thread.
+	 *
+	 * @return Whether the element was added, <code>false</code> if the buffer is full.
+	 */
+	public boolean offer(E element) {
+		long pos = _tail.get();
+		while (true) {
+			int index = (int) pos & _mask;
+			long diff = _sequences.get(index) - pos;
+			if (diff == 0) {
+				if (_tail.compareAndSet(pos, pos + 1)) {
+					_elements[index] = element;
+					// Publishes the element to the consumer.
+					_sequences.set(index, pos + 1);
+					return true;
+				}
+				pos = _tail.get();
+			} else if (diff < 0) {
+				return false;
+			} else {
+				pos = _tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Removes the oldest element, must only be called from the consumer thread.
+	 *
+	 * @return The removed element, or <code>null</code> if the buffer is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		int index = (int) _head & _mask;
+		if (_sequences.get(index) != _head + 1) {
+			return null;
+		}
+		E result = (E) _elements[index];
+		_elements[index] = null;
+		// Releases the slot for the producer of the next round.
+		_sequences.set(index, _head + _elements.length);
+		_head++;
+		return result;
+	}
+
+	/**
+	 * Moves up to the given number of elements to the given list, must only be called from the
+	 * consumer thread.
+	 *
+	 * @return The number of elements moved.
+	 */
+	public int drainTo(List<? super E> out, int limit) {
+		int result = 0;
+		while (result < limit) {
+			E element = poll();
+			if (element == null) {
+				break;
+			}
+			out.add(element);
+			result++;
+		}
+		return result;
+	}
+
+	/**
+	 * Whether there is no element to {@link #poll()}, must only be called from the consumer
+	 * thread.
+	 */
+	public boolean isEmpty() {
+		return _sequences.get((int) _head & _mask) != _head + 1;
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server.cdr;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link CdrWriter} appending to a file that is rotated by size and age.
+ *
+ * <p>
+ * Before a batch is written, the current file is renamed to <code>&lt;name&gt;.yyyyMMdd-HHmmss</code>
+ * if it has reached the maximum size or age, and a new file is started. A file may therefore
+ * exceed its maximum size by one batch.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class RotatingCdrWriter implements CdrWriter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RotatingCdrWriter.class);
+
+	private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+	private final File _file;
+
+	private final CdrFormat _format;
+
+	private final long _maxSize;
+
+	private final long _maxAge;
+
+	private final StringBuilder _buffer = new StringBuilder();
+
+	private OutputStream _out;
+
+	private long _size;
+
+	private long _opened;
+
+	/**
+	 * Creates a {@link RotatingCdrWriter}.
+	 *
+	 * @param file
+	 *        The file to append to.
+	 * @param format
+	 *        The format of the records.
+	 * @param maxSize
+	 *        The size in bytes after which the file is rotated, <code>0</code> for no limit.
+	 * @param maxAge
+	 *        The time in milliseconds after which the file is rotated, <code>0</code> for no limit.
+	 */
+	public RotatingCdrWriter(File file, CdrFormat format, long maxSize, long maxAge) {
+		_file = file;
+		_format = format;
+		_maxSize = maxSize;
+		_maxAge = maxAge;
+	}
+
+	/**
+	 * The file currently written to.
+	 */
+	public File getFile() {
+		return _file;
+	}
+
+	@Override
+	public void write(List<CallRecord> records) throws IOException {
+		if (_out == null) {
+			open();
+		} else if (needsRotation()) {
+			rotate();
+		}
+
+		_buffer.setLength(0);
+		for (int n = 0, cnt = records.size(); n < cnt; n++) {
+			_format.append(_buffer, records.get(n));
+		}
+		append(_buffer);
+	}
+
+	private boolean needsRotation() {
+		return (_maxSize > 0 && _size >= _maxSize)
+			|| (_maxAge > 0 && System.currentTimeMillis() - _opened >= _maxAge);
+	}
+
+	private void rotate() throws IOException {
+		close();
+
+		String base = _file.getPath() + "." + LocalDateTime.now().format(SUFFIX);
+		File target = new File(base);
+		for (int n = 1; target.exists(); n++) {
+			target = new File(base + "-" + n);
+		}
+		if (_file.renameTo(target)) {
+			LOG.info("Rotated call log to '{}'.", target);
+		} else {
+			LOG.warn("Failed to rotate call log '{}', continuing to append.", _file);
+		}
+		open();
+	}
+
+	private void open() throws IOException {
+		File dir = _file.getAbsoluteFile().getParentFile();
+		if (dir != null) {
+			dir.mkdirs();
+		}
+		_size = _file.length();
+		_opened = System.currentTimeMillis();
+		_out = new BufferedOutputStream(new FileOutputStream(_file, true), 64 * 1024);
+
+		String header = _format.header();
+		if (header != null && _size == 0) {
+			append(header);
+		}
+	}
+
+	private void append(CharSequence text) throws IOException {
+		byte[] data = text.toString().getBytes(StandardCharsets.UTF_8);
+		_out.write(data);
+		_size += data.length;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (_out != null) {
+			_out.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (_out != null) {
+			try {
+				_out.close();
+			} finally {
+				_out = null;
+			}
+		}
+	}
+
+}
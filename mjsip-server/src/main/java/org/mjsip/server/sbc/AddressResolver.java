@@ -23,11 +23,13 @@ package org.mjsip.server.sbc;
 
 
 
-import java.util.Date;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.mjsip.sip.provider.SipProvider;
 import org.slf4j.LoggerFactory;
@@ -42,11 +44,27 @@ import org.zoolu.net.SocketAddress;
   * to be used to reach a remote node, against to the address optained in other ways.
   * For example, it can be used to maintain correct remote address mapping
   * for symmetric NAT traversal.
+  * <p>
+  * Bindings are kept in a concurrent map keyed by the {@link SocketKey} of the reference address,
+  * so that updates and lookups from concurrent receiver threads do not block each other.
+  * An additional index orders the bindings by expiration time. The refresh timer only visits the
+  * expired head of this index instead of scanning all bindings. To keep refreshes cheap, a binding
+  * is only moved in the index if its expiration has advanced by more than {@link #EXPIRY_GRANULARITY}.
+  * <p>
+  * All changes of a binding are made atomically within a compute operation of the binding map
+  * for its reference address. The hooks {@link #onBindingAdded(SocketKey, SocketAddress)},
+  * {@link #onBindingChanged(SocketKey, SocketAddress, SocketAddress)}, and
+  * {@link #onBindingRemoved(SocketKey, SocketAddress)} are called within this operation, so that
+  * the changes reported for one reference address never overlap and arrive in the order the
+  * bindings changed. Hooks must therefore be short and must not access the resolver.
   */
 public class AddressResolver {
 	
 	private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(AddressResolver.class);
 
+	/** Time [millisecs] by which the expiration of a binding may advance before it is moved in the expiry index. */
+	public static final long EXPIRY_GRANULARITY=1000;
+
 	/** Refresh time [millisecs].
 	  * When expired bindings are removed. */
 	long refresh_time;
@@ -56,10 +74,13 @@ public class AddressResolver {
 	long expire_time;
 
 	/** Binding table */
-	Hashtable<String, SocketAddress> binding_table;
+	final ConcurrentHashMap<SocketKey, Binding> binding_table=new ConcurrentHashMap<>();
+
+	/** Bindings ordered by expiration time */
+	final ConcurrentSkipListSet<Ticket> expiry_index=new ConcurrentSkipListSet<>();
 
-	/** Time table */
-	Hashtable<String, Long> time_table;
+	/** Tie-breaker for bindings with the same expiration time */
+	final AtomicLong sequence=new AtomicLong();
 
 	/** Refresh timer */
 	ScheduledFuture<?> timer;
@@ -67,14 +88,12 @@ public class AddressResolver {
 	protected final SipProvider sip_provider;
 	
 	/**
-	 * Constructs an empty AddressResolve.r
+	 * Constructs an empty AddressResolver.
 	 */
 	public AddressResolver(SipProvider sip_provider, long refresh_time) {
 		this.sip_provider = sip_provider;
 		this.refresh_time=refresh_time;
 		expire_time=refresh_time/2;
-		binding_table=new Hashtable<>();
-		time_table=new Hashtable<>();
 		
 		timer=sip_provider.scheduler().schedulerWithFixedDelay(refresh_time, this::onTimeout);
 	}
@@ -87,88 +106,221 @@ public class AddressResolver {
 
 	/** Gets list of all reference SocketAddresses */
 	public Enumeration<String> getAllSocketAddresses() {
-		return binding_table.keys();
+		Vector<String> keys=new Vector<>();
+		for (SocketKey key : binding_table.keySet()) keys.add(key.toString());
+		return keys.elements();
 	}
 
 
 	/** Whether there is a mapping for the selected SocketAddress */
 	public boolean contains(SocketAddress refer_soaddr) {
 		if (refer_soaddr!=null) {
-			return binding_table.containsKey(refer_soaddr.toString());
+			return contains(SocketKey.of(refer_soaddr));
 		}
 		return false;
 	}
 	
+	/** Whether there is a mapping for the selected address */
+	public boolean contains(SocketKey refer_key) {
+		return binding_table.containsKey(refer_key);
+	}
+	
 	
 	/** Adds or updates a new SocketAddress mapping */
 	public void updateBinding(SocketAddress refer_soaddr, SocketAddress actual_soaddr) {
 		if (refer_soaddr!=null) {
-			String key=refer_soaddr.toString();
-			long expire= new Date().getTime() + expire_time;
-			if (binding_table.containsKey(key)) {
-				if (!binding_table.get(key).equals(actual_soaddr)) {
-					LOG.info("change BINDING {} >> {}", refer_soaddr, actual_soaddr);
-					binding_table.remove(key);
-					binding_table.put(key,actual_soaddr);
-				}
-				else {
-					LOG.debug("update BINDING {} >> {}", refer_soaddr, actual_soaddr);
-					// do not change binding_table
-				}
-				time_table.remove(key);
-				time_table.put(key,expire);
+			updateBinding(SocketKey.of(refer_soaddr),actual_soaddr);
+		}
+	}
+
+	/** Adds or updates the mapping of the given reference address */
+	public void updateBinding(SocketKey refer_key, SocketAddress actual_soaddr) {
+		long expire=System.currentTimeMillis()+expire_time;
+		Binding current=binding_table.get(refer_key);
+		if (current!=null && current.actual_soaddr.equals(actual_soaddr)) {
+			Ticket ticket=current.ticket;
+			if (ticket!=null && expire-ticket.expire<EXPIRY_GRANULARITY) {
+				// refreshed without moving it in the expiry index
+				current.expire=expire;
+				return;
+			}
+		}
+		// else
+		binding_table.compute(refer_key,(key,binding)->{
+			if (binding!=null && binding.actual_soaddr.equals(actual_soaddr)) {
+				binding.expire=expire;
+				refresh(binding,expire);
+				LOG.debug("update BINDING {} >> {}", key, actual_soaddr);
+				return binding;
+			}
+			// else
+			Binding update=new Binding(key,actual_soaddr,expire);
+			index(update);
+			if (binding==null) {
+				LOG.info("add BINDING {} >> {}", key, actual_soaddr);
+				onBindingAdded(key,actual_soaddr);
 			}
 			else {
-				LOG.info("add BINDING {} >> {}", refer_soaddr, actual_soaddr);
-				binding_table.put(key,actual_soaddr);
-				time_table.put(key,expire);
+				unindex(binding);
+				LOG.info("change BINDING {} >> {}", key, actual_soaddr);
+				onBindingChanged(key,binding.actual_soaddr,actual_soaddr);
 			}
-		}
+			return update;
+		});
 	}
 
 
 	/** Removes a SocketAddress mapping */
 	public void removeBinding(SocketAddress refer_soaddr) {
 		if (refer_soaddr!=null) {
-			String key=refer_soaddr.toString();
-			if (binding_table.containsKey(key)) {
-				LOG.info("remove BINDING for {}", refer_soaddr);
-				binding_table.remove(key);
-				time_table.remove(key);
-			}
+			removeBinding(SocketKey.of(refer_soaddr));
 		}
 	}
 
+	/** Removes the mapping of the given reference address */
+	public void removeBinding(SocketKey refer_key) {
+		binding_table.computeIfPresent(refer_key,(key,binding)->{
+			unindex(binding);
+			LOG.info("remove BINDING for {}", key);
+			onBindingRemoved(key,binding.actual_soaddr);
+			return null;
+		});
+	}
+
 
 	/** Gets the actual SocketAddress for the selected SocketAddress */
 	public SocketAddress getSocketAddress(SocketAddress refer_soaddr) {
 		if (refer_soaddr!=null) {
-			String key=refer_soaddr.toString();
-			if (binding_table.containsKey(key)) return binding_table.get(key);
+			return getSocketAddress(SocketKey.of(refer_soaddr));
 		}
 		return null;
 	}
 
+	/** Gets the actual SocketAddress for the given reference address, or <code>null</code> if there is no mapping */
+	public SocketAddress getSocketAddress(SocketKey refer_key) {
+		Binding binding=binding_table.get(refer_key);
+		return binding!=null? binding.actual_soaddr : null;
+	}
+
+
+	/** When a new mapping has been added. */
+	protected void onBindingAdded(SocketKey refer_key, SocketAddress actual_soaddr) {
+		// Hook for subclasses.
+	}
+
+	/** When the actual address of a mapping has changed. */
+	protected void onBindingChanged(SocketKey refer_key, SocketAddress old_soaddr, SocketAddress actual_soaddr) {
+		// Hook for subclasses.
+	}
+
+	/** When a mapping has been removed or has expired. */
+	protected void onBindingRemoved(SocketKey refer_key, SocketAddress actual_soaddr) {
+		// Hook for subclasses.
+	}
+
 
 	/** When the refresh timeout fires */
 	protected void onTimeout() {
-		// enumerate expired binding
-		LOG.debug("refresh all address bindings:");         
-		long now=(new Date()).getTime();
-		Vector<String> aux=new Vector<>();
-		for (Enumeration<String> e=time_table.keys(); e.hasMoreElements(); ) {
-			String key= e.nextElement();
-			long expire=(time_table.get(key)).longValue();
-			if (expire<now) aux.addElement(key);
+		long now=System.currentTimeMillis();
+		int[] removed={0};
+		for (Iterator<Ticket> it=expiry_index.iterator(); it.hasNext(); ) {
+			Ticket ticket=it.next();
+			if (ticket.expire>now) break;
+			// else
+			it.remove();
+			Binding expired=ticket.binding;
+			if (expired.ticket!=ticket) continue;
+			// else
+			binding_table.computeIfPresent(expired.refer_key,(key,binding)->{
+				if (binding!=expired || binding.ticket!=ticket) return binding;
+				// else
+				if (binding.expire>now) {
+					// refreshed within the granularity
+					binding.ticket=null;
+					index(binding);
+					return binding;
+				}
+				// else
+				binding.ticket=null;
+				LOG.info("remove BINDING for {}", key);
+				removed[0]++;
+				onBindingRemoved(key,binding.actual_soaddr);
+				return null;
+			});
+		}
+		LOG.debug("refresh address bindings: {} expired, {} active.", removed[0], binding_table.size());
+	}
+
+
+	/** Adds a new binding to the expiry index. */
+	private void index(Binding binding) {
+		Ticket ticket=new Ticket(binding,binding.expire,sequence.incrementAndGet());
+		binding.ticket=ticket;
+		expiry_index.add(ticket);
+	}
+
+	/** Removes a binding from the expiry index. */
+	private void unindex(Binding binding) {
+		Ticket ticket=binding.ticket;
+		binding.ticket=null;
+		if (ticket!=null) expiry_index.remove(ticket);
+	}
+
+	/** Moves a refreshed binding in the expiry index, if its expiration has advanced far enough. */
+	private void refresh(Binding binding, long expire) {
+		Ticket ticket=binding.ticket;
+		if (ticket!=null && expire-ticket.expire<EXPIRY_GRANULARITY) return;
+		// else
+		unindex(binding);
+		index(binding);
+	}
+
+
+	/** Mapping of a reference address. */
+	static final class Binding {
+		
+		/** The reference address */
+		final SocketKey refer_key;
+
+		/** The actual address */
+		final SocketAddress actual_soaddr;
+
+		/** Expiration date [millisecs] */
+		volatile long expire;
+
+		/** The entry in the expiry index, <code>null</code> if removed.
+		  * Only changed within a compute operation of the binding map. */
+		volatile Ticket ticket;
+
+		Binding(SocketKey refer_key, SocketAddress actual_soaddr, long expire) {
+			this.refer_key=refer_key;
+			this.actual_soaddr=actual_soaddr;
+			this.expire=expire;
 		}
-		// remove expired binding
-		for (int i=0; i<aux.size(); i++) {
-			String key= aux.elementAt(i);
-			LOG.info("remove BINDING for {}", key);         
-			binding_table.remove(key);
-			time_table.remove(key);
+	}
+
+
+	/** Immutable entry of the expiry index. */
+	static final class Ticket implements Comparable<Ticket> {
+		
+		final Binding binding;
+
+		final long expire;
+
+		/** Tie-breaker for bindings with the same expiration */
+		final long sequence;
+
+		Ticket(Binding binding, long expire, long sequence) {
+			this.binding=binding;
+			this.expire=expire;
+			this.sequence=sequence;
+		}
+
+		@Override
+		public int compareTo(Ticket other) {
+			int result=Long.compare(expire,other.expire);
+			return result!=0? result : Long.compare(sequence,other.sequence);
 		}
-		LOG.debug("done.");         
 	}
 
 }
@@ -23,12 +23,9 @@ package org.mjsip.server.sbc;
 
 
 
-import java.util.Date;
-import java.util.Enumeration;
-import java.util.Hashtable;
-import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.mjsip.sip.provider.SipKeepAlive;
+import org.mjsip.sip.provider.KeepAliveEngine;
 import org.mjsip.sip.provider.SipProvider;
 import org.slf4j.LoggerFactory;
 import org.zoolu.net.SocketAddress;
@@ -50,75 +47,49 @@ public class AddressResolverKeepAlive extends AddressResolver {
 	/** Keep-alive time [millisecs] */
 	long keepalive_time;
 
-	/** Sip keep-alive daemons */
-	Hashtable<String, SipKeepAlive> keepalive_daemons=null;
+	/** Sip keep-alive bindings.
+	  * Only changed by the binding hooks, which the resolver calls atomically with the change of the mapping. */
+	final ConcurrentHashMap<SocketKey, KeepAliveEngine.Binding> keepalive_daemons=new ConcurrentHashMap<>();
 	
 	/** Costructs an empty AddressResolverKeepAlive */
 	public AddressResolverKeepAlive(SipProvider sip_provider, long refresh_time, long keepalive_time) {
 		super(sip_provider, refresh_time);
 		this.keepalive_time=keepalive_time;
-		keepalive_daemons=new Hashtable<>();
 	}
 
-	
-	/** Adds or updates a new SocketAddress mapping */
+
+	/** Starts sending keep-alives to a new mapping */
 	@Override
-	public void updateBinding(SocketAddress refer_soaddr, SocketAddress actual_soaddr) {
-		if (refer_soaddr!=null) {
-			String key=refer_soaddr.toString();
-			if (keepalive_daemons.containsKey(key)) {
-				if (!binding_table.get(key).equals(actual_soaddr)) {
-					SipKeepAlive keepalive=keepalive_daemons.get(key);
-					keepalive.setDestSoAddress(actual_soaddr);
-					LOG.debug("KeepAlive: change dest: {}", actual_soaddr);
-				}
-			}
-			else {
-				SipKeepAlive keepalive=new SipKeepAlive(sip_provider,actual_soaddr,keepalive_time);
-				keepalive_daemons.put(key,keepalive);
-				LOG.debug("KeepAlive: start: {}", actual_soaddr);
-			}
-		}
-		super.updateBinding(refer_soaddr,actual_soaddr);
+	protected void onBindingAdded(SocketKey refer_key, SocketAddress actual_soaddr) {
+		KeepAliveEngine.Binding keepalive=sip_provider.keepAlive().start(actual_soaddr,keepalive_time);
+		KeepAliveEngine.Binding before=keepalive_daemons.put(refer_key,keepalive);
+		if (before!=null) before.halt();
+		LOG.debug("KeepAlive: start: {}", actual_soaddr);
 	}
 
 
-	/** Removes a SocketAddress mapping */
+	/** Sends keep-alives to the new actual address of a mapping */
 	@Override
-	public void removeBinding(SocketAddress refer_soaddr) {
-		if (refer_soaddr!=null) {
-			String key=refer_soaddr.toString();
-			if (keepalive_daemons.containsKey(key)) {
-				SipKeepAlive keepalive=keepalive_daemons.get(key);
-				keepalive_daemons.remove(key);
-				keepalive.halt();
-				LOG.debug("KeepAlive: halt: {}", keepalive.getDestSoAddress());
-			}
+	protected void onBindingChanged(SocketKey refer_key, SocketAddress old_soaddr, SocketAddress actual_soaddr) {
+		KeepAliveEngine.Binding keepalive=keepalive_daemons.get(refer_key);
+		if (keepalive!=null) {
+			keepalive.setDestSoAddress(actual_soaddr);
+			LOG.debug("KeepAlive: change dest: {}", actual_soaddr);
+		}
+		else {
+			onBindingAdded(refer_key,actual_soaddr);
 		}
-		super.removeBinding(refer_soaddr);
 	}
 
 
-	/** When the refresh timeout fires */
+	/** Stops sending keep-alives to a removed or expired mapping */
 	@Override
-	protected void onTimeout() {
-		// enumerate expired binding
-		long now=(new Date()).getTime();
-		Vector<String> aux=new Vector<>();
-		for (Enumeration<String> e=time_table.keys(); e.hasMoreElements(); ) {
-			String key= e.nextElement();
-			long expire= time_table.get(key).longValue();
-			if (expire<now) aux.addElement(key);
-		}
-		// remove expired binding
-		for (int i=0; i<aux.size(); i++) {
-			String key= aux.elementAt(i);
-			SipKeepAlive keepalive= keepalive_daemons.get(key);
-			keepalive_daemons.remove(key);
+	protected void onBindingRemoved(SocketKey refer_key, SocketAddress actual_soaddr) {
+		KeepAliveEngine.Binding keepalive=keepalive_daemons.remove(refer_key);
+		if (keepalive!=null) {
 			keepalive.halt();
 			LOG.debug("KeepAlive: halt: {}", keepalive.getDestSoAddress());
 		}
-		super.onTimeout();
 	}
 
 }
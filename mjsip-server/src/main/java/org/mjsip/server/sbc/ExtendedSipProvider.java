@@ -67,27 +67,26 @@ public class ExtendedSipProvider extends org.mjsip.sip.provider.SipProvider {
 
 	//********************** extended methods **********************
 
-	/** From TransportListener. When a new SIP message is received. */
+	/** From TransportListener. When a new SIP message is received.
+	  * <p>
+	  * Messages are processed concurrently, the {@link AddressResolver} is thread-safe. */
 	@Override
-	public synchronized void onReceivedMessage(SipTransport transport, SipMessage msg) {
-		
-		SocketAddress src_soaddr=new SocketAddress(msg.getRemoteAddress(),msg.getRemotePort());
+	public void onReceivedMessage(SipTransport transport, SipMessage msg) {
 		
 		// update src address binding for received message
 		if (msg.isRequest())
 		try {
 			// maintain socket address bindiding for symmetring NAT
 			ViaHeader via=msg.getViaHeader();
-			SocketAddress via_soaddr=new SocketAddress(via.getHost(),(via.hasPort())?via.getPort():sipConfig().getDefaultPort());
-			if (via_soaddr.equals(src_soaddr)) {
-				if (address_resolver.contains(via_soaddr)) {
-					// remove binding
-					address_resolver.removeBinding(via_soaddr);        
-				}
+			SocketKey via_key=SocketKey.of(via.getHost(),(via.hasPort())?via.getPort():sipConfig().getDefaultPort());
+			SocketKey src_key=SocketKey.of(msg.getRemoteAddress(),msg.getRemotePort());
+			if (via_key.equals(src_key)) {
+				// remove binding, if any
+				address_resolver.removeBinding(via_key);
 			}
 			else {
 				// update binding
-				address_resolver.updateBinding(via_soaddr,src_soaddr);
+				address_resolver.updateBinding(via_key,new SocketAddress(msg.getRemoteAddress(),msg.getRemotePort()));
 			}
 		}
 		catch (Exception e) {
@@ -118,20 +117,15 @@ public class ExtendedSipProvider extends org.mjsip.sip.provider.SipProvider {
 				refer_port=via.getPort();
 			}
 		}
-		SocketAddress refer_soaddr=new SocketAddress(refer_addr,refer_port);
-		SocketAddress dest_soaddr=refer_soaddr;
-		//printLog("DEBUG: refer_soaddr="+refer_soaddr.toString(),LogWriter.LEVEL_HIGH);
-		//for (Enumeration e=address_resolver.getAllSocketAddresses(); e.hasMoreElements(); )
-		//{  printLog("DEBUG: resolv_soaddr="+((String)e.nextElement()),LogWriter.LEVEL_HIGH);
-		//}
-		if (address_resolver.contains(refer_soaddr)) {
-			dest_soaddr=address_resolver.getSocketAddress(refer_soaddr);
-			LOG.info("CHANGING DESTINATION {} >> {}", refer_soaddr, dest_soaddr);
+		SocketKey refer_key=SocketKey.of(refer_addr,refer_port);
+		SocketAddress dest_soaddr=address_resolver.getSocketAddress(refer_key);
+		if (dest_soaddr!=null) {
+			LOG.info("CHANGING DESTINATION {} >> {}", refer_key, dest_soaddr);
 			dest_addr=dest_soaddr.getAddress().toString();
 			dest_port=dest_soaddr.getPort();
 		}
 		else {
-			LOG.info("destination unchanged: {}", dest_soaddr);
+			LOG.info("destination unchanged: {}", refer_key);
 		}
 		
 		return super.sendRawMessage(msg,proto,dest_addr,dest_port,ttl);
@@ -27,8 +27,11 @@ package org.mjsip.server.sbc;
 
 import java.net.DatagramSocket;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
 
+import org.mjsip.time.MediaClock;
 import org.mjsip.time.Scheduler;
+import org.slf4j.LoggerFactory;
 import org.zoolu.net.IpAddress;
 import org.zoolu.net.UdpPacket;
 import org.zoolu.net.UdpSocket;
@@ -38,20 +41,33 @@ import org.zoolu.net.UdpSocket;
 /**
  * Provides a shaped UDP transport protocol. A minimum inter-packets time is guaranteed on
  * departures.
+ * <p>
+ * Queued packets are either sent by timers of a {@link Scheduler}, or paced by a shared
+ * {@link MediaClock}. In the latter case, the socket is registered with the clock only as long as
+ * packets are queued.
+ * </p>
  */
 public class OutputRegulatedUdpSocket extends UdpSocket {
 	
+	private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(OutputRegulatedUdpSocket.class);
+
 	/** Minimum inter-packet departure time (in milliseconds) */
 	long inter_time=0; 
 
-	/** Last departure time */
-	long last_departure=0; 
+	/** Last departure time (System.nanoTime(), in nanoseconds) */
+	long last_departure=System.nanoTime()-TimeUnit.DAYS.toNanos(1); 
 
 	/** Packet buffer */
 	Vector<UdpPacket> buffer=new Vector<>();
 
 	private Scheduler _scheduler; 
 
+	/** Clock pacing the departures of queued packets, or null if timed by the scheduler */
+	private MediaClock _clock; 
+
+	/** Registration with the clock, while packets are queued */
+	private MediaClock.Registration _pacing; 
+
 
 	/** Creates a new OutputRegulatedUdpSocket */ 
 	public OutputRegulatedUdpSocket(Scheduler scheduler, int port, long inter_time) throws java.net.SocketException {
@@ -69,6 +85,14 @@ public class OutputRegulatedUdpSocket extends UdpSocket {
 	}
  
 
+	/** Creates a new OutputRegulatedUdpSocket whose queued packets are paced by the given media clock */ 
+	public OutputRegulatedUdpSocket(MediaClock clock, int port, long inter_time) throws java.net.SocketException {
+		super(port);
+		_clock = clock;
+		this.inter_time=inter_time;
+	}
+
+
 	/** Creates a new OutputRegulatedUdpSocket */ 
 	OutputRegulatedUdpSocket(DatagramSocket sock, long inter_time) {
 		super(sock);
@@ -99,14 +123,39 @@ public class OutputRegulatedUdpSocket extends UdpSocket {
 		try {
 			sendTop(); 
 		} catch (Exception e) {
-			e.printStackTrace();
+			LOG.warn("Failed to send queued packet.", e);
+		}
+	}
+
+	/** When the media clock paces the next departure.
+	  * @return the nanoseconds until the next departure, or -1 if no more packets are queued */
+	synchronized private long onDeparture(long now) {
+		if (buffer.isEmpty()) {
+			_pacing=null;
+			return -1;
+		}
+		// else
+		try {
+			UdpPacket pkt=buffer.elementAt(0);
+			buffer.removeElementAt(0);
+			super.send(pkt);
+			last_departure=now;
+		} catch (Exception e) {
+			LOG.warn("Failed to send queued packet.", e);
 		}
+		if (buffer.isEmpty()) {
+			_pacing=null;
+			return -1;
+		}
+		// else
+		return TimeUnit.MILLISECONDS.toNanos(inter_time);
 	}
 
 	/** Sends an UDP packet from this socket. */ 
 	synchronized private void sendRegulated(UdpPacket pkt) throws java.io.IOException {
-		long now=System.currentTimeMillis();
-		if (buffer.isEmpty() && now>=(last_departure+inter_time))  {
+		long now=System.nanoTime();
+		long next_departure=last_departure+TimeUnit.MILLISECONDS.toNanos(inter_time);
+		if (buffer.isEmpty() && now-next_departure>=0)  {
 			super.send(pkt);
 			last_departure=now;
 		}
@@ -115,7 +164,11 @@ public class OutputRegulatedUdpSocket extends UdpSocket {
 			if (buffer.size()==1) {
 				if (inter_time<=0) sendTop();
 				else
-					_scheduler.schedule(last_departure+inter_time-now, this::onTimeout);
+				if (_clock!=null) {
+					if (_pacing==null) _pacing=_clock.register(this::onDeparture,next_departure);
+				}
+				else
+					_scheduler.schedule(TimeUnit.NANOSECONDS.toMillis(next_departure-now), this::onTimeout);
 			}
 		}
 	}
@@ -126,7 +179,7 @@ public class OutputRegulatedUdpSocket extends UdpSocket {
 		UdpPacket pkt=buffer.elementAt(0);
 		buffer.removeElementAt(0);
 		super.send(pkt);
-		last_departure=System.currentTimeMillis();
+		last_departure=System.nanoTime();
 		if (buffer.size()>0) {
 			if (inter_time<=0) sendTop();
 			else
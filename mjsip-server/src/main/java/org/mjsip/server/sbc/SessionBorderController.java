@@ -44,9 +44,11 @@ import org.mjsip.sip.header.ViaHeader;
 import org.mjsip.sip.message.SipMessage;
 import org.mjsip.sip.message.SipMethods;
 import org.mjsip.sip.provider.SipConfig;
-import org.mjsip.sip.provider.SipKeepAlive;
+import org.mjsip.sip.provider.KeepAliveEngine;
+import org.mjsip.sip.provider.KeepAliveListener;
 import org.mjsip.time.ConfiguredScheduler;
 import org.mjsip.time.SchedulerConfig;
+import org.mjsip.time.ThreadSupport;
 import org.slf4j.LoggerFactory;
 import org.zoolu.net.SocketAddress;
 import org.zoolu.util.Parser;
@@ -78,7 +80,7 @@ import org.zoolu.util.Parser;
   * (when the last port is in-use, the first port is re-used).
   * The set of available media ports is also taken by the SessionBorderControllerProfile.
   */
-public class SessionBorderController extends Proxy {
+public class SessionBorderController extends Proxy implements KeepAliveListener {
 	
 	private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(SessionBorderController.class);
 
@@ -97,8 +99,8 @@ public class SessionBorderController extends Proxy {
 	/** The media GW box */
 	MediaGw media_gw;
 
-	/** Sip keep-alive daemons for registered users. */
-	Hashtable<String, SipKeepAlive> keepalive_daemons=null;
+	/** Sip keep-alive bindings for registered users. */
+	Hashtable<String, KeepAliveEngine.Binding> keepalive_daemons=null;
 
 	/** Maximum time between two handovers (in milliseconds). */
 	//long handover_time=5000;
@@ -114,7 +116,11 @@ public class SessionBorderController extends Proxy {
 		this.sip_provider=sip_provider;
 		this.sbc_profile=sbc_profile;
 		
-		if (sbc_profile.keepaliveTime>0 && !sbc_profile.keepaliveAggressive) keepalive_daemons=new Hashtable<>();
+		if (sbc_profile.keepaliveTime>0) {
+			// bindings of both the registered contacts and the aggressive keep-alive are reported here
+			sip_provider.keepAlive().setListener(this);
+			if (!sbc_profile.keepaliveAggressive) keepalive_daemons=new Hashtable<>();
+		}
 		if (sbc_profile.mediaAddr==null || sbc_profile.mediaAddr.equals("0.0.0.0")) sbc_profile.mediaAddr=sip_provider.getViaAddress();
 		
 		media_gw = new MediaGw(sip_provider.scheduler(), portPool, sbc_profile);
@@ -224,6 +230,41 @@ public class SessionBorderController extends Proxy {
 	}
 
 
+	/** Halts the SIP keep alive daemon of an expired contact. */
+	@Override
+	protected void onUserContactExpired(String user, String uri) {
+		super.onUserContactExpired(user,uri);
+		if (keepalive_daemons==null) return;
+		// else
+		SipURI sip_uri=SipURI.parseSipURI(uri);
+		if (sip_uri==null) return;
+		// else
+		int port=sip_uri.getPort();
+		if (port<=0) port=sip_provider.sipConfig().getDefaultPort();
+		String key=new SocketAddress(sip_uri.getHost(),port).toString();
+		KeepAliveEngine.Binding keepalive=keepalive_daemons.remove(key);
+		if (keepalive!=null) {
+			keepalive.halt();
+			LOG.debug("KeepAlive: halt: {} (expired)", key);
+		}
+	}
+
+
+	/** From KeepAliveListener. When a keep-alive target that answered before stops answering pings.
+	  * The NAT binding towards that target is probably lost, the target is unreachable until it registers again. */
+	@Override
+	public void onKeepAliveFailed(KeepAliveEngine.Binding binding) {
+		LOG.warn("KeepAlive: no pong from {}, NAT binding probably lost", binding.getDestSoAddress());
+	}
+
+
+	/** From KeepAliveListener. When a failed keep-alive target answers pings again. */
+	@Override
+	public void onKeepAliveRestored(KeepAliveEngine.Binding binding) {
+		LOG.info("KeepAlive: pong from {} again", binding.getDestSoAddress());
+	}
+
+
 	//** Updates the SIP keep alive daemons. */
 	private SipMessage updateKeepAlive(SipMessage resp) {
 		if (resp.hasContactHeader()) {
@@ -240,20 +281,20 @@ public class SessionBorderController extends Proxy {
 				SocketAddress soaddr=new SocketAddress(host,port);
 				int time=ch.getExpires();
 				if (time>0) {
-					SipKeepAlive keepalive;
+					KeepAliveEngine.Binding keepalive;
 					String key=soaddr.toString();
 					if (keepalive_daemons.containsKey(key)) {
 						keepalive=keepalive_daemons.get(key);
 						if (!keepalive.isRunning()) {
 							keepalive_daemons.remove(key);
-							keepalive=new SipKeepAlive(sip_provider,soaddr,sbc_profile.keepaliveTime);
+							keepalive=sip_provider.keepAlive().start(soaddr,sbc_profile.keepaliveTime);
 							keepalive_daemons.put(key,keepalive);
 							LOG.debug("KeepAlive: restart: {} ({}secs)", soaddr, time);
 						}
 						else LOG.debug("KeepAlive: update: {} ({}secs)", soaddr, time);
 					}
 					else {
-						keepalive=new SipKeepAlive(sip_provider,soaddr,sbc_profile.keepaliveTime);
+						keepalive=sip_provider.keepAlive().start(soaddr,sbc_profile.keepaliveTime);
 						keepalive_daemons.put(key,keepalive);
 						LOG.debug("KeepAlive: start: {} ({}secs)", soaddr, time);
 					}
@@ -262,7 +303,7 @@ public class SessionBorderController extends Proxy {
 				else {
 					String key=soaddr.toString();
 					if (keepalive_daemons.containsKey(key)) {
-						SipKeepAlive keepalive=keepalive_daemons.get(key);
+						KeepAliveEngine.Binding keepalive=keepalive_daemons.get(key);
 						keepalive_daemons.remove(key);
 						keepalive.halt();
 						LOG.debug("KeepAlive: halt: {}", soaddr);
@@ -368,6 +409,7 @@ public class SessionBorderController extends Proxy {
 		
 		// create a new ExtendedSipProvider
 		long keepalive_aggressive_time=(sbc_profile.keepaliveAggressive)? sbc_profile.keepaliveTime : 0;
+		ThreadSupport.configure(schedulerConfig);
 		ExtendedSipProvider extended_provider=new ExtendedSipProvider(sipConfig, new ConfiguredScheduler(schedulerConfig), sbc_profile.bindingTimeout,keepalive_aggressive_time);
 
 		// create and start the SBC
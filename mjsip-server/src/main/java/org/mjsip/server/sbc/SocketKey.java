@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server.sbc;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.zoolu.net.SocketAddress;
+
+/**
+ * Compact binary key for a socket address.
+ *
+ * <p>
+ * IP literals are encoded as their 4 or 16 address bytes followed by the port, so that textual
+ * variants of the same address result in equal keys. Host names are encoded as lower-case text.
+ * In contrast to {@link SocketAddress}, the hash code is computed once and equality is a byte
+ * array comparison, no string representation is built for a lookup.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public final class SocketKey {
+
+	private static final byte IPV4 = 4;
+
+	private static final byte IPV6 = 6;
+
+	private static final byte NAME = 0;
+
+	/**
+	 * Type tag, address bytes, and two port bytes.
+	 */
+	private final byte[] _data;
+
+	private final int _hash;
+
+	private SocketKey(byte[] data) {
+		_data = data;
+		_hash = Arrays.hashCode(data);
+	}
+
+	/**
+	 * Creates the key for the given {@link SocketAddress}.
+	 */
+	public static SocketKey of(SocketAddress address) {
+		return of(address.getAddress().toString(), address.getPort());
+	}
+
+	/**
+	 * Creates the key for the given host and port.
+	 *
+	 * @param host
+	 *        An IPv4 or IPv6 literal, or a host name.
+	 * @param port
+	 *        The port.
+	 */
+	public static SocketKey of(String host, int port) {
+		byte[] data = ipv4(host, port);
+		if (data == null) {
+			data = ipv6(host, port);
+			if (data == null) {
+				data = name(host, port);
+			}
+		}
+		return new SocketKey(data);
+	}
+
+	private static byte[] ipv4(String host, int port) {
+		byte[] data = new byte[7];
+		data[0] = IPV4;
+		int length = host.length();
+		int part = 0;
+		int value = -1;
+		for (int n = 0; n < length; n++) {
+			char ch = host.charAt(n);
+			if (ch >= '0' && ch <= '9') {
+				value = (value < 0 ? 0 : value * 10) + (ch - '0');
+				if (value > 255) {
+					return null;
+				}
+			} else if (ch == '.' && value >= 0 && part < 3) {
+				data[1 + part++] = (byte) value;
+				value = -1;
+			} else {
+				return null;
+			}
+		}
+		if (part != 3 || value < 0) {
+			return null;
+		}
+		data[4] = (byte) value;
+		setPort(data, port);
+		return data;
+	}
+
+	private static byte[] ipv6(String host, int port) {
+		if (host.indexOf(':') < 0) {
+			return null;
+		}
+		String literal = host.startsWith("[") && host.endsWith("]") ? host.substring(1, host.length() - 1) : host;
+		byte[] address;
+		try {
+			// A literal containing a colon is never looked up.
+			address = InetAddress.getByName(literal).getAddress();
+		} catch (UnknownHostException ex) {
+			return null;
+		}
+		byte[] data = new byte[address.length + 3];
+		data[0] = address.length == 4 ? IPV4 : IPV6;
+		System.arraycopy(address, 0, data, 1, address.length);
+		setPort(data, port);
+		return data;
+	}
+
+	private static byte[] name(String host, int port) {
+		byte[] name = host.toLowerCase().getBytes(StandardCharsets.UTF_8);
+		byte[] data = new byte[name.length + 3];
+		data[0] = NAME;
+		System.arraycopy(name, 0, data, 1, name.length);
+		setPort(data, port);
+		return data;
+	}
+
+	private static void setPort(byte[] data, int port) {
+		data[data.length - 2] = (byte) (port >>> 8);
+		data[data.length - 1] = (byte) port;
+	}
+
+	/**
+	 * The port of this address.
+	 */
+	public int getPort() {
+		return ((_data[_data.length - 2] & 0xFF) << 8) | (_data[_data.length - 1] & 0xFF);
+	}
+
+	@Override
+	public int hashCode() {
+		return _hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof SocketKey)) {
+			return false;
+		}
+		SocketKey other = (SocketKey) obj;
+		return _hash == other._hash && Arrays.equals(_data, other._data);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		int end = _data.length - 2;
+		switch (_data[0]) {
+		case IPV4:
+			for (int n = 1; n < end; n++) {
+				if (n > 1) {
+					result.append('.');
+				}
+				result.append(_data[n] & 0xFF);
+			}
+			break;
+		case IPV6:
+			result.append('[');
+			for (int n = 1; n < end; n += 2) {
+				if (n > 1) {
+					result.append(':');
+				}
+				result.append(Integer.toHexString(((_data[n] & 0xFF) << 8) | (_data[n + 1] & 0xFF)));
+			}
+			result.append(']');
+			break;
+		default:
+			result.append(new String(_data, 1, end - 1, StandardCharsets.UTF_8));
+		}
+		return result.append(':').append(getPort()).toString();
+	}
+
+}
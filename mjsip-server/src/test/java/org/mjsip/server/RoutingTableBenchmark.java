@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server;
+
+import java.util.Random;
+
+import org.mjsip.sip.address.SipURI;
+import org.zoolu.net.SocketAddress;
+
+/**
+ * Compares routing lookups by scanning {@link ProxyingRule}s in order with lookups in a compiled
+ * {@link RoutingTable}.
+ *
+ * <p>
+ * The dial plan consists of the given number of distinct prefixes with 3 to 8 digits, a default
+ * rule, and the same number of domain rules. Each lookup resolves a random number that matches
+ * a prefix, and a random domain.
+ * </p>
+ *
+ * <p>
+ * Usage: <code>RoutingTableBenchmark [rules] [lookups]</code>
+ * </p>
+ */
+@SuppressWarnings("javadoc")
+public class RoutingTableBenchmark {
+
+	public static void main(String[] args) {
+		int rules = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+		Random rnd = new Random(42);
+		SocketAddress nexthop = new SocketAddress("127.0.0.2", 5070);
+
+		ProxyingRule[] prefixRules = new ProxyingRule[rules + 1];
+		ProxyingRule[] domainRules = new ProxyingRule[rules];
+		String[] prefixes = new String[rules];
+		for (int n = 0; n < rules; n++) {
+			StringBuilder prefix = new StringBuilder();
+			for (int d = 3 + rnd.nextInt(6); d > 0; d--) {
+				prefix.append((char) ('0' + rnd.nextInt(10)));
+			}
+			prefixes[n] = prefix.toString();
+			prefixRules[n] = new PrefixProxyingRule(prefixes[n], nexthop);
+			domainRules[n] = new DomainProxyingRule("domain" + n + ".example.com", nexthop);
+		}
+		prefixRules[rules] = new PrefixProxyingRule(PrefixProxyingRule.DEFAULT_PREFIX, nexthop);
+
+		SipURI[] numbers = new SipURI[lookups];
+		SipURI[] domains = new SipURI[lookups];
+		for (int n = 0; n < lookups; n++) {
+			numbers[n] = new SipURI(prefixes[rnd.nextInt(rules)] + "1234", "example.com");
+			domains[n] = new SipURI("alice", "domain" + rnd.nextInt(rules) + ".example.com");
+		}
+
+		RoutingTable table = new RoutingTable(prefixRules, domainRules);
+		for (int round = 0; round < 5; round++) {
+			long linear = measureLinear(prefixRules, domainRules, numbers, domains);
+			long compiled = measureCompiled(table, numbers, domains);
+			System.out.printf("round %d (%d rules): linear scan %.0f lookups/s, routing table %.0f lookups/s%n",
+				round, rules, 2e9 * lookups / linear, 2e9 * lookups / compiled);
+		}
+	}
+
+	private static long measureLinear(ProxyingRule[] prefixRules, ProxyingRule[] domainRules, SipURI[] numbers,
+			SipURI[] domains) {
+		int found = 0;
+		long start = System.nanoTime();
+		for (int n = 0; n < numbers.length; n++) {
+			if (scan(prefixRules, numbers[n]) != null) {
+				found++;
+			}
+			if (scan(domainRules, domains[n]) != null) {
+				found++;
+			}
+		}
+		long result = System.nanoTime() - start;
+		check(found, numbers.length);
+		return result;
+	}
+
+	private static long measureCompiled(RoutingTable table, SipURI[] numbers, SipURI[] domains) {
+		int found = 0;
+		long start = System.nanoTime();
+		for (int n = 0; n < numbers.length; n++) {
+			if (table.getPrefixTarget(numbers[n]) != null) {
+				found++;
+			}
+			if (table.getDomainTarget(domains[n]) != null) {
+				found++;
+			}
+		}
+		long result = System.nanoTime() - start;
+		check(found, numbers.length);
+		return result;
+	}
+
+	private static SipURI scan(ProxyingRule[] rules, SipURI uri) {
+		for (ProxyingRule rule : rules) {
+			SipURI nexthop = rule.getNexthop(uri);
+			if (nexthop != null) {
+				return nexthop;
+			}
+		}
+		return null;
+	}
+
+	private static void check(int found, int lookups) {
+		if (found != 2 * lookups) {
+			throw new AssertionError("Lookups failed: " + (2 * lookups - found));
+		}
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.mjsip.sip.header.AuthorizationHeader;
+
+/**
+ * Test case for the stateless nonces of {@link AuthenticationServerImpl}.
+ */
+@SuppressWarnings("javadoc")
+class TestAuthenticationServerImpl {
+
+	private static final long LIFETIME = 60000;
+
+	private static final byte[] KEY = "0123456789abcdef0123456789abcdef".getBytes();
+
+	private static AuthenticationServerImpl server(byte[] key) {
+		return new AuthenticationServerImpl(null, "example.com", null, LIFETIME, key);
+	}
+
+	@Test
+	void testValid() {
+		AuthenticationServerImpl server = server(KEY);
+		String nonce = server.currentNonce();
+		assertEquals(AuthenticationServerImpl.NONCE_VALID, server.checkNonce(nonce));
+
+		// Another server sharing the key accepts the nonce.
+		assertEquals(AuthenticationServerImpl.NONCE_VALID, server(KEY).checkNonce(nonce));
+	}
+
+	@Test
+	void testExpired() {
+		AuthenticationServerImpl server = server(KEY);
+		long now = System.currentTimeMillis();
+		assertEquals(AuthenticationServerImpl.NONCE_VALID, server.checkNonce(server.createNonce(now - LIFETIME / 2)));
+		assertEquals(AuthenticationServerImpl.NONCE_STALE, server.checkNonce(server.createNonce(now - 2 * LIFETIME)));
+
+		// Issued in the future.
+		assertEquals(AuthenticationServerImpl.NONCE_INVALID,
+				server.checkNonce(server.createNonce(now + 2 * LIFETIME)));
+	}
+
+	@Test
+	void testTampered() {
+		AuthenticationServerImpl server = server(KEY);
+		String nonce = server.currentNonce();
+
+		// Changed issue time.
+		char[] chars = nonce.toCharArray();
+		chars[15] = chars[15] == '0' ? '1' : '0';
+		assertEquals(AuthenticationServerImpl.NONCE_INVALID, server.checkNonce(new String(chars)));
+
+		// Changed HMAC.
+		chars = nonce.toCharArray();
+		chars[chars.length - 1] = chars[chars.length - 1] == '0' ? '1' : '0';
+		assertEquals(AuthenticationServerImpl.NONCE_INVALID, server.checkNonce(new String(chars)));
+
+		// Not hex, wrong length.
+		assertEquals(AuthenticationServerImpl.NONCE_INVALID, server.checkNonce(nonce.replace(nonce.charAt(3), 'x')));
+		assertEquals(AuthenticationServerImpl.NONCE_INVALID, server.checkNonce(nonce.substring(2)));
+
+		// Signed with another key.
+		assertEquals(AuthenticationServerImpl.NONCE_INVALID, server(null).checkNonce(nonce));
+	}
+
+	@Test
+	void testNonceCount() {
+		AuthenticationServerImpl server = server(KEY);
+		String nonce = server.currentNonce();
+		assertTrue(server.updateNonceCount(nonce, 1));
+		assertTrue(server.updateNonceCount(nonce, 2));
+
+		// Replayed.
+		assertFalse(server.updateNonceCount(nonce, 2));
+		assertFalse(server.updateNonceCount(nonce, 1));
+		assertTrue(server.updateNonceCount(nonce, 5));
+
+		// Invalid counts.
+		String other = server.currentNonce();
+		assertFalse(server.updateNonceCount(other, 0));
+		assertFalse(server.updateNonceCount(other, -1));
+		assertTrue(server.updateNonceCount(other, 1));
+	}
+
+	@Test
+	void testReplay() {
+		AuthenticationServerImpl server = server(KEY);
+		String nonce = server.currentNonce();
+
+		// With qop, the nonce count must increase.
+		assertFalse(server.isReplayed(nonce, credentials(nonce, ", qop=auth, nc=00000001, cnonce=\"abc\"")));
+		assertTrue(server.isReplayed(nonce, credentials(nonce, ", qop=auth, nc=00000001, cnonce=\"abc\"")));
+		assertFalse(server.isReplayed(nonce, credentials(nonce, ", qop=auth, nc=00000002, cnonce=\"abc\"")));
+
+		// A qop without nonce count is invalid.
+		String missing = server.currentNonce();
+		assertTrue(server.isReplayed(missing, credentials(missing, ", qop=auth")));
+
+		// Without qop, there is no nonce count and the nonce may be reused.
+		String plain = server.currentNonce();
+		assertFalse(server.isReplayed(plain, credentials(plain, "")));
+		assertFalse(server.isReplayed(plain, credentials(plain, "")));
+	}
+
+	private static AuthorizationHeader credentials(String nonce, String params) {
+		return new AuthorizationHeader("Digest username=\"alice\", realm=\"example.com\", nonce=\"" + nonce
+				+ "\", uri=\"sip:example.com\", response=\"0123456789abcdef0123456789abcdef\"" + params);
+	}
+
+	@Test
+	void testEviction() {
+		AuthenticationServerImpl.NonceCounts counts = new AuthenticationServerImpl.NonceCounts(LIFETIME, 3);
+		long now = System.currentTimeMillis();
+		for (int n = 0; n < 5; n++) {
+			assertTrue(counts.update("nonce" + n, now + n, 1));
+		}
+		assertEquals(3, counts.size());
+
+		// Dropped nonces cannot be replayed.
+		assertFalse(counts.update("nonce0", now, 2));
+		assertFalse(counts.update("nonce1", now + 1, 1));
+		assertTrue(counts.update("nonce4", now + 4, 2));
+
+		// Expired entries are purged.
+		AuthenticationServerImpl.NonceCounts expiring = new AuthenticationServerImpl.NonceCounts(LIFETIME, 3);
+		assertTrue(expiring.update("old", now - 2 * LIFETIME, 1));
+		assertTrue(expiring.update("recent", now, 1));
+		assertEquals(1, expiring.size());
+		assertTrue(expiring.update("recent", now, 2));
+	}
+
+	@Test
+	void testConcurrentSigning() throws Exception {
+		AuthenticationServerImpl server = server(KEY);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Callable<Boolean>> tasks = new ArrayList<>();
+			for (int n = 0; n < 8; n++) {
+				tasks.add(() -> {
+					for (int i = 0; i < 500; i++) {
+						if (server.checkNonce(server.currentNonce()) != AuthenticationServerImpl.NONCE_VALID) {
+							return Boolean.FALSE;
+						}
+					}
+					return Boolean.TRUE;
+				});
+			}
+			for (Future<Boolean> result : executor.invokeAll(tasks)) {
+				assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
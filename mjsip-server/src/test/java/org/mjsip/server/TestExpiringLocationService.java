@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mjsip.sip.address.NameAddress;
+
+/**
+ * Test case for {@link ExpiringLocationService}.
+ */
+@SuppressWarnings("javadoc")
+class TestExpiringLocationService {
+
+	private ScheduledExecutorService _executor;
+
+	private final BlockingQueue<String> _expired = new LinkedBlockingQueue<>();
+
+	private final ContactExpiryListener _listener = (user, uri) -> _expired.add(uri);
+
+	@BeforeEach
+	void setUp() {
+		_executor = new ScheduledThreadPoolExecutor(1);
+	}
+
+	@AfterEach
+	void tearDown() {
+		_executor.shutdownNow();
+	}
+
+	@Test
+	void testExpiryOrder() throws InterruptedException {
+		ExpiringLocationService service = create(new JournaledLocationService(null));
+		service.addUserContact("alice@example.com", contact("alice", "192.0.2.3"), in(300));
+		service.addUserContact("alice@example.com", contact("alice", "192.0.2.1"), in(100));
+		service.addUserContact("bob@example.com", contact("bob", "192.0.2.2"), in(200));
+		assertEquals(3, service.pending());
+
+		assertEquals("sip:alice@192.0.2.1", next());
+		assertEquals("sip:bob@192.0.2.2", next());
+		assertEquals("sip:alice@192.0.2.3", next());
+		assertEquals(0, service.pending());
+		assertFalse(service.hasUserContact("alice@example.com", "sip:alice@192.0.2.1"));
+		assertFalse(service.hasUserContact("alice@example.com", "sip:alice@192.0.2.3"));
+		assertFalse(service.hasUserContact("bob@example.com", "sip:bob@192.0.2.2"));
+	}
+
+	@Test
+	void testRefresh() throws InterruptedException {
+		ExpiringLocationService service = create(new JournaledLocationService(null));
+		service.addUserContact("alice@example.com", contact("alice", "192.0.2.1"), in(100));
+		service.addUserContact("bob@example.com", contact("bob", "192.0.2.2"), in(200));
+
+		// Refreshed the way the registrar does.
+		service.removeUserContact("alice@example.com", "sip:alice@192.0.2.1");
+		service.addUserContact("alice@example.com", contact("alice", "192.0.2.1"), in(60000));
+		assertEquals(2, service.pending());
+
+		assertEquals("sip:bob@192.0.2.2", next());
+		assertNull(_expired.poll(200, TimeUnit.MILLISECONDS));
+		assertTrue(service.hasUserContact("alice@example.com", "sip:alice@192.0.2.1"));
+		assertEquals(1, service.pending());
+
+		service.removeUser("alice@example.com");
+		assertEquals(0, service.pending());
+	}
+
+	@Test
+	void testStatic() throws InterruptedException {
+		ExpiringLocationService service = create(new JournaledLocationService(null));
+		service.addUserStaticContact("alice@example.com", contact("alice", "192.0.2.1"));
+		assertEquals(0, service.pending());
+
+		// An existing contact is not replaced, and still expires.
+		service.addUserContact("bob@example.com", contact("bob", "192.0.2.2"), in(100));
+		service.addUserStaticContact("bob@example.com", contact("bob", "192.0.2.2"));
+		assertEquals(1, service.pending());
+		assertFalse(service.isUserContactStatic("bob@example.com", "sip:bob@192.0.2.2"));
+
+		assertEquals("sip:bob@192.0.2.2", next());
+		assertNull(_expired.poll(200, TimeUnit.MILLISECONDS));
+		assertTrue(service.isUserContactStatic("alice@example.com", "sip:alice@192.0.2.1"));
+	}
+
+	@Test
+	void testRestart() throws InterruptedException {
+		LocationService stored = new JournaledLocationService(null);
+		stored.addUserContact("alice@example.com", contact("alice", "192.0.2.1"), in(-1000));
+		stored.addUserContact("alice@example.com", contact("alice", "192.0.2.2"), in(1000));
+		stored.addUserStaticContact("bob@example.com", contact("bob", "192.0.2.3"));
+
+		ExpiringLocationService service = create(stored);
+
+		// Expired while the server was down.
+		assertEquals("sip:alice@192.0.2.1", next());
+		assertEquals(1, service.pending());
+		assertEquals("sip:alice@192.0.2.2", next());
+		assertNull(_expired.poll(100, TimeUnit.MILLISECONDS));
+		assertEquals(0, service.pending());
+		assertTrue(stored.hasUserContact("bob@example.com", "sip:bob@192.0.2.3"));
+	}
+
+	@Test
+	void testSyncWithoutLock() throws InterruptedException {
+		CountDownLatch syncing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		LocationService stored = new JournaledLocationService(null) {
+			@Override
+			public void sync() {
+				syncing.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		ExpiringLocationService service = create(stored);
+		service.addUserContact("alice@example.com", contact("alice", "192.0.2.1"), in(50));
+		assertTrue(syncing.await(5, TimeUnit.SECONDS));
+
+		// Changes do not wait for the expiration persisting its removals.
+		assertTimeout(Duration.ofSeconds(1), () -> {
+			service.addUserContact("bob@example.com", contact("bob", "192.0.2.2"), in(60000));
+			service.removeUserContact("bob@example.com", "sip:bob@192.0.2.2");
+		});
+		assertEquals(0, service.pending());
+
+		release.countDown();
+		assertEquals("sip:alice@192.0.2.1", next());
+	}
+
+	private ExpiringLocationService create(LocationService delegate) {
+		return new ExpiringLocationService(delegate, () -> _executor, _listener);
+	}
+
+	private String next() throws InterruptedException {
+		return _expired.poll(5, TimeUnit.SECONDS);
+	}
+
+	private static Date in(long millis) {
+		return new Date(System.currentTimeMillis() + millis);
+	}
+
+	private static NameAddress contact(String user, String host) {
+		return NameAddress.parse("<sip:" + user + "@" + host + ">");
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mjsip.sip.address.NameAddress;
+
+/**
+ * Test case for {@link JournaledLocationService}.
+ */
+@SuppressWarnings("javadoc")
+class TestJournaledLocationService {
+
+	@TempDir
+	Path _dir;
+
+	@Test
+	void testReplay() {
+		Path file = _dir.resolve("location.db");
+		Date expires = new Date(System.currentTimeMillis() + 3600000);
+
+		JournaledLocationService service = new JournaledLocationService(file.toString());
+		service.addUserContact("alice@example.com", contact("alice", "192.0.2.1"), expires);
+		service.addUserContact("alice@example.com", contact("alice", "192.0.2.2"), expires, 0.5f);
+		service.addUserStaticContact("bob@example.com", contact("bob", "192.0.2.3"));
+		service.addUserContact("carol@example.com", contact("carol", "192.0.2.4"), expires);
+		service.addUser("dave@example.com");
+		service.removeUserContact("alice@example.com", "sip:alice@192.0.2.1");
+		service.removeUser("carol@example.com");
+		service.sync();
+		service.close();
+
+		JournaledLocationService restarted = new JournaledLocationService(file.toString());
+		try {
+			assertEquals(3, restarted.size());
+			assertTrue(restarted.hasUser("dave@example.com"));
+			assertFalse(restarted.hasUser("carol@example.com"));
+
+			assertEquals(List.of("sip:alice@192.0.2.2"),
+					Collections.list(restarted.getUserContactURIs("alice@example.com")));
+			assertEquals(0.5f, restarted.getUserContactPriority("alice@example.com", "sip:alice@192.0.2.2"));
+			assertEquals(expires, restarted.getUserContactExpirationDate("alice@example.com", "sip:alice@192.0.2.2"));
+			assertEquals(contact("alice", "192.0.2.2").toString(),
+					restarted.getUserContactNameAddress("alice@example.com", "sip:alice@192.0.2.2").toString());
+
+			assertTrue(restarted.isUserContactStatic("bob@example.com", "sip:bob@192.0.2.3"));
+			assertFalse(restarted.isUserContactExpired("bob@example.com", "sip:bob@192.0.2.3"));
+		} finally {
+			restarted.close();
+		}
+	}
+
+	@Test
+	void testRemoveAll() {
+		Path file = _dir.resolve("location.db");
+		JournaledLocationService service = new JournaledLocationService(file.toString());
+		service.addUserStaticContact("alice@example.com", contact("alice", "192.0.2.1"));
+		service.removeAllUsers();
+		service.addUserStaticContact("bob@example.com", contact("bob", "192.0.2.2"));
+		service.close();
+
+		JournaledLocationService restarted = new JournaledLocationService(file.toString());
+		try {
+			assertEquals(List.of("bob@example.com"), Collections.list(restarted.getUsers()));
+		} finally {
+			restarted.close();
+		}
+	}
+
+	@Test
+	void testCompaction() throws IOException {
+		Path file = _dir.resolve("location.db");
+		Date expires = new Date(System.currentTimeMillis() + 3600000);
+
+		JournaledLocationService service = new JournaledLocationService(file.toString());
+		service.addUserStaticContact("bob@example.com", contact("bob", "192.0.2.3"));
+		for (int n = 0; n < 1000; n++) {
+			service.addUserContact("alice@example.com", contact("alice", "192.0.2.1"), expires);
+			service.removeUserContact("alice@example.com", "sip:alice@192.0.2.1");
+		}
+		service.addUserContact("alice@example.com", contact("alice", "192.0.2.2"), expires);
+		service.sync();
+		assertEquals(4, Files.readAllLines(file).size());
+
+		// The journal continues after compaction.
+		service.addUserContact("carol@example.com", contact("carol", "192.0.2.4"), expires);
+		service.close();
+		assertFalse(Files.exists(file.resolveSibling("location.db.tmp")));
+
+		JournaledLocationService restarted = new JournaledLocationService(file.toString());
+		try {
+			assertEquals(3, restarted.size());
+			assertEquals(List.of("sip:alice@192.0.2.2"),
+					Collections.list(restarted.getUserContactURIs("alice@example.com")));
+			assertTrue(restarted.isUserContactStatic("bob@example.com", "sip:bob@192.0.2.3"));
+			assertTrue(restarted.hasUserContact("carol@example.com", "sip:carol@192.0.2.4"));
+		} finally {
+			restarted.close();
+		}
+	}
+
+	@Test
+	void testChangesDuringCompaction() throws Exception {
+		Path file = _dir.resolve("location.db");
+		Date expires = new Date(System.currentTimeMillis() + 3600000);
+
+		JournaledLocationService service = new JournaledLocationService(file.toString());
+		int users = 2000;
+		Thread writer = new Thread(() -> {
+			for (int n = 0; n < users; n++) {
+				String user = "user" + n + "@example.com";
+				service.addUserContact(user, contact("user" + n, "192.0.2.1"), expires);
+				service.removeUserContact(user, "sip:user" + n + "@192.0.2.1");
+				service.removeUser(user);
+				service.addUserContact(user, contact("user" + n, "192.0.2.2"), expires);
+			}
+		});
+		writer.start();
+		while (writer.isAlive()) {
+			service.sync();
+		}
+		writer.join();
+		service.close();
+
+		JournaledLocationService restarted = new JournaledLocationService(file.toString());
+		try {
+			assertEquals(users, restarted.size());
+			for (int n = 0; n < users; n++) {
+				String user = "user" + n + "@example.com";
+				assertEquals(List.of("sip:user" + n + "@192.0.2.2"), Collections.list(restarted.getUserContactURIs(user)));
+			}
+		} finally {
+			restarted.close();
+		}
+	}
+
+	private static NameAddress contact(String user, String host) {
+		return NameAddress.parse("<sip:" + user + "@" + host + ">");
+	}
+
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mjsip.sip.header.SipHeaders;
+import org.mjsip.sip.message.SipMessage;
+import org.mjsip.sip.message.SipResponses;
+import org.mjsip.sip.provider.SipConfig;
+import org.mjsip.sip.provider.SipProvider;
+import org.mjsip.sip.transaction.TransactionClient;
+import org.mjsip.sip.transaction.TransactionServer;
+import org.mjsip.time.ConfiguredScheduler;
+import org.mjsip.time.SchedulerConfig;
+
+/**
+ * Test case for {@link ProxyFork}.
+ */
+@SuppressWarnings("javadoc")
+class TestProxyFork {
+
+	private static final String INVITE =
+			"INVITE URI SIP/2.0\r\n"
+			+ "Via: SIP/2.0/UDP 127.0.0.1:5060;branch=BRANCH\r\n"
+			+ "To: <sip:bob@example.com>\r\n"
+			+ "From: <sip:alice@example.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@10.0.0.1\r\n"
+			+ "CSeq: 1 INVITE\r\n"
+			+ "Content-Length: 0\r\n"
+			+ "\r\n";
+
+	private static final String RESPONSE =
+			"SIP/2.0 CODE\r\n"
+			+ "Via: SIP/2.0/UDP 127.0.0.1:5060;branch=z9hG4bK-server\r\n"
+			+ "To: <sip:bob@example.com>;tag=314159\r\n"
+			+ "From: <sip:alice@example.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@10.0.0.1\r\n"
+			+ "CSeq: 1 INVITE\r\n"
+			+ "HEADERS"
+			+ "Content-Length: 0\r\n"
+			+ "\r\n";
+
+	private SipProvider _provider;
+
+	private TestProxy _proxy;
+
+	private ProxyFork _fork;
+
+	/**
+	 * Targets in the order branches were started.
+	 */
+	private final BlockingQueue<String> _started = new LinkedBlockingQueue<>();
+
+	private final Map<String, TransactionClient> _clients = new HashMap<>();
+
+	private final List<String> _cancelled = new ArrayList<>();
+
+	private final List<SipMessage> _provisional = new ArrayList<>();
+
+	private final BlockingQueue<SipMessage> _final = new LinkedBlockingQueue<>();
+
+	@BeforeEach
+	void setUp() {
+		SipConfig sipConfig = new SipConfig();
+		sipConfig.setTransportProtocols(new String[] { SipProvider.PROTO_UDP });
+		sipConfig.setTransportPorts(new int[] { 0 });
+		sipConfig.setViaAddrIPv4("127.0.0.1");
+		sipConfig.setViaAddrIPv6("::1");
+		sipConfig.normalize();
+		_provider = new SipProvider(sipConfig, new ConfiguredScheduler(new SchedulerConfig()));
+
+		_proxy = new TestProxy();
+		TransactionServer server = new TransactionServer(_provider, invite("sip:bob@example.com", "z9hG4bK-server"), null);
+		_fork = new ProxyFork(_proxy, server);
+		_proxy.state.addFork(_fork);
+	}
+
+	@AfterEach
+	void tearDown() {
+		_provider.halt();
+	}
+
+	@Test
+	void testIsBetter() {
+		// 6xx wins over everything.
+		assertTrue(ProxyFork.isBetter(603, 401));
+		assertTrue(ProxyFork.isBetter(600, 500));
+		assertFalse(ProxyFork.isBetter(401, 603));
+		assertFalse(ProxyFork.isBetter(603, 600));
+
+		// Lower class wins.
+		assertTrue(ProxyFork.isBetter(486, 500));
+		assertTrue(ProxyFork.isBetter(302, 404));
+		assertFalse(ProxyFork.isBetter(503, 408));
+
+		// Within a class, repairable responses win.
+		assertTrue(ProxyFork.isBetter(401, 404));
+		assertTrue(ProxyFork.isBetter(407, 486));
+		assertTrue(ProxyFork.isBetter(484, 480));
+		assertFalse(ProxyFork.isBetter(404, 401));
+		assertFalse(ProxyFork.isBetter(404, 486));
+		assertFalse(ProxyFork.isBetter(407, 401));
+	}
+
+	@Test
+	void testGlobalFailure() throws InterruptedException {
+		_fork.addTarget("sip:bob@192.0.2.1", 1.0f);
+		_fork.addTarget("sip:bob@192.0.2.2", 1.0f);
+		_fork.addTarget("sip:bob@192.0.2.3", 1.0f);
+		_fork.start(false, 0);
+		assertEquals(3, _started.size());
+
+		_fork.onProvisionalResponse(client("sip:bob@192.0.2.1"), response(100));
+		_fork.onProvisionalResponse(client("sip:bob@192.0.2.1"), response(180));
+		_fork.onProvisionalResponse(client("sip:bob@192.0.2.2"), response(183));
+		assertEquals(2, _provisional.size());
+
+		SipMessage decline = response(603);
+		_fork.onFinalResponse(client("sip:bob@192.0.2.3"), decline);
+		assertEquals(List.of("sip:bob@192.0.2.1", "sip:bob@192.0.2.2"), sorted(_cancelled));
+		assertTrue(_final.isEmpty());
+
+		_fork.onFinalResponse(client("sip:bob@192.0.2.1"), response(487));
+		_fork.onFinalResponse(client("sip:bob@192.0.2.2"), response(487));
+		assertEquals(603, code(_final.poll()));
+		assertEquals(0, _fork.getPendingBranches());
+		assertNull(_proxy.state.getFork(_fork.getServer()));
+	}
+
+	@Test
+	void testSequential() {
+		_fork.addTarget("sip:bob@192.0.2.3", 0.5f);
+		_fork.addTarget("sip:bob@192.0.2.1", 1.0f);
+		_fork.addTarget("sip:bob@192.0.2.2", 0.5f);
+		_fork.start(true, 0);
+		assertEquals(List.of("sip:bob@192.0.2.1"), drainStarted());
+
+		_fork.onFinalResponse(client("sip:bob@192.0.2.1"), response(486));
+		assertEquals(List.of("sip:bob@192.0.2.3", "sip:bob@192.0.2.2"), drainStarted());
+		assertTrue(_final.isEmpty());
+
+		_fork.onFinalResponse(client("sip:bob@192.0.2.2"), response(404));
+		assertTrue(_final.isEmpty());
+		_fork.onFinalResponse(client("sip:bob@192.0.2.3"), response(480));
+
+		// The first response of the best class, none is repairable.
+		assertEquals(486, code(_final.poll()));
+		assertTrue(_cancelled.isEmpty());
+		assertTrue(_started.isEmpty());
+	}
+
+	@Test
+	void testGroupTimeout() throws InterruptedException {
+		_fork.addTarget("sip:bob@192.0.2.1", 1.0f);
+		_fork.addTarget("sip:bob@192.0.2.2", 0.5f);
+		_fork.start(true, 100);
+		assertEquals("sip:bob@192.0.2.1", _started.poll());
+		_fork.onProvisionalResponse(client("sip:bob@192.0.2.1"), response(180));
+
+		assertEquals("sip:bob@192.0.2.2", _started.poll(5, TimeUnit.SECONDS));
+		synchronized (_fork) {
+			assertEquals(List.of("sip:bob@192.0.2.1"), _cancelled);
+		}
+
+		// The response of the timed out branch is not considered.
+		_fork.onFinalResponse(client("sip:bob@192.0.2.1"), response(401));
+		_fork.onFinalResponse(client("sip:bob@192.0.2.2"), response(486));
+		assertEquals(486, code(_final.poll()));
+	}
+
+	@Test
+	void testCancelBeforeProvisional() {
+		_fork.addTarget("sip:bob@192.0.2.1", 1.0f);
+		_fork.addTarget("sip:bob@192.0.2.2", 1.0f);
+		_fork.start(false, 0);
+
+		_fork.cancel();
+		// No CANCEL before the branch is proceeding.
+		assertTrue(_cancelled.isEmpty());
+
+		_fork.onProvisionalResponse(client("sip:bob@192.0.2.1"), response(180));
+		assertEquals(List.of("sip:bob@192.0.2.1"), _cancelled);
+		assertTrue(_provisional.isEmpty());
+
+		// A CANCEL is sent only once.
+		_fork.onProvisionalResponse(client("sip:bob@192.0.2.1"), response(183));
+		assertEquals(List.of("sip:bob@192.0.2.1"), _cancelled);
+
+		_fork.onFinalResponse(client("sip:bob@192.0.2.1"), response(487));
+		_fork.onFinalResponse(client("sip:bob@192.0.2.2"), response(487));
+		assertEquals(List.of("sip:bob@192.0.2.1"), _cancelled);
+		assertEquals(487, code(_final.poll()));
+	}
+
+	@Test
+	void testServiceUnavailable() {
+		_fork.addTarget("sip:bob@192.0.2.1", 1.0f);
+		_fork.start(false, 0);
+
+		SipMessage unavailable = response(503);
+		_fork.onFinalResponse(client("sip:bob@192.0.2.1"), unavailable);
+		assertEquals(500, code(_final.poll()));
+
+		// The received response is not modified.
+		assertEquals(503, code(unavailable));
+	}
+
+	@Test
+	void testChallenges() {
+		_fork.addTarget("sip:bob@192.0.2.1", 1.0f);
+		_fork.addTarget("sip:bob@192.0.2.2", 1.0f);
+		_fork.start(false, 0);
+
+		SipMessage unauthorized = response(401, "WWW-Authenticate: Digest realm=\"a\", nonce=\"1\"\r\n");
+		_fork.onFinalResponse(client("sip:bob@192.0.2.1"), unauthorized);
+		_fork.onFinalResponse(client("sip:bob@192.0.2.2"),
+				response(407, "Proxy-Authenticate: Digest realm=\"b\", nonce=\"2\"\r\n"));
+
+		SipMessage forwarded = _final.poll();
+		assertEquals(401, code(forwarded));
+		assertEquals(1, forwarded.getHeaders(SipHeaders.WWW_Authenticate).size());
+		assertEquals(1, forwarded.getHeaders(SipHeaders.Proxy_Authenticate).size());
+
+		// The received response is not modified.
+		assertEquals(0, unauthorized.getHeaders(SipHeaders.Proxy_Authenticate).size());
+	}
+
+	private TransactionClient client(String target) {
+		return _clients.get(target);
+	}
+
+	private List<String> drainStarted() {
+		List<String> result = new ArrayList<>();
+		_started.drainTo(result);
+		return result;
+	}
+
+	private static List<String> sorted(List<String> list) {
+		List<String> result = new ArrayList<>(list);
+		result.sort(null);
+		return result;
+	}
+
+	private static int code(SipMessage resp) {
+		assertNotNull(resp);
+		return resp.getStatusLine().getCode();
+	}
+
+	private static SipMessage invite(String uri, String branch) {
+		return new SipMessage(INVITE.replace("URI", uri).replace("BRANCH", branch));
+	}
+
+	private static SipMessage response(int code) {
+		return response(code, "");
+	}
+
+	private static SipMessage response(int code, String headers) {
+		return new SipMessage(
+				RESPONSE.replace("CODE", code + " " + SipResponses.reasonOf(code)).replace("HEADERS", headers));
+	}
+
+	/**
+	 * {@link StatefulProxy} recording the actions of the fork instead of sending messages.
+	 */
+	private final class TestProxy extends StatefulProxy {
+
+		TestProxy() {
+			sip_provider = _provider;
+			state = new StatefulProxyState();
+		}
+
+		@Override
+		protected TransactionClient createBranch(TransactionServer ts, String target) {
+			TransactionClient client =
+				new TransactionClient(_provider, invite(target, "z9hG4bK-" + _clients.size()), null) {
+					@Override
+					public void request() {
+						_started.add(target);
+					}
+				};
+			_clients.put(target, client);
+			return client;
+		}
+
+		@Override
+		protected void cancelBranch(TransactionClient tc) {
+			_cancelled.add(tc.getRequestMessage().getRequestLine().getAddress().toString());
+		}
+
+		@Override
+		protected void forwardProvisionalResponse(TransactionServer ts, SipMessage resp) {
+			_provisional.add(resp);
+		}
+
+		@Override
+		protected void forwardFinalResponse(TransactionServer ts, SipMessage resp) {
+			_final.add(resp);
+		}
+
+		@Override
+		protected void forwardResponse(SipMessage resp) {
+			fail("Unexpected further response.");
+		}
+
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.mjsip.sip.address.GenericURI;
+import org.mjsip.sip.address.SipURI;
+import org.mjsip.sip.address.TelURI;
+import org.zoolu.net.SocketAddress;
+
+/**
+ * Test case for {@link RoutingTable}.
+ */
+@SuppressWarnings("javadoc")
+class TestRoutingTable {
+
+	private static final SocketAddress HOP_A = new SocketAddress("127.0.0.2", 5070);
+
+	private static final SocketAddress HOP_B = new SocketAddress("127.0.0.3", 5080);
+
+	private static final SocketAddress HOP_C = new SocketAddress("127.0.0.4", 5090);
+
+	private static final SocketAddress HOP_DEFAULT = new SocketAddress("127.0.0.5", 5060);
+
+	@Test
+	void testLongestPrefix() {
+		RoutingTable table = new RoutingTable(new ProxyingRule[] {
+			new PrefixProxyingRule("49", HOP_A),
+			new PrefixProxyingRule("4989", HOP_B),
+			new PrefixProxyingRule("498", HOP_C),
+			// Duplicate, the first rule is used.
+			new PrefixProxyingRule("49", HOP_C),
+		}, new ProxyingRule[0]);
+		assertEquals(3, table.getPrefixRuleCount());
+
+		assertEquals("sip:4989123@127.0.0.3:5080", target(table, "4989123"));
+		assertEquals("sip:4989@127.0.0.3:5080", target(table, "4989"));
+		assertEquals("sip:498123@127.0.0.4:5090", target(table, "498123"));
+		assertEquals("sip:4930123@127.0.0.2:5070", target(table, "4930123"));
+		assertEquals("sip:49@127.0.0.2:5070", target(table, "49"));
+	}
+
+	@Test
+	void testDefault() {
+		RoutingTable table = new RoutingTable(new ProxyingRule[] {
+			new PrefixProxyingRule("49", HOP_A),
+			new PrefixProxyingRule(PrefixProxyingRule.DEFAULT_PREFIX, HOP_DEFAULT),
+		}, new ProxyingRule[0]);
+
+		assertEquals("sip:4930@127.0.0.2:5070", target(table, "4930"));
+		assertEquals("sip:4@127.0.0.5:5060", target(table, "4"));
+		assertEquals("sip:3312@127.0.0.5:5060", target(table, "3312"));
+		assertEquals("sip:alice@127.0.0.5:5060", target(table, "alice"));
+		assertEquals("sip:127.0.0.5:5060", table.getPrefixTarget(new SipURI("example.com")).toString());
+	}
+
+	@Test
+	void testDomainAndPrefix() {
+		RoutingTable table = new RoutingTable(new ProxyingRule[] {
+			new PrefixProxyingRule("49", HOP_A),
+		}, new ProxyingRule[] {
+			new DomainProxyingRule("example.com", HOP_B),
+			new DomainProxyingRule("Example.org", HOP_C),
+			new DomainProxyingRule("example.com", HOP_C),
+		});
+		assertEquals(1, table.getPrefixRuleCount());
+		assertEquals(2, table.getDomainRuleCount());
+
+		// Both tables are looked up independently.
+		SipURI uri = new SipURI("4930", "example.com");
+		assertEquals("sip:4930@127.0.0.2:5070", table.getPrefixTarget(uri).toString());
+		assertEquals("sip:4930@127.0.0.3:5080", table.getDomainTarget(uri).toString());
+
+		// Domains are matched case-insensitive.
+		assertEquals("sip:alice@127.0.0.4:5090", table.getDomainTarget(new SipURI("alice", "EXAMPLE.org")).toString());
+
+		// A domain rule is not used for prefix lookup and vice versa.
+		assertNull(table.getPrefixTarget(new SipURI("alice", "example.com")));
+		assertNull(table.getDomainTarget(new SipURI("4930", "example.net")));
+	}
+
+	@Test
+	void testNoMatch() {
+		RoutingTable table = new RoutingTable(new ProxyingRule[] {
+			new PrefixProxyingRule("49", HOP_A),
+		}, new ProxyingRule[] {
+			new DomainProxyingRule("example.com", HOP_B),
+		});
+
+		assertNull(target(table, "4"));
+		assertNull(target(table, "3349"));
+		assertNull(table.getPrefixTarget(new SipURI("example.com")));
+		assertNull(table.getDomainTarget(new SipURI("alice", "example.com.evil")));
+		assertNull(table.getPrefixTarget(new TelURI("tel:+4930123")));
+		assertNull(table.getDomainTarget(new TelURI("tel:+4930123")));
+
+		assertNull(RoutingTable.EMPTY.getPrefixTarget(new SipURI("4930", "example.com")));
+		assertNull(RoutingTable.EMPTY.getDomainTarget(new SipURI("4930", "example.com")));
+	}
+
+	@Test
+	void testOtherRules() {
+		ProxyingRule other = new ProxyingRule() {
+			@Override
+			public SipURI getNexthop(GenericURI uri) {
+				return "bob".equals(uri.toSipURI().getUserName()) ? new SipURI("bob", "127.0.0.9") : null;
+			}
+
+			@Override
+			public String toString() {
+				return "bob";
+			}
+		};
+		RoutingTable table = new RoutingTable(new ProxyingRule[] {
+			other,
+			new PrefixProxyingRule("b", HOP_A),
+		}, new ProxyingRule[] {
+			other,
+		});
+
+		// Compiled rules take precedence.
+		assertEquals("sip:bob@127.0.0.2:5070", target(table, "bob"));
+		assertEquals("sip:bob@127.0.0.9", table.getDomainTarget(new SipURI("bob", "example.com")).toString());
+		assertNull(table.getDomainTarget(new SipURI("alice", "example.com")));
+	}
+
+	private static String target(RoutingTable table, String user) {
+		SipURI result = table.getPrefixTarget(new SipURI(user, "example.com"));
+		return result == null ? null : result.toString();
+	}
+
+}
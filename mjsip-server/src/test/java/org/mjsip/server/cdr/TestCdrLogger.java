@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server.cdr;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mjsip.sip.message.SipMessage;
+import org.mjsip.sip.message.SipResponses;
+
+/**
+ * Test case for {@link CdrLogger} writing through a {@link RotatingCdrWriter}.
+ */
+@SuppressWarnings("javadoc")
+class TestCdrLogger {
+
+	private static final String HEADERS =
+			"Via: SIP/2.0/UDP 127.0.0.1:5060;branch=z9hG4bK776asdhds\r\n"
+			+ "To: <sip:bob@example.com>\r\n"
+			+ "From: <sip:alice@example.com>;tag=1928301774\r\n"
+			+ "Call-ID: CALL\r\n"
+			+ "CSeq: 1 METHOD\r\n"
+			+ "Content-Length: 0\r\n"
+			+ "\r\n";
+
+	@TempDir
+	Path _dir;
+
+	@Test
+	void testFlushAndRotation() throws Exception {
+		File file = _dir.resolve("calls.csv").toFile();
+		// Rotated before each batch, since the header alone exceeds the maximum size.
+		RotatingCdrWriter writer = new RotatingCdrWriter(file, CdrFormat.CSV, 10, 0);
+		CdrLogger logger = new CdrLogger(writer, 100, 64, 10);
+		try {
+			logger.update(request("INVITE", "call1"));
+			logger.update(response(486, "call1"));
+
+			// Flushed without closing the logger.
+			assertTrue(waitFor(file, "call1"));
+			assertEquals(1, records(file.toPath()).size());
+
+			logger.update(request("INVITE", "call2"));
+			logger.update(response(200, "call2"));
+			logger.update(request("BYE", "call2"));
+			assertTrue(waitFor(file, "call2"));
+		} finally {
+			logger.close();
+		}
+
+		List<String> current = records(file.toPath());
+		assertEquals(1, current.size());
+		assertTrue(current.get(0).contains(",call2,COMPLETED,200,"), current.get(0));
+
+		File[] rotated = _dir.toFile().listFiles((dir, name) -> name.startsWith("calls.csv."));
+		assertEquals(1, rotated.length);
+		List<String> old = records(rotated[0].toPath());
+		assertEquals(1, old.size());
+		assertTrue(old.get(0).contains(",call1,FAILED,486,"), old.get(0));
+		assertEquals(0, logger.getDropped());
+	}
+
+	@Test
+	void testEviction() throws Exception {
+		List<CallRecord> written = new ArrayList<>();
+		CdrLogger logger = new CdrLogger(new CdrWriter() {
+			@Override
+			public void write(List<CallRecord> records) {
+				written.addAll(records);
+			}
+
+			@Override
+			public void flush() {
+				// Ignore.
+			}
+
+			@Override
+			public void close() {
+				// Ignore.
+			}
+		}, 2, 64, 10);
+		logger.update(request("INVITE", "call1"));
+		logger.update(request("INVITE", "call2"));
+		logger.update(response(486, "call2"));
+		logger.update(request("INVITE", "call3"));
+		assertEquals(2, logger.getTrackedCalls());
+
+		// A finished call is dropped silently.
+		logger.update(request("INVITE", "call4"));
+		logger.update(response(486, "call1"));
+		logger.close();
+
+		assertEquals(Arrays.asList("call2:FAILED", "call1:INCOMPLETE"),
+			written.stream().map(r -> r.getCallId() + ":" + r.getState()).collect(Collectors.toList()));
+	}
+
+	@Test
+	void testCloseWithoutRecords() throws Exception {
+		CountDownLatch closed = new CountDownLatch(1);
+		CdrLogger logger = new CdrLogger(new CdrWriter() {
+			@Override
+			public void write(List<CallRecord> records) {
+				fail("No finished call.");
+			}
+
+			@Override
+			public void flush() {
+				// Ignore.
+			}
+
+			@Override
+			public void close() {
+				closed.countDown();
+			}
+		}, 100, 64, 10);
+		logger.update(request("INVITE", "call1"));
+		logger.close();
+		logger.close();
+
+		assertEquals(0, closed.getCount());
+		assertEquals(1, logger.getTrackedCalls());
+	}
+
+	@Test
+	void testDrop() throws Exception {
+		CountDownLatch writing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<String> written = new ArrayList<>();
+		CdrLogger logger = new CdrLogger(new CdrWriter() {
+			@Override
+			public void write(List<CallRecord> records) throws IOException {
+				writing.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					throw new IOException(ex);
+				}
+				records.forEach(r -> written.add(r.getCallId()));
+			}
+
+			@Override
+			public void flush() {
+				// Ignore.
+			}
+
+			@Override
+			public void close() {
+				// Ignore.
+			}
+		}, 100, 2, 10);
+
+		reject(logger, "call1");
+		assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+		// The writer is blocked, the buffer holds two records.
+		reject(logger, "call2");
+		reject(logger, "call3");
+		reject(logger, "call4");
+		reject(logger, "call5");
+		assertEquals(2, logger.getDropped());
+
+		release.countDown();
+		logger.close();
+		assertEquals(Arrays.asList("call1", "call2", "call3"), written);
+	}
+
+	private static void reject(CdrLogger logger, String callId) {
+		logger.update(request("INVITE", callId));
+		logger.update(response(SipResponses.BUSY_HERE, callId));
+	}
+
+	private static boolean waitFor(File file, String text) throws Exception {
+		long timeout = System.currentTimeMillis() + 5000;
+		while (System.currentTimeMillis() < timeout) {
+			if (file.exists() && Files.readString(file.toPath()).contains(text)) {
+				return true;
+			}
+			Thread.sleep(10);
+		}
+		return false;
+	}
+
+	/**
+	 * The records of the given CSV file, checking the header line.
+	 */
+	private static List<String> records(Path file) throws IOException {
+		List<String> lines = Files.readAllLines(file);
+		assertEquals(CdrFormat.CSV.header().trim(), lines.get(0));
+		return lines.subList(1, lines.size());
+	}
+
+	private static SipMessage request(String method, String callId) {
+		return new SipMessage(method + " sip:bob@example.com SIP/2.0\r\n"
+			+ HEADERS.replace("CALL", callId).replace("METHOD", method));
+	}
+
+	private static SipMessage response(int code, String callId) {
+		return new SipMessage("SIP/2.0 " + code + " " + SipResponses.reasonOf(code) + "\r\n"
+			+ HEADERS.replace("CALL", callId).replace("METHOD", "INVITE"));
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server.cdr;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test case for {@link RingBuffer}.
+ */
+@SuppressWarnings("javadoc")
+class TestRingBuffer {
+
+	private static final int PRODUCERS = 4;
+
+	private static final int RECORDS = 100000;
+
+	@Test
+	void testCapacity() {
+		assertEquals(2, new RingBuffer<>(0).capacity());
+		assertEquals(2, new RingBuffer<>(2).capacity());
+		assertEquals(8, new RingBuffer<>(5).capacity());
+		assertEquals(8, new RingBuffer<>(8).capacity());
+	}
+
+	@Test
+	void testFull() {
+		RingBuffer<Integer> buffer = new RingBuffer<>(4);
+		assertTrue(buffer.isEmpty());
+		assertNull(buffer.poll());
+		for (int n = 0; n < 4; n++) {
+			assertTrue(buffer.offer(n));
+		}
+
+		// The new element is dropped, buffered elements are kept.
+		assertFalse(buffer.offer(4));
+		assertEquals(0, buffer.poll());
+		assertTrue(buffer.offer(5));
+		assertFalse(buffer.offer(6));
+
+		List<Integer> out = new ArrayList<>();
+		assertEquals(2, buffer.drainTo(out, 2));
+		assertEquals(List.of(1, 2), out);
+		assertEquals(2, buffer.drainTo(out, 10));
+		assertEquals(List.of(1, 2, 3, 5), out);
+		assertTrue(buffer.isEmpty());
+
+		// Slots are reused in the next round.
+		for (int n = 0; n < 4; n++) {
+			assertTrue(buffer.offer(10 + n));
+		}
+		assertFalse(buffer.offer(14));
+		assertEquals(10, buffer.poll());
+	}
+
+	@Test
+	void testConcurrentHandOff() throws InterruptedException {
+		RingBuffer<Long> buffer = new RingBuffer<>(64);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> producers = new ArrayList<>();
+		for (int p = 0; p < PRODUCERS; p++) {
+			long producer = p;
+			Thread thread = new Thread(() -> {
+				await(start);
+				for (long n = 0; n < RECORDS; n++) {
+					Long record = Long.valueOf(producer * RECORDS + n);
+					while (!buffer.offer(record)) {
+						Thread.yield();
+					}
+				}
+			});
+			thread.start();
+			producers.add(thread);
+		}
+		start.countDown();
+
+		// Records of each producer arrive exactly once and in order.
+		long[] next = new long[PRODUCERS];
+		for (int received = 0; received < PRODUCERS * RECORDS;) {
+			Long record = buffer.poll();
+			if (record == null) {
+				Thread.yield();
+				continue;
+			}
+			int producer = (int) (record.longValue() / RECORDS);
+			assertEquals(next[producer]++, record.longValue() % RECORDS);
+			received++;
+		}
+		for (Thread thread : producers) {
+			thread.join();
+		}
+		assertTrue(buffer.isEmpty());
+		for (int p = 0; p < PRODUCERS; p++) {
+			assertEquals(RECORDS, next[p]);
+		}
+	}
+
+	@Test
+	void testConcurrentDrop() throws InterruptedException {
+		RingBuffer<Long> buffer = new RingBuffer<>(16);
+		AtomicInteger accepted = new AtomicInteger();
+		List<Thread> producers = new ArrayList<>();
+		for (int p = 0; p < PRODUCERS; p++) {
+			long producer = p;
+			Thread thread = new Thread(() -> {
+				for (long n = 0; n < RECORDS; n++) {
+					if (buffer.offer(Long.valueOf(producer * RECORDS + n))) {
+						accepted.incrementAndGet();
+					}
+				}
+			});
+			thread.start();
+			producers.add(thread);
+		}
+
+		long[] last = new long[PRODUCERS];
+		Arrays.fill(last, -1);
+		int received = 0;
+		while (true) {
+			boolean done = producers.stream().noneMatch(Thread::isAlive);
+			Long record;
+			while ((record = buffer.poll()) != null) {
+				int producer = (int) (record.longValue() / RECORDS);
+				long n = record.longValue() % RECORDS;
+				// No duplicates, dropping does not reorder.
+				assertTrue(n > last[producer]);
+				last[producer] = n;
+				received++;
+			}
+			if (done) {
+				break;
+			}
+		}
+		assertEquals(accepted.get(), received);
+		assertTrue(received > 0);
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.server.sbc;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mjsip.sip.provider.KeepAliveEngine;
+import org.mjsip.sip.provider.SipConfig;
+import org.mjsip.sip.provider.SipProvider;
+import org.mjsip.time.ConfiguredScheduler;
+import org.mjsip.time.SchedulerConfig;
+import org.zoolu.net.SocketAddress;
+
+/**
+ * Test case for {@link AddressResolver} and {@link AddressResolverKeepAlive}.
+ */
+@SuppressWarnings("javadoc")
+class TestAddressResolver {
+
+	private static final int THREADS = 4;
+
+	private static final int OPERATIONS = 20000;
+
+	private static final int KEYS = 8;
+
+	private SipProvider _provider;
+
+	@BeforeEach
+	void setUp() {
+		SipConfig sipConfig = new SipConfig();
+		sipConfig.setTransportProtocols(new String[] { SipProvider.PROTO_UDP });
+		sipConfig.setTransportPorts(new int[] { 0 });
+		sipConfig.setViaAddrIPv4("127.0.0.1");
+		sipConfig.setViaAddrIPv6("::1");
+		_provider = new SipProvider(sipConfig, new ConfiguredScheduler(new SchedulerConfig()));
+	}
+
+	@AfterEach
+	void tearDown() {
+		_provider.halt();
+	}
+
+	@Test
+	void testUpdate() {
+		TrackingResolver resolver = new TrackingResolver(60000);
+		SocketAddress refer = new SocketAddress("192.0.2.1", 5060);
+		SocketAddress nat1 = new SocketAddress("198.51.100.1", 40000);
+		SocketAddress nat2 = new SocketAddress("198.51.100.1", 40001);
+
+		resolver.updateBinding(refer, nat1);
+		resolver.updateBinding(refer, nat1);
+		assertTrue(resolver.contains(refer));
+		assertEquals(nat1, resolver.getSocketAddress(refer));
+
+		resolver.updateBinding(refer, nat2);
+		assertEquals(nat2, resolver.getSocketAddress(refer));
+
+		resolver.removeBinding(refer);
+		resolver.removeBinding(refer);
+		assertFalse(resolver.contains(refer));
+		assertNull(resolver.getSocketAddress(refer));
+		assertEquals(0, resolver.size());
+		assertEquals(0, resolver.expiry_index.size());
+
+		assertEquals(List.of(
+			"add 192.0.2.1:5060 198.51.100.1:40000",
+			"change 192.0.2.1:5060 198.51.100.1:40001",
+			"remove 192.0.2.1:5060 198.51.100.1:40001"), resolver._events);
+	}
+
+	@Test
+	void testExpiry() throws InterruptedException {
+		// Bindings expire after half the refresh time.
+		TrackingResolver resolver = new TrackingResolver(100);
+		SocketAddress refer1 = new SocketAddress("192.0.2.1", 5060);
+		SocketAddress refer2 = new SocketAddress("192.0.2.2", 5060);
+		SocketAddress nat = new SocketAddress("198.51.100.1", 40000);
+		resolver.updateBinding(refer1, nat);
+		resolver.updateBinding(refer2, nat);
+
+		// Refreshing keeps the first binding alive.
+		long stop = System.currentTimeMillis() + 400;
+		while (System.currentTimeMillis() < stop) {
+			resolver.updateBinding(refer1, nat);
+			Thread.sleep(10);
+		}
+		assertTrue(resolver.contains(refer1));
+		assertFalse(resolver.contains(refer2));
+		assertEquals("remove 192.0.2.2:5060 198.51.100.1:40000", resolver._removed.poll(5, TimeUnit.SECONDS));
+
+		assertEquals("remove 192.0.2.1:5060 198.51.100.1:40000", resolver._removed.poll(5, TimeUnit.SECONDS));
+		assertEquals(0, resolver.size());
+		assertEquals(0, resolver.expiry_index.size());
+	}
+
+	@Test
+	void testConcurrentHooks() throws InterruptedException {
+		TrackingResolver resolver = new TrackingResolver(60000);
+		run(resolver);
+
+		assertTrue(resolver._errors.isEmpty(), resolver._errors::toString);
+		assertEquals(resolver.size(), resolver._mapped.size());
+		for (Map.Entry<SocketKey, SocketAddress> entry : resolver._mapped.entrySet()) {
+			assertEquals(entry.getValue(), resolver.getSocketAddress(entry.getKey()));
+		}
+		assertEquals(resolver.size(), resolver.expiry_index.size());
+	}
+
+	@Test
+	void testConcurrentKeepAlive() throws InterruptedException {
+		List<KeepAliveEngine.Binding> started = new CopyOnWriteArrayList<>();
+		AddressResolverKeepAlive resolver = new AddressResolverKeepAlive(_provider, 60000, 60000) {
+			@Override
+			protected void onBindingAdded(SocketKey refer_key, SocketAddress actual_soaddr) {
+				super.onBindingAdded(refer_key, actual_soaddr);
+				started.add(keepalive_daemons.get(refer_key));
+			}
+		};
+		run(resolver);
+
+		assertEquals(resolver.size(), resolver.keepalive_daemons.size());
+		for (Map.Entry<SocketKey, KeepAliveEngine.Binding> entry : resolver.keepalive_daemons.entrySet()) {
+			KeepAliveEngine.Binding keepalive = entry.getValue();
+			assertTrue(keepalive.isRunning());
+			assertEquals(resolver.getSocketAddress(entry.getKey()), keepalive.getDestSoAddress());
+		}
+
+		// No keep-alive of a removed binding is left running.
+		int running = 0;
+		for (KeepAliveEngine.Binding keepalive : started) {
+			if (keepalive.isRunning()) {
+				running++;
+			}
+		}
+		assertEquals(resolver.size(), running);
+		assertEquals(running, _provider.keepAlive().size());
+	}
+
+	/**
+	 * Concurrently adds, changes and removes the bindings of a few reference addresses.
+	 */
+	private static void run(AddressResolver resolver) throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException ex) {
+					return;
+				}
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int n = 0; n < OPERATIONS; n++) {
+					SocketAddress refer = new SocketAddress("192.0.2.1", 5060 + random.nextInt(KEYS));
+					if (random.nextInt(4) == 0) {
+						resolver.removeBinding(refer);
+					} else {
+						resolver.updateBinding(refer, new SocketAddress("198.51.100.1", 40000 + random.nextInt(2)));
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	/**
+	 * {@link AddressResolver} tracking the mappings reported to its hooks.
+	 */
+	private class TrackingResolver extends AddressResolver {
+
+		final Map<SocketKey, SocketAddress> _mapped = new ConcurrentHashMap<>();
+
+		final List<String> _events = new CopyOnWriteArrayList<>();
+
+		final BlockingQueue<String> _removed = new LinkedBlockingQueue<>();
+
+		final List<String> _errors = new CopyOnWriteArrayList<>();
+
+		TrackingResolver(long refreshTime) {
+			super(_provider, refreshTime);
+		}
+
+		@Override
+		protected void onBindingAdded(SocketKey refer_key, SocketAddress actual_soaddr) {
+			if (_mapped.put(refer_key, actual_soaddr) != null) {
+				_errors.add("Added twice: " + refer_key);
+			}
+			event("add", refer_key, actual_soaddr);
+		}
+
+		@Override
+		protected void onBindingChanged(SocketKey refer_key, SocketAddress old_soaddr, SocketAddress actual_soaddr) {
+			if (!old_soaddr.equals(_mapped.put(refer_key, actual_soaddr))) {
+				_errors.add("Changed unknown: " + refer_key);
+			}
+			event("change", refer_key, actual_soaddr);
+		}
+
+		@Override
+		protected void onBindingRemoved(SocketKey refer_key, SocketAddress actual_soaddr) {
+			if (!actual_soaddr.equals(_mapped.remove(refer_key))) {
+				_errors.add("Removed unknown: " + refer_key);
+			}
+			String event = event("remove", refer_key, actual_soaddr);
+			_removed.add(event);
+		}
+
+		private String event(String type, SocketKey refer_key, SocketAddress actual_soaddr) {
+			String event = type + " " + refer_key + " " + actual_soaddr;
+			if (_events.size() < 100) {
+				_events.add(event);
+			}
+			return event;
+		}
+
+	}
+
+}
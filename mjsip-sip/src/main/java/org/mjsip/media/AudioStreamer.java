@@ -35,6 +35,7 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 
 import org.mjsip.media.rx.AudioReceiver;
 import org.mjsip.media.rx.AudioRxHandle;
+import org.mjsip.media.rx.RtpAudioRxHandler;
 import org.mjsip.media.tx.AudioTXHandle;
 import org.mjsip.media.tx.AudioTransmitter;
 import org.mjsip.rtp.AmrRtpPayloadFormat;
@@ -42,6 +43,7 @@ import org.mjsip.rtp.RtpControl;
 import org.mjsip.sound.Codec;
 import org.slf4j.LoggerFactory;
 import org.zoolu.net.SocketAddress;
+import org.zoolu.net.UdpChannelSocket;
 import org.zoolu.net.UdpSocket;
 import org.zoolu.sound.CodecType;
 import org.zoolu.sound.SimpleAudioSystem;
@@ -113,12 +115,30 @@ public class AudioStreamer implements MediaStreamer, RtpStreamSenderListener, Rt
 
 	private Executor _executor;
 
+	/** Session of the media engine, or <code>null</code> if streams run in their own threads */
+	private final RtpMediaSession _session;
+
 	/**
 	 * Creates a new audio streamer.
 	 * @param flow_spec
 	 *        the flow specification
 	 */
 	public AudioStreamer(Executor executor, FlowSpec flow_spec, AudioTransmitter tx, AudioReceiver rx, StreamerOptions options) {
+		this(null, executor, flow_spec, tx, rx, options);
+	}
+
+	/**
+	 * Creates a new audio streamer whose streams are driven by the given media engine.
+	 * 
+	 * @param engine
+	 *        the {@link RtpMediaEngine} sending and receiving packets, or <code>null</code> to
+	 *        run sender and receiver in their own threads
+	 * @param executor
+	 *        executor for tasks that cannot be run by the engine
+	 * @param flow_spec
+	 *        the flow specification
+	 */
+	public AudioStreamer(RtpMediaEngine engine, Executor executor, FlowSpec flow_spec, AudioTransmitter tx, AudioReceiver rx, StreamerOptions options) {
 		_executor = executor;
 		MediaSpec mediaSpec = flow_spec.getMediaSpec();
 
@@ -172,9 +192,15 @@ public class AudioStreamer implements MediaStreamer, RtpStreamSenderListener, Rt
 			additional_decoder = additionalCodec.getDecoder();
 		}	
 		
+		RtpMediaSession session = null;
 		try {
 			// 5) udp socket
-			udp_socket = new UdpSocket(flow_spec.getLocalPort());
+			if (engine != null) {
+				session = engine.open(flow_spec.getLocalPort(), executor);
+				udp_socket = session.getSocket();
+			} else {
+				udp_socket = new UdpChannelSocket(flow_spec.getLocalPort());
+			}
 			
 			// 6) sender
 			String remote_addr = flow_spec.getRemoteAddress();
@@ -212,13 +238,20 @@ public class AudioStreamer implements MediaStreamer, RtpStreamSenderListener, Rt
 			if (dir.doReceive()) {
 				_rxHandle = rx.createReceiver(options, udp_socket, targetFormat, codec, payload_type, payloadFormat,
 						sample_rate, channels, additional_decoder, this);
+				RtpStreamReceiver receiver = getRtpReceiver();
+				if (rtp_control != null && receiver != null) {
+					// report the reception statistics
+					rtp_control.setRtpReceiver(receiver);
+				}
 			} else {
 				_rxHandle = null;
 			}
 		}
 		catch (IOException | UnsupportedAudioFileException ex) {
+			if (session != null) session.close();
 			throw new RuntimeException("Media streamer initialization failed.", ex);
 		}
+		_session = session;
 
 		LOG.debug("Codec:         {}", codec);
 		LOG.debug("Base format:   {}", baseFormat);
@@ -255,17 +288,36 @@ public class AudioStreamer implements MediaStreamer, RtpStreamSenderListener, Rt
 		return null;
 	}
 
+	/**
+	 * The reception statistics of the received RTP stream, e.g. for monitoring the call quality.
+	 * 
+	 * @return The statistics, or <code>null</code>, if this streamer does not receive RTP.
+	 */
+	public RtpReceiverStatistics getReceiverStatistics() {
+		RtpStreamReceiver receiver = getRtpReceiver();
+		return receiver != null ? receiver.getStatistics() : null;
+	}
+
+	private RtpStreamReceiver getRtpReceiver() {
+		AudioRxHandle rxHandle = _rxHandle;
+		if (rxHandle instanceof RtpAudioRxHandler) {
+			return ((RtpAudioRxHandler) rxHandle).getRtpReceiver();
+		}
+		return null;
+	}
+
 	/** Starts media streams. */
 	@Override
 	public boolean start() {
 		LOG.info("starting java audio");
+		Executor executor = (_session != null)? _session : _executor;
 		if (_txHandle != null) {
 			LOG.debug("start sending");
-			_txHandle.start(_executor);
+			_txHandle.start(executor);
 		}
 		if (_rxHandle != null) {
 			LOG.debug("start receiving");
-			_rxHandle.start(_executor);
+			_rxHandle.start(executor);
 		}
 		return true;      
 	}
@@ -287,13 +339,19 @@ public class AudioStreamer implements MediaStreamer, RtpStreamSenderListener, Rt
 			LOG.debug("receiver halted");
 		}      
 
-		// try to take into account the resilience of RtpStreamSender
-		try {
-			Thread.sleep(RtpStreamReceiver.SO_TIMEOUT);
-		} catch (Exception e) {
-			// Ignore.
+		if (_session != null) {
+			// the engine stops the streams without delay
+			_session.close();
+		}
+		else {
+			// try to take into account the resilience of RtpStreamSender
+			try {
+				Thread.sleep(RtpStreamReceiver.SO_TIMEOUT);
+			} catch (Exception e) {
+				// Ignore.
+			}
+			udp_socket.close();
 		}
-		udp_socket.close();
 		if (rtp_control!=null) rtp_control.halt();
 		return true;
 	}
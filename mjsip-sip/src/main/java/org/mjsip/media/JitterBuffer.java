@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.media;
+
+import org.mjsip.rtp.RtpPacket;
+
+/**
+ * Adaptive jitter buffer restoring the order and timing of received RTP packets.
+ *
+ * <p>
+ * Received packets are copied into a fixed-capacity ring of slots indexed by sequence number, so
+ * that reordered packets are put back into sequence. A packet is released by {@link #poll(long)}
+ * when its playout time has come. The playout time is derived from the RTP timestamp relative to
+ * the arrival of the first packet of a talk spurt plus the current playout delay.
+ * </p>
+ *
+ * <p>
+ * The playout delay adapts to the interarrival jitter measured as described in RFC 3550,
+ * appendix A.8: It is raised immediately when a packet arrives too late to be played, reset to
+ * the target at the start of a talk spurt, and otherwise follows the target by one millisecond
+ * per packet. A packet that has not arrived when its playout time has passed is reported as
+ * {@link #LOST}, so that the receiver can conceal it.
+ * </p>
+ *
+ * <p>
+ * Slot buffers are allocated on first use and reused afterwards, there is no allocation per
+ * packet in steady state. A jitter buffer is not thread-safe, it is expected to be used by the
+ * single thread receiving a stream. The counters may be read from other threads.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class JitterBuffer {
+
+	/** Result of {@link #poll(long)}: No packet is due for playout. */
+	public static final int NONE = 0;
+
+	/** Result of {@link #poll(long)}: The packet {@link #getPacket()} is due for playout. */
+	public static final int PLAY = 1;
+
+	/** Result of {@link #poll(long)}: The next packet is missing and must be concealed. */
+	public static final int LOST = 2;
+
+	/** Default number of slots. */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	/** Default minimum playout delay in milliseconds. */
+	public static final int DEFAULT_MIN_DELAY = 20;
+
+	/** Multiple of the interarrival jitter used as target playout delay. */
+	private static final int JITTER_FACTOR = 3;
+
+	/** Initial size of a slot buffer, grows for larger packets. */
+	private static final int MIN_SLOT_SIZE = 256;
+
+	private final RtpPacket[] _slots;
+
+	private final boolean[] _filled;
+
+	private final int _mask;
+
+	private final int _clockRate;
+
+	private final int _minDelay;
+
+	private final int _maxDelay;
+
+	private boolean _started;
+
+	/** Sequence number of the next packet to play out. */
+	private int _nextSqn;
+
+	/** RTP timestamp of the playout reference. */
+	private long _refTimestamp;
+
+	/** Local time in milliseconds of the playout reference. */
+	private long _refTime;
+
+	/** Current playout delay in milliseconds. */
+	private int _delay;
+
+	/** Timestamp of the last played or concealed packet, or <code>-1</code>. */
+	private long _lastTimestamp = -1;
+
+	/** Timestamp increment between two consecutive packets, <code>0</code> if unknown. */
+	private long _timestampStep;
+
+	/** Relative transit time of the last received packet in timestamp units. */
+	private long _lastTransit;
+
+	private boolean _hasTransit;
+
+	/** Interarrival jitter in timestamp units, scaled by 16. */
+	private long _jitter;
+
+	private RtpPacket _result;
+
+	private int _resultSqn;
+
+	private long _resultTimestamp;
+
+	private volatile int _depth;
+
+	private volatile long _lateDrops;
+
+	private volatile long _concealments;
+
+	private volatile long _resyncs;
+
+	/**
+	 * Creates a {@link JitterBuffer}.
+	 *
+	 * @param capacity
+	 *        The maximum number of buffered packets, rounded up to a power of two.
+	 * @param clockRate
+	 *        The RTP timestamp clock rate in Hz.
+	 * @param minDelay
+	 *        The minimum playout delay in milliseconds.
+	 * @param maxDelay
+	 *        The maximum playout delay in milliseconds.
+	 */
+	public JitterBuffer(int capacity, int clockRate, int minDelay, int maxDelay) {
+		if (clockRate <= 0) {
+			throw new IllegalArgumentException("Clock rate must be positive: " + clockRate);
+		}
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		_slots = new RtpPacket[size];
+		_filled = new boolean[size];
+		_mask = size - 1;
+		_clockRate = clockRate;
+		_minDelay = minDelay;
+		_maxDelay = Math.max(minDelay, maxDelay);
+		_delay = minDelay;
+	}
+
+	/**
+	 * Adds a received packet.
+	 *
+	 * <p>
+	 * The packet is copied, the given packet can be reused afterwards.
+	 * </p>
+	 *
+	 * @param packet
+	 *        The received packet.
+	 * @param now
+	 *        The arrival time in milliseconds.
+	 * @return Whether the packet was buffered, <code>false</code> if it was a duplicate or arrived
+	 *         after its playout time.
+	 */
+	public boolean put(RtpPacket packet, long now) {
+		int sqn = packet.getSequenceNumber();
+		long timestamp = packet.getTimestamp();
+		updateJitter(timestamp, now);
+
+		if (!_started) {
+			_started = true;
+			restart(sqn, timestamp, now);
+		} else {
+			int diff = (short) (sqn - _nextSqn);
+			if (diff < 0 && diff >= -_slots.length) {
+				_lateDrops++;
+				increaseDelay();
+				return false;
+			}
+			if (diff < 0 || diff > _mask) {
+				// Too far away to wait for the missing packets, e.g. the sender has restarted.
+				clear();
+				_resyncs++;
+				restart(sqn, timestamp, now);
+			} else if (_depth == 0 && packet.hasMarker()) {
+				// Start of a talk spurt, packets missing before belong to the silence.
+				restart(sqn, timestamp, now);
+			}
+		}
+
+		int index = sqn & _mask;
+		if (_filled[index]) {
+			// Duplicate.
+			return false;
+		}
+		RtpPacket slot = _slots[index];
+		if (slot == null) {
+			slot = new RtpPacket(new byte[Math.max(MIN_SLOT_SIZE, packet.getPacketLength())], 0);
+			_slots[index] = slot;
+		}
+		int length = packet.getPacketLength();
+		slot.setPacketLength(length);
+		System.arraycopy(packet.getPacketBuffer(), packet.getPacketOffset(), slot.getPacketBuffer(),
+			slot.getPacketOffset(), length);
+		_filled[index] = true;
+		_depth++;
+		return true;
+	}
+
+	/**
+	 * Checks for the next packet to play out.
+	 *
+	 * <p>
+	 * Must be called repeatedly until {@link #NONE} is returned.
+	 * </p>
+	 *
+	 * @param now
+	 *        The current time in milliseconds.
+	 * @return {@link #PLAY}, if {@link #getPacket()} must be played out, {@link #LOST}, if the
+	 *         next packet must be concealed, or {@link #NONE} if nothing is due.
+	 */
+	public int poll(long now) {
+		_result = null;
+		if (_depth == 0) {
+			return NONE;
+		}
+
+		int index = _nextSqn & _mask;
+		if (_filled[index]) {
+			RtpPacket packet = _slots[index];
+			long timestamp = packet.getTimestamp();
+			if (playoutTime(timestamp) > now) {
+				return NONE;
+			}
+			_filled[index] = false;
+			_depth--;
+			if (_lastTimestamp >= 0 && !packet.hasMarker()) {
+				long step = (int) (timestamp - _lastTimestamp);
+				if (step > 0 && step <= _clockRate) {
+					_timestampStep = step;
+				}
+			}
+			// Follow the target slowly to not distort playout.
+			int target = targetDelay();
+			if (_delay < target) {
+				_delay++;
+			} else if (_delay > target) {
+				_delay--;
+			}
+			_result = packet;
+			return advance(timestamp, PLAY);
+		}
+
+		for (int distance = 1; distance <= _mask; distance++) {
+			int later = (_nextSqn + distance) & _mask;
+			if (!_filled[later]) {
+				continue;
+			}
+			long laterTimestamp = _slots[later].getTimestamp();
+			long step = _timestampStep;
+			if (step == 0 && _lastTimestamp >= 0) {
+				step = (int) (laterTimestamp - _lastTimestamp) / (distance + 1);
+			}
+			long timestamp = (laterTimestamp - distance * step) & 0xffffffffL;
+			if (playoutTime(timestamp) > now) {
+				return NONE;
+			}
+			_concealments++;
+			return advance(timestamp, LOST);
+		}
+		return NONE;
+	}
+
+	private int advance(long timestamp, int result) {
+		_resultSqn = _nextSqn;
+		_resultTimestamp = timestamp;
+		_lastTimestamp = timestamp;
+		_nextSqn = (_nextSqn + 1) & 0xffff;
+		return result;
+	}
+
+	/**
+	 * The packet to play out after {@link #poll(long)} returned {@link #PLAY}.
+	 *
+	 * <p>
+	 * The packet is only valid until the next call to {@link #put(RtpPacket, long)}.
+	 * </p>
+	 */
+	public RtpPacket getPacket() {
+		return _result;
+	}
+
+	/**
+	 * The sequence number of the packet played or concealed by the last {@link #poll(long)}.
+	 */
+	public int getSequenceNumber() {
+		return _resultSqn;
+	}
+
+	/**
+	 * The RTP timestamp of the packet played or concealed by the last {@link #poll(long)}. For a
+	 * lost packet, the timestamp is estimated.
+	 */
+	public long getTimestamp() {
+		return _resultTimestamp;
+	}
+
+	/**
+	 * The timestamp increment between two consecutive packets, <code>0</code> if not yet known.
+	 */
+	public long getTimestampStep() {
+		return _timestampStep;
+	}
+
+	/**
+	 * The number of currently buffered packets.
+	 */
+	public int getDepth() {
+		return _depth;
+	}
+
+	/**
+	 * The current playout delay in milliseconds.
+	 */
+	public int getDelay() {
+		return _delay;
+	}
+
+	/**
+	 * The interarrival jitter in milliseconds.
+	 */
+	public long getJitter() {
+		return (_jitter >> 4) * 1000 / _clockRate;
+	}
+
+	/**
+	 * The number of packets dropped, because they arrived after their playout time.
+	 */
+	public long getLateDrops() {
+		return _lateDrops;
+	}
+
+	/**
+	 * The number of packets reported as {@link #LOST}.
+	 */
+	public long getConcealments() {
+		return _concealments;
+	}
+
+	/**
+	 * The number of times buffered packets were discarded, because the stream jumped ahead by more
+	 * than the capacity.
+	 */
+	public long getResyncs() {
+		return _resyncs;
+	}
+
+	private void restart(int sqn, long timestamp, long now) {
+		_nextSqn = sqn;
+		_refTimestamp = timestamp;
+		_refTime = now;
+		_lastTimestamp = -1;
+		_delay = targetDelay();
+	}
+
+	private void clear() {
+		for (int n = 0; n <= _mask; n++) {
+			_filled[n] = false;
+		}
+		_depth = 0;
+	}
+
+	private long playoutTime(long timestamp) {
+		long offset = (int) (timestamp - _refTimestamp);
+		return _refTime + _delay + offset * 1000 / _clockRate;
+	}
+
+	private void updateJitter(long timestamp, long now) {
+		long transit = now * _clockRate / 1000 - timestamp;
+		if (_hasTransit) {
+			long d = transit - _lastTransit;
+			if (d < 0) {
+				d = -d;
+			}
+			// Ignore timestamp jumps, e.g. after a restart of the sender.
+			if (d < _clockRate) {
+				_jitter += d - ((_jitter + 8) >> 4);
+			}
+		}
+		_lastTransit = transit;
+		_hasTransit = true;
+	}
+
+	private int targetDelay() {
+		long target = JITTER_FACTOR * getJitter();
+		return (int) Math.max(_minDelay, Math.min(_maxDelay, target));
+	}
+
+	private void increaseDelay() {
+		long stepMillis = _timestampStep * 1000 / _clockRate;
+		_delay = (int) Math.min(_maxDelay, Math.max(targetDelay(), _delay + Math.max(1, stepMillis)));
+	}
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.media;
+
+import java.util.concurrent.Executor;
+
+import org.mjsip.time.MediaClock;
+
+/**
+ * {@link Executor} that starts synchronous {@link RtpStreamSender}s on a shared
+ * {@link MediaClock} instead of running each of them in a thread of its own.
+ *
+ * <p>
+ * All other tasks, e.g. receivers or senders timed by a blocking audio input, are passed to the
+ * wrapped executor.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class MediaClockExecutor implements Executor {
+
+	private final MediaClock _clock;
+
+	private final Executor _executor;
+
+	/**
+	 * Creates a {@link MediaClockExecutor}.
+	 *
+	 * @param clock
+	 *        The clock pacing synchronous senders.
+	 * @param executor
+	 *        The executor for all other tasks.
+	 */
+	public MediaClockExecutor(MediaClock clock, Executor executor) {
+		_clock = clock;
+		_executor = executor;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		if (task instanceof RtpStreamSender && ((RtpStreamSender) task).isSynchronous()) {
+			((RtpStreamSender) task).start(_clock);
+		} else {
+			_executor.execute(task);
+		}
+	}
+
+}
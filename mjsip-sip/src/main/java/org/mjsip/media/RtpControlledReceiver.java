@@ -55,5 +55,17 @@ public interface RtpControlledReceiver {
 	/** Gets delay since last SR (DLSR).
 	  * @return delay since last SR (DLSR), that is the delay, expressed in units of 1/65536 seconds, between receiving the last SR packet and sending this reception report block */ 
 	public long getDLSR();
+
+	/** Notifies the reception of a RTCP SR packet from the source of the received stream.
+	  * @param lsr the middle 32 bits out of 64 in the NTP timestamp of the SR packet */
+	public default void onSenderReport(long lsr) {
+		// LSR is not tracked by default
+	}
+
+	/** Notifies that a report block with the current values has been sent.
+	  * The fraction lost of the next report refers to the interval starting now. */
+	public default void onReportSent() {
+		// no interval statistics by default
+	}
 	
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.media;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mjsip.net.SelectorLoop;
+import org.mjsip.net.SelectorPool;
+import org.mjsip.time.MediaClock;
+import org.zoolu.net.UdpChannelSocket;
+
+/**
+ * Event loop driving the RTP streams of many calls with a small, fixed number of threads.
+ *
+ * <p>
+ * Without an engine, each {@link AudioStreamer} occupies one thread for sending and one for
+ * receiving, each sender pacing itself with {@link Thread#sleep(long)}. An engine instead
+ * multiplexes the non-blocking sockets of all its {@link RtpMediaSession}s over a
+ * {@link SelectorPool}. Received packets are dispatched when the socket becomes readable and
+ * played out from a periodic tick of the loop the session is assigned to. Packets of
+ * synchronous senders are paced by a single {@link MediaClock} shared by all sessions.
+ * </p>
+ *
+ * @see AudioStreamer#AudioStreamer(RtpMediaEngine, Executor, FlowSpec,
+ *      org.mjsip.media.tx.AudioTransmitter, org.mjsip.media.rx.AudioReceiver, StreamerOptions)
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class RtpMediaEngine {
+
+	/** Default period in milliseconds in which received packets are played out. */
+	public static final long DEFAULT_TICK_MILLIS = 10;
+
+	private final SelectorPool _pool;
+
+	private final MediaClock _clock;
+
+	private final AtomicInteger _sessions = new AtomicInteger();
+
+	/**
+	 * Creates a {@link RtpMediaEngine} with the default tick.
+	 *
+	 * @param threads
+	 *        The number of I/O threads.
+	 */
+	public RtpMediaEngine(int threads) throws IOException {
+		this(threads, DEFAULT_TICK_MILLIS);
+	}
+
+	/**
+	 * Creates a {@link RtpMediaEngine}.
+	 *
+	 * @param threads
+	 *        The number of I/O threads.
+	 * @param tickMillis
+	 *        The period in milliseconds in which received packets are played out. Should not
+	 *        exceed the packet time of the streams.
+	 */
+	public RtpMediaEngine(int threads, long tickMillis) throws IOException {
+		if (tickMillis <= 0) {
+			throw new IllegalArgumentException("Tick must be positive: " + tickMillis);
+		}
+		_pool = new SelectorPool("rtp-io", threads, TimeUnit.MILLISECONDS.toNanos(tickMillis));
+		_clock = new MediaClock("rtp-clock");
+	}
+
+	/**
+	 * The clock pacing the synchronous senders of all sessions.
+	 */
+	public MediaClock getClock() {
+		return _clock;
+	}
+
+	/**
+	 * Opens a new session on the given local port.
+	 *
+	 * @param localPort
+	 *        The local UDP port, <code>0</code> for an ephemeral port.
+	 * @param executor
+	 *        The executor for tasks that cannot be run on the event loop, such as senders reading
+	 *        from a blocking input.
+	 */
+	public RtpMediaSession open(int localPort, Executor executor) throws IOException {
+		UdpChannelSocket socket = new UdpChannelSocket(localPort);
+		SelectorLoop loop = _pool.next();
+		RtpMediaSession session = new RtpMediaSession(this, loop, executor, socket);
+		_sessions.incrementAndGet();
+		loop.execute(session::register);
+		return session;
+	}
+
+	/**
+	 * The number of currently open sessions.
+	 */
+	public int getSessionCount() {
+		return _sessions.get();
+	}
+
+	/**
+	 * Stops all I/O threads.
+	 *
+	 * <p>
+	 * Sessions must be closed before.
+	 * </p>
+	 */
+	public void halt() {
+		_clock.stop();
+		_pool.halt();
+	}
+
+	void onClosed(RtpMediaSession session) {
+		_sessions.decrementAndGet();
+	}
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.media;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.Executor;
+
+import org.mjsip.net.SelectorLoop;
+import org.mjsip.rtp.RtpPacket;
+import org.mjsip.time.MediaClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zoolu.net.IpAddress;
+import org.zoolu.net.SocketAddress;
+import org.zoolu.net.UdpChannelSocket;
+import org.zoolu.net.UdpSocket;
+
+/**
+ * The RTP streams of a single local port handled by a {@link RtpMediaEngine}.
+ *
+ * <p>
+ * A session provides a {@link #getSocket() socket} for creating {@link RtpStreamSender}s and
+ * {@link RtpStreamReceiver}s and acts as {@link Executor} for starting them. A started receiver
+ * is fed from the event loop whenever the socket becomes readable. All other tasks are passed to
+ * a {@link MediaClockExecutor}, which starts a
+ * {@link RtpStreamSender#isSynchronous() synchronous} sender on the {@link MediaClock} of the
+ * engine. Other tasks, e.g. a sender reading from a blocking audio input, are passed to the
+ * executor of the session but still send through the non-blocking socket.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class RtpMediaSession implements Executor, SelectorLoop.Handler, SelectorLoop.TickHandler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RtpMediaSession.class);
+
+	/**
+	 * Maximum number of packets read in a single selection to keep other sessions of the loop
+	 * responsive.
+	 */
+	private static final int MAX_READS = 16;
+
+	private final RtpMediaEngine _engine;
+
+	private final SelectorLoop _loop;
+
+	private final MediaClockExecutor _executor;
+
+	private final UdpChannelSocket _socket;
+
+	private final DatagramChannel _channel;
+
+	private SelectionKey _key;
+
+	private RtpStreamSender _sender;
+
+	private RtpStreamReceiver _receiver;
+
+	private RtpPacket _packet;
+
+	private ByteBuffer _buffer;
+
+	private InetSocketAddress _lastSource;
+
+	private SocketAddress _lastSourceAddress;
+
+	private boolean _closed;
+
+	RtpMediaSession(RtpMediaEngine engine, SelectorLoop loop, Executor executor, UdpChannelSocket socket) {
+		_engine = engine;
+		_loop = loop;
+		_executor = new MediaClockExecutor(engine.getClock(), executor);
+		_socket = socket;
+		_channel = socket.getChannel();
+	}
+
+	/**
+	 * The socket to create senders and receivers for this session with.
+	 *
+	 * <p>
+	 * The socket must only be used for sending, packets are received by the event loop.
+	 * </p>
+	 */
+	public UdpSocket getSocket() {
+		return _socket;
+	}
+
+	/**
+	 * The local port of this session.
+	 */
+	public int getLocalPort() {
+		return _socket.getLocalPort();
+	}
+
+	/**
+	 * Starts the given task.
+	 *
+	 * <p>
+	 * {@link RtpStreamReceiver}s are attached to the event loop, synchronous
+	 * {@link RtpStreamSender}s to the media clock, all other tasks are passed to the executor of
+	 * this session.
+	 * </p>
+	 */
+	@Override
+	public void execute(Runnable task) {
+		if (task instanceof RtpStreamSender && ((RtpStreamSender) task).isSynchronous()) {
+			_loop.execute(() -> startSending((RtpStreamSender) task));
+		} else if (task instanceof RtpStreamReceiver) {
+			_loop.execute(() -> startReceiving((RtpStreamReceiver) task));
+		} else {
+			_executor.execute(task);
+		}
+	}
+
+	/**
+	 * Stops all streams of this session and closes its socket.
+	 */
+	public void close() {
+		_loop.execute(this::doClose);
+	}
+
+	void register() {
+		if (_closed) {
+			return;
+		}
+		try {
+			_key = _loop.register(_channel, 0, this);
+			_loop.addTickHandler(this);
+		} catch (ClosedChannelException ex) {
+			doClose();
+		}
+	}
+
+	private void startSending(RtpStreamSender sender) {
+		if (_closed || (_sender != null && _sender.isRunning())) {
+			LOG.warn("Cannot start sender on {}.", _closed ? "closed session" : "session with active sender");
+			sender.terminate(null);
+			return;
+		}
+		_sender = sender;
+		_executor.execute(sender);
+	}
+
+	private void startReceiving(RtpStreamReceiver receiver) {
+		if (_closed || _receiver != null) {
+			LOG.warn("Cannot start receiver on {}.", _closed ? "closed session" : "session with active receiver");
+			receiver.terminate(null);
+			return;
+		}
+		receiver.prepare();
+		_receiver = receiver;
+		if (_packet == null) {
+			_packet = new RtpPacket(new byte[RtpStreamReceiver.BUFFER_SIZE], 0);
+			_buffer = ByteBuffer.wrap(_packet.getPacketBuffer());
+		}
+		if (_key != null) {
+			_key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	@Override
+	public void onTick(long now) {
+		RtpStreamReceiver receiver = _receiver;
+		if (receiver != null) {
+			if (!receiver.isRunning()) {
+				stopReceiving(null);
+			} else {
+				try {
+					receiver.playout(System.currentTimeMillis());
+				} catch (Exception ex) {
+					stopReceiving(ex);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void onSelected(SelectionKey key) {
+		if (!key.isReadable()) {
+			return;
+		}
+		try {
+			for (int n = 0; n < MAX_READS; n++) {
+				_buffer.clear();
+				InetSocketAddress source = _socket.receiveNow(_buffer);
+				if (source == null) {
+					break;
+				}
+
+				RtpStreamReceiver receiver = _receiver;
+				if (receiver == null) {
+					continue;
+				}
+				if (!receiver.isRunning()) {
+					stopReceiving(null);
+					continue;
+				}
+				_packet.setPacketLength(_buffer.position());
+				receiver.processPacket(_packet, toSocketAddress(source));
+			}
+		} catch (Exception ex) {
+			stopReceiving(ex);
+		}
+	}
+
+	private SocketAddress toSocketAddress(InetSocketAddress source) {
+		if (!source.equals(_lastSource)) {
+			_lastSource = source;
+			_lastSourceAddress = new SocketAddress(new IpAddress(source.getAddress()), source.getPort());
+		}
+		return _lastSourceAddress;
+	}
+
+	private void stopReceiving(Exception error) {
+		RtpStreamReceiver receiver = _receiver;
+		if (receiver == null) {
+			return;
+		}
+		_receiver = null;
+		if (_key != null && _key.isValid()) {
+			_key.interestOps(0);
+		}
+		receiver.terminate(error);
+	}
+
+	private void doClose() {
+		if (_closed) {
+			return;
+		}
+		_closed = true;
+		if (_sender != null) {
+			// Terminated by the media clock.
+			_sender.halt();
+			_sender = null;
+		}
+		stopReceiving(null);
+		_loop.removeTickHandler(this);
+		if (_key != null) {
+			_key.cancel();
+		}
+		_socket.close();
+		_engine.onClosed(this);
+	}
+
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.media;
+
+import org.mjsip.rtp.RtpPacket;
+
+/**
+ * Reception statistics of a single RTP source as defined in RFC 3550, section 6.4.1 and
+ * appendix A.
+ *
+ * <p>
+ * The statistics are updated by the thread receiving the stream through
+ * {@link #update(RtpPacket, long)} without any allocation. All getters may be called from other
+ * threads, e.g. for monitoring the call quality. The values are published without
+ * synchronization, so that values read together may stem from different packets.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class RtpReceiverStatistics {
+
+	/** Maximum forward jump of the sequence number that is considered in order. */
+	private static final int MAX_DROPOUT = 3000;
+
+	/** Maximum backward jump of the sequence number that is considered a reordered packet. */
+	private static final int MAX_MISORDER = 100;
+
+	/** Number of sequential packets required to accept a new source. */
+	private static final int MIN_SEQUENTIAL = 2;
+
+	private static final int RTP_SEQ_MOD = 1 << 16;
+
+	private final int _clockRate;
+
+	private final long _startNanos;
+
+	private boolean _started;
+
+	private volatile long _ssrc;
+
+	/** Highest sequence number seen. */
+	private volatile int _maxSeq;
+
+	/** Shifted count of sequence number cycles. */
+	private volatile long _cycles;
+
+	/** Base sequence number. */
+	private volatile int _baseSeq;
+
+	/** Last bad sequence number + 1. */
+	private int _badSeq;
+
+	/** Number of sequential packets still required until the source is valid. */
+	private int _probation;
+
+	private volatile long _received;
+
+	private volatile long _octets;
+
+	private volatile long _expectedPrior;
+
+	private volatile long _receivedPrior;
+
+	/**
+	 * Relative transit time of the previous packet in timestamp units, modulo 2^32 like the RTP
+	 * timestamp.
+	 */
+	private int _transit;
+
+	/** Interarrival jitter in timestamp units, scaled by 16. */
+	private volatile long _jitter;
+
+	/** Middle 32 bits of the NTP timestamp of the last SR. */
+	private volatile long _lsr;
+
+	/** {@link System#nanoTime()} when the last SR was received. */
+	private volatile long _lsrNanos;
+
+	/**
+	 * Creates a {@link RtpReceiverStatistics}.
+	 *
+	 * @param clockRate
+	 *        The RTP timestamp clock rate in Hz.
+	 */
+	public RtpReceiverStatistics(int clockRate) {
+		_clockRate = clockRate;
+		_startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Updates the statistics with a received packet.
+	 *
+	 * @param packet
+	 *        The received packet.
+	 * @param nanos
+	 *        The {@link System#nanoTime()} of arrival.
+	 * @return Whether the packet is valid, <code>false</code> if it is not yet accepted as part of
+	 *         the stream.
+	 */
+	public boolean update(RtpPacket packet, long nanos) {
+		long ssrc = packet.getSsrc();
+		int seq = packet.getSequenceNumber();
+		if (!_started || ssrc != _ssrc) {
+			// New source.
+			_started = true;
+			_ssrc = ssrc;
+			initSeq(seq);
+			_maxSeq = (seq - 1) & (RTP_SEQ_MOD - 1);
+			_probation = MIN_SEQUENTIAL;
+			_jitter = 0;
+			_transit = transit(packet, nanos);
+		}
+		if (!updateSeq(seq)) {
+			return false;
+		}
+
+		_octets += packet.getPayloadLength();
+
+		// Computed in 32 bit arithmetic (RFC 3550 A.8), so that the difference is correct across a
+		// wrap of the RTP timestamp.
+		int transit = transit(packet, nanos);
+		int d = transit - _transit;
+		_transit = transit;
+		if (d < 0) {
+			d = -d;
+		}
+		_jitter += d - ((_jitter + 8) >> 4);
+		return true;
+	}
+
+	private int transit(RtpPacket packet, long nanos) {
+		long arrival = (nanos - _startNanos) / 1000 * _clockRate / 1_000_000;
+		return (int) arrival - (int) packet.getTimestamp();
+	}
+
+	private void initSeq(int seq) {
+		_baseSeq = seq;
+		_maxSeq = seq;
+		_badSeq = RTP_SEQ_MOD + 1;
+		_cycles = 0;
+		_received = 0;
+		_octets = 0;
+		_receivedPrior = 0;
+		_expectedPrior = 0;
+	}
+
+	/**
+	 * Sequence number validation of RFC 3550, appendix A.1.
+	 */
+	private boolean updateSeq(int seq) {
+		int delta = (seq - _maxSeq) & (RTP_SEQ_MOD - 1);
+		if (_probation > 0) {
+			if (seq == ((_maxSeq + 1) & (RTP_SEQ_MOD - 1))) {
+				_probation--;
+				_maxSeq = seq;
+				if (_probation == 0) {
+					initSeq(seq);
+					_received++;
+					return true;
+				}
+			} else {
+				_probation = MIN_SEQUENTIAL - 1;
+				_maxSeq = seq;
+			}
+			return false;
+		} else if (delta < MAX_DROPOUT) {
+			// In order, with permissible gap.
+			if (seq < _maxSeq) {
+				_cycles += RTP_SEQ_MOD;
+			}
+			_maxSeq = seq;
+		} else if (delta <= RTP_SEQ_MOD - MAX_MISORDER) {
+			// Large jump.
+			if (seq == _badSeq) {
+				// Two sequential packets, assume that the other side restarted.
+				initSeq(seq);
+			} else {
+				_badSeq = (seq + 1) & (RTP_SEQ_MOD - 1);
+				return false;
+			}
+		} else {
+			// Duplicate or reordered packet.
+		}
+		_received++;
+		return true;
+	}
+
+	/**
+	 * Records the reception of a RTCP sender report from the source.
+	 *
+	 * @param ntpTimestamp
+	 *        The middle 32 bits of the NTP timestamp of the report.
+	 * @param nanos
+	 *        The {@link System#nanoTime()} of arrival.
+	 */
+	public void onSenderReport(long ntpTimestamp, long nanos) {
+		_lsrNanos = nanos;
+		_lsr = ntpTimestamp & 0xffffffffL;
+	}
+
+	/**
+	 * Starts a new reporting interval for {@link #getFractionLost()}.
+	 */
+	public void onReportSent() {
+		_expectedPrior = getExpected();
+		_receivedPrior = _received;
+	}
+
+	/**
+	 * The synchronization source (SSRC) identifier of the received stream, <code>0</code> if
+	 * nothing was received so far.
+	 */
+	public long getSSRC() {
+		return _ssrc;
+	}
+
+	/**
+	 * The number of received packets including late and duplicate ones.
+	 */
+	public long getPacketsReceived() {
+		return _received;
+	}
+
+	/**
+	 * The number of received payload octets.
+	 */
+	public long getOctetsReceived() {
+		return _octets;
+	}
+
+	/**
+	 * The extended highest sequence number received.
+	 */
+	public long getHighestSqnReceived() {
+		return (_cycles + _maxSeq) & 0xffffffffL;
+	}
+
+	/**
+	 * The number of packets expected from the first to the highest received sequence number.
+	 */
+	public long getExpected() {
+		if (_received == 0) {
+			return 0;
+		}
+		return _cycles + _maxSeq - _baseSeq + 1;
+	}
+
+	/**
+	 * The cumulative number of packets lost, clamped to the 24 bit signed range of a report block.
+	 */
+	public long getCumulativePacketLost() {
+		long lost = getExpected() - _received;
+		return Math.max(-0x800000, Math.min(0x7fffff, lost));
+	}
+
+	/**
+	 * The fraction of packets lost since the last {@link #onReportSent()} in units of 1/256.
+	 */
+	public int getFractionLost() {
+		long expectedInterval = getExpected() - _expectedPrior;
+		long receivedInterval = _received - _receivedPrior;
+		long lostInterval = expectedInterval - receivedInterval;
+		if (expectedInterval == 0 || lostInterval <= 0) {
+			return 0;
+		}
+		return (int) ((lostInterval << 8) / expectedInterval);
+	}
+
+	/**
+	 * The interarrival jitter in timestamp units.
+	 */
+	public long getInterarrivalJitter() {
+		return _jitter >> 4;
+	}
+
+	/**
+	 * The interarrival jitter in milliseconds.
+	 */
+	public double getJitterMillis() {
+		return getInterarrivalJitter() * 1000.0 / _clockRate;
+	}
+
+	/**
+	 * The middle 32 bits of the NTP timestamp of the last received SR, <code>0</code> if none was
+	 * received.
+	 */
+	public long getLSR() {
+		return _lsr;
+	}
+
+	/**
+	 * The delay since the last received SR in units of 1/65536 seconds, <code>0</code> if none was
+	 * received.
+	 */
+	public long getDLSR() {
+		if (_lsr == 0) {
+			return 0;
+		}
+		return ((System.nanoTime() - _lsrNanos) << 16) / 1_000_000_000L;
+	}
+
+	@Override
+	public String toString() {
+		return "ssrc=" + _ssrc + ", received=" + _received + ", lost=" + getCumulativePacketLost() + ", jitter="
+			+ getInterarrivalJitter();
+	}
+
+}
@@ -57,6 +57,9 @@ public class RtpStreamReceiver implements Runnable, RtpControlledReceiver {
 	/** Maximum blocking time, spent waiting for reading new bytes [milliseconds] */
 	public static final int SO_TIMEOUT=200;
 
+	/** Maximum blocking time when using a jitter buffer, after which due packets are played out [milliseconds] */
+	public static final int PLAYOUT_TIMEOUT=10;
+
 	/** Integer value 2^16 */
 	private static final int TWO_16=(1<<16);
 
@@ -99,6 +102,33 @@ public class RtpStreamReceiver implements Runnable, RtpControlledReceiver {
 	/** Additional RTP payload decoder */
 	private Encoder additional_decoder;
 
+	/** Time until received packets are dropped, or -1 if packets are played out */
+	private long early_drop_to=-1;
+
+	/** SSRC of the first received packet, or -1 */
+	private long ssrc=-1;
+
+	/** Sequence number of the last played out packet, or -1 */
+	private int last_sqn=-1;
+
+	/** Timestamp of the last played out packet, or -1 */
+	private long last_timestamp=-1;
+
+	/** Buffer for silence padding */
+	private byte[] silence_buffer;
+
+	/** Jitter buffer, or null if packets are played out in arrival order */
+	private JitterBuffer jitter_buffer=null;
+
+	/** Last payload written to the OutputStream, repeated for concealing a lost packet */
+	private byte[] last_payload=null;
+
+	/** Length of the last payload */
+	private int last_payload_len=0;
+
+	/** Reception statistics reported via RTCP */
+	private final RtpReceiverStatistics statistics;
+
 	/**
 	 * Constructs a RtpStreamReceiver.
 	 * 
@@ -116,6 +146,28 @@ public class RtpStreamReceiver implements Runnable, RtpControlledReceiver {
 	 *        the RtpStreamReceiver listener
 	 */
 	public RtpStreamReceiver(RtpReceiverOptions options, OutputStream output_stream, Encoder additional_decoder, RtpPayloadFormat payloadFormat, UdpSocket socket, RtpStreamReceiverListener listener) {
+		this(options, output_stream, additional_decoder, payloadFormat, AudioStreamer.DEFAULT_SAMPLE_RATE, socket, listener);
+	}
+
+	/**
+	 * Constructs a RtpStreamReceiver.
+	 * 
+	 * @param options
+	 *        Additional options.
+	 * @param output_stream
+	 *        the stream sink
+	 * @param additional_decoder
+	 *        additional RTP payload decoder (optional)
+	 * @param payloadFormat
+	 *        The RtpPayloadFormat to use.
+	 * @param clock_rate
+	 *        the RTP timestamp clock rate, used for timing the playout in the jitter buffer
+	 * @param socket
+	 *        the local receiver UdpSocket
+	 * @param listener
+	 *        the RtpStreamReceiver listener
+	 */
+	public RtpStreamReceiver(RtpReceiverOptions options, OutputStream output_stream, Encoder additional_decoder, RtpPayloadFormat payloadFormat, int clock_rate, UdpSocket socket, RtpStreamReceiverListener listener) {
 		this.output_stream = output_stream;
 		this.listener = listener;
 		this.additional_decoder = additional_decoder;
@@ -127,13 +179,18 @@ public class RtpStreamReceiver implements Runnable, RtpControlledReceiver {
 		this.silence_padding = options.silencePadding();
 		this.sequence_check = silence_padding || options.sequenceCheck();
 		this.ssrc_check = options.ssrcCheck();
+		this.statistics=new RtpReceiverStatistics(clock_rate);
+		int max_delay=options.jitterBuffer();
+		if (max_delay>0) {
+			this.jitter_buffer=new JitterBuffer(JitterBuffer.DEFAULT_CAPACITY, clock_rate, Math.min(JitterBuffer.DEFAULT_MIN_DELAY, max_delay), max_delay);
+		}
 
 		LOG.info("Created RTP stream receiver: {} <-- {}", socket, remote_soaddr);
 	}
 
 	/** Gets the local port. */
 	public int getLocalPort() {
-		if (rtp_socket!=null) return rtp_socket.getUdpSocket().getLocalPort();
+		if (rtp_socket!=null && rtp_socket.getUdpSocket()!=null) return rtp_socket.getUdpSocket().getLocalPort();
 		else return 0;
 	}
 
@@ -141,56 +198,64 @@ public class RtpStreamReceiver implements Runnable, RtpControlledReceiver {
 	  * @return he synchronization source (SSRC) identifier of the received RTP packets */
 	@Override
 	public long getSSRC() {
-		// to be implemented..
-		return 0;
+		return statistics.getSSRC();
 	}
 
 	/** Gets fraction lost.
 	  * @return the fraction of RTP data packets lost since the previous SR or RR packet was sent; the fraction loss is defined as the number of packets lost divided by the number of packets expected; it is represented by the integer part after multiplying the loss fraction by 256 (8 bit) */
 	@Override
 	public int getFractionLost() {
-		// to be implemented..
-		return 0;
+		return statistics.getFractionLost();
 	}
 
 	/** Gets cumulative number of packets lost.
 	  * @return cumulative number of packets lost that is the total number of RTP data packets that have been lost since the beginning of reception; it is the number of packets expected less the number of packets actually received, where the number of packets received includes any which are late or duplicates */
 	@Override
 	public long getCumulativePacketLost() {
-		// to be implemented..
-		return 0;
+		return statistics.getCumulativePacketLost();
 	}
 
 	/** Gets the extended highest sequence number received.
 	  * @return the extended highest sequence number received (32bit); the low 16 bits contain the highest sequence number received in an RTP data packet, and the most significant 16 bits extend that sequence number with the corresponding count of sequence number cycles */
 	@Override
 	public long getHighestSqnReceived() {
-		// to be implemented..
-		return 0;
+		return statistics.getHighestSqnReceived();
 	}
 
 	/** Gets the interarrival jitter.
 	  * @return the interarrival jitter, that is an estimate of the statistical variance of the RTP data packet interarrival time, measured in timestamp units and expressed as an unsigned integer */
 	@Override
 	public long getInterarrivalJitter() {
-		// to be implemented..
-		return 0;
+		return statistics.getInterarrivalJitter();
 	}
 
 	/** Gets last SR timestamp (LSR).
 	  * @return last SR timestamp (LSR), that is the middle 32 bits out of 64 in the NTP timestamp received as part of the most recent RTCP SR packet */
 	@Override
 	public long getLSR() {
-		// to be implemented..
-		return 0;
+		return statistics.getLSR();
 	}
 
 	/** Gets delay since last SR (DLSR).
 	  * @return delay since last SR (DLSR), that is the delay, expressed in units of 1/65536 seconds, between receiving the last SR packet and sending this reception report block */ 
 	@Override
 	public long getDLSR() {
-		// to be implemented..
-		return 0;
+		return statistics.getDLSR();
+	}
+
+	@Override
+	public void onSenderReport(long lsr) {
+		statistics.onSenderReport(lsr,System.nanoTime());
+	}
+
+	@Override
+	public void onReportSent() {
+		statistics.onReportSent();
+	}
+
+	/** Gets the reception statistics of this stream, e.g. for monitoring the call quality. */
+	public RtpReceiverStatistics getStatistics() {
+		return statistics;
 	}
 
 
@@ -220,7 +285,7 @@ public class RtpStreamReceiver implements Runnable, RtpControlledReceiver {
 		byte[] buffer=new byte[BUFFER_SIZE];
 		RtpPacket rtp_packet=new RtpPacket(buffer,0);
 
-		running=true;    
+		prepare();
 
 		if (DEBUG)
 			LOG.debug("RTP: localhost:{} <-- remotesocket", rtp_socket.getUdpSocket().getLocalPort());
@@ -229,103 +294,184 @@ public class RtpStreamReceiver implements Runnable, RtpControlledReceiver {
 
 		Exception error=null;
 		try {
-			rtp_socket.getUdpSocket().setSoTimeout(SO_TIMEOUT);
-			long early_drop_to=(EARLY_DROP_TIME>0)? System.currentTimeMillis()+EARLY_DROP_TIME : -1;
-
-			long ssrc=-1;
-			int last_sqn=-1;
-			long last_timestamp=-1;
-			byte[] silence_buffer=new byte[4000];
+			rtp_socket.getUdpSocket().setSoTimeout((jitter_buffer!=null)? PLAYOUT_TIMEOUT : SO_TIMEOUT);
 
 			while (running) {
 				
 				try {
 					// read a block of data from the rtp socket
 					rtp_socket.receive(rtp_packet);
-					// drop the first packets in order to reduce the effect of an eventual initial packet burst
-					if (early_drop_to>0 && System.currentTimeMillis()<early_drop_to) continue;
-					else early_drop_to=-1;
-					
-					// only if still running..
-					if (running) {
-						
-						if (ssrc_check) {
-							// discard packets with wrong SSRC (i.e. when the SSRC differs from the one in the first received packet)
-							long pkt_ssrc=rtp_packet.getSsrc();
-							if (ssrc==-1) ssrc=pkt_ssrc;
-							else if (pkt_ssrc!=ssrc) continue; // discarded packet with wrong SSRC
-						}
-						if (sequence_check) {
-							// discard out of sequence and duplicated packets
-							int sqn=rtp_packet.getSequenceNumber();
-							if (sqn==last_sqn) continue; // discarded duplicated packet
-							// else
-							if (last_sqn<0) last_sqn=sqn;
-							if (sqn<last_sqn) sqn+=TWO_16;
-							int sqn_diff=sqn-last_sqn;
-							if (sqn_diff>TWO_16/2) continue; // discarded out of sequence packet
-							// else
-							last_sqn=sqn&0xffff;
-
-							if (silence_padding) {
-								// silence padding
-								long timestamp=rtp_packet.getTimestamp();
-								if (last_timestamp<0) last_timestamp=timestamp;
-								if (timestamp<last_timestamp) timestamp+=(TWO_32);
-								long timestamp_diff=timestamp-last_timestamp;
-								last_timestamp=timestamp&0xffffffff;
-								if (rtp_payload_format!=null) {
-									int silence_len=rtp_payload_format.getSilencePad(sqn_diff,timestamp_diff,silence_buffer,0);
-									if (silence_len>0) {
-										output_stream.write(silence_buffer,0,silence_len);
-									}
-								}
-							}
-						}
-						// get payload
-						byte[] payload_buf=rtp_packet.getPacketBuffer();
-						int payload_off=rtp_packet.getHeaderLength();
-						int payload_len=rtp_packet.getPayloadLength();
-						
-						// remove possible RTP payload format
-						int unformatted_len=(rtp_payload_format!=null)? rtp_payload_format.removeRtpPayloadFormat(payload_buf,payload_off,payload_len) : payload_len;
-					
-						// drop a small percentage of packets
-						if (random_early_drop>0 && (++packet_counter)%random_early_drop==0) continue;
-						// else 
-
-						if (additional_decoder!=null) unformatted_len=additional_decoder.encode(payload_buf,payload_off,unformatted_len,payload_buf,payload_off);
-
-						// write the payload data to the output_stream
-						try {
-							output_stream.write(payload_buf,payload_off,unformatted_len);
-						}
-						catch (IOException e) {
-							System.out.println("DEBUG: RtpStreamReceiver: write(buf,off="+payload_off+", len="+unformatted_len+"): error: "+e);
-							throw e;
-						}
-					}
-					// check whether remote socket address is changed
-					SocketAddress source_soaddr=rtp_socket.getRemoteSourceSoAddress();
-					if (remote_soaddr==null || !remote_soaddr.equals(source_soaddr)) {
-						remote_soaddr=source_soaddr;
-						if (listener!=null) listener.onRemoteSoAddressChanged(this,remote_soaddr);
-					}
+					processPacket(rtp_packet,rtp_socket.getRemoteSourceSoAddress());
 				}
 				catch (java.io.InterruptedIOException e) {
 					// Ignore.
 				}
+				if (running) playout(System.currentTimeMillis());
 			}
 		}
 		catch (Exception e) {
-			running=false;
 			error=e;
 			if (DEBUG)
 				LOG.debug("Exception.", e);
 		}
 		
+		terminate(error);
+	}
+
+	/** Prepares the receiving of packets. Must be called once before the first {@link #processPacket(RtpPacket, SocketAddress)}. */
+	void prepare() {
+		running=true;
+		early_drop_to=(EARLY_DROP_TIME>0)? System.currentTimeMillis()+EARLY_DROP_TIME : -1;
+		ssrc=-1;
+		last_sqn=-1;
+		last_timestamp=-1;
+		if (silence_buffer==null) silence_buffer=new byte[4000];
+	}
+
+	/**
+	 * Processes a received RTP packet and writes its payload to the OutputStream, or passes it to
+	 * the jitter buffer.
+	 * 
+	 * @param rtp_packet
+	 *        the received packet
+	 * @param source_soaddr
+	 *        the socket address the packet was received from
+	 */
+	void processPacket(RtpPacket rtp_packet, SocketAddress source_soaddr) throws Exception {
+		long now=System.currentTimeMillis();
+		// drop the first packets in order to reduce the effect of an eventual initial packet burst
+		if (early_drop_to>0 && now<early_drop_to) return;
+		else early_drop_to=-1;
+		
+		// only if still running..
+		if (running) {
+			
+			if (ssrc_check) {
+				// discard packets with wrong SSRC (i.e. when the SSRC differs from the one in the first received packet)
+				long pkt_ssrc=rtp_packet.getSsrc();
+				if (ssrc==-1) ssrc=pkt_ssrc;
+				else if (pkt_ssrc!=ssrc) return; // discarded packet with wrong SSRC
+			}
+			statistics.update(rtp_packet,System.nanoTime());
+			if (jitter_buffer!=null) {
+				// reordering, duplicates and late packets are handled by the jitter buffer
+				jitter_buffer.put(rtp_packet,now);
+				playout(now);
+			}
+			else {
+				if (sequence_check) {
+					// discard out of sequence and duplicated packets
+					int sqn=rtp_packet.getSequenceNumber();
+					if (sqn==last_sqn) return; // discarded duplicated packet
+					// else
+					if (last_sqn<0) last_sqn=sqn;
+					if (sqn<last_sqn) sqn+=TWO_16;
+					int sqn_diff=sqn-last_sqn;
+					if (sqn_diff>TWO_16/2) return; // discarded out of sequence packet
+					// else
+					last_sqn=sqn&0xffff;
+	
+					if (silence_padding) padSilence(sqn_diff,rtp_packet.getTimestamp());
+				}
+				writePayload(rtp_packet);
+			}
+		}
+		// check whether remote socket address is changed
+		if (remote_soaddr==null || !remote_soaddr.equals(source_soaddr)) {
+			remote_soaddr=source_soaddr;
+			if (listener!=null) listener.onRemoteSoAddressChanged(this,remote_soaddr);
+		}
+	}
+
+	/**
+	 * Writes all packets from the jitter buffer to the OutputStream whose playout time has come,
+	 * and conceals lost ones. Does nothing if no jitter buffer is used.
+	 * 
+	 * @param now
+	 *        the current time in milliseconds
+	 */
+	void playout(long now) throws Exception {
+		if (jitter_buffer==null) return;
+		// else
+		while (true) {
+			int result=jitter_buffer.poll(now);
+			if (result==JitterBuffer.NONE) break;
+			// else
+			int sqn=jitter_buffer.getSequenceNumber();
+			int sqn_diff=(last_sqn<0)? 0 : (sqn-last_sqn)&0xffff;
+			last_sqn=sqn;
+			if (result==JitterBuffer.PLAY) {
+				if (silence_padding) padSilence(sqn_diff,jitter_buffer.getTimestamp());
+				writePayload(jitter_buffer.getPacket());
+			}
+			else {
+				last_timestamp=jitter_buffer.getTimestamp();
+				conceal(jitter_buffer.getTimestampStep());
+			}
+		}
+	}
+
+	/** Writes padding data for a silence interval before the packet with the given timestamp. */
+	private void padSilence(int sqn_diff, long timestamp) throws IOException {
+		if (last_timestamp<0) last_timestamp=timestamp;
+		if (timestamp<last_timestamp) timestamp+=(TWO_32);
+		long timestamp_diff=timestamp-last_timestamp;
+		last_timestamp=timestamp&0xffffffff;
+		if (rtp_payload_format!=null) {
+			int silence_len=rtp_payload_format.getSilencePad(sqn_diff,timestamp_diff,silence_buffer,0);
+			if (silence_len>0) {
+				output_stream.write(silence_buffer,0,silence_len);
+			}
+		}
+	}
+
+	/** Writes concealment data for a lost packet.
+	  * The concealment is provided by the payload format, if supported, otherwise the last payload is repeated. */
+	private void conceal(long timestamp_interval) throws IOException {
+		int len=(rtp_payload_format!=null)? rtp_payload_format.getConcealment(timestamp_interval,silence_buffer,0) : 0;
+		if (len>0) output_stream.write(silence_buffer,0,len);
+		else if (last_payload_len>0) output_stream.write(last_payload,0,last_payload_len);
+	}
+
+	/** Decodes the payload of the given packet and writes it to the OutputStream. */
+	private void writePayload(RtpPacket rtp_packet) throws Exception {
+		// get payload
+		byte[] payload_buf=rtp_packet.getPacketBuffer();
+		int payload_off=rtp_packet.getHeaderLength();
+		int payload_len=rtp_packet.getPayloadLength();
+		
+		// remove possible RTP payload format
+		int unformatted_len=(rtp_payload_format!=null)? rtp_payload_format.removeRtpPayloadFormat(payload_buf,payload_off,payload_len) : payload_len;
+	
+		// drop a small percentage of packets
+		if (random_early_drop>0 && (++packet_counter)%random_early_drop==0) return;
+		// else 
+
+		if (additional_decoder!=null) unformatted_len=additional_decoder.encode(payload_buf,payload_off,unformatted_len,payload_buf,payload_off);
+
+		// write the payload data to the output_stream
+		try {
+			output_stream.write(payload_buf,payload_off,unformatted_len);
+		}
+		catch (IOException e) {
+			System.out.println("DEBUG: RtpStreamReceiver: write(buf,off="+payload_off+", len="+unformatted_len+"): error: "+e);
+			throw e;
+		}
+		
+		if (jitter_buffer!=null) {
+			// keep for concealment
+			if (last_payload==null || last_payload.length<unformatted_len) last_payload=new byte[unformatted_len];
+			System.arraycopy(payload_buf,payload_off,last_payload,0,unformatted_len);
+			last_payload_len=unformatted_len;
+		}
+	}
+
+	/** Releases all resources and informs the listener. Must be called once when receiving has finished. */
+	void terminate(Exception error) {
+		running=false;
+
 		// close RtpSocket
-		rtp_socket.close();
+		if (rtp_socket!=null) rtp_socket.close();
 		
 		// free all
 		output_stream=null;
@@ -334,6 +480,7 @@ public class RtpStreamReceiver implements Runnable, RtpControlledReceiver {
 		onRtpStreamReceiverTerminated(error);
 	}
 
+
 	/**
 	 * Callback invoked when stream terminates.
 	 *
@@ -359,6 +506,13 @@ public class RtpStreamReceiver implements Runnable, RtpControlledReceiver {
 		return random_early_drop;
 	}
 
+
+	/** Gets the jitter buffer.
+	  * @return the jitter buffer providing depth, late-drop and concealment counters, or <code>null</code> if packets are played out in arrival order */
+	public JitterBuffer getJitterBuffer() {
+		return jitter_buffer;
+	}
+
 }
 
 
@@ -22,13 +22,17 @@
 package org.mjsip.media;
 
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import org.mjsip.media.tx.RtpSenderOptions;
 import org.mjsip.rtp.RtpControl;
 import org.mjsip.rtp.RtpPacket;
 import org.mjsip.rtp.RtpPayloadFormat;
 import org.mjsip.rtp.RtpSocket;
+import org.mjsip.time.MediaClock;
 import org.slf4j.LoggerFactory;
 import org.zoolu.net.IpAddress;
 import org.zoolu.net.SocketAddress;
@@ -147,6 +151,24 @@ public class RtpStreamSender implements Runnable, RtpControlledSender {
 	/** Additional RTP payload encoder */
 	Encoder additional_encoder;
 
+	/** Buffer of the RTP packet being sent */
+	private byte[] packet_buffer;
+
+	/** The RTP packet being sent */
+	private RtpPacket rtp_packet;
+
+	/** Media time sent so far [millisecs] */
+	private long time;
+
+	/** Media time of the next RTCP sending report [millisecs] */
+	private long next_report_time;
+
+	/** Number of packets still to be dropped (DEBUG DROP RATE) */
+	private int debug_drop_count;
+
+	/** Registration with the shared media clock, or null if paced by an own thread */
+	private volatile MediaClock.Registration pacing=null;
+
 	/**
 	 * Constructs a RtpStreamSender.
 	 * 
@@ -204,7 +226,7 @@ public class RtpStreamSender implements Runnable, RtpControlledSender {
 
 	/** Gets the local port. */
 	public int getLocalPort() {
-		if (rtp_socket!=null) return rtp_socket.getUdpSocket().getLocalPort();
+		if (rtp_socket!=null && rtp_socket.getUdpSocket()!=null) return rtp_socket.getUdpSocket().getLocalPort();
 		else return 0;
 	}
 
@@ -277,128 +299,174 @@ public class RtpStreamSender implements Runnable, RtpControlledSender {
 		if (rtp_socket==null || input_stream==null) return;
 		//else
 		
+		prepare();
+		// departures are computed on the monotonic clock from the start, so that they do not drift
+		long departure=System.nanoTime();
+		Exception error=null;
+		try {
+			while (!_shouldStop) {
+				long this_packet_time=sendPacket();
+				if (this_packet_time<0) break;
+				// wait for next departure
+				if (this_packet_time>0 && do_sync) {
+					departure+=TimeUnit.MILLISECONDS.toNanos(this_packet_time+sync_adj);
+					long now=System.nanoTime();
+					// avoid bursts when behind schedule
+					if (MIN_INTER_PACKET_TIME_FRACTION>1) {
+						long min_departure=now+TimeUnit.MILLISECONDS.toNanos(this_packet_time)/MIN_INTER_PACKET_TIME_FRACTION;
+						if (departure-min_departure<0) departure=min_departure;
+					}
+					// wait before next departure..
+					while (!_shouldStop && departure-now>0) {
+						LockSupport.parkNanos(departure-now);
+						now=System.nanoTime();
+					}
+				}
+			}
+		}
+		catch (Exception e) {
+			error=e;
+			if (DEBUG) e.printStackTrace();
+		}
+		terminate(error);
+	}
+
+	/**
+	 * Starts sending paced by the given shared media clock instead of an own thread. Only for
+	 * {@link #isSynchronous() synchronous} senders.
+	 * 
+	 * @param clock
+	 *        the clock timing the departures
+	 * @return the registration reporting the pacing jitter
+	 */
+	public MediaClock.Registration start(MediaClock clock) {
+		if (!do_sync) throw new IllegalStateException("Sender is not synchronous.");
+		// else
+		if (rtp_socket==null || input_stream==null) return null;
+		// else
+		prepare();
+		pacing=clock.register(this::depart);
+		return pacing;
+	}
+
+	/** The registration with the media clock, or null if not started with {@link #start(MediaClock)}. */
+	public MediaClock.Registration getPacing() {
+		return pacing;
+	}
+
+	/** Sends the due packet, called by the media clock. */
+	private long depart(long now) {
+		try {
+			long this_packet_time=_shouldStop? -1 : sendPacket();
+			if (this_packet_time<0) {
+				terminate(null);
+				return -1;
+			}
+			// else
+			if (this_packet_time==0) return 0;
+			// else
+			return TimeUnit.MILLISECONDS.toNanos(Math.max(1, this_packet_time+sync_adj));
+		}
+		catch (IOException | RuntimeException e) {
+			terminate(e);
+			return -1;
+		}
+	}
+
+	/** Whether the departure of packets must be timed by the caller of {@link #sendPacket()}, or it is timed by blocking reads from the InputStream. */
+	public boolean isSynchronous() {
+		return do_sync;
+	}
+
+	/** Prepares the sending of packets. Must be called once before the first {@link #sendPacket()}. */
+	void prepare() {
 		// number of payload bytes after RTP formatting
 		int formatted_len=(rtp_payload_format!=null)? rtp_payload_format.getRtpPayloadFormatLength(payload_size) : payload_size;		
-		byte[] packet_buffer=new byte[BUFFER_SIZE];
-		RtpPacket rtp_packet=new RtpPacket(packet_buffer,RTPH_LEN); // empty RTP packet
+		packet_buffer=new byte[BUFFER_SIZE];
+		rtp_packet=new RtpPacket(packet_buffer,RTPH_LEN); // empty RTP packet
 		if (STATIC_SSRC>=0) ssrc=STATIC_SSRC;
 		if (STATIC_SQN>=0) sqn=STATIC_SQN;
 		if (STATIC_TIMESTAMP>=0) timestamp=STATIC_TIMESTAMP;
 		rtp_packet.setHeader(p_type,ssrc,sqn,timestamp);
 		rtp_packet.setMarker(true);
-
-		long time=0;
-		long time_sync=0;
-		//long timestamp=0;
-		long start_time=System.currentTimeMillis();
-		//long byte_rate=payload_size*1000/packet_time;
-		
-		// sending report counters
-		//long packet_count=0;
-		//long octect_count=0;
-		long next_report_time=0;
+		time=0;
+		next_report_time=0;
+		debug_drop_count=0;
 
 		if (DEBUG)
-			LOG.debug("RTP: localhost:{} --> {}", rtp_socket.getUdpSocket().getLocalPort(), remote_soaddr);
+			LOG.debug("RTP: localhost:{} --> {}", getLocalPort(), remote_soaddr);
 		if (DEBUG)
 			LOG.debug("RTP: sending pkts of {} bytes of RTP payload", formatted_len);
+	}
 
-		// DEBUG DROP RATE
-		int debug_drop_count=0;
-
-		Exception error=null;
-		try {
-			while (!_shouldStop) {
-				if (time>=next_report_time) {
-					//if (rtp_control!=null) rtp_control.send(new local.net.SrRtcpPacket(rtp_packet.getSsrc(),System.currentTimeMillis(),timestamp,packet_count,octect_count));
-					if (rtp_control!=null) rtp_control.sendReport();
-					next_report_time+=RTCP_SR_TIME;
-				}
-				//java.util.Arrays.fill(packet_buffer,RTPH_LEN,formatted_len,(byte)0);
-				int len=input_stream.read(packet_buffer,RTPH_LEN,payload_size);
-				if (len < 0) {
-					if (DEBUG)
-						LOG.debug("Input stream finished.");
-					break;
-				}
-
-				// Check again, since reading the stream may have blocked.
-				if (_shouldStop) {
-					break;
-				}
-
-				if (len>0) {					
-					// apply possible RTP payload format (if required, e.g. in case of AMR)
-					formatted_len=(rtp_payload_format!=null)? rtp_payload_format.setRtpPayloadFormat(packet_buffer,RTPH_LEN,len) : len;
-
-					// do additional encoding (if defined)
-					formatted_len=(additional_encoder!=null)? additional_encoder.encode(packet_buffer,RTPH_LEN,formatted_len,packet_buffer,RTPH_LEN): formatted_len;
-
-					rtp_packet.setSequenceNumber(sqn++);
-					rtp_packet.setTimestamp(timestamp);
-					rtp_packet.setPayloadLength(formatted_len);
-					
-					// DEBUG DROP RATE BEGIN
-					//rtp_socket.send(rtp_packet);
-					if (debug_drop_count==0) {
-						rtp_socket.send(rtp_packet);
-						if (DEBUG_DROP_RATE>0 && Random.nextInt(DEBUG_DROP_RATE)==0) debug_drop_count=DEBUG_DROP_TIME;
-					}
-					else debug_drop_count--;
-					// DEBUG DROP RATE END
-					
-					rtp_packet.setMarker(false);
-
-					// update rtp timestamp (in milliseconds)
-					//long this_packet_time=(num*1000)/byte_rate;
-					long this_packet_time=packet_time*len/payload_size/channels;
-					time+=this_packet_time;
-					timestamp+=(this_packet_time*sample_rate)/1000;
-					// update sending report counters
-					packet_count++;
-					octect_count+=formatted_len;
-					// wait for next departure
-					if (do_sync) {
-						time_sync+=this_packet_time+sync_adj;
-						// wait before next departure..
-						long sleep_time=start_time+time_sync-System.currentTimeMillis();
-						// compensate possible inter-time reduction due to the approximated time obtained by System.currentTimeMillis()
-						if (MIN_INTER_PACKET_TIME_FRACTION>1) {
-							long min_time=this_packet_time/MIN_INTER_PACKET_TIME_FRACTION;
-							if (sleep_time<min_time) sleep_time=min_time;
-						}
-						// sleep
-						if (sleep_time > 0) {
-							try {
-								Thread.sleep(sleep_time);
-							} catch (Exception e) {
-								// Ignore.
-							}
-						}
-					}
-				}
-			}
+	/**
+	 * Reads the next chunk of media from the InputStream and sends it as RTP packet.
+	 * 
+	 * @return The media time of the sent packet in milliseconds, <code>0</code> if no data was
+	 *         available, or <code>-1</code> if the stream is finished or the sender was halted.
+	 */
+	long sendPacket() throws IOException {
+		if (time>=next_report_time) {
+			//if (rtp_control!=null) rtp_control.send(new local.net.SrRtcpPacket(rtp_packet.getSsrc(),System.currentTimeMillis(),timestamp,packet_count,octect_count));
+			if (rtp_control!=null) rtp_control.sendReport();
+			next_report_time+=RTCP_SR_TIME;
 		}
-		catch (Exception e) {
-			error=e;
-			if (DEBUG) e.printStackTrace();
-		} finally {
-			synchronized (this) {
-				_running = false;
-				notifyAll();
-			}
+		//java.util.Arrays.fill(packet_buffer,RTPH_LEN,formatted_len,(byte)0);
+		int len=input_stream.read(packet_buffer,RTPH_LEN,payload_size);
+		if (len < 0) {
+			if (DEBUG)
+				LOG.debug("Input stream finished.");
+			return -1;
+		}
+		// Check again, since reading the stream may have blocked.
+		if (_shouldStop) {
+			return -1;
 		}
+		if (len==0) return 0;
+		// else
+		
+		// apply possible RTP payload format (if required, e.g. in case of AMR)
+		int formatted_len=(rtp_payload_format!=null)? rtp_payload_format.setRtpPayloadFormat(packet_buffer,RTPH_LEN,len) : len;
+		// do additional encoding (if defined)
+		formatted_len=(additional_encoder!=null)? additional_encoder.encode(packet_buffer,RTPH_LEN,formatted_len,packet_buffer,RTPH_LEN): formatted_len;
+		rtp_packet.setSequenceNumber(sqn++);
+		rtp_packet.setTimestamp(timestamp);
+		rtp_packet.setPayloadLength(formatted_len);
+		
+		// DEBUG DROP RATE BEGIN
+		//rtp_socket.send(rtp_packet);
+		if (debug_drop_count==0) {
+			rtp_socket.send(rtp_packet);
+			if (DEBUG_DROP_RATE>0 && Random.nextInt(DEBUG_DROP_RATE)==0) debug_drop_count=DEBUG_DROP_TIME;
+		}
+		else debug_drop_count--;
+		// DEBUG DROP RATE END
+		
+		rtp_packet.setMarker(false);
+		// update rtp timestamp (in milliseconds)
+		//long this_packet_time=(num*1000)/byte_rate;
+		long this_packet_time=packet_time*len/payload_size/channels;
+		time+=this_packet_time;
+		timestamp+=(this_packet_time*sample_rate)/1000;
+		// update sending report counters
+		packet_count++;
+		octect_count+=formatted_len;
+		return this_packet_time;
+	}
 
+	/** Releases all resources and informs the listener. Must be called once when sending has finished. */
+	void terminate(Exception error) {
+		synchronized (this) {
+			_running = false;
+			notifyAll();
+		}
 		//if (DEBUG) println("rtp time:  "+time);
-		//if (DEBUG) println("real time: "+(System.currentTimeMillis()-start_time));
-
 		// close RtpSocket
 		rtp_socket.close();
 		
 		// free all references
 		input_stream=null;
 		rtp_socket=null;
-
 		if (DEBUG)
 			LOG.debug("rtp sender terminated");
 		if (listener!=null) listener.onRtpStreamSenderTerminated(this,error);
@@ -406,14 +474,14 @@ public class RtpStreamSender implements Runnable, RtpControlledSender {
 	
 	/** Gets the total number of UDP sent packets. */
 	public long getUdpPacketCounter() {
-		if (rtp_socket!=null) return rtp_socket.getUdpSocket().getSenderPacketCounter();
+		if (rtp_socket!=null && rtp_socket.getUdpSocket()!=null) return rtp_socket.getUdpSocket().getSenderPacketCounter();
 		else return 0;
 	}
 
 
 	/** Gets the total number of octets sent through the UDP socket. */
 	public long getUdpOctectCounter() {
-		if (rtp_socket!=null) return rtp_socket.getUdpSocket().getSenderOctectCounter();
+		if (rtp_socket!=null && rtp_socket.getUdpSocket()!=null) return rtp_socket.getUdpSocket().getSenderOctectCounter();
 		else return 0;
 	}
 
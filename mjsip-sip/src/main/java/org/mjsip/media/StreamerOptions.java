@@ -55,6 +55,8 @@ public interface StreamerOptions extends RtpSenderOptions, RtpReceiverOptions {
 
 		private boolean _ssrcCheck;
 
+		private int _jitterBuffer;
+
 		/**
 		 * Creates a {@link StreamerOptions.Builder}.
 		 * 
@@ -127,6 +129,14 @@ public interface StreamerOptions extends RtpSenderOptions, RtpReceiverOptions {
 			_ssrcCheck = ssrcCheck;
 			return this;
 		}
+
+		/**
+		 * @see StreamerOptions#jitterBuffer()
+		 */
+		public Builder setJitterBuffer(int maxDelay) {
+			_jitterBuffer = maxDelay;
+			return this;
+		}
 	
 		/**
 		 * Creates the {@link StreamerOptions} to use.
@@ -172,6 +182,11 @@ public interface StreamerOptions extends RtpSenderOptions, RtpReceiverOptions {
 				public boolean ssrcCheck() {
 					return _ssrcCheck;
 				}
+
+				@Override
+				public int jitterBuffer() {
+					return _jitterBuffer;
+				}
 			};
 		}
 	}
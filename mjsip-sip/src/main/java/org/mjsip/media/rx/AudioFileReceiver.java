@@ -41,7 +41,7 @@ public class AudioFileReceiver implements AudioReceiver {
 			throws IOException, UnsupportedAudioFileException {
 		LOG.info("Storing audio stream to file {} format: {}", _audioFile, audio_format);
 		OutputStream output_stream = AudioFile.getAudioFileOutputStream(_audioFile, audio_format);
-		RtpStreamReceiver receiver = new RtpStreamReceiver(options, output_stream, additional_decoder, payloadFormat,
+		RtpStreamReceiver receiver = new RtpStreamReceiver(options, output_stream, additional_decoder, payloadFormat, sample_rate,
 				socket, listener) {
 			@Override
 			protected void onRtpStreamReceiverTerminated(Exception error) {
@@ -64,7 +64,7 @@ public class JavaxAudioOutput implements AudioReceiver {
 			LOG.info("recv x-format: {}", audio_output_stream.getFormat());
 		}
 
-		RtpStreamReceiver receiver = new RtpStreamReceiver(options, audio_output_stream, additional_decoder, payloadFormat, socket, listener);
+		RtpStreamReceiver receiver = new RtpStreamReceiver(options, audio_output_stream, additional_decoder, payloadFormat, sample_rate, socket, listener);
 		RtpAudioRxHandler handle = new RtpAudioRxHandler(receiver) {
 			@Override
 			public void start(Executor executor) {
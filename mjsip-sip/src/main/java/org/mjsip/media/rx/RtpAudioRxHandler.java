@@ -21,6 +21,13 @@ public class RtpAudioRxHandler implements AudioRxHandle {
 		_rtpReceiver = rtpReceiver;
 	}
 
+	/**
+	 * The underlying receiver.
+	 */
+	public RtpStreamReceiver getRtpReceiver() {
+		return _rtpReceiver;
+	}
+
 	@Override
 	public void start(Executor executor) {
 		executor.execute(_rtpReceiver);
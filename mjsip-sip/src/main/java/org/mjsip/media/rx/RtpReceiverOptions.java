@@ -28,4 +28,11 @@ public interface RtpReceiverOptions {
 	 */
 	boolean ssrcCheck();
 
+	/**
+	 * The maximum playout delay in milliseconds of the jitter buffer that reorders received
+	 * packets and conceals lost ones. A value of 0 disables the jitter buffer, packets are played
+	 * out in arrival order.
+	 */
+	int jitterBuffer();
+
 }
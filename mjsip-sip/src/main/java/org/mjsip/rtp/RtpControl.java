@@ -26,6 +26,8 @@ import java.io.IOException;
 
 import org.mjsip.media.RtpControlledReceiver;
 import org.mjsip.media.RtpControlledSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.zoolu.net.IpAddress;
 import org.zoolu.net.SocketAddress;
 import org.zoolu.net.UdpSocket;
@@ -37,8 +39,10 @@ import org.zoolu.util.ByteUtils;
  */
 public class RtpControl implements RtcpProviderListener {
 	
+	private static final Logger LOG = LoggerFactory.getLogger(RtpControl.class);
+
 	/** Debug mode */
-	public static final boolean DEBUG=true;
+	public static final boolean DEBUG=LOG.isDebugEnabled();
 
 	/** In case of no sender RTP stream, whether the SSRC of RR packets is set equal to the SSRC of the received RTP stream */
 	public static final boolean DEBUG_RR_SSRC_SYMMETRIC=true;
@@ -66,7 +70,7 @@ public class RtpControl implements RtcpProviderListener {
 	  * @param cname canonical end-point identifier (CNAME)
 	  * @param local_port local RTCP port */
 	public RtpControl(String cname, int local_port) throws IOException {
-		if (DEBUG) System.out.println("DEBUG: RtpControl: RtpControl("+local_port+")");
+		if (DEBUG) LOG.debug("RtpControl({})",local_port);
 		this.cname=cname;
 		rtcp=new RtcpProvider(new UdpSocket(local_port),this);
 		udp_socket_is_local=true;
@@ -79,7 +83,7 @@ public class RtpControl implements RtcpProviderListener {
 	  * @param remote_addr the remote RTCP address
 	  * @param remote_port the remote RTCP port */
 	public RtpControl(String cname, int local_port, String remote_addr, int remote_port) throws IOException {
-		if (DEBUG) System.out.println("DEBUG: RtpControl: RtpControl("+local_port+","+remote_addr+":"+remote_port+")");
+		if (DEBUG) LOG.debug("RtpControl({},{}:{})",local_port,remote_addr,remote_port);
 		this.cname=cname;
 		rtcp=new RtcpProvider(new UdpSocket(local_port),new SocketAddress(IpAddress.getByName(remote_addr),remote_port),this);
 		udp_socket_is_local=true;
@@ -90,7 +94,7 @@ public class RtpControl implements RtcpProviderListener {
 	  * @param cname canonical end-point identifier (CNAME)
 	  * @param local_socket local UDP socket for RTCP */
 	public RtpControl(String cname, UdpSocket local_socket) {
-		if (DEBUG) System.out.println("DEBUG: RtpControl: RtpControl("+local_socket+")");
+		if (DEBUG) LOG.debug("RtpControl({})",local_socket);
 		this.cname=cname;
 		rtcp=new RtcpProvider(local_socket,this);
 		udp_socket_is_local=false;
@@ -103,7 +107,7 @@ public class RtpControl implements RtcpProviderListener {
 	  * @param remote_addr the remote RTCP address
 	  * @param remote_port the remote RTCP port */
 	public RtpControl(String cname, UdpSocket local_socket, String remote_addr, int remote_port) throws java.net.UnknownHostException {
-		if (DEBUG) System.out.println("DEBUG: RtpControl: RtpControl("+local_socket+","+remote_addr+":"+remote_port+")");
+		if (DEBUG) LOG.debug("RtpControl({},{}:{})",local_socket,remote_addr,remote_port);
 		this.cname=cname;
 		rtcp=new RtcpProvider(local_socket,new SocketAddress(IpAddress.getByName(remote_addr),remote_port),this);
 		udp_socket_is_local=false;
@@ -144,17 +148,15 @@ public class RtpControl implements RtcpProviderListener {
 	/** From RtcpProviderListener. When a new RTCP packet is received. */
 	@Override
 	public void onReceivedPacket(RtcpProvider rtcp, RtcpPacket rtcp_packet) {
-		if (DEBUG) System.out.println("\nDEBUG: RtpControl: new RTCP packet received: "+rtcp_packet.getPacketLength()+"B");
-		if (DEBUG) System.out.println("DEBUG: RtpControl: bytes: "+ByteUtils.asHex(rtcp_packet.getPacketBuffer(),rtcp_packet.getPacketOffset(),rtcp_packet.getPacketLength()));
-		if (DEBUG) System.out.println("DEBUG: RtpControl: type: "+rtcp_packet.getPayloadType());
+		if (DEBUG) LOG.debug("New RTCP packet received: {}B, type {}: {}",rtcp_packet.getPacketLength(),rtcp_packet.getPayloadType(),ByteUtils.asHex(rtcp_packet.getPacketBuffer(),rtcp_packet.getPacketOffset(),rtcp_packet.getPacketLength()));
 		if (rtcp_packet.getPayloadType()==RtcpPacket.PT_SR) {
 			SrRtcpPacket sr_packet=new SrRtcpPacket(rtcp_packet);
 			SrRtcpPacket.SenderInfo si=sr_packet.getSenderInfo();
-			if (DEBUG) System.out.println("DEBUG: RtpControl: SR: packet count: "+si.getPacketCount());
-			if (DEBUG) System.out.println("DEBUG: RtpControl: SR: octect count: "+si.getOctectCount());
+			RtpControlledReceiver receiver=rtp_receiver;
+			if (receiver!=null) receiver.onSenderReport(si.getCompactNtpTimestamp());
 			long timestamp=si.getRtpTimestamp();
 			if (start_timestamp<0) start_timestamp=timestamp;
-			if (DEBUG) System.out.println("DEBUG: RtpControl: SR: timestamp: "+timestamp+" ("+(timestamp-start_timestamp)+")");
+			if (DEBUG) LOG.debug("SR: packet count: {}, octect count: {}, timestamp: {} ({})",si.getPacketCount(),si.getOctectCount(),timestamp,timestamp-start_timestamp);
 		}
 	}
 
@@ -172,18 +174,18 @@ public class RtpControl implements RtcpProviderListener {
 			rtcp.send(rtcp_packet);
 		}
 		catch (IOException e) {
-			e.printStackTrace();
+			LOG.warn("Sending RTCP packet failed.", e);
 		}
 	}
 
 
 	/** Sends a RTCP report (SR or RR). */
 	public void sendReport() {
-		if (DEBUG) System.out.println("DEBUG: sendReport()");
 		try {
+			RtpControlledReceiver rtp_receiver=this.rtp_receiver;
 			long ssrc=(rtp_sender!=null)? rtp_sender.getSSRC() : 0;
 			SrRtcpPacket.SenderInfo si=(rtp_sender!=null)? new SrRtcpPacket.SenderInfo(System.currentTimeMillis(),rtp_sender.getRtpTimestamp(),rtp_sender.getPacketCounter(),rtp_sender.getOctectCounter()) : null;
-			if (DEBUG) System.out.println("DEBUG: sendReport(): sender info: "+si);
+			if (DEBUG) LOG.debug("Sending report, sender info: {}",si);
 			RrRtcpPacket.ReportBlock rb=(rtp_receiver!=null)? new RrRtcpPacket.ReportBlock(rtp_receiver.getSSRC(),rtp_receiver.getFractionLost(),rtp_receiver.getCumulativePacketLost(),rtp_receiver.getHighestSqnReceived(),rtp_receiver.getInterarrivalJitter(),rtp_receiver.getLSR(),rtp_receiver.getDLSR()) : null;
 			
 			if (si!=null) {
@@ -206,10 +208,10 @@ public class RtpControl implements RtcpProviderListener {
 					rtcp.send(cp);
 				}
 			}
-			
+			if (rb!=null) rtp_receiver.onReportSent();
 		}
 		catch (IOException e) {
-			e.printStackTrace();
+			LOG.warn("Sending RTCP report failed.", e);
 		}
 	}
 
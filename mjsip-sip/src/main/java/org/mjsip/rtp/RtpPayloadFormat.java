@@ -40,6 +40,18 @@ public interface RtpPayloadFormat {
 	public int getSilencePad(int sqn_interval, long timestamp_interval, byte[] buf, int off);
 
 
+	/** Gets packet loss concealment data replacing a single lost RTP packet.
+	  * <p>
+	  * By default, the packet is replaced by the silence padding for a gap of one packet.
+	  * @param timestamp_interval the RTP timestamp interval (in samples) covered by the lost packet
+	  * @param buf buffer that will be filled with the concealment data
+	  * @param off offset within the buffer
+	  * @return the length of the concealment data; 0 if the format provides no concealment, in this case the receiver repeats the last payload */
+	public default int getConcealment(long timestamp_interval, byte[] buf, int off) {
+		return getSilencePad(2,2*timestamp_interval,buf,off);
+	}
+
+
 	/** Gets the actual payload length after an additional format is applied (if required by the specific payload type). 
 	  * @param len the number of payload bytes before applying the additional RTP payload format
 	  * @return the number of paylaod bytes after applying the additional RTP payload format. */
@@ -23,6 +23,7 @@ package org.mjsip.rtp;
 
 
 import java.io.IOException;
+import java.net.InetAddress;
 
 import org.zoolu.net.IpAddress;
 import org.zoolu.net.SocketAddress;
@@ -32,6 +33,8 @@ import org.zoolu.net.UdpSocket;
 
 /** RtpSocket implements a RTP socket for receiving and sending RTP packets. 
   * <p> RtpSocket is associated to a UdpSocket used to send and/or receive RtpPackets.
+  * <p> The UDP packets used for sending and receiving are reused, and a new remote source address is only created if the source changes.
+  * Together with a {@link org.zoolu.net.UdpChannelSocket} no objects are allocated per packet.
   */
 public class RtpSocket {
 	
@@ -47,6 +50,15 @@ public class RtpSocket {
 	/** Whether outgoing RTP packets have to be sent to the same address where incoming RTP packets come from (symmetric RTP mode) */
 	boolean symmetric_rtp=true;
 
+	/** UDP packet reused for sending */
+	UdpPacket send_packet=null;
+
+	/** UDP packet reused for receiving */
+	UdpPacket receive_packet=null;
+
+	/** IP address of the remote source address */
+	InetAddress remote_source_inetaddr=null;
+
 
 
 	/** Creates a new RTP socket (only receiver).
@@ -93,12 +105,17 @@ public class RtpSocket {
 	/** Receives a RTP packet from this socket.
 	  * @param rtp_packet RTP packet that will containing the received packet */
 	public void receive(RtpPacket rtp_packet) throws IOException {
-		UdpPacket udp_packet=new UdpPacket(rtp_packet.buffer,rtp_packet.buffer.length);
+		UdpPacket udp_packet=receive_packet;
+		if (udp_packet==null) receive_packet=udp_packet=new UdpPacket(rtp_packet.buffer,rtp_packet.buffer.length);
+		else udp_packet.setData(rtp_packet.buffer,0,rtp_packet.buffer.length);
 		udp_socket.receive(udp_packet);
 		rtp_packet.length=udp_packet.getLength();
-		IpAddress remote_ipaddr=udp_packet.getIpAddress();
+		InetAddress remote_inetaddr=udp_packet.getInetAddress();
 		int remote_port=udp_packet.getPort();
-		if (remote_source_soaddr==null || !remote_source_soaddr.getAddress().equals(remote_ipaddr) || remote_source_soaddr.getPort()!=remote_port) remote_source_soaddr=new SocketAddress(remote_ipaddr,remote_port);
+		if (remote_source_soaddr==null || remote_source_soaddr.getPort()!=remote_port || !remote_inetaddr.equals(remote_source_inetaddr)) {
+			remote_source_inetaddr=remote_inetaddr;
+			remote_source_soaddr=new SocketAddress(new IpAddress(remote_inetaddr),remote_port);
+		}
 		if (symmetric_rtp) remote_dest_soaddr=remote_source_soaddr;
 	}
 	
@@ -110,7 +127,9 @@ public class RtpSocket {
 			return;
 		}
 		// else
-		UdpPacket udp_packet=new UdpPacket(rtp_packet.buffer,rtp_packet.offset,rtp_packet.length);
+		UdpPacket udp_packet=send_packet;
+		if (udp_packet==null) send_packet=udp_packet=new UdpPacket(rtp_packet.buffer,rtp_packet.offset,rtp_packet.length);
+		else udp_packet.setData(rtp_packet.buffer,rtp_packet.offset,rtp_packet.length);
 		udp_packet.setIpAddress(remote_dest_soaddr.getAddress());
 		udp_packet.setPort(remote_dest_soaddr.getPort());
 		udp_socket.send(udp_packet);
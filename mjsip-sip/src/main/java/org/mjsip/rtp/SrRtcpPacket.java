@@ -184,6 +184,12 @@ public class SrRtcpPacket extends RrRtcpPacket {
 			return ts.getTime();
 		}
 
+		/** Gets the compact NTP timestamp.
+		  * @return the middle 32 bits out of 64 in the NTP timestamp, as used for the LSR field of reception report blocks */
+		public long getCompactNtpTimestamp() {
+			return BufferUtil.getLong(buf,off+2,off+6);
+		}
+
 		/** Sets RTP timestamp.
 		  * @param rtp_timestamp the same time as the NTP timestamp, but in the same units and with the same random offset as the RTP timestamps in data packets */
 		public void setRtpTimestamp(long rtp_timestamp) {
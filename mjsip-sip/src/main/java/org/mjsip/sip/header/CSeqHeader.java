@@ -35,6 +35,9 @@ import org.mjsip.sip.provider.SipParser;
   */
 public class CSeqHeader extends LegacyHeader {
 	
+	/** The parsed value, valid as long as the value has not been changed. */
+	private Parsed parsed;
+
 	//public CSeqHeader()
 	//{  super(SipHeaders.CSeq);
 	//}
@@ -45,6 +48,7 @@ public class CSeqHeader extends LegacyHeader {
 
 	public CSeqHeader(Header hd) {
 		super(hd);
+		if (hd instanceof CSeqHeader) parsed=((CSeqHeader)hd).parsed;
 	}
 	
 	public CSeqHeader(long seq, String method) {
@@ -53,14 +57,22 @@ public class CSeqHeader extends LegacyHeader {
 
 	/** Gets method of CSeqHeader */
 	public String getMethod() {
-		SipParser par=new SipParser(value);
-		par.skipString(); // skip sequence number
-		return par.getString();
+		return parsed().method;
 	}
 
 	/** Gets sequence number of CSeqHeader */
 	public long getSequenceNumber() {
-		return (new SipParser(value)).getInt();
+		return parsed().sequence_number;
+	}
+
+	/** Parses the current value, if not yet done. */
+	private Parsed parsed() {
+		Parsed result=parsed;
+		if (result==null || result.value!=value) {
+			result=new Parsed(value);
+			parsed=result;
+		}
+		return result;
 	}
 
 	/** Sets method of CSeqHeader */
@@ -78,5 +90,19 @@ public class CSeqHeader extends LegacyHeader {
 		value=String.valueOf(getSequenceNumber()+1)+" "+getMethod();
 		return this;
 	}
-}
 
+	/** Sequence number and method parsed from a header value. */
+	private static final class Parsed {
+		final String value;
+		final long sequence_number;
+		final String method;
+
+		Parsed(String value) {
+			this.value=value;
+			sequence_number=(new SipParser(value)).getInt();
+			SipParser par=new SipParser(value);
+			par.skipString(); // skip sequence number
+			method=par.getString();
+		}
+	}
+}
@@ -43,6 +43,9 @@ import org.zoolu.util.Parser;
   */
 public class CallIdHeader extends LegacyHeader {
 	
+	/** The parsed value, valid as long as the value has not been changed. */
+	private Parsed parsed;
+	
 	/** Creates a CallIdHeader */
 	//public CallIdHeader()
 	//{  super(SipHeaders.Call_ID);
@@ -56,15 +59,32 @@ public class CallIdHeader extends LegacyHeader {
 	/** Creates a new CallIdHeader equal to CallIdHeader <i>hd</i> */
 	public CallIdHeader(Header hd) {
 		super(hd);
+		if (hd instanceof CallIdHeader) parsed=((CallIdHeader)hd).parsed;
 	}
 
 	/** Gets Call-Id of CallIdHeader */
 	public String getCallId() {
-		return (new Parser(value)).getString();
+		Parsed result=parsed;
+		if (result==null || result.value!=value) {
+			result=new Parsed(value);
+			parsed=result;
+		}
+		return result.call_id;
 	}
 
 	/** Sets Call-Id of CallIdHeader */
 	public void setCallId(String callId) {
 		value=callId;
 	}
+
+	/** Call-ID parsed from a header value. */
+	private static final class Parsed {
+		final String value;
+		final String call_id;
+
+		Parsed(String value) {
+			this.value=value;
+			call_id=(new Parser(value)).getString();
+		}
+	}
 }
@@ -38,6 +38,9 @@ import org.mjsip.sip.provider.SipParser;
   * each participant in the dialog.
   */
 public abstract class EndPointHeader extends NameAddressHeader {
+
+	/** The parsed tag, valid as long as the value has not been changed. */
+	private ParsedTag parsed_tag;
 	
 	/** EndPoint parameters that should be removed from the returned NameAddress.
 	  * This tries to resolve a bug (?) of SIP when using SIP URI parameters in a name-address
@@ -75,11 +78,17 @@ public abstract class EndPointHeader extends NameAddressHeader {
 	/** Creates a new EndPointHeader. */
 	public EndPointHeader(Header hd) {
 		super(hd);
+		if (hd instanceof EndPointHeader) parsed_tag=((EndPointHeader)hd).parsed_tag;
 	}
 	
 	/** Gets 'tag' parameter. */
 	public String getTag() {
-		return this.getParameter("tag");
+		ParsedTag result=parsed_tag;
+		if (result==null || result.value!=value) {
+			result=new ParsedTag(value,this.getParameter("tag"));
+			parsed_tag=result;
+		}
+		return result.tag;
 	}
 	
 	/** Sets 'tag' parameter. */
@@ -111,4 +120,16 @@ public abstract class EndPointHeader extends NameAddressHeader {
 		return naddr;
 	}
 
+
+	/** The 'tag' parameter of a header value. */
+	private static final class ParsedTag {
+		final String value;
+		final String tag;
+
+		ParsedTag(String value, String tag) {
+			this.value=value;
+			this.tag=tag;
+		}
+	}
+
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.header;
+
+/**
+ * {@link Header} that is a view of a header line within a received message buffer.
+ *
+ * <p>
+ * Only the offsets of the header's name and value are recorded when the message is parsed. The
+ * value is converted to a {@link String} on first access. When the message is serialized again, a
+ * {@link RawHeader} is copied from its source bytes unchanged.
+ * </p>
+ *
+ * <p>
+ * The source buffer is shared with the message and must not be modified afterwards.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class RawHeader extends Header {
+
+	/**
+	 * Header names that are used without creating a new {@link String}, if they occur in exactly
+	 * this spelling.
+	 */
+	private static final String[] KNOWN_NAMES = {
+		SipHeaders.Via, SipHeaders.From, SipHeaders.To, SipHeaders.Call_ID, SipHeaders.CSeq,
+		SipHeaders.Contact, SipHeaders.Max_Forwards, SipHeaders.Route, SipHeaders.Record_Route,
+		SipHeaders.Content_Length, SipHeaders.Content_Type, SipHeaders.Content_Disposition,
+		SipHeaders.Expires, SipHeaders.User_Agent, SipHeaders.Server, SipHeaders.Allow,
+		SipHeaders.Supported, SipHeaders.Require, SipHeaders.Proxy_Require, SipHeaders.Unsupported,
+		SipHeaders.Accept, SipHeaders.Accept_Encoding, SipHeaders.Accept_Language,
+		SipHeaders.Authorization, SipHeaders.Proxy_Authorization, SipHeaders.WWW_Authenticate,
+		SipHeaders.Proxy_Authenticate, SipHeaders.Authentication_Info, SipHeaders.Date,
+		SipHeaders.Subject, SipHeaders.Event, SipHeaders.Allow_Events, SipHeaders.Subscription_State,
+		SipHeaders.Refer_To, SipHeaders.Referred_By, SipHeaders.RSeq, SipHeaders.RAck,
+		SipHeaders.Session_Expires, SipHeaders.Min_SE, SipHeaders.Reason, SipHeaders.Call_ID_short,
+		SipHeaders.Via_short, SipHeaders.From_short, SipHeaders.To_short, SipHeaders.Contact_short,
+		SipHeaders.Content_Length_short, SipHeaders.Content_Type_short,
+	};
+
+	private final byte[] _source;
+
+	private final int _begin;
+
+	private final int _valueBegin;
+
+	private final int _valueEnd;
+
+	private final int _end;
+
+	private String _value;
+
+	private RawHeader(String name, byte[] source, int begin, int valueBegin, int valueEnd, int end) {
+		super(name);
+		_source = source;
+		_begin = begin;
+		_valueBegin = valueBegin;
+		_valueEnd = valueEnd;
+		_end = end;
+	}
+
+	/**
+	 * Creates a {@link RawHeader} for a header line.
+	 *
+	 * @param source
+	 *        The message buffer.
+	 * @param begin
+	 *        The index of the first character of the header line.
+	 * @param eoh
+	 *        The end of the header value, the index of the CR or LF terminating the (possibly
+	 *        folded) header.
+	 * @param end
+	 *        The index after the line terminator.
+	 * @return The header, or <code>null</code>, if the given line has no header name.
+	 */
+	public static RawHeader parse(byte[] source, int begin, int eoh, int end) {
+		int colon = begin;
+		while (colon < eoh && source[colon] != ':') {
+			colon++;
+		}
+		if (colon == eoh) {
+			return null;
+		}
+
+		int nameBegin = skipSpace(source, begin, colon);
+		int nameEnd = trimSpace(source, nameBegin, colon);
+		int valueBegin = skipSpace(source, colon + 1, eoh);
+		int valueEnd = trimSpace(source, valueBegin, eoh);
+
+		return new RawHeader(name(source, nameBegin, nameEnd), source, begin, valueBegin, valueEnd, end);
+	}
+
+	private static int skipSpace(byte[] source, int begin, int end) {
+		while (begin < end && (source[begin] & 0xFF) <= ' ') {
+			begin++;
+		}
+		return begin;
+	}
+
+	private static int trimSpace(byte[] source, int begin, int end) {
+		while (end > begin && (source[end - 1] & 0xFF) <= ' ') {
+			end--;
+		}
+		return end;
+	}
+
+	private static String name(byte[] source, int begin, int end) {
+		int length = end - begin;
+		names:
+		for (String name : KNOWN_NAMES) {
+			if (name.length() != length) {
+				continue;
+			}
+			for (int n = 0; n < length; n++) {
+				if (source[begin + n] != name.charAt(n)) {
+					continue names;
+				}
+			}
+			return name;
+		}
+		return new String(source, begin, length);
+	}
+
+	@Override
+	public String getValue() {
+		String result = _value;
+		if (result == null) {
+			result = new String(_source, _valueBegin, _valueEnd - _valueBegin);
+			_value = result;
+		}
+		return result;
+	}
+
+	/**
+	 * The number of bytes of the header line in the source buffer, including the line terminator.
+	 */
+	public int getSourceLength() {
+		return _end - _begin;
+	}
+
+	/**
+	 * The header line as it was received, including the line terminator.
+	 */
+	public String getSource() {
+		return new String(_source, _begin, _end - _begin);
+	}
+
+	/**
+	 * Copies the header line from the source buffer.
+	 *
+	 * @param buffer
+	 *        The destination buffer with at least {@link #getSourceLength()} bytes available at
+	 *        the given offset.
+	 * @param offset
+	 *        The destination offset.
+	 */
+	public void copyTo(byte[] buffer, int offset) {
+		System.arraycopy(_source, _begin, buffer, offset, _end - _begin);
+	}
+
+}
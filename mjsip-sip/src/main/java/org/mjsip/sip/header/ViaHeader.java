@@ -99,6 +99,20 @@ public class ViaHeader extends HeaderWithParams {
 		_port = port;
 	}
 
+	/**
+	 * Creates a copy of the given {@link ViaHeader}.
+	 */
+	public ViaHeader(ViaHeader other) {
+		super(other);
+
+		_protocol = other._protocol;
+		_version = other._version;
+		_transport = other._transport;
+		_host = other._host;
+		_ipv6 = other._ipv6;
+		_port = other._port;
+	}
+
 	/** Gets the transport protocol. */
 	public String getProtocol() {
 		return _protocol;
@@ -30,6 +30,7 @@ import org.mjsip.sip.header.ContentLengthHeader;
 import org.mjsip.sip.header.ContentTypeHeader;
 import org.mjsip.sip.header.Header;
 import org.mjsip.sip.header.MultipleHeader;
+import org.mjsip.sip.header.RawHeader;
 import org.mjsip.sip.header.RequestLine;
 import org.mjsip.sip.header.SipHeaders;
 import org.mjsip.sip.header.StatusLine;
@@ -45,7 +46,11 @@ import org.zoolu.util.ByteUtils;
   * header-specific methods.
   * <br>
   * It implements one-time-parsing, that is it parses the entire message just one time
-  * when it is created by a text String or byte array.
+  * when it is created by a text String.
+  * <br>
+  * When created from a byte array, only the offsets of the header fields are recorded
+  * (see {@link RawHeader}). Header values and the body are extracted on first access, and
+  * headers that are not replaced are serialized directly from the received bytes.
   */
 public abstract class BasicSipMessage {
 	
@@ -96,6 +101,19 @@ public abstract class BasicSipMessage {
 	/** Message body */
 	protected byte[] body=null;
 
+	/** Buffer containing the not yet extracted message body, or <code>null</code>. */
+	private byte[] body_source=null;
+
+	/** Offset of the not yet extracted message body in {@link #body_source}. */
+	private int body_offset=0;
+
+	/** Length of the not yet extracted message body in {@link #body_source}. */
+	private int body_length=0;
+
+	/** Encoded length of the header fields, the empty line and the body, or -1 if not known.
+	  * Only cached as long as all header fields are immutable {@link RawHeader}s. */
+	private int cached_length=-1;
+
 	/** Costructs a new empty Message. */
 	public BasicSipMessage() {
 		//headers=new Vector();
@@ -104,6 +122,11 @@ public abstract class BasicSipMessage {
 	/**
 	 * Constructs a new Message.
 	 * 
+	 * <p>
+	 * The message keeps a reference to the given buffer, the buffer must not be modified
+	 * afterwards.
+	 * </p>
+	 * 
 	 * @param buf
 	 *        the byte array containing the message
 	 * @param off
@@ -152,6 +175,7 @@ public abstract class BasicSipMessage {
 	/** Sets the message as a copy of an other message.
 	  * @param msg the message to be copied */ 
 	protected void setMessage(BasicSipMessage msg) {
+		changed();
 		remote_addr=msg.remote_addr;
 		remote_port=msg.remote_port;
 		transport_proto=msg.transport_proto;
@@ -161,6 +185,9 @@ public abstract class BasicSipMessage {
 		//headers=new Vector();
 		for (int i=0; i<msg.headers.size(); i++) headers.addElement(msg.headers.elementAt(i));
 		body=msg.body;
+		body_source=msg.body_source;
+		body_offset=msg.body_offset;
+		body_length=msg.body_length;
 	}
 	
 	/** Sets the message from a string representing the SIP message.
@@ -170,6 +197,7 @@ public abstract class BasicSipMessage {
 	  * @return the number of used chars
 	  * @exception MalformedSipMessageException in case the string does not contain (not start with) a valid SIP message */
 	protected int setMessage(String str) throws MalformedSipMessageException {
+		changed();
 		try {
 			SipParser par=new SipParser(str);
 
@@ -191,6 +219,7 @@ public abstract class BasicSipMessage {
 			}
 
 			// get body
+			body_source=null;
 			ContentLengthHeader clh=getContentLengthHeader();
 			if (clh!=null) {
 				int body_len=clh.getContentLength();
@@ -213,62 +242,96 @@ public abstract class BasicSipMessage {
 	/** Sets the message from an array of bytes containing the SIP message.
 	  * The array of bytes must contain a valid SIP message, otherwise a MalformedSipMessageException is thrown.
 	  * Possible additional bytes after the end of the SIP message are simply ignored.
+	  * <p>
+	  * The header fields and the body are not copied but reference the given array, which
+	  * must not be modified afterwards.
+	  * </p>
 	  * @param buf the byte array containing the SIP message 
 	  * @param off the offset within the byte array
 	  * @param len the number of available bytes
 	  * @return the number of used bytes
 	  * @exception MalformedSipMessageException in case the array of bytes does not contain (starting at the given offset with) a valid SIP message */
 	protected int setMessage(byte[] buf, int off, int len) throws MalformedSipMessageException {
+		changed();
 		try {
-			// skip any leading CRLF
-			/*int skip_len=0;
-			while (len>0 && (buf[off]=='\r' || buf[off]=='\n')) {
-				off++;
-				len--;
-				skip_len++;
-			}*/
-		
-			// find total header length
-			byte[] delim={(byte)'\r',(byte)'\n',(byte)'\r',(byte)'\n'};
-			int siph_len=ByteUtils.indexOf(delim,buf,off,len);
-			if (siph_len<0) {
-				delim=new byte[]{(byte)'\n',(byte)'\n'};
-				siph_len=ByteUtils.indexOf(delim,buf,off,len);
-			}
-			if (siph_len<0) throw new MalformedSipMessageException("No SIP header delimiter found.");
-			// else
-			siph_len+=delim.length;
-			String siph_str=new String(buf,off,siph_len);
-	
+			int end=off+len;
+
 			// parse first line
-			SipParser par=new SipParser(siph_str);
-			String proto_version=siph_str.substring(0,SIP_VERSION.length());     
-			if (proto_version.equalsIgnoreCase(SIP_VERSION)) status_line=par.getStatusLine();
+			int eol=indexOfEOL(buf,off,end);
+			if (eol<0) throw new MalformedSipMessageException("No SIP header delimiter found.");
+			String first_line=new String(buf,off,eol-off);
+			SipParser par=new SipParser(first_line);
+			if (first_line.regionMatches(true,0,SIP_VERSION,0,SIP_VERSION.length())) status_line=par.getStatusLine();
 			else request_line=par.getRequestLine();
-	
-			// parse all header fields
+
+			// index all header fields
 			//headers=new Vector();
 			if (headers.size()>0) headers.removeAllElements();
-			Header h = par.getHeader();
-			while (h!=null) {
-				headers.addElement(h);
-				h=par.getHeader();
+			boolean valid=true;
+			int pos=skipEOL(buf,eol,end);
+			while (true) {
+				if (pos>=end) throw new MalformedSipMessageException("No SIP header delimiter found.");
+				if (buf[pos]=='\r' || buf[pos]=='\n') {
+					// empty line
+					pos=skipEOL(buf,pos,end);
+					break;
+				}
+				int begin=pos;
+				int eoh;
+				while (true) {
+					eoh=indexOfEOL(buf,pos,end);
+					if (eoh<0) throw new MalformedSipMessageException("No SIP header delimiter found.");
+					pos=skipEOL(buf,eoh,end);
+					// folded header lines
+					if (pos<end && (buf[pos]==' ' || buf[pos]=='\t')) continue;
+					break;
+				}
+				if (valid) {
+					RawHeader h=RawHeader.parse(buf,begin,eoh,pos);
+					// like the String parser, drop all headers after the first malformed one
+					if (h==null) valid=false;
+					else headers.addElement(h);
+				}
 			}
+			int siph_len=pos-off;
 	
 			// get body
 			int body_len=0;
 			ContentLengthHeader clh=getContentLengthHeader();
 			if (clh!=null) body_len=clh.getContentLength();
 			else if (getContentTypeHeader()!=null) body_len=len-siph_len;
-			body=(body_len>0)? ByteUtils.copy(buf,off+siph_len,body_len) : null;
+			if (body_len>len-siph_len) throw new MalformedSipMessageException("Incomplete message body.");
+			body=null;
+			body_source=(body_len>0)? buf : null;
+			body_offset=pos;
+			body_length=body_len;
 			
-			return /*skip_len+*/siph_len+body_len;
+			return siph_len+body_len;
+		}
+		catch (MalformedSipMessageException e) {
+			throw e;
 		}
 		catch (Exception e) {
 			throw new MalformedSipMessageException(e.getMessage()); 
 		}
 	}
 
+	/** Index of the first CR or LF at or after the given position, or -1 if none is found before <i>end</i>. */
+	private static int indexOfEOL(byte[] buf, int pos, int end) {
+		for (; pos<end; pos++) {
+			byte b=buf[pos];
+			if (b=='\r' || b=='\n') return pos;
+		}
+		return -1;
+	}
+
+	/** Skips a CR, LF, or CRLF line terminator at the given position. */
+	private static int skipEOL(byte[] buf, int pos, int end) {
+		if (pos<end && buf[pos]=='\r') pos++;
+		if (pos<end && buf[pos]=='\n') pos++;
+		return pos;
+	}
+
 
 	/** Creates and returns a clone of this object. */
 	@Override
@@ -281,7 +344,7 @@ public abstract class BasicSipMessage {
 	@Override
 	public String toString() {
 		StringBuilder str=getMessageHeader();
-		if (body != null)
+		if (hasBody())
 			str.append(getStringBody());
 		return str.toString();
 	}
@@ -290,14 +353,23 @@ public abstract class BasicSipMessage {
 	/** Gets the array of bytes of this message.
 	  * @return an array of bytes containing this message */
 	public byte[] getBytes() {
-		byte[] data=getMessageHeader().toString().getBytes();
-		if (body!=null) {
-			byte[] siph=data;
-			data=new byte[siph.length+body.length];
-			ByteUtils.copy(siph,data,0);
-			ByteUtils.copy(body,data,siph.length);
+		return SipMessageEncoder.local().encode(this).toByteArray();
+	}
+
+
+	/** Writes this message to the given encoder.
+	  * @see SipMessageEncoder#encode(BasicSipMessage) */
+	void encode(SipMessageEncoder out) {
+		String first_line=getFirstLine();
+		if (first_line!=null) out.write(first_line);
+		for (int i = 0; i < headers.size(); i++) {
+			Header h=headers.elementAt(i);
+			if (h instanceof RawHeader) out.write((RawHeader)h);
+			else out.write(h.toString());
 		}
-		return data;
+		out.writeCRLF();
+		if (body!=null) out.write(body,0,body.length);
+		else if (body_source!=null) out.write(body_source,body_offset,body_length);
 	}
 
 
@@ -306,8 +378,11 @@ public abstract class BasicSipMessage {
 		StringBuilder sb=new StringBuilder();
 		if (request_line!=null) sb.append(request_line.toString());
 		else if (status_line!=null) sb.append(status_line.toString());
-		for (int i = 0; i < headers.size(); i++)
-			sb.append(headers.elementAt(i).toString());
+		for (int i = 0; i < headers.size(); i++) {
+			Header h=headers.elementAt(i);
+			if (h instanceof RawHeader) sb.append(((RawHeader)h).getSource());
+			else sb.append(h.toString());
+		}
 		sb.append("\r\n");
 		return sb;
 	}
@@ -361,11 +436,33 @@ public abstract class BasicSipMessage {
 		setConnectionId(null);
 	}
 
-	/** Gets message length. */
+	/** Gets message length in bytes. */
 	public int getLength() {
-		int len=getMessageHeader().length();
-		if (body!=null) len+=body.length;
-		return len;
+		int len=0;
+		String first_line=getFirstLine();
+		if (first_line!=null) len+=SipMessageEncoder.encodedLength(first_line);
+		int rest=cached_length;
+		if (rest<0) {
+			rest=2;
+			boolean immutable=true;
+			for (int i = 0; i < headers.size(); i++) {
+				Header h=headers.elementAt(i);
+				if (h instanceof RawHeader) rest+=((RawHeader)h).getSourceLength();
+				else {
+					rest+=SipMessageEncoder.encodedLength(h.toString());
+					immutable=false;
+				}
+			}
+			if (body!=null) rest+=body.length;
+			else if (body_source!=null) rest+=body_length;
+			if (immutable) cached_length=rest;
+		}
+		return len+rest;
+	}
+
+	/** Invalidates information derived from the header fields or the body. Must be called on each modification. */
+	protected void changed() {
+		cached_length=-1;
 	}
 
 
@@ -507,6 +604,7 @@ public abstract class BasicSipMessage {
 	/** Adds Header at the top/bottom.
 	  * The bottom is considered before the Content-Length and Content-Type headers. */
 	public void addHeader(Header header, boolean top) {
+		changed();
 		int pos=0;
 		if (!top) {
 			pos=headers.size();
@@ -522,6 +620,7 @@ public abstract class BasicSipMessage {
 	
 	/** Adds a Vector of Headers at the top/bottom. */
 	public void addHeaders(Vector<Header> headers, boolean top) {
+		changed();
 		int pos=0;
 		if (!top) {
 			pos=headers.size();
@@ -544,6 +643,7 @@ public abstract class BasicSipMessage {
 	/** Adds Header before the first header <i>refer_hname</i>
 	  * . <p>If there is no header of such type, it is added at top. */
 	public void addHeaderBefore(Header new_header, String refer_hname) {
+		changed();
 		int i=indexOfHeader(refer_hname);
 		if (i<0) i=0;
 		headers.insertElementAt(new_header,i);
@@ -552,6 +652,7 @@ public abstract class BasicSipMessage {
 	/** Adds MultipleHeader(s) before the first header <i>refer_hname</i>
 	  * . <p>If there is no header of such type, they are added at top. */
 	public void addHeadersBefore(MultipleHeader mheader, String refer_hname)  {
+		changed();
 		if (mheader.isCommaSeparated()) addHeaderBefore(mheader.toHeader(),refer_hname); 
 		else {
 			int index=indexOfHeader(refer_hname);
@@ -564,6 +665,7 @@ public abstract class BasicSipMessage {
 	/** Adds Header after the first header <i>refer_hname</i>
 	  * . <p>If there is no header of such type, it is added at bottom. */
 	public void addHeaderAfter(Header new_header, String refer_hname) {
+		changed();
 		int i=indexOfHeader(refer_hname);
 		if (i>=0) i++; else i=headers.size();
 		headers.insertElementAt(new_header,i);
@@ -572,6 +674,7 @@ public abstract class BasicSipMessage {
 	/** Adds MultipleHeader(s) after the first header <i>refer_hname</i>
 	  * . <p>If there is no header of such type, they are added at bottom. */
 	public void addHeadersAfter(MultipleHeader mheader, String refer_hname)  {
+		changed();
 		if (mheader.isCommaSeparated()) addHeaderAfter(mheader.toHeader(),refer_hname); 
 		else {
 			int index=indexOfHeader(refer_hname);
@@ -588,6 +691,7 @@ public abstract class BasicSipMessage {
 
 	/** Removes first (or last) Header of specified name.. */
 	public void removeHeader(String hname, boolean first) {
+		changed();
 		int index=-1;
 		for (int i=0 ; i<headers.size(); i++) {
 			Header hi = headers.elementAt(i);
@@ -601,6 +705,7 @@ public abstract class BasicSipMessage {
 	
 	/** Removes all Headers of specified name. */
 	public void removeAllHeaders(String hname)  {
+		changed();
 		for (int i=0 ; i<headers.size(); i++) {
 			Header hi = headers.elementAt(i);
 			if (hname.equalsIgnoreCase(hi.getName())) {
@@ -612,6 +717,7 @@ public abstract class BasicSipMessage {
 	
 	/** Sets the Header <i>hd</i> removing any previous headers of the same type.. */
 	public void setHeader(Header hd) {
+		changed();
 		boolean not_found=true;
 		String hname=hd.getName();
 		for (int i=0 ; i<headers.size(); i++) {
@@ -634,6 +740,7 @@ public abstract class BasicSipMessage {
 
 	/** Sets MultipleHeader <i>mheader</i>. */
 	public void setHeaders(MultipleHeader mheader)  {
+		changed();
 		if (mheader.isCommaSeparated()) setHeader(mheader.toHeader()); 
 		else {
 			boolean not_found=true;
@@ -664,7 +771,7 @@ public abstract class BasicSipMessage {
   
 	/** Whether Message has Body. */   
 	public boolean hasBody() {
-		return body!=null;
+		return body!=null || body_source!=null;
 	}
 	/** Gets body(content) type. */
 	public String getBodyType() {
@@ -690,6 +797,7 @@ public abstract class BasicSipMessage {
 	  * @param content_disposition the content-disposition
 	  * @param body the message body */
 	public void setBody(String content_type, String content_disposition, byte[] body)  {
+		changed();
 		removeBody();
 		if (body!=null && body.length>0) {
 			if (content_type!=null) setContentTypeHeader(new ContentTypeHeader(content_type));
@@ -701,20 +809,27 @@ public abstract class BasicSipMessage {
 			setContentLengthHeader(new ContentLengthHeader(0));
 			this.body=null;
 		}
+		body_source=null;
 	}
 	/** Gets message body. The end of body is evaluated
 	  * from the Content-Length header if present (RFC3261 compliant),
 	  * or from the end of message if no Content-Length header is present (non-RFC3261 compliant). */
 	public byte[] getBody() {
+		if (body==null && body_source!=null) {
+			body=ByteUtils.copy(body_source,body_offset,body_length);
+			body_source=null;
+		}
 		return body;
 	}
 
 	/** Removes the message body (if it exists), the body related methods, and the final empty line. */
 	public void removeBody()  {
+		changed();
 		removeContentTypeHeader();
 		removeContentDispositionHeader();
 		removeContentLengthHeader();
 		this.body=null;
+		body_source=null;
 	}
 	/** Sets sdp body. */
 	public void setSdpBody(SdpMessage body) {
@@ -742,6 +857,7 @@ public abstract class BasicSipMessage {
 	 *         present.
 	 */
 	public String getStringBody() {
+		if (body==null && body_source!=null) return new String(body_source,body_offset,body_length);
 		return body == null ? null : new String(body);
 	}
 
@@ -749,7 +865,8 @@ public abstract class BasicSipMessage {
 	 * The body as parsed {@link SdpMessage}
 	 */
 	public SdpMessage getSdpBody() {
-		return body == null ? null : new SdpMessage(new String(body));
+		String text=getStringBody();
+		return text == null ? null : new SdpMessage(text);
 	}  
 
 	//**************************** Specific Headers ****************************/
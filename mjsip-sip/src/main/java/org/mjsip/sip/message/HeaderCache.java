@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.message;
+
+import org.mjsip.sip.header.Header;
+import org.mjsip.sip.header.RawHeader;
+
+/**
+ * Typed headers of a {@link SipMessage} parsed from its received header fields.
+ *
+ * <p>
+ * An entry is only valid as long as the message still contains the exact {@link RawHeader} it
+ * was parsed from. Since a {@link RawHeader} is immutable, each mutation of the message that
+ * replaces or removes the header field invalidates the entry.
+ * </p>
+ *
+ * <p>
+ * Cached typed headers must never be handed out, since typed headers are mutable. Callers receive
+ * copies, which share the already parsed parts with the cached instance.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+final class HeaderCache {
+
+	/** Slot of the top Via header. */
+	static final int VIA = 0;
+
+	/** Slot of the CSeq header. */
+	static final int CSEQ = 1;
+
+	/** Slot of the Call-ID header. */
+	static final int CALL_ID = 2;
+
+	/** Slot of the From header. */
+	static final int FROM = 3;
+
+	/** Slot of the To header. */
+	static final int TO = 4;
+
+	private static final int SLOTS = 5;
+
+	private final Entry[] _entries = new Entry[SLOTS];
+
+	/**
+	 * The typed header cached for the given source header.
+	 *
+	 * @param slot
+	 *        The header slot, e.g. {@link #VIA}.
+	 * @param source
+	 *        The current header field of the message.
+	 * @return The typed header parsed from the given source, or <code>null</code>, if there is no
+	 *         such entry.
+	 */
+	Header get(int slot, Header source) {
+		Entry entry = _entries[slot];
+		if (entry == null || entry._source != source) {
+			return null;
+		}
+		return entry._typed;
+	}
+
+	/**
+	 * Caches a typed header, if the given source header can be cached.
+	 *
+	 * <p>
+	 * The typed header must be completely parsed and must not be modified afterwards.
+	 * </p>
+	 */
+	void put(int slot, Header source, Header typed) {
+		if (source instanceof RawHeader) {
+			_entries[slot] = new Entry(source, typed);
+		}
+	}
+
+	/**
+	 * Takes over all entries from the given cache of a copied message.
+	 */
+	void copyFrom(HeaderCache other) {
+		System.arraycopy(other._entries, 0, _entries, 0, SLOTS);
+	}
+
+	private static final class Entry {
+		final Header _source;
+
+		final Header _typed;
+
+		Entry(Header source, Header typed) {
+			_source = source;
+			_typed = typed;
+		}
+	}
+
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.message;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits the byte stream of a connection-oriented transport into {@link SipMessage}s.
+ *
+ * <p>
+ * Received data is appended to a receive buffer that is compacted when running out of space and
+ * only grows if a single message does not fit. The end of the header section is searched
+ * incrementally, each byte is inspected once no matter how many reads it takes to receive the
+ * header. The frame length is then taken from the <code>Content-Length</code> header, which is
+ * mandatory for stream transports, and the message is parsed once all of its bytes are
+ * available.
+ * </p>
+ *
+ * <p>
+ * Each message is parsed from a copy of its frame, since a {@link SipMessage} references the
+ * buffer it is parsed from. A decoder is not thread-safe, it is expected to be used by the single
+ * thread reading from a connection.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class SipFrameDecoder {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SipFrameDecoder.class);
+
+	/** Default initial size of the receive buffer. */
+	public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+	/** Default maximum size of a single message. */
+	public static final int DEFAULT_MAX_MESSAGE_SIZE = 1024 * 1024;
+
+	private static final byte[] CONTENT_LENGTH = "content-length".getBytes();
+
+	private final int _initialSize;
+
+	private final int _maxMessageSize;
+
+	private byte[] _buffer;
+
+	/** Start of the first unconsumed byte. */
+	private int _start;
+
+	/** End of the received data. */
+	private int _end;
+
+	/** Position where to continue searching for the end of the header section. */
+	private int _scan;
+
+	/** Length of the current frame, or <code>-1</code> if the header section is not yet complete. */
+	private int _frameLength = -1;
+
+	/**
+	 * Creates a {@link SipFrameDecoder} with default sizes.
+	 */
+	public SipFrameDecoder() {
+		this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_MESSAGE_SIZE);
+	}
+
+	/**
+	 * Creates a {@link SipFrameDecoder}.
+	 *
+	 * @param initialSize
+	 *        The initial size of the receive buffer.
+	 * @param maxMessageSize
+	 *        The maximum size of a message including its body.
+	 */
+	public SipFrameDecoder(int initialSize, int maxMessageSize) {
+		_initialSize = initialSize;
+		_maxMessageSize = maxMessageSize;
+		_buffer = new byte[initialSize];
+	}
+
+	/**
+	 * The number of received bytes that have not yet been decoded.
+	 */
+	public int getPending() {
+		return _end - _start;
+	}
+
+	/**
+	 * The current capacity of the receive buffer.
+	 */
+	public int getCapacity() {
+		return _buffer.length;
+	}
+
+	/**
+	 * Appends received data.
+	 *
+	 * @param data
+	 *        Buffer with received data.
+	 * @param off
+	 *        Offset of the received data in the given buffer.
+	 * @param len
+	 *        Number of received bytes.
+	 */
+	public void append(byte[] data, int off, int len) {
+		ensureSpace(len);
+		System.arraycopy(data, off, _buffer, _end, len);
+		_end += len;
+	}
+
+	private void ensureSpace(int len) {
+		if (_buffer.length - _end >= len) {
+			return;
+		}
+		int pending = _end - _start;
+		byte[] target = _buffer;
+		if (_buffer.length - pending < len) {
+			target = new byte[Math.max(2 * _buffer.length, pending + len)];
+		}
+		System.arraycopy(_buffer, _start, target, 0, pending);
+		_buffer = target;
+		_scan -= _start;
+		_end = pending;
+		_start = 0;
+	}
+
+	/**
+	 * Decodes the next complete message from the received data.
+	 *
+	 * @return The decoded message, or <code>null</code> if more data is required.
+	 * @throws MalformedSipMessageException
+	 *         If the stream cannot be split into messages. The connection should be closed.
+	 */
+	public SipMessage next() throws MalformedSipMessageException {
+		while (true) {
+			if (_frameLength < 0) {
+				if (!scanHeader()) {
+					return null;
+				}
+			}
+			if (_end - _start < _frameLength) {
+				return null;
+			}
+
+			byte[] frame = new byte[_frameLength];
+			System.arraycopy(_buffer, _start, frame, 0, _frameLength);
+			consume(_frameLength);
+
+			SipMessage msg = new SipMessage();
+			try {
+				msg.setMessage(frame, 0, frame.length);
+				return msg;
+			} catch (MalformedSipMessageException ex) {
+				LOG.warn("Dropping malformed message of {} bytes: {}", frame.length, ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Searches the end of the header section starting where the last search stopped.
+	 *
+	 * @return Whether the frame length has been determined.
+	 */
+	private boolean scanHeader() throws MalformedSipMessageException {
+		if (_scan == _start) {
+			// Skip keep-alive CRLFs between messages.
+			while (_start < _end && (_buffer[_start] == '\r' || _buffer[_start] == '\n')) {
+				_start++;
+			}
+			_scan = _start;
+			if (_start == _end) {
+				reset();
+				return false;
+			}
+		}
+
+		byte[] buf = _buffer;
+		int end = _end;
+		for (int pos = _scan; pos < end; pos++) {
+			if (buf[pos] != '\n') {
+				continue;
+			}
+			int next = pos + 1;
+			if (next < end && buf[next] == '\r') {
+				next++;
+			}
+			if (next >= end) {
+				// Header end not decidable yet.
+				_scan = pos;
+				return false;
+			}
+			if (buf[next] == '\n') {
+				int headerLength = next + 1 - _start;
+				int contentLength = contentLength(_start, next);
+				if (contentLength < 0 || headerLength + (long) contentLength > _maxMessageSize) {
+					throw new MalformedSipMessageException(
+						"Invalid message length: header " + headerLength + ", content " + contentLength);
+				}
+				_frameLength = headerLength + contentLength;
+				return true;
+			}
+		}
+		_scan = end;
+		if (end - _start > _maxMessageSize) {
+			throw new MalformedSipMessageException("Header section exceeds " + _maxMessageSize + " bytes.");
+		}
+		return false;
+	}
+
+	/**
+	 * Looks up the value of the <code>Content-Length</code> header in the given header section.
+	 *
+	 * @return The content length, <code>0</code> if there is no such header, or <code>-1</code> if
+	 *         its value is invalid.
+	 */
+	private int contentLength(int begin, int end) {
+		byte[] buf = _buffer;
+		int pos = begin;
+		while (pos < end) {
+			int lineEnd = pos;
+			while (lineEnd < end && buf[lineEnd] != '\n') {
+				lineEnd++;
+			}
+			int value = headerValue(pos, lineEnd);
+			if (value >= 0) {
+				long result = 0;
+				while (value < lineEnd && (buf[value] == ' ' || buf[value] == '\t')) {
+					value++;
+				}
+				int digits = value;
+				while (value < lineEnd && buf[value] >= '0' && buf[value] <= '9') {
+					result = result * 10 + (buf[value++] - '0');
+					if (result > Integer.MAX_VALUE) {
+						return -1;
+					}
+				}
+				return value == digits ? -1 : (int) result;
+			}
+			pos = lineEnd + 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Checks whether the line starting at the given position is a <code>Content-Length</code>
+	 * header in long or compact form.
+	 *
+	 * @return The position after the colon, or <code>-1</code> if the line is another header.
+	 */
+	private int headerValue(int pos, int end) {
+		byte[] buf = _buffer;
+		int name = pos;
+		while (pos < end && buf[pos] != ':' && buf[pos] != ' ' && buf[pos] != '\t') {
+			pos++;
+		}
+		int nameLength = pos - name;
+		boolean match;
+		if (nameLength == 1) {
+			match = (buf[name] | 0x20) == 'l';
+		} else if (nameLength == CONTENT_LENGTH.length) {
+			match = true;
+			for (int n = 0; n < nameLength; n++) {
+				if ((buf[name + n] | 0x20) != CONTENT_LENGTH[n]) {
+					match = false;
+					break;
+				}
+			}
+		} else {
+			match = false;
+		}
+		if (!match) {
+			return -1;
+		}
+		while (pos < end && (buf[pos] == ' ' || buf[pos] == '\t')) {
+			pos++;
+		}
+		return pos < end && buf[pos] == ':' ? pos + 1 : -1;
+	}
+
+	private void consume(int length) {
+		_start += length;
+		_frameLength = -1;
+		_scan = _start;
+		if (_start == _end) {
+			reset();
+		}
+	}
+
+	/**
+	 * Rewinds the empty buffer, and releases a buffer that has grown for a large message.
+	 */
+	private void reset() {
+		_start = 0;
+		_end = 0;
+		_scan = 0;
+		if (_buffer.length > _initialSize) {
+			_buffer = new byte[_initialSize];
+		}
+	}
+
+}
@@ -87,6 +87,9 @@ import org.mjsip.sip.provider.SipParser;
   */
 public class SipMessage extends BasicSipMessage {
 	
+	/** Typed headers parsed from received header fields */
+	private final HeaderCache header_cache=new HeaderCache();
+
 	/** Creates a new empty Message */
 	public SipMessage() { super(); }
 
@@ -103,6 +106,7 @@ public class SipMessage extends BasicSipMessage {
 	/** Creates a new Message */
 	public SipMessage(SipMessage msg) {
 		super(msg);
+		header_cache.copyFrom(msg.header_cache);
 	}
 	
 	/** Creates and returns a clone of the Message */
@@ -179,7 +183,13 @@ public class SipMessage extends BasicSipMessage {
 	public FromHeader getFromHeader() {
 		Header h = getHeader(SipHeaders.From);
 		if (h==null) return null;
-		else return new FromHeader(h);
+		FromHeader cached=(FromHeader)header_cache.get(HeaderCache.FROM,h);
+		if (cached==null) {
+			cached=new FromHeader(h);
+			cached.getTag();
+			header_cache.put(HeaderCache.FROM,h,cached);
+		}
+		return new FromHeader(cached);
 	} 
 	/** Sets FromHeader of Message. */
 	public void setFromHeader(FromHeader fh)  {
@@ -198,7 +208,13 @@ public class SipMessage extends BasicSipMessage {
 	public ToHeader getToHeader() {
 		Header h = getHeader(SipHeaders.To);
 		if (h==null) return null;
-		else return new ToHeader(h);
+		ToHeader cached=(ToHeader)header_cache.get(HeaderCache.TO,h);
+		if (cached==null) {
+			cached=new ToHeader(h);
+			cached.getTag();
+			header_cache.put(HeaderCache.TO,h,cached);
+		}
+		return new ToHeader(cached);
 	} 
 	/** Sets ToHeader of Message. */
 	public void setToHeader(ToHeader th)  {
@@ -268,10 +284,15 @@ public class SipMessage extends BasicSipMessage {
 	public ViaHeader getViaHeader() {
 		//Header h=getHeader(SipHeaders.Via);
 		//if (h==null) return null; else return new ViaHeader(h);
-		MultipleHeader mh=getVias();
-		if (mh == null)
+		Header h=getHeader(SipHeaders.Via);
+		if (h == null)
 			return null;
-		return ViaHeader.parse(mh.getTop().getValue());
+		ViaHeader cached=(ViaHeader)header_cache.get(HeaderCache.VIA,h);
+		if (cached==null) {
+			cached=ViaHeader.parse(new MultipleHeader(h).getTop().getValue());
+			header_cache.put(HeaderCache.VIA,h,cached);
+		}
+		return new ViaHeader(cached);
 	} 
 	/** Gets all Via header fields.
 	  * @return all Via header fields (MultipleHeader of <code>ViaHeader</code>) */
@@ -442,7 +463,13 @@ public class SipMessage extends BasicSipMessage {
 	public CSeqHeader getCSeqHeader() {
 		Header h = getHeader(SipHeaders.CSeq);
 		if (h==null) return null;
-		else return new CSeqHeader(h);
+		CSeqHeader cached=(CSeqHeader)header_cache.get(HeaderCache.CSEQ,h);
+		if (cached==null) {
+			cached=new CSeqHeader(h);
+			cached.getMethod();
+			header_cache.put(HeaderCache.CSEQ,h,cached);
+		}
+		return new CSeqHeader(cached);
 	} 
 	/** Sets CSeqHeader of Message. */
 	public void setCSeqHeader(CSeqHeader csh)  {
@@ -466,7 +493,13 @@ public class SipMessage extends BasicSipMessage {
 	public CallIdHeader getCallIdHeader() {
 		Header h = getHeader(SipHeaders.Call_ID);
 		if (h==null) return null;
-		else return new CallIdHeader(h);
+		CallIdHeader cached=(CallIdHeader)header_cache.get(HeaderCache.CALL_ID,h);
+		if (cached==null) {
+			cached=new CallIdHeader(h);
+			cached.getCallId();
+			header_cache.put(HeaderCache.CALL_ID,h,cached);
+		}
+		return new CallIdHeader(cached);
 	} 
 	/** Removes CallIdHeader from Message. */
 	public void removeCallIdHeader()  {
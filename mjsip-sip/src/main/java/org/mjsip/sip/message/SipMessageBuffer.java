@@ -24,7 +24,9 @@
 package org.mjsip.sip.message;
 
 /** Class SipMessageBuffer provides methods for extracting SIP messages from a byte buffer.
+  * @deprecated copies all pending data on each append and re-parses incomplete messages, use {@link SipFrameDecoder}
   */
+@Deprecated
 public class SipMessageBuffer {
 	
 
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.message;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.mjsip.sip.header.RawHeader;
+
+/**
+ * Reusable buffer a {@link BasicSipMessage} is serialized into.
+ *
+ * <p>
+ * Header fields that were received and not modified are copied from their source buffer, all
+ * other parts are written character by character without building intermediate strings of the
+ * whole message.
+ * </p>
+ *
+ * <p>
+ * An encoder is not thread-safe. Transports that send synchronously use the encoder of the
+ * current thread (see {@link #local()}) and reuse its buffer for each message.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class SipMessageEncoder {
+
+	/** Initial buffer size, enough for most messages. */
+	public static final int DEFAULT_SIZE = 2048;
+
+	private static final ThreadLocal<SipMessageEncoder> LOCAL =
+			ThreadLocal.withInitial(() -> new SipMessageEncoder(DEFAULT_SIZE));
+
+	private byte[] _buffer;
+
+	private int _length;
+
+	/**
+	 * Creates a {@link SipMessageEncoder}.
+	 *
+	 * @param size
+	 *        The initial buffer size.
+	 */
+	public SipMessageEncoder(int size) {
+		_buffer = new byte[Math.max(size, 16)];
+	}
+
+	/**
+	 * The encoder of the current thread.
+	 */
+	public static SipMessageEncoder local() {
+		return LOCAL.get();
+	}
+
+	/**
+	 * Serializes the given message, replacing the contents of this encoder.
+	 *
+	 * @return This encoder, with {@link #getBuffer()} containing the message from offset 0 to
+	 *         {@link #getLength()}.
+	 */
+	public SipMessageEncoder encode(BasicSipMessage msg) {
+		_length = 0;
+		msg.encode(this);
+		return this;
+	}
+
+	/**
+	 * The internal buffer containing the last encoded message.
+	 *
+	 * <p>
+	 * The buffer is reused by the next call to {@link #encode(BasicSipMessage)}.
+	 * </p>
+	 */
+	public byte[] getBuffer() {
+		return _buffer;
+	}
+
+	/**
+	 * The number of bytes of the last encoded message.
+	 */
+	public int getLength() {
+		return _length;
+	}
+
+	/**
+	 * A view of the last encoded message.
+	 *
+	 * <p>
+	 * The buffer is reused by the next call to {@link #encode(BasicSipMessage)}.
+	 * </p>
+	 */
+	public ByteBuffer toByteBuffer() {
+		return ByteBuffer.wrap(_buffer, 0, _length);
+	}
+
+	/**
+	 * A copy of the last encoded message.
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(_buffer, _length);
+	}
+
+	/**
+	 * Appends the given bytes.
+	 */
+	void write(byte[] data, int off, int len) {
+		ensure(len);
+		System.arraycopy(data, off, _buffer, _length, len);
+		_length += len;
+	}
+
+	/**
+	 * Appends the given received header field.
+	 */
+	void write(RawHeader header) {
+		int len = header.getSourceLength();
+		ensure(len);
+		header.copyTo(_buffer, _length);
+		_length += len;
+	}
+
+	/**
+	 * Appends a line terminator.
+	 */
+	void writeCRLF() {
+		ensure(2);
+		_buffer[_length++] = '\r';
+		_buffer[_length++] = '\n';
+	}
+
+	/**
+	 * Appends the given text.
+	 */
+	void write(String text) {
+		int len = text.length();
+		ensure(len);
+		int pos = _length;
+		for (int n = 0; n < len; n++) {
+			char ch = text.charAt(n);
+			if (ch >= 0x80) {
+				// Not plain ASCII, use the same encoding as String.getBytes().
+				byte[] data = text.getBytes();
+				write(data, 0, data.length);
+				return;
+			}
+			_buffer[pos++] = (byte) ch;
+		}
+		_length = pos;
+	}
+
+	/**
+	 * The number of bytes {@link #write(String)} produces for the given text.
+	 */
+	static int encodedLength(String text) {
+		int len = text.length();
+		for (int n = 0; n < len; n++) {
+			if (text.charAt(n) >= 0x80) {
+				return text.getBytes().length;
+			}
+		}
+		return len;
+	}
+
+	private void ensure(int len) {
+		int required = _length + len;
+		if (required > _buffer.length) {
+			_buffer = Arrays.copyOf(_buffer, Math.max(required, 2 * _buffer.length));
+		}
+	}
+
+}
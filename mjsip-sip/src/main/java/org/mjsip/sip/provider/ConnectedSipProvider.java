@@ -57,7 +57,7 @@ public class ConnectedSipProvider extends SipProvider {
 	private void connect() throws IOException {
 		if (sip_transports==null || sipConfig().getOutboundProxy()==null) return;
 		// else
-		IpAddress proxy_addr=IpAddress.getByName(sipConfig().getOutboundProxy().getHost());
+		IpAddress proxy_addr=resolver().resolve(sipConfig().getOutboundProxy().getHost());
 		int proxy_port=sipConfig().getOutboundProxy().getPort();
 		if (proxy_port<=0) proxy_port=5060;
 		String proxy_proto=(sipConfig().getOutboundProxy().hasTransport())? sipConfig().getOutboundProxy().getTransport() : null;
@@ -54,9 +54,9 @@ public class ConnectionId extends Identifier {
 
 	/** Creates a new ConnectionId.
 	  * @param id the actual identifier */
-	/*public ConnectionId(String id) {
+	ConnectionId(String id) {
 		super(id);
-	}*/
+	}
 
 	/** Creates a new ConnectionId.
 	  * @param protocol the transport protocol
@@ -0,0 +1,431 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.provider;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.mjsip.sip.message.SipMessage;
+import org.mjsip.time.ExpiryQueue;
+import org.mjsip.time.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zoolu.net.SocketAddress;
+
+/**
+ * Sends keep-alive pings for any number of NAT bindings from a single timer.
+ *
+ * <p>
+ * In contrast to a {@link SipKeepAlive} daemon, a {@link Binding} does not own a thread. All
+ * bindings are kept in an index ordered by the time of their next action, and a single timer of
+ * the {@link SipProvider#scheduler()} is scheduled for the earliest one. Starting, refreshing and
+ * halting a binding costs a logarithmic index update.
+ * </p>
+ *
+ * <p>
+ * Pings are sent through the default transport of the {@link SipProvider}, for UDP this is the
+ * socket that also receives the SIP traffic of the peer. The ping interval of each binding is
+ * shortened by a random fraction of up to the configured jitter each time (RFC 5626, section
+ * 4.4.1), so that bindings started at the same time do not ping in bursts.
+ * </p>
+ *
+ * <p>
+ * The default token is the RFC 5626 double-CRLF ping. A peer supporting RFC 5626 answers it with a
+ * single CRLF pong, which is reported by the transport through
+ * {@link SipTransportListener#onReceivedPong(SipTransport, SocketAddress)}. If such a peer does
+ * not answer a ping within the pong timeout, its binding is reported as failed to the
+ * {@link KeepAliveListener}. Peers that never answered a ping are not reported, since they may
+ * just not support RFC 5626.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class KeepAliveEngine {
+
+	private static final Logger LOG = LoggerFactory.getLogger(KeepAliveEngine.class);
+
+	/** RFC 5626 double-CRLF ping. */
+	public static final String PING = "\r\n\r\n";
+
+	/** Default fraction by which a ping interval is randomly shortened. */
+	public static final double DEFAULT_JITTER = 0.2;
+
+	/** Default time in milliseconds to wait for a pong, see RFC 5626, section 4.4.1. */
+	public static final long DEFAULT_PONG_TIMEOUT = 10000;
+
+	private final SipProvider _provider;
+
+	private final SipMessage _token;
+
+	private final double _jitter;
+
+	private final long _pongTimeout;
+
+	/**
+	 * Bindings ordered by the time of their next action.
+	 */
+	private final ExpiryQueue<Binding> _queue;
+
+	/**
+	 * Bindings by their current target for looking up the receiver of a pong.
+	 */
+	private final Map<SocketAddress, Binding> _targets = new HashMap<>();
+
+	private boolean _halted;
+
+	private volatile KeepAliveListener _listener;
+
+	/**
+	 * Creates a {@link KeepAliveEngine} sending RFC 5626 pings with default jitter and pong
+	 * timeout.
+	 */
+	public KeepAliveEngine(SipProvider provider) {
+		this(provider, null, DEFAULT_JITTER, DEFAULT_PONG_TIMEOUT);
+	}
+
+	/**
+	 * Creates a {@link KeepAliveEngine}.
+	 *
+	 * @param provider
+	 *        The provider to send pings through.
+	 * @param token
+	 *        The message to send as ping, <code>null</code> for the RFC 5626 double-CRLF ping.
+	 * @param jitter
+	 *        The maximum fraction between <code>0</code> and <code>1</code> by which a ping
+	 *        interval is randomly shortened.
+	 * @param pongTimeout
+	 *        The time in milliseconds to wait for a pong, <code>0</code> for not expecting pongs.
+	 */
+	public KeepAliveEngine(SipProvider provider, SipMessage token, double jitter, long pongTimeout) {
+		this(provider, provider.scheduler(), token, jitter, pongTimeout);
+	}
+
+	/**
+	 * Creates a {@link KeepAliveEngine} with an explicit scheduler.
+	 *
+	 * <p>
+	 * Subclasses not passing a provider must override {@link #send(SocketAddress)}.
+	 * </p>
+	 */
+	protected KeepAliveEngine(SipProvider provider, Scheduler scheduler, SipMessage token, double jitter,
+			long pongTimeout) {
+		_provider = provider;
+		_queue = new ExpiryQueue<>(this, scheduler, this::onTimeout);
+		_token = token != null ? token : new SipKeepAlive.SipToken(PING);
+		_jitter = Math.max(0, Math.min(1, jitter));
+		_pongTimeout = pongTimeout;
+	}
+
+	/**
+	 * Sets the listener for liveness changes.
+	 */
+	public void setListener(KeepAliveListener listener) {
+		_listener = listener;
+	}
+
+	/**
+	 * Starts sending pings to the given target.
+	 *
+	 * <p>
+	 * The first ping is sent after one (jittered) interval.
+	 * </p>
+	 *
+	 * @param target
+	 *        The address to send pings to.
+	 * @param interval
+	 *        The time in milliseconds between two pings.
+	 * @return Handle for updating and halting the binding.
+	 */
+	public synchronized Binding start(SocketAddress target, long interval) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("Keep-alive interval must be positive: " + interval);
+		}
+		Binding binding = new Binding(target, interval);
+		if (_halted) {
+			binding._halted = true;
+			return binding;
+		}
+		binding._nextPing = System.currentTimeMillis() + jittered(interval);
+		_targets.put(target, binding);
+		enqueue(binding);
+		_queue.schedule();
+		return binding;
+	}
+
+	/**
+	 * The number of active bindings.
+	 */
+	public synchronized int size() {
+		return _queue.size();
+	}
+
+	/**
+	 * Processes a pong received from the given address.
+	 *
+	 * <p>
+	 * A single CRLF received before the first ping was sent is not a pong but a keep-alive of the
+	 * peer itself and is ignored.
+	 * </p>
+	 */
+	public void onPong(SocketAddress source) {
+		Binding binding;
+		synchronized (this) {
+			binding = _targets.get(source);
+			if (binding == null || binding._lastPing == 0) {
+				return;
+			}
+			binding._lastPong = System.currentTimeMillis();
+			// The pending timer finds no deadline and just re-indexes the binding.
+			binding._pongDeadline = 0;
+			if (binding._alive) {
+				return;
+			}
+			binding._alive = true;
+		}
+
+		LOG.debug("KeepAlive: restored: {}", source);
+		KeepAliveListener listener = _listener;
+		if (listener != null) {
+			listener.onKeepAliveRestored(binding);
+		}
+	}
+
+	/**
+	 * Halts all bindings.
+	 */
+	public synchronized void halt() {
+		_halted = true;
+		for (Binding binding : _queue) {
+			binding._halted = true;
+		}
+		_queue.clear();
+		_targets.clear();
+	}
+
+	/**
+	 * Sends a ping to the given address.
+	 */
+	protected void send(SocketAddress target) {
+		_provider.sendRawMessage(_token, _provider.getDefaultTransport(), target.getAddress().toString(),
+				target.getPort(), 127);
+	}
+
+	private long jittered(long interval) {
+		return interval - (long) (interval * _jitter * ThreadLocalRandom.current().nextDouble());
+	}
+
+	private void enqueue(Binding binding) {
+		long due = binding._nextPing;
+		if (binding._pongDeadline > 0 && binding._pongDeadline < due) {
+			due = binding._pongDeadline;
+		}
+		if (binding._expires > 0 && binding._expires < due) {
+			due = binding._expires;
+		}
+		_queue.add(binding, due);
+	}
+
+	private void unindex(Binding binding) {
+		_queue.remove(binding);
+		_targets.remove(binding._target, binding);
+		binding._halted = true;
+	}
+
+	/**
+	 * Performs all due actions.
+	 */
+	private void onTimeout() {
+		List<SocketAddress> pings = new ArrayList<>();
+		List<Binding> failed = new ArrayList<>();
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			Binding binding;
+			while ((binding = _queue.pollDue(now)) != null) {
+
+				if (binding._pongDeadline > 0 && binding._pongDeadline <= now) {
+					binding._pongDeadline = 0;
+					if (binding._alive) {
+						binding._alive = false;
+						if (binding._lastPong > 0) {
+							failed.add(binding);
+						}
+					}
+				}
+
+				if (binding._expires > 0 && binding._expires <= now) {
+					_targets.remove(binding._target, binding);
+					binding._halted = true;
+					LOG.debug("KeepAlive: halt: {} (expired)", binding._target);
+					continue;
+				}
+
+				if (binding._nextPing <= now) {
+					binding._lastPing = now;
+					binding._nextPing = now + jittered(binding._interval);
+					if (_pongTimeout > 0 && binding._pongDeadline == 0) {
+						binding._pongDeadline = now + _pongTimeout;
+					}
+					pings.add(binding._target);
+				}
+
+				enqueue(binding);
+			}
+			_queue.schedule();
+		}
+
+		for (int n = 0, cnt = pings.size(); n < cnt; n++) {
+			try {
+				send(pings.get(n));
+			} catch (RuntimeException ex) {
+				LOG.warn("Failed to send keep-alive to: {}", pings.get(n), ex);
+			}
+		}
+
+		KeepAliveListener listener = _listener;
+		for (Binding binding : failed) {
+			LOG.debug("KeepAlive: no pong from: {}", binding._target);
+			if (listener != null) {
+				try {
+					listener.onKeepAliveFailed(binding);
+				} catch (RuntimeException ex) {
+					LOG.error("Failed to process keep-alive failure of: {}", binding._target, ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A target kept alive by a {@link KeepAliveEngine}.
+	 */
+	public final class Binding extends ExpiryQueue.Entry {
+
+		private SocketAddress _target;
+
+		private final long _interval;
+
+		private long _nextPing;
+
+		private long _pongDeadline;
+
+		private long _expires;
+
+		private long _lastPing;
+
+		private long _lastPong;
+
+		private boolean _alive = true;
+
+		private boolean _halted;
+
+		Binding(SocketAddress target, long interval) {
+			_target = target;
+			_interval = interval;
+		}
+
+		/**
+		 * The address pings are sent to.
+		 */
+		public SocketAddress getDestSoAddress() {
+			synchronized (KeepAliveEngine.this) {
+				return _target;
+			}
+		}
+
+		/**
+		 * Changes the address pings are sent to.
+		 */
+		public void setDestSoAddress(SocketAddress target) {
+			synchronized (KeepAliveEngine.this) {
+				if (!_halted) {
+					_targets.remove(_target, this);
+					_targets.put(target, this);
+				}
+				_target = target;
+			}
+		}
+
+		/**
+		 * The time in milliseconds between two pings.
+		 */
+		public long getDeltaTime() {
+			return _interval;
+		}
+
+		/**
+		 * Halts the binding after the given time in milliseconds, <code>0</code> for never.
+		 */
+		public void setExpirationTime(long time) {
+			synchronized (KeepAliveEngine.this) {
+				if (_halted) {
+					return;
+				}
+				_queue.remove(this);
+				_expires = time == 0 ? 0 : System.currentTimeMillis() + time;
+				enqueue(this);
+				_queue.schedule();
+			}
+		}
+
+		/**
+		 * Whether pings are still being sent.
+		 */
+		public boolean isRunning() {
+			synchronized (KeepAliveEngine.this) {
+				return !_halted;
+			}
+		}
+
+		/**
+		 * Whether the last ping was answered or is not yet overdue.
+		 *
+		 * <p>
+		 * A peer not supporting RFC 5626 is considered alive until its first ping times out.
+		 * </p>
+		 */
+		public boolean isAlive() {
+			synchronized (KeepAliveEngine.this) {
+				return _alive;
+			}
+		}
+
+		/**
+		 * The time of the last ping, <code>0</code> if none has been sent.
+		 */
+		public long getLastPing() {
+			synchronized (KeepAliveEngine.this) {
+				return _lastPing;
+			}
+		}
+
+		/**
+		 * The time of the last pong, <code>0</code> if none has been received.
+		 */
+		public long getLastPong() {
+			synchronized (KeepAliveEngine.this) {
+				return _lastPong;
+			}
+		}
+
+		/**
+		 * Stops sending pings.
+		 */
+		public void halt() {
+			synchronized (KeepAliveEngine.this) {
+				if (!_halted) {
+					unindex(this);
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "keep-alive " + _target + " (" + _interval + "ms)";
+		}
+
+	}
+
+}
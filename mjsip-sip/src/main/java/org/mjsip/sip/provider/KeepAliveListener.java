@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.provider;
+
+/**
+ * Listener informed about liveness changes of the bindings of a {@link KeepAliveEngine}.
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public interface KeepAliveListener {
+
+	/**
+	 * A peer that has answered pings before did not answer the last ping in time.
+	 */
+	void onKeepAliveFailed(KeepAliveEngine.Binding binding);
+
+	/**
+	 * A peer that was reported as failed answered a ping again.
+	 */
+	void onKeepAliveRestored(KeepAliveEngine.Binding binding);
+
+}
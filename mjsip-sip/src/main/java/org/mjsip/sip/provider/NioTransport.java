@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.provider;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import org.mjsip.net.SelectorLoop;
+import org.mjsip.net.SelectorPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zoolu.net.IpAddress;
+import org.zoolu.net.SocketAddress;
+import org.zoolu.net.TlsContext;
+import org.zoolu.net.TlsSocketFactory;
+
+/**
+ * Connection-oriented {@link SipTransport} for TCP or TLS based on non-blocking channels.
+ *
+ * <p>
+ * In contrast to {@link TcpTransport} and {@link TlsTransport}, which use one thread per
+ * connection, all connections of a {@link NioTransport} are served by the small fixed set of I/O
+ * threads of a {@link SelectorPool}. TLS is implemented with an {@link SSLEngine}.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class NioTransport extends SipTransportCO implements SelectorLoop.Handler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NioTransport.class);
+
+	private final String _protocol;
+
+	private final SelectorPool _pool;
+
+	private final SSLContext _sslContext;
+
+	private final ServerSocketChannel _server;
+
+	private final SelectorLoop _acceptLoop;
+
+	/**
+	 * Creates a {@link NioTransport}.
+	 *
+	 * @param protocol
+	 *        The transport protocol, {@link SipProvider#PROTO_TCP} or {@link SipProvider#PROTO_TLS}.
+	 * @param local_port
+	 *        The local port to listen on.
+	 * @param host_ipaddr
+	 *        The local address to bind to, <code>null</code> for all interfaces.
+	 * @param nmax_connections
+	 *        The maximum number of active connections.
+	 * @param pool
+	 *        The I/O threads serving the connections.
+	 * @param ssl_context
+	 *        The TLS context, or <code>null</code> for plain TCP.
+	 */
+	public NioTransport(String protocol, int local_port, IpAddress host_ipaddr, int nmax_connections,
+			SelectorPool pool, SSLContext ssl_context) throws IOException {
+		super(local_port, nmax_connections);
+		_protocol = protocol;
+		_pool = pool;
+		_sslContext = ssl_context;
+
+		_server = ServerSocketChannel.open();
+		_server.configureBlocking(false);
+		_server.bind(new InetSocketAddress(host_ipaddr == null ? null : host_ipaddr.getInetAddress(), local_port));
+
+		_acceptLoop = pool.get(0);
+		_acceptLoop.execute(() -> {
+			try {
+				_acceptLoop.register(_server, SelectionKey.OP_ACCEPT, this);
+			} catch (IOException ex) {
+				LOG.error("Cannot accept {} connections.", _protocol, ex);
+			}
+		});
+	}
+
+	/**
+	 * Creates the {@link SSLContext} for a TLS {@link NioTransport}.
+	 *
+	 * @param key_file
+	 *        File containing the node's private key.
+	 * @param cert_file
+	 *        File containing the node's certificate.
+	 * @param trusted_certs
+	 *        Files containing trusted certificates, or <code>null</code>.
+	 * @param trust_folder
+	 *        Folder containing trusted certificates, or <code>null</code>.
+	 * @param trust_all
+	 *        Whether all certificates are considered trusted.
+	 */
+	public static SSLContext createSSLContext(String key_file, String cert_file, String[] trusted_certs,
+			String trust_folder, boolean trust_all) throws IOException {
+		try {
+			TlsContext tls_context = new TlsContext();
+			tls_context.setKeyCert(key_file, cert_file);
+			if (trust_all) {
+				tls_context.setTrustAll(true);
+			} else {
+				if (trusted_certs != null) {
+					for (String cert : trusted_certs) {
+						tls_context.addTrustCert(cert);
+					}
+				}
+				if (trust_folder != null) {
+					tls_context.addTrustFolder(trust_folder);
+				}
+			}
+			return new TlsSocketFactory(tls_context).getSSLContext();
+		} catch (IOException ex) {
+			throw ex;
+		} catch (Exception ex) {
+			throw new IOException("Cannot initialize TLS context: " + ex.getMessage(), ex);
+		}
+	}
+
+	@Override
+	public String getProtocol() {
+		return _protocol;
+	}
+
+	@Override
+	public int getLocalPort() {
+		try {
+			return ((InetSocketAddress) _server.getLocalAddress()).getPort();
+		} catch (Exception ex) {
+			return 0;
+		}
+	}
+
+	@Override
+	public void halt() {
+		super.halt();
+		try {
+			_server.close();
+		} catch (IOException ex) {
+			// Ignore.
+		}
+	}
+
+	@Override
+	public void onSelected(SelectionKey key) {
+		if (!key.isAcceptable()) {
+			return;
+		}
+		SocketChannel channel;
+		try {
+			while ((channel = _server.accept()) != null) {
+				processIncomingConnection(channel);
+			}
+		} catch (IOException ex) {
+			LOG.warn("Accepting {} connection failed.", _protocol, ex);
+		}
+	}
+
+	private void processIncomingConnection(SocketChannel channel) {
+		try {
+			channel.configureBlocking(false);
+			InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+			LOG.debug("incoming connection from {}", remote);
+
+			SipTransportConnection conn = new NioTransportConnection(_protocol, channel, remote, _pool.next(),
+					createEngine(remote, false), connect_executor, this_conn_listener);
+			addConnection(conn);
+			if (listener != null) {
+				listener.onIncomingTransportConnection(this,
+						new SocketAddress(new IpAddress(remote.getAddress()), remote.getPort()));
+			}
+		} catch (IOException ex) {
+			LOG.info("Handling incoming connection failed: {}", ex.getMessage());
+			try {
+				channel.close();
+			} catch (IOException ex2) {
+				// Ignore.
+			}
+		}
+	}
+
+	@Override
+	protected boolean isNonBlockingConnect() {
+		return true;
+	}
+
+	/**
+	 * Starts a non-blocking connect to the remote end-point.
+	 *
+	 * <p>
+	 * The connection is returned immediately. Messages sent before the connection is established
+	 * are queued.
+	 * </p>
+	 */
+	@Override
+	protected SipTransportConnection createTransportConnection(SocketAddress remote_soaddr) throws IOException {
+		InetSocketAddress remote = new InetSocketAddress(remote_soaddr.getAddress().getInetAddress(),
+				remote_soaddr.getPort());
+		SocketChannel channel = SocketChannel.open();
+		try {
+			channel.configureBlocking(false);
+			channel.connect(remote);
+		} catch (IOException ex) {
+			channel.close();
+			throw ex;
+		}
+		return new NioTransportConnection(_protocol, channel, remote, _pool.next(), createEngine(remote, true),
+				connect_executor, this_conn_listener);
+	}
+
+	private SSLEngine createEngine(InetSocketAddress remote, boolean client) {
+		if (_sslContext == null) {
+			return null;
+		}
+		SSLEngine result = _sslContext.createSSLEngine(remote.getHostString(), remote.getPort());
+		result.setUseClientMode(client);
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return _protocol + ":" + getLocalPort();
+	}
+
+}
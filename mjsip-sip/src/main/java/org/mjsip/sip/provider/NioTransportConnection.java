@@ -0,0 +1,583 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.provider;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+import org.mjsip.net.SelectorLoop;
+import org.mjsip.sip.message.SipMessage;
+import org.mjsip.sip.message.MalformedSipMessageException;
+import org.mjsip.sip.message.SipFrameDecoder;
+import org.mjsip.sip.message.SipMessageEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zoolu.net.IpAddress;
+
+/**
+ * {@link SipTransportConnection} on a non-blocking {@link SocketChannel} served by a
+ * {@link SelectorLoop}.
+ *
+ * <p>
+ * If an {@link SSLEngine} is given, the connection is secured with TLS. All channel and engine
+ * operations run on the loop thread. Messages sent from other threads are queued and written when
+ * the channel becomes writable.
+ * </p>
+ *
+ * <p>
+ * Delegated tasks of the {@link SSLEngine} (e.g. certificate validation during the handshake) may
+ * take long or block. They are run on a separate executor, while the connection is excluded from
+ * selection. When the tasks are done, the connection is selected again and the handshake
+ * continues on the loop thread.
+ * </p>
+ *
+ * @see NioTransport
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class NioTransportConnection implements SipTransportConnection, SelectorLoop.Handler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NioTransportConnection.class);
+
+	/** Size of the buffer for reading plain data from the channel. */
+	public static final int BUFFER_SIZE = 16 * 1024;
+
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private final String _protocol;
+
+	private final SocketChannel _channel;
+
+	private final SelectorLoop _loop;
+
+	private final SSLEngine _engine;
+
+	private final Executor _tasks;
+
+	private final IpAddress _remoteAddress;
+
+	private final int _remotePort;
+
+	private final ConnectionId _connectionId;
+
+	private final Queue<ByteBuffer> _outbound = new ConcurrentLinkedQueue<>();
+
+	private final AtomicLong _queuedBytes = new AtomicLong();
+
+	private final AtomicLong _maxQueuedBytes = new AtomicLong();
+
+	private final AtomicLong _rejected = new AtomicLong();
+
+	private final SipFrameDecoder _decoder = new SipFrameDecoder();
+
+	private SelectionKey _key;
+
+	/** Plain data read from the channel, or decrypted data in case of TLS. */
+	private ByteBuffer _in;
+
+	/** Encrypted data read from the channel, in write mode. Only used for TLS. */
+	private ByteBuffer _netIn;
+
+	/** Encrypted data to be written to the channel, in read mode. Only used for TLS. */
+	private ByteBuffer _netOut;
+
+	/** Whether delegated {@link SSLEngine} tasks are running, only accessed on the loop thread. */
+	private boolean _runningTasks;
+
+	private volatile SipTransportConnectionListener _listener;
+
+	private volatile long _lastTime;
+
+	private volatile boolean _closed;
+
+	/**
+	 * Creates a {@link NioTransportConnection}.
+	 *
+	 * @param protocol
+	 *        The transport protocol name.
+	 * @param channel
+	 *        The non-blocking channel, either connected or with a pending connection.
+	 * @param remote
+	 *        The remote end-point.
+	 * @param loop
+	 *        The loop serving the channel.
+	 * @param engine
+	 *        The TLS engine, or <code>null</code> for a plain connection.
+	 * @param tasks
+	 *        The executor for delegated tasks of the TLS engine, unused for a plain connection.
+	 * @param listener
+	 *        Listener for received messages.
+	 */
+	public NioTransportConnection(String protocol, SocketChannel channel, InetSocketAddress remote, SelectorLoop loop,
+			SSLEngine engine, Executor tasks, SipTransportConnectionListener listener) {
+		_protocol = protocol;
+		_channel = channel;
+		_remoteAddress = new IpAddress(remote.getAddress());
+		_remotePort = remote.getPort();
+		_loop = loop;
+		_engine = engine;
+		_tasks = tasks;
+		_listener = listener;
+		_lastTime = System.currentTimeMillis();
+		_connectionId = new ConnectionId(this);
+
+		if (engine == null) {
+			_in = ByteBuffer.allocate(BUFFER_SIZE);
+		} else {
+			_in = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+			_netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+			_netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+			_netOut.flip();
+		}
+
+		loop.execute(this::register);
+	}
+
+	private void register() {
+		try {
+			boolean pending = _channel.isConnectionPending();
+			_key = _loop.register(_channel, pending ? SelectionKey.OP_CONNECT : SelectionKey.OP_READ, this);
+			if (!pending) {
+				onConnected();
+			}
+		} catch (IOException ex) {
+			close(ex);
+		}
+	}
+
+	@Override
+	public void setListener(SipTransportConnectionListener listener) {
+		_listener = listener;
+	}
+
+	@Override
+	public String getProtocol() {
+		return _protocol;
+	}
+
+	@Override
+	public IpAddress getRemoteAddress() {
+		return _remoteAddress;
+	}
+
+	@Override
+	public int getRemotePort() {
+		return _remotePort;
+	}
+
+	@Override
+	public IpAddress getLocalAddress() {
+		try {
+			return new IpAddress(((InetSocketAddress) _channel.getLocalAddress()).getAddress());
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+
+	@Override
+	public int getLocalPort() {
+		try {
+			return ((InetSocketAddress) _channel.getLocalAddress()).getPort();
+		} catch (Exception ex) {
+			return 0;
+		}
+	}
+
+	@Override
+	public long getLastTimeMillis() {
+		return _lastTime;
+	}
+
+	/**
+	 * Queues the given message for sending.
+	 *
+	 * <p>
+	 * The message is written by the loop thread as soon as the connection is established and the
+	 * channel accepts more data. This method never blocks. If more than
+	 * {@link SipTransportConnection#MAX_QUEUED_BYTES} are waiting to be sent, the message is
+	 * rejected.
+	 * </p>
+	 */
+	@Override
+	public void sendMessage(SipMessage msg) throws IOException {
+		if (_closed) {
+			throw new IOException("Connection closed: " + this);
+		}
+		_lastTime = System.currentTimeMillis();
+		// Sent asynchronously, requires a copy of the encoder buffer.
+		byte[] data = SipMessageEncoder.local().encode(msg).toByteArray();
+		long queued = _queuedBytes.addAndGet(data.length);
+		if (queued > MAX_QUEUED_BYTES && queued > data.length) {
+			_queuedBytes.addAndGet(-data.length);
+			_rejected.incrementAndGet();
+			throw new WriteQueueFullException("Send queue full: " + this);
+		}
+		_maxQueuedBytes.accumulateAndGet(queued, Math::max);
+		_outbound.add(ByteBuffer.wrap(data));
+		_loop.execute(this::flush);
+	}
+
+	@Override
+	public long getQueuedBytes() {
+		return _queuedBytes.get();
+	}
+
+	@Override
+	public long getMaxQueuedBytes() {
+		return _maxQueuedBytes.get();
+	}
+
+	@Override
+	public long getRejectedMessages() {
+		return _rejected.get();
+	}
+
+	@Override
+	public void halt() {
+		_loop.execute(() -> close(null));
+	}
+
+	@Override
+	public void onSelected(SelectionKey key) {
+		try {
+			if (key.isConnectable()) {
+				if (!_channel.finishConnect()) {
+					return;
+				}
+				key.interestOps(SelectionKey.OP_READ);
+				onConnected();
+			}
+			if (key.isValid() && key.isReadable()) {
+				onReadable();
+			}
+			if (key.isValid() && key.isWritable()) {
+				flush();
+			}
+		} catch (IOException ex) {
+			close(ex);
+		}
+	}
+
+	private void onConnected() throws IOException {
+		LOG.debug("{} connection {} established.", _protocol, this);
+		if (_engine != null) {
+			_engine.beginHandshake();
+		}
+		flush();
+	}
+
+	private void onReadable() throws IOException {
+		if (_engine == null) {
+			int cnt = _channel.read(_in);
+			if (cnt < 0) {
+				close(null);
+				return;
+			}
+			deliver();
+		} else {
+			int cnt = _channel.read(_netIn);
+			if (cnt < 0) {
+				close(null);
+				return;
+			}
+			processTls();
+		}
+	}
+
+	private void flush() {
+		if (_closed || _key == null || _channel.isConnectionPending() || _runningTasks) {
+			return;
+		}
+		try {
+			if (_engine == null) {
+				flushPlain();
+			} else {
+				processTls();
+			}
+		} catch (IOException ex) {
+			close(ex);
+		}
+	}
+
+	private void flushPlain() throws IOException {
+		ByteBuffer head;
+		while ((head = _outbound.peek()) != null) {
+			_channel.write(head);
+			if (head.hasRemaining()) {
+				setWriteInterest(true);
+				return;
+			}
+			sent(_outbound.poll());
+		}
+		setWriteInterest(false);
+	}
+
+	/**
+	 * Drives the TLS engine: Performs handshake steps, decrypts received data, and encrypts
+	 * queued messages.
+	 */
+	private void processTls() throws IOException {
+		while (!_closed) {
+			HandshakeStatus status = _engine.getHandshakeStatus();
+			switch (status) {
+			case NEED_TASK:
+				runDelegatedTasks();
+				return;
+			case NEED_WRAP:
+				if (!writeNetOut()) {
+					return;
+				}
+				wrap(EMPTY);
+				continue;
+			default:
+				break;
+			}
+
+			if (_netIn.position() == 0 && status != HandshakeStatus.NEED_UNWRAP_AGAIN) {
+				break;
+			}
+			SSLEngineResult result = unwrap();
+			deliver();
+			if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+				close(null);
+				return;
+			}
+			if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+				break;
+			}
+		}
+
+		if (_closed) {
+			close(null);
+			return;
+		}
+		if (isHandshaking()) {
+			writeNetOut();
+			return;
+		}
+
+		while (writeNetOut()) {
+			ByteBuffer head = _outbound.peek();
+			if (head == null) {
+				setWriteInterest(false);
+				return;
+			}
+			wrap(head);
+			if (!head.hasRemaining()) {
+				sent(_outbound.poll());
+			}
+		}
+	}
+
+	/**
+	 * Runs the delegated tasks of the engine on the task executor and suspends selection of this
+	 * connection until they are done.
+	 */
+	private void runDelegatedTasks() {
+		_runningTasks = true;
+		_key.interestOps(0);
+		try {
+			_tasks.execute(() -> {
+				try {
+					Runnable task;
+					while ((task = _engine.getDelegatedTask()) != null) {
+						task.run();
+					}
+				} finally {
+					_loop.execute(this::onTasksDone);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			_runningTasks = false;
+			close(ex);
+		}
+	}
+
+	private void onTasksDone() {
+		_runningTasks = false;
+		if (_closed || !_key.isValid()) {
+			return;
+		}
+		_key.interestOps(SelectionKey.OP_READ);
+		flush();
+	}
+
+	private void sent(ByteBuffer data) {
+		_queuedBytes.addAndGet(-data.limit());
+	}
+
+	private boolean isHandshaking() {
+		HandshakeStatus status = _engine.getHandshakeStatus();
+		return status != HandshakeStatus.NOT_HANDSHAKING && status != HandshakeStatus.FINISHED;
+	}
+
+	/**
+	 * Writes pending encrypted data.
+	 *
+	 * @return Whether all pending data has been written.
+	 */
+	private boolean writeNetOut() throws IOException {
+		if (_netOut.hasRemaining()) {
+			_channel.write(_netOut);
+			if (_netOut.hasRemaining()) {
+				setWriteInterest(true);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Encrypts data from the given buffer and appends the result to the pending encrypted data.
+	 *
+	 * @return Whether the engine produced its output, <code>false</code> if pending encrypted data
+	 *         must be written first.
+	 */
+	private boolean wrap(ByteBuffer src) throws SSLException {
+		while (true) {
+			_netOut.compact();
+			SSLEngineResult result;
+			try {
+				result = _engine.wrap(src, _netOut);
+			} finally {
+				_netOut.flip();
+			}
+			switch (result.getStatus()) {
+			case BUFFER_OVERFLOW:
+				if (_netOut.hasRemaining()) {
+					return false;
+				}
+				// A single record does not fit into the empty buffer.
+				_netOut = ByteBuffer.allocate(
+						Math.max(_engine.getSession().getPacketBufferSize(), 2 * _netOut.capacity()));
+				_netOut.flip();
+				continue;
+			case CLOSED:
+				_closed = true;
+				return true;
+			default:
+				return true;
+			}
+		}
+	}
+
+	private SSLEngineResult unwrap() throws SSLException {
+		_netIn.flip();
+		SSLEngineResult result = _engine.unwrap(_netIn, _in);
+		_netIn.compact();
+		switch (result.getStatus()) {
+		case BUFFER_OVERFLOW:
+			_in = enlarge(_in, _engine.getSession().getApplicationBufferSize());
+			break;
+		case BUFFER_UNDERFLOW:
+			if (!_netIn.hasRemaining()) {
+				_netIn = enlarge(_netIn, _engine.getSession().getPacketBufferSize());
+			}
+			break;
+		default:
+			break;
+		}
+		return result;
+	}
+
+	private static ByteBuffer enlarge(ByteBuffer buffer, int minSize) {
+		ByteBuffer result = ByteBuffer.allocate(Math.max(minSize, 2 * buffer.capacity()));
+		buffer.flip();
+		result.put(buffer);
+		return result;
+	}
+
+	private void setWriteInterest(boolean enabled) {
+		if (_key.isValid()) {
+			int ops = _key.interestOps();
+			int newOps = enabled ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE;
+			if (newOps != ops) {
+				_key.interestOps(newOps);
+			}
+		}
+	}
+
+	/**
+	 * Passes plain data received to the frame decoder and delivers all complete messages.
+	 */
+	private void deliver() throws IOException {
+		if (_in.position() == 0) {
+			return;
+		}
+		_in.flip();
+		LOG.debug("Received {} bytes of data.", _in.remaining());
+		_lastTime = System.currentTimeMillis();
+		_decoder.append(_in.array(), _in.arrayOffset() + _in.position(), _in.remaining());
+		_in.clear();
+
+		SipMessage msg;
+		try {
+			while ((msg = _decoder.next()) != null) {
+				msg.setRemoteAddress(_remoteAddress.toString());
+				msg.setRemotePort(_remotePort);
+				msg.setTransportProtocol(_protocol);
+				msg.setConnectionId(_connectionId);
+				SipTransportConnectionListener listener = _listener;
+				if (listener != null) {
+					listener.onReceivedMessage(this, msg);
+				}
+			}
+		} catch (MalformedSipMessageException ex) {
+			throw new IOException("Invalid data received on " + this + ".", ex);
+		}
+	}
+
+	private void close(Exception error) {
+		if (_closed && !_channel.isOpen()) {
+			return;
+		}
+		_closed = true;
+		if (_engine != null) {
+			try {
+				_engine.closeOutbound();
+				// Send close_notify after pending data, if the channel accepts it.
+				if (writeNetOut() && wrap(EMPTY)) {
+					writeNetOut();
+				}
+			} catch (IOException ex) {
+				// Ignore.
+			}
+		}
+		if (_key != null) {
+			_key.cancel();
+		}
+		try {
+			_channel.close();
+		} catch (IOException ex) {
+			// Ignore.
+		}
+		_outbound.clear();
+		_queuedBytes.set(0);
+
+		SipTransportConnectionListener listener = _listener;
+		_listener = null;
+		if (listener != null) {
+			listener.onConnectionTerminated(this, error);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return _protocol + ":" + getLocalAddress() + ":" + getLocalPort() + "<->" + _remoteAddress + ":" + _remotePort;
+	}
+
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.provider;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.mjsip.sip.header.CoreSipHeaders;
+import org.mjsip.sip.message.SipMessage;
+import org.mjsip.sip.message.SipMessageEncoder;
+import org.mjsip.time.ThreadSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zoolu.net.IpAddress;
+import org.zoolu.net.SocketAddress;
+import org.zoolu.util.ByteUtils;
+
+/**
+ * {@link SipTransport} for UDP that receives, parses and dispatches messages in separate stages
+ * running on multiple threads.
+ *
+ * <p>
+ * Datagrams are received by a set of receiver threads. Where the platform supports
+ * {@link StandardSocketOptions#SO_REUSEPORT}, each receiver owns a separate socket bound to the same
+ * port, so that the kernel balances incoming datagrams between them. Otherwise, a single receiver
+ * socket is used.
+ * </p>
+ *
+ * <p>
+ * Received datagrams are handed to a fixed set of dispatch workers, each with its own bounded
+ * queue. A worker parses the datagram into a {@link SipMessage} and delivers it to the
+ * {@link SipTransportListener}. The worker is chosen by hashing the Call-ID of the raw message, so
+ * all messages of a dialog are delivered in order by the same worker, while a slow listener only
+ * stalls the dialogs mapped to its own worker.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class ParallelUdpTransport implements SipTransport {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ParallelUdpTransport.class);
+
+	/** UDP protocol type */
+	public static final String PROTO_UDP = UdpTransport.PROTO_UDP;
+
+	/** The receive buffer size */
+	public static final int BUFFER_SIZE = 65535;
+
+	/** Default capacity of each dispatch worker's queue. */
+	public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+	private static final byte[] CALL_ID = CoreSipHeaders.Call_ID.toLowerCase().getBytes();
+
+	private final DatagramChannel[] _channels;
+
+	private final Thread[] _receivers;
+
+	private final Dispatcher[] _dispatchers;
+
+	private final LongAdder _dropped = new LongAdder();
+
+	private volatile SipTransportListener _listener;
+
+	private volatile boolean _stopped;
+
+	/**
+	 * Creates a {@link ParallelUdpTransport}.
+	 *
+	 * @param local_port
+	 *        The local port to bind to, <code>0</code> for an ephemeral port.
+	 * @param host_ipaddr
+	 *        The local address to bind to, <code>null</code> for all interfaces.
+	 * @param workers
+	 *        The number of receive and dispatch workers.
+	 */
+	public ParallelUdpTransport(int local_port, IpAddress host_ipaddr, int workers) throws IOException {
+		this(local_port, host_ipaddr, workers, DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * Creates a {@link ParallelUdpTransport}.
+	 *
+	 * @param local_port
+	 *        The local port to bind to, <code>0</code> for an ephemeral port.
+	 * @param host_ipaddr
+	 *        The local address to bind to, <code>null</code> for all interfaces.
+	 * @param workers
+	 *        The number of receive and dispatch workers.
+	 * @param queue_size
+	 *        The number of datagrams each dispatch worker can buffer before further datagrams
+	 *        are dropped.
+	 */
+	public ParallelUdpTransport(int local_port, IpAddress host_ipaddr, int workers, int queue_size)
+			throws IOException {
+		if (workers < 1) {
+			throw new IllegalArgumentException("At least one worker required: " + workers);
+		}
+
+		_channels = openChannels(local_port, host_ipaddr == null ? null : host_ipaddr.getInetAddress(), workers);
+
+		_dispatchers = new Dispatcher[workers];
+		for (int n = 0; n < workers; n++) {
+			_dispatchers[n] = new Dispatcher(n, queue_size);
+		}
+
+		for (Dispatcher dispatcher : _dispatchers) {
+			dispatcher.start();
+		}
+
+		int port = getLocalPort();
+		_receivers = new Thread[_channels.length];
+		for (int n = 0; n < _channels.length; n++) {
+			DatagramChannel channel = _channels[n];
+			_receivers[n] = ThreadSupport.start(() -> receive(channel), "udp-receiver-" + port + "-" + n, true);
+		}
+	}
+
+	private static DatagramChannel[] openChannels(int local_port, InetAddress bind_addr, int workers)
+			throws IOException {
+		DatagramChannel first = DatagramChannel.open();
+		boolean reusePort = workers > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+		if (reusePort) {
+			first.setOption(StandardSocketOptions.SO_REUSEPORT, Boolean.TRUE);
+		} else if (workers > 1) {
+			LOG.info("SO_REUSEPORT not supported, using a single UDP receiver.");
+		}
+		first.bind(new InetSocketAddress(bind_addr, local_port));
+
+		DatagramChannel[] result = new DatagramChannel[reusePort ? workers : 1];
+		result[0] = first;
+		try {
+			int port = ((InetSocketAddress) first.getLocalAddress()).getPort();
+			for (int n = 1; n < result.length; n++) {
+				result[n] = DatagramChannel.open();
+				result[n].setOption(StandardSocketOptions.SO_REUSEPORT, Boolean.TRUE);
+				result[n].bind(new InetSocketAddress(bind_addr, port));
+			}
+		} catch (IOException ex) {
+			for (DatagramChannel channel : result) {
+				if (channel != null) {
+					channel.close();
+				}
+			}
+			throw ex;
+		}
+		return result;
+	}
+
+	@Override
+	public String getProtocol() {
+		return PROTO_UDP;
+	}
+
+	@Override
+	public int getLocalPort() {
+		try {
+			return ((InetSocketAddress) _channels[0].getLocalAddress()).getPort();
+		} catch (Exception e) {
+			return 0;
+		}
+	}
+
+	@Override
+	public void setListener(SipTransportListener listener) {
+		_listener = listener;
+	}
+
+	/**
+	 * The number of datagrams dropped because the dispatch worker responsible for them was
+	 * overloaded.
+	 */
+	public long getDroppedCount() {
+		return _dropped.sum();
+	}
+
+	/**
+	 * The number of datagrams currently waiting in dispatch queues.
+	 */
+	public int getQueuedCount() {
+		int result = 0;
+		for (Dispatcher dispatcher : _dispatchers) {
+			result += dispatcher._queue.size();
+		}
+		return result;
+	}
+
+	/**
+	 * Sends the given message.
+	 *
+	 * <p>
+	 * All channels are bound to the same local port, so the remote side sees the same source
+	 * address whichever channel is used. The channel is chosen by hashing the destination to spread
+	 * concurrent senders over the socket send buffers, while keeping all datagrams to the same
+	 * destination on the same socket in order.
+	 * </p>
+	 */
+	@Override
+	public ConnectionId sendMessage(SipMessage msg, IpAddress dest_ipaddr, int dest_port, int ttl) throws IOException {
+		if (!_stopped) {
+			InetSocketAddress dest = new InetSocketAddress(dest_ipaddr.getInetAddress(), dest_port);
+			DatagramChannel channel = _channels[Math.floorMod(dest.hashCode(), _channels.length)];
+			channel.send(SipMessageEncoder.local().encode(msg).toByteBuffer(), dest);
+		}
+		return null;
+	}
+
+	@Override
+	public void halt() {
+		if (_stopped) {
+			return;
+		}
+		_stopped = true;
+		for (DatagramChannel channel : _channels) {
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				// Ignore.
+			}
+		}
+		for (Dispatcher dispatcher : _dispatchers) {
+			dispatcher.interrupt();
+		}
+	}
+
+	/**
+	 * Receive stage: Reads datagrams from the given channel and hands them over to the dispatch
+	 * stage.
+	 */
+	private void receive(DatagramChannel channel) {
+		Exception error = null;
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		try {
+			while (!_stopped) {
+				buffer.clear();
+				InetSocketAddress source = (InetSocketAddress) channel.receive(buffer);
+				buffer.flip();
+
+				byte[] data = buffer.array();
+				int length = buffer.limit();
+				int type = UdpTransport.datagramType(data, 0, length);
+				if (type == UdpTransport.DATAGRAM_PING) {
+					channel.send(ByteBuffer.wrap(UdpTransport.PONG), source);
+					continue;
+				}
+				if (type == UdpTransport.DATAGRAM_PONG) {
+					SipTransportListener listener = _listener;
+					if (listener != null) {
+						listener.onReceivedPong(this,
+							new SocketAddress(new IpAddress(source.getAddress()), source.getPort()));
+					}
+					continue;
+				}
+
+				Datagram datagram = new Datagram(ByteUtils.copy(data, 0, length), source);
+				Dispatcher dispatcher = _dispatchers[Math.floorMod(callIdHash(data, 0, length), _dispatchers.length)];
+				if (!dispatcher._queue.offer(datagram)) {
+					_dropped.increment();
+					LOG.warn("UDP dispatch queue {} full, datagram from {} dropped.", dispatcher._index, source);
+				}
+			}
+		} catch (ClosedChannelException ex) {
+			// Regular shutdown.
+		} catch (Exception ex) {
+			if (!_stopped) {
+				error = ex;
+			}
+		}
+		onReceiverTerminated(error);
+	}
+
+	private synchronized void onReceiverTerminated(Exception error) {
+		boolean first = !_stopped;
+		halt();
+		if (first || error != null) {
+			SipTransportListener listener = _listener;
+			_listener = null;
+			if (listener != null) {
+				listener.onTransportTerminated(this, error);
+			}
+		}
+	}
+
+	/**
+	 * Computes a hash value for the Call-ID header value in the given raw SIP message without
+	 * parsing the message.
+	 *
+	 * <p>
+	 * Both, the long form <code>Call-ID</code> and the compact form <code>i</code> of the header
+	 * name are recognized. If no Call-ID is found, <code>0</code> is returned.
+	 * </p>
+	 */
+	static int callIdHash(byte[] data, int offset, int length) {
+		int end = offset + length;
+		int lineStart = offset;
+		while (lineStart < end) {
+			int lineEnd = lineStart;
+			while (lineEnd < end && data[lineEnd] != '\r' && data[lineEnd] != '\n') {
+				lineEnd++;
+			}
+			if (lineEnd == lineStart) {
+				// Empty line, end of headers.
+				break;
+			}
+
+			int valueStart = matchHeaderName(data, lineStart, lineEnd);
+			if (valueStart >= 0) {
+				int valueEnd = lineEnd;
+				while (valueStart < valueEnd && isWhiteSpace(data[valueStart])) {
+					valueStart++;
+				}
+				while (valueEnd > valueStart && isWhiteSpace(data[valueEnd - 1])) {
+					valueEnd--;
+				}
+				int hash = 1;
+				for (int n = valueStart; n < valueEnd; n++) {
+					hash = 31 * hash + data[n];
+				}
+				return hash;
+			}
+
+			lineStart = lineEnd;
+			if (lineStart < end && data[lineStart] == '\r') {
+				lineStart++;
+			}
+			if (lineStart < end && data[lineStart] == '\n') {
+				lineStart++;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Checks whether the line starting at the given offset is a Call-ID header.
+	 *
+	 * @return The index of the first character following the colon, or <code>-1</code> if the
+	 *         line is no Call-ID header.
+	 */
+	private static int matchHeaderName(byte[] data, int start, int end) {
+		int pos = start;
+		if (end - start > CALL_ID.length && matchesIgnoreCase(data, start, CALL_ID)) {
+			pos += CALL_ID.length;
+		} else if (end - start > 1 && (data[start] | 0x20) == 'i') {
+			pos++;
+		} else {
+			return -1;
+		}
+		while (pos < end && isWhiteSpace(data[pos])) {
+			pos++;
+		}
+		if (pos < end && data[pos] == ':') {
+			return pos + 1;
+		}
+		return -1;
+	}
+
+	private static boolean matchesIgnoreCase(byte[] data, int start, byte[] lowerCasePattern) {
+		for (int n = 0; n < lowerCasePattern.length; n++) {
+			byte ch = data[start + n];
+			if (ch >= 'A' && ch <= 'Z') {
+				ch += 'a' - 'A';
+			}
+			if (ch != lowerCasePattern[n]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isWhiteSpace(byte ch) {
+		return ch == ' ' || ch == '\t';
+	}
+
+	@Override
+	public String toString() {
+		return "udp:" + getLocalPort() + "/" + _dispatchers.length;
+	}
+
+	/**
+	 * A datagram received but not yet parsed.
+	 */
+	private static final class Datagram {
+
+		final byte[] _data;
+
+		final InetSocketAddress _source;
+
+		Datagram(byte[] data, InetSocketAddress source) {
+			_data = data;
+			_source = source;
+		}
+
+	}
+
+	/**
+	 * Parse and dispatch stage for a subset of Call-IDs.
+	 */
+	private final class Dispatcher implements Runnable {
+
+		final int _index;
+
+		final BlockingQueue<Datagram> _queue;
+
+		private Thread _thread;
+
+		Dispatcher(int index, int queue_size) {
+			_index = index;
+			_queue = new ArrayBlockingQueue<>(queue_size);
+		}
+
+		void start() {
+			_thread = ThreadSupport.start(this, "udp-dispatcher-" + _index, true);
+		}
+
+		void interrupt() {
+			if (_thread != null) {
+				_thread.interrupt();
+			}
+		}
+
+		@Override
+		public void run() {
+			while (!_stopped) {
+				Datagram datagram;
+				try {
+					datagram = _queue.take();
+				} catch (InterruptedException ex) {
+					continue;
+				}
+
+				try {
+					SipMessage msg = new SipMessage(datagram._data, 0, datagram._data.length);
+					msg.setRemoteAddress(datagram._source.getAddress().getHostAddress());
+					msg.setRemotePort(datagram._source.getPort());
+					msg.setTransportProtocol(PROTO_UDP);
+
+					SipTransportListener listener = _listener;
+					if (listener != null) {
+						listener.onReceivedMessage(ParallelUdpTransport.this, msg);
+					}
+				} catch (Exception ex) {
+					LOG.warn("Failed to process datagram from {}.", datagram._source, ex);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.provider;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mjsip.sip.message.SipMessage;
+
+/**
+ * {@link ConnectionId} returned by {@link SipProvider#sendMessage(SipMessage)} for a message that
+ * is sent only after the next hop has been resolved, or after the connection to it has been
+ * established.
+ *
+ * <p>
+ * Whether the message is sent over a reliable transport is only known, when the {@link #result()}
+ * completes. A transaction must not decide on retransmissions before.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public final class PendingConnectionId extends ConnectionId {
+
+	private static final AtomicLong _sequence = new AtomicLong();
+
+	private final CompletableFuture<ConnectionId> _result;
+
+	/**
+	 * Creates a {@link PendingConnectionId}.
+	 *
+	 * @param host
+	 *        The next hop being resolved or connected to.
+	 * @param result
+	 *        See {@link #result()}.
+	 */
+	PendingConnectionId(String host, CompletableFuture<ConnectionId> result) {
+		super("pending:" + host + ":" + _sequence.incrementAndGet());
+		_result = result;
+	}
+
+	/**
+	 * The connection the message has been sent through, completing with <code>null</code> for a
+	 * connection-less transport, or exceptionally, if the message could not be sent.
+	 */
+	public CompletableFuture<ConnectionId> result() {
+		return _result;
+	}
+
+}
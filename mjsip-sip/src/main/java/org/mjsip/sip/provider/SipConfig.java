@@ -158,6 +158,24 @@ public class SipConfig implements SipOptions {
 	@Option(name = "--max-connections")
 	private int _maxConnections = 0;
 
+	@Option(name = "--nio-transport", handler = YesNoHandler.class, usage = "Whether to serve TCP and TLS connections from a fixed set of non-blocking I/O threads.")
+	private boolean _nioTransport = false;
+
+	@Option(name = "--io-threads", usage = "Number of I/O threads serving non-blocking TCP and TLS connections.")
+	private int _ioThreads = 2;
+
+	@Option(name = "--udp-workers", usage = "Number of threads receiving and dispatching UDP messages, 0 for a single receiver thread.")
+	private int _udpWorkers = 0;
+
+	@Option(name = "--dns-srv", handler = YesNoHandler.class, usage = "Whether to locate the next hop by NAPTR and SRV lookups (RFC 3263), if a request URI has no port.")
+	private boolean _dnsSrv = false;
+
+	@Option(name = "--dns-ttl", usage = "Time in seconds a resolved host name is cached.")
+	private int _dnsTtl = 60;
+
+	@Option(name = "--dns-negative-ttl", usage = "Time in seconds a failed host name lookup is cached.")
+	private int _dnsNegativeTtl = 10;
+
 	@Option(name = "--outbound-proxy", handler = SipURIHandler.class, usage = "Use the given outbound proxy.")
 	private SipURI _outboundProxy = null;
 
@@ -542,6 +560,66 @@ public class SipConfig implements SipOptions {
 		this._maxConnections = maxConnections;
 	}
 
+	@Override
+	public boolean useNioTransport() {
+		return _nioTransport;
+	}
+
+	/** @see #useNioTransport() */
+	public void setNioTransport(boolean nioTransport) {
+		this._nioTransport = nioTransport;
+	}
+
+	@Override
+	public int getIoThreads() {
+		return _ioThreads;
+	}
+
+	/** @see #getIoThreads() */
+	public void setIoThreads(int ioThreads) {
+		this._ioThreads = ioThreads;
+	}
+
+	@Override
+	public int getUdpWorkers() {
+		return _udpWorkers;
+	}
+
+	/** @see #getUdpWorkers() */
+	public void setUdpWorkers(int udpWorkers) {
+		this._udpWorkers = udpWorkers;
+	}
+
+	@Override
+	public boolean useDnsSrv() {
+		return _dnsSrv;
+	}
+
+	/** @see #useDnsSrv() */
+	public void setDnsSrv(boolean dnsSrv) {
+		this._dnsSrv = dnsSrv;
+	}
+
+	@Override
+	public int getDnsTtl() {
+		return _dnsTtl;
+	}
+
+	/** @see #getDnsTtl() */
+	public void setDnsTtl(int dnsTtl) {
+		this._dnsTtl = dnsTtl;
+	}
+
+	@Override
+	public int getDnsNegativeTtl() {
+		return _dnsNegativeTtl;
+	}
+
+	/** @see #getDnsNegativeTtl() */
+	public void setDnsNegativeTtl(int dnsNegativeTtl) {
+		this._dnsNegativeTtl = dnsNegativeTtl;
+	}
+
 	@Override
 	public SipURI getOutboundProxy() {
 		return _outboundProxy;
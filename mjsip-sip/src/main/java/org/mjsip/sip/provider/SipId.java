@@ -22,6 +22,8 @@
  */
 package org.mjsip.sip.provider;
 
+import java.util.Objects;
+
 import org.mjsip.sip.header.CSeqHeader;
 import org.mjsip.sip.header.ViaHeader;
 import org.mjsip.sip.message.SipMessage;
@@ -29,14 +31,32 @@ import org.mjsip.sip.message.SipMethods;
 import org.zoolu.util.Identifier;
 
 /** SipId is the abstract identifier for addressing a dialog, a transaction, or a given method.
+  * <p>
+  * A SipId is a compact key built directly from the parsed message fields. It keeps references
+  * to the field values and a precomputed 64 bit hash (see {@link #getHash()}), so that creating
+  * and comparing identifiers for each received message does not concatenate strings.
+  * The textual form of former versions is only built on demand by {@link #toString()}, so the
+  * {@link Identifier} base class is created without a stored string value.
   */
 public final class SipId extends Identifier {
 	
+	/** Kind of a method identifier. */
+	private static final int METHOD = 1;
+
+	/** Kind of a dialog identifier. */
+	private static final int DIALOG = 2;
+
+	/** Kind of a client transaction identifier. */
+	private static final int CLIENT_TRANSACTION = 3;
+
+	/** Kind of a server transaction identifier. */
+	private static final int SERVER_TRANSACTION = 4;
+
 	/** Identifier for ANY messages (regardless their method). */
-	public static final SipId ANY_METHOD = new SipId("ANY");
+	public static final SipId ANY_METHOD = createMethodId("ANY");
 
 	public static SipId createDialogId(String call_id, String local_tag, String remote_tag) {
-		return new SipId(dialodId(call_id, local_tag, remote_tag));
+		return new SipId(DIALOG, call_id, 0, local_tag, remote_tag);
 	}
 
 	public static SipId createDialogId(SipMessage msg) {
@@ -51,15 +71,11 @@ public final class SipId extends Identifier {
 			remote_tag = msg.getToHeader().getTag();
 		}
 
-		return new SipId(dialodId(call_id, local_tag, remote_tag));
-	}
-
-	private static String dialodId(String call_id, String local_tag, String remote_tag) {
-		return call_id + "-" + local_tag + "-" + remote_tag;
+		return createDialogId(call_id, local_tag, remote_tag);
 	}
 
 	public static SipId createTransactionServerId(String method) {
-		return new SipId(method);
+		return createMethodId(method);
 	}
 
 	public static SipId createTransactionServerId(String call_id, long seqn, String method,
@@ -77,23 +93,18 @@ public final class SipId extends Identifier {
 		String branch = null;
 		String sent_by = null;
 		if (top_via != null) {
-			if (top_via.hasBranch())
-				branch = top_via.getBranch();
-			sent_by = top_via.getSentBy();
+			branch = top_via.getBranch();
+			if (branch == null)
+				sent_by = top_via.getSentBy();
 		}
 		CSeqHeader cseqh = msg.getCSeqHeader();
 		long seqn = cseqh.getSequenceNumber();
 		String method = cseqh.getMethod();
-		return new SipId(transactionId(uac, call_id, seqn, method, sent_by, branch));
-	}
-
-	public static SipId createTransactionId(boolean uac, String call_id, long seqn, String method,
-			String sent_by, String branch) {
-		return new SipId(transactionId(uac, call_id, seqn, method, sent_by, branch));
+		return createTransactionId(uac, call_id, seqn, method, sent_by, branch);
 	}
 
 	/**
-	 * Gets the string value of the transaction identifier.
+	 * Creates a transaction identifier.
 	 * 
 	 * @param uac
 	 *        whether it is a UAC side (true=UAC, false=UAS)
@@ -101,20 +112,20 @@ public final class SipId extends Identifier {
 	 *        the call-id
 	 * @param seqn
 	 *        the CSeq sequence number
+	 * @param method
+	 *        the CSeq method, ACK is mapped to INVITE
 	 * @param sent_by
-	 *        the Via sent-by address
+	 *        the Via sent-by address, only used if there is no branch
 	 * @param branch
 	 *        the Via branch
-	 * @return the string value for a transaction identifier
 	 */
-	private static String transactionId(boolean uac, String call_id, long seqn, String method, String sent_by,
-			String branch) {
+	public static SipId createTransactionId(boolean uac, String call_id, long seqn, String method,
+			String sent_by, String branch) {
 		if (method.equals(SipMethods.ACK))
 			method = SipMethods.INVITE;
-		String type = (uac) ? "client" : "server";
 		if (branch == null)
 			branch = sent_by;
-		return call_id + "-" + seqn + "-" + method + "-" + type + "-" + branch;
+		return new SipId(uac ? CLIENT_TRANSACTION : SERVER_TRANSACTION, call_id, seqn, method, branch);
 	}
 
 	public static SipId createTransactionClientId(SipMessage msg) {
@@ -122,22 +133,94 @@ public final class SipId extends Identifier {
 	}
 
 	public static SipId createMethodId(String method) {
-		return new SipId(method);
+		return new SipId(METHOD, null, 0, method, null);
 	}
 
 	public static SipId createMethodId(SipMessage msg) {
-		return new SipId(msg.getCSeqHeader().getMethod());
+		return createMethodId(msg.getCSeqHeader().getMethod());
+	}
+
+	/** The kind of identifier, e.g. {@link #DIALOG}. */
+	private final int _kind;
+
+	/** The call-id, <code>null</code> for method identifiers. */
+	private final String _callId;
+
+	/** The CSeq sequence number of a transaction. */
+	private final long _seqn;
+
+	/** The method of a method or transaction identifier, the local tag of a dialog identifier. */
+	private final String _first;
+
+	/** The branch of a transaction identifier, the remote tag of a dialog identifier. */
+	private final String _second;
+
+	private final long _hash;
+
+	private SipId(int kind, String call_id, long seqn, String first, String second) {
+		_kind = kind;
+		_callId = call_id;
+		_seqn = seqn;
+		_first = first;
+		_second = second;
+		
+		long hash = kind;
+		hash = mix(hash, Objects.hashCode(call_id));
+		hash = mix(hash, (int) (seqn ^ (seqn >>> 32)));
+		hash = mix(hash, Objects.hashCode(first));
+		hash = mix(hash, Objects.hashCode(second));
+		_hash = hash;
 	}
 
-	/** Creates a new SipId.
-	  * @param str_id the string value of the identifier */
-	private SipId(String str_id) {
-		super(str_id);
+	private static long mix(long hash, int value) {
+		return (hash ^ value) * 0x100000001B3L;
 	}
 
-	/** Creates a new SipId
-	  * @param id a SIP identifier */
-	private SipId(SipId id) {
-		super(id);
+	/**
+	 * 64 bit hash of this identifier.
+	 * 
+	 * <p>
+	 * Equal identifiers have the same hash, which can be used as key in maps with primitive keys.
+	 * </p>
+	 */
+	public long getHash() {
+		return _hash;
 	}
+
+	/** Whether this object equals to an other object.
+	  * @param obj the other object that is compared to
+	  * @return true if the two objects are equal */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof SipId)) {
+			return false;
+		}
+		SipId other = (SipId) obj;
+		return _hash == other._hash && _kind == other._kind && _seqn == other._seqn
+				&& Objects.equals(_callId, other._callId) && Objects.equals(_first, other._first)
+				&& Objects.equals(_second, other._second);
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (_hash ^ (_hash >>> 32));
+	}
+
+	/** Gets the string value of this identifier. */
+	@Override
+	public String toString() {
+		switch (_kind) {
+		case METHOD:
+			return _first;
+		case DIALOG:
+			return _callId + "-" + _first + "-" + _second;
+		default:
+			String type = (_kind == CLIENT_TRANSACTION) ? "client" : "server";
+			return _callId + "-" + _seqn + "-" + _first + "-" + type + "-" + _second;
+		}
+	}
+
 }
@@ -37,7 +37,7 @@ import org.zoolu.net.SocketAddress;
 public class SipKeepAlive extends UdpKeepAlive {
 	
 	/** Class SipToken extends class SipMessage in order to support simple and eventually malformed SIP message tokens. */
-	private static class SipToken extends SipMessage {
+	static class SipToken extends SipMessage {
 		/** The raw message */
 		String token;   
 		/** Creates a new SipToken. */
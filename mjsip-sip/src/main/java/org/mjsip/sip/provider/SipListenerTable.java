@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.provider;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.mjsip.sip.message.SipMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Routing table dispatching received {@link SipMessage}s to the {@link SipProviderListener}s
+ * registered for a given {@link SipId}.
+ *
+ * <p>
+ * Lookups are lock-free and may run concurrently with listeners being added and removed. A
+ * message is routed by trying the {@link Tier}s in order: transaction, dialog, method, and
+ * finally {@link SipId#ANY_METHOD}. Hits and misses are counted per tier.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class SipListenerTable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SipListenerTable.class);
+
+	/**
+	 * The stages of a listener lookup in the order they are tried.
+	 */
+	public enum Tier {
+		/** Lookup by transaction identifier. */
+		TRANSACTION,
+
+		/** Lookup by dialog identifier. */
+		DIALOG,
+
+		/** Lookup by method identifier. */
+		METHOD,
+
+		/** Fallback to the listener registered for {@link SipId#ANY_METHOD}. */
+		ANY;
+	}
+
+	private final ConcurrentHashMap<SipId, SipProviderListener> _listeners = new ConcurrentHashMap<>();
+
+	private final LongAdder[] _hits = newCounters();
+
+	private final LongAdder[] _misses = newCounters();
+
+	private static LongAdder[] newCounters() {
+		LongAdder[] result = new LongAdder[Tier.values().length];
+		for (int n = 0; n < result.length; n++) {
+			result[n] = new LongAdder();
+		}
+		return result;
+	}
+
+	/**
+	 * Registers the given listener for messages matching the given identifier.
+	 */
+	public void put(SipId id, SipProviderListener listener) {
+		_listeners.put(id, listener);
+	}
+
+	/**
+	 * Removes the listener registered for the given identifier.
+	 */
+	public void remove(SipId id) {
+		_listeners.remove(id);
+	}
+
+	/**
+	 * Removes all listeners.
+	 */
+	public void clear() {
+		_listeners.clear();
+	}
+
+	/**
+	 * The number of registered listeners.
+	 */
+	public int size() {
+		return _listeners.size();
+	}
+
+	/**
+	 * Looks up the listener for the given message.
+	 *
+	 * @return The listener of the first matching {@link Tier}, or <code>null</code>, if no listener
+	 *         matches.
+	 */
+	public SipProviderListener lookup(SipMessage msg) {
+		// Requests go to transaction servers and responses go to transaction clients.
+		SipId transactionKey = SipId.createTransactionId(!msg.isRequest(), msg);
+		SipProviderListener result = lookup(Tier.TRANSACTION, transactionKey);
+		if (result != null) {
+			return result;
+		}
+
+		result = lookup(Tier.DIALOG, SipId.createDialogId(msg));
+		if (result != null) {
+			return result;
+		}
+
+		result = lookup(Tier.METHOD, SipId.createMethodId(msg));
+		if (result != null) {
+			return result;
+		}
+
+		return lookup(Tier.ANY, SipId.ANY_METHOD);
+	}
+
+	private SipProviderListener lookup(Tier tier, SipId key) {
+		SipProviderListener result = _listeners.get(key);
+		if (result != null) {
+			_hits[tier.ordinal()].increment();
+			LOG.debug("Message passed to {}: {}", tier, key);
+		} else {
+			_misses[tier.ordinal()].increment();
+		}
+		return result;
+	}
+
+	/**
+	 * The number of messages that were dispatched by the given {@link Tier}.
+	 */
+	public long getHits(Tier tier) {
+		return _hits[tier.ordinal()].sum();
+	}
+
+	/**
+	 * The number of messages for which no listener was found in the given {@link Tier}.
+	 */
+	public long getMisses(Tier tier) {
+		return _misses[tier.ordinal()].sum();
+	}
+
+	/**
+	 * Resets all hit and miss counters.
+	 */
+	public void resetStatistics() {
+		for (Tier tier : Tier.values()) {
+			_hits[tier.ordinal()].reset();
+			_misses[tier.ordinal()].reset();
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder("listeners=").append(size());
+		for (Tier tier : Tier.values()) {
+			result.append(", ").append(tier.name().toLowerCase()).append('=');
+			result.append(getHits(tier)).append('/').append(getMisses(tier));
+		}
+		return result.toString();
+	}
+
+}
@@ -3,6 +3,8 @@
  */
 package org.mjsip.sip.provider;
 
+import org.mjsip.net.DnsResolver;
+import org.mjsip.net.ServerLocator;
 import org.mjsip.sip.address.SipURI;
 import org.zoolu.net.AddressType;
 import org.zoolu.net.IpAddress;
@@ -43,6 +45,54 @@ public interface SipOptions {
 	/** Max number of (contemporary) open connections */
 	int getMaxConnections();
 
+	/**
+	 * Whether TCP and TLS connections are served by non-blocking channels instead of one thread
+	 * per connection.
+	 * 
+	 * @see NioTransport
+	 */
+	boolean useNioTransport();
+
+	/**
+	 * Number of I/O threads serving all non-blocking TCP and TLS connections.
+	 * 
+	 * @see #useNioTransport()
+	 */
+	int getIoThreads();
+
+	/**
+	 * Number of threads receiving, parsing and dispatching UDP messages in parallel.
+	 * 
+	 * <p>
+	 * A value of <code>0</code> selects the classic single-threaded UDP transport.
+	 * </p>
+	 * 
+	 * @see ParallelUdpTransport
+	 */
+	int getUdpWorkers();
+
+	/**
+	 * Whether the next hop of a request is located by NAPTR and SRV lookups (RFC 3263), if its
+	 * URI has a host name but no port.
+	 * 
+	 * @see ServerLocator
+	 */
+	boolean useDnsSrv();
+
+	/**
+	 * Time in seconds a resolved host name is cached.
+	 * 
+	 * @see DnsResolver
+	 */
+	int getDnsTtl();
+
+	/**
+	 * Time in seconds a failed host name lookup is cached.
+	 * 
+	 * @see DnsResolver
+	 */
+	int getDnsNegativeTtl();
+
 	/**
 	 * Outbound proxy URI ([sip:]host_addr[:host_port][;transport=proto]). Use 'NONE' for not using
 	 * an outbound proxy (or let it undefined).
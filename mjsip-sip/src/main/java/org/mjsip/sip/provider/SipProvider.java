@@ -27,10 +27,16 @@ package org.mjsip.sip.provider;
 
 import java.io.IOException;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Hashtable;
-import java.util.Map;
-
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.mjsip.net.DnsResolver;
+import org.mjsip.net.SelectorPool;
+import org.mjsip.net.ServerLocator;
+import org.mjsip.net.ServerTarget;
+import org.mjsip.net.SystemHostResolver;
 import org.mjsip.sip.address.GenericURI;
 import org.mjsip.sip.address.NameAddress;
 import org.mjsip.sip.address.SipURI;
@@ -38,6 +44,7 @@ import org.mjsip.sip.address.UnexpectedUriSchemeException;
 import org.mjsip.sip.header.ViaHeader;
 import org.mjsip.sip.message.SipMessage;
 import org.mjsip.sip.message.SipMessageFactory;
+import org.mjsip.sip.message.SipResponses;
 import org.mjsip.time.Scheduler;
 import org.slf4j.LoggerFactory;
 import org.zoolu.net.AddressType;
@@ -125,8 +132,8 @@ public class SipProvider implements SipTransportListener {
 	/** Default transport */
 	String default_transport=null;
 	
-	/** Table of sip listeners (Hashtable<SipId id, SipProviderListener listener>) */
-	private final Map<SipId, SipProviderListener> sip_listeners = new HashMap<>();
+	/** Table of sip listeners (routing SipId to SipProviderListener) */
+	private final SipListenerTable sip_listeners = new SipListenerTable();
 	
 	/** Vector of promiscuous listeners (Vector<SipProviderListener>) */
 	private CopyOnWriteListeners<SipProviderListener, SipMessage> promisquousListeners = new CopyOnWriteListeners<>() {
@@ -150,13 +157,46 @@ public class SipProvider implements SipTransportListener {
 
 	private final SipMessageFactory _sipMessageFactory;
 
+	/** I/O threads for non-blocking transports, created on demand. */
+	private SelectorPool _selectorPool;
+
+	/** Cache of resolved next hop host names. */
+	private DnsResolver _resolver;
+
+	/** Whether {@link #_resolver} was created by this provider and is halted with it. */
+	private boolean _ownResolver;
+
+	/** Keep-alive pings for NAT bindings, created on demand. */
+	private volatile KeepAliveEngine _keepAlive;
+
+	/** RFC 3263 next hop selection, see {@link SipOptions#useDnsSrv()}. */
+	private ServerLocator _serverLocator;
+
 	/**
 	 * Creates a new {@link SipProvider}.
 	 */
 	public SipProvider(SipOptions sipConfig, Scheduler scheduler) {
+		this(sipConfig, scheduler, new DnsResolver(SystemHostResolver.INSTANCE, 1000L * sipConfig.getDnsTtl(),
+				1000L * sipConfig.getDnsNegativeTtl()), true);
+	}
+
+	/**
+	 * Creates a new {@link SipProvider} resolving next hop host names with the given resolver.
+	 *
+	 * <p>
+	 * The resolver is not halted with this provider and can be shared with other providers.
+	 * </p>
+	 */
+	public SipProvider(SipOptions sipConfig, Scheduler scheduler, DnsResolver resolver) {
+		this(sipConfig, scheduler, resolver, false);
+	}
+
+	private SipProvider(SipOptions sipConfig, Scheduler scheduler, DnsResolver resolver, boolean ownResolver) {
 		this._sipConfig = sipConfig;
 		_scheduler = scheduler;
 		_sipMessageFactory = new SipMessageFactory(sipConfig);
+		setResolver(resolver);
+		_ownResolver = ownResolver;
 		initLog();
 		initSipTrasport(sipConfig.getTransportProtocols(),sipConfig.getTransportPorts());
 	}
@@ -181,6 +221,25 @@ public class SipProvider implements SipTransportListener {
 		return _scheduler;
 	}
 
+	/**
+	 * The resolver for next hop host names.
+	 */
+	public DnsResolver resolver() {
+		return _resolver;
+	}
+
+	/**
+	 * Replaces the resolver for next hop host names, e.g. with one using a local name table.
+	 */
+	public void setResolver(DnsResolver resolver) {
+		if (_ownResolver) {
+			_resolver.halt();
+			_ownResolver = false;
+		}
+		_resolver = resolver;
+		_serverLocator = new ServerLocator(resolver, this::isSupportedTransport);
+	}
+
 	/**
 	 * The {@link SipMessageFactory} in use.
 	 */
@@ -215,13 +274,17 @@ public class SipProvider implements SipTransportListener {
 				if (proto.equals(PROTO_UDP)) {
 					if (port == 0)
 						port = _sipConfig.getHostPort();
-					transp = new UdpTransport(port, _sipConfig.getBindingIpAddr());
+					transp = createUdpTransport(port);
 				}
 				else
 				if (proto.equals(PROTO_TCP)) {
 					if (port == 0)
 						port = _sipConfig.getHostPort();
-					transp = new TcpTransport(port, _sipConfig.getBindingIpAddr(), _sipConfig.getMaxConnections());
+					if (_sipConfig.useNioTransport())
+						transp = new NioTransport(PROTO_TCP, port, _sipConfig.getBindingIpAddr(),
+								_sipConfig.getMaxConnections(), selectorPool(), null);
+					else
+						transp = new TcpTransport(port, _sipConfig.getBindingIpAddr(), _sipConfig.getMaxConnections());
 				}
 				else
 				if (proto.equals(PROTO_TLS)) {
@@ -229,6 +292,16 @@ public class SipProvider implements SipTransportListener {
 						port = (_sipConfig.getHostPort() == _sipConfig.getDefaultPort())
 								? _sipConfig.getDefaultTlsPort()
 								: _sipConfig.getHostPort() + 1;
+					if (_sipConfig.useNioTransport()) {
+						boolean trustAll = _sipConfig.isTrustAll();
+						String[] trustedCerts = trustAll ? null : _sipConfig.getTrustedCerts();
+						String trustFolder = trustAll || trustedCerts != null ? null : _sipConfig.getTrustFolder();
+						transp = new NioTransport(PROTO_TLS, port, _sipConfig.getBindingIpAddr(),
+								_sipConfig.getMaxConnections(), selectorPool(),
+								NioTransport.createSSLContext(_sipConfig.getKeyFile(), _sipConfig.getCertFile(),
+										trustedCerts, trustFolder, trustAll));
+					}
+					else
 					if (_sipConfig.isTrustAll())
 						transp = new TlsTransport(port, _sipConfig.getBindingIpAddr(), _sipConfig.getMaxConnections(),
 								_sipConfig.getKeyFile(), _sipConfig.getCertFile());
@@ -279,6 +352,39 @@ public class SipProvider implements SipTransportListener {
 	}
 
 
+	/**
+	 * Creates the UDP transport, either single-threaded or with parallel workers depending on
+	 * {@link SipOptions#getUdpWorkers()}.
+	 */
+	private SipTransport createUdpTransport(int port) throws IOException {
+		int workers = _sipConfig.getUdpWorkers();
+		if (workers > 0) {
+			return new ParallelUdpTransport(port, _sipConfig.getBindingIpAddr(), workers);
+		} else {
+			return new UdpTransport(port, _sipConfig.getBindingIpAddr());
+		}
+	}
+
+	/**
+	 * The I/O threads shared by all non-blocking transports of this provider.
+	 */
+	private SelectorPool selectorPool() throws IOException {
+		if (_selectorPool == null) {
+			_selectorPool = new SelectorPool("sip-io", _sipConfig.getIoThreads());
+		}
+		return _selectorPool;
+	}
+
+	/**
+	 * The engine sending keep-alive pings through this provider, created on first access.
+	 */
+	public synchronized KeepAliveEngine keepAlive() {
+		if (_keepAlive == null) {
+			_keepAlive = new KeepAliveEngine(this);
+		}
+		return _keepAlive;
+	}
+
 	/** Stops the transport services. */ 
 	private void stopSipTrasport() {
 		if (sip_transports!=null)  {
@@ -291,6 +397,19 @@ public class SipProvider implements SipTransportListener {
 			sip_transports.clear();
 			sip_transports=null;
 		}
+		if (_selectorPool != null) {
+			_selectorPool.halt();
+			_selectorPool = null;
+		}
+		synchronized (this) {
+			if (_keepAlive != null) {
+				_keepAlive.halt();
+				_keepAlive = null;
+			}
+		}
+		if (_ownResolver) {
+			_resolver.halt();
+		}
 	}
 
 
@@ -524,7 +643,7 @@ public class SipProvider implements SipTransportListener {
 	  * as to be associated to. It may identify a method, a transaction, or a dialog, or all messages.
 	  * Use MethodId.ANY to capture all messages.
 	  * @param listener is the SipProviderListener that the specified type of messages has to be passed to. */
-	public synchronized void addSelectiveListener(SipId id, SipProviderListener listener) {
+	public void addSelectiveListener(SipId id, SipProviderListener listener) {
 		LOG.debug("Adding SipProviderListener: {}", id);
 		sip_listeners.put(id,listener);   
 	}
@@ -532,7 +651,7 @@ public class SipProvider implements SipTransportListener {
 
 	/** Removes a SipProviderListener.
 	  * @param id specifies the messages that the listener was associated to. */
-	public synchronized void removeSelectiveListener(SipId id) {
+	public void removeSelectiveListener(SipId id) {
 		LOG.debug("Removing SipProviderListener: {}", id);
 		sip_listeners.remove(id);
 	}
@@ -603,6 +722,10 @@ public class SipProvider implements SipTransportListener {
 	  *        end point (socket), such connection is used, otherwise;
 	  * <br> - a new connection is established.
 	  *
+	  * <p>
+	  * If the next hop is not yet resolved, the message is sent when the lookup completes and a
+	  * {@link PendingConnectionId} is returned.
+	  *
 	  * @return Returns a ConnectionId in case of connection-oriented delivery
 	  * (e.g. TCP) or null in case of connection-less delivery (e.g. UDP) */
 	public ConnectionId sendMessage(SipMessage msg) {
@@ -676,23 +799,40 @@ public class SipProvider implements SipTransportListener {
 			else
 				transport = getDefaultTransport();
 
+			if (dest_port <= 0 && maddr == null && _sipConfig.useDnsSrv() && !DnsResolver.isLiteral(dest_addr)) {
+				// RFC 3263 server location.
+				String requested = nexthop_sip_uri.isSecure() || nexthop_sip_uri.hasTransport() ? transport : null;
+				boolean ipv6 = nexthop_sip_uri.isIpv6();
+				String host = dest_addr;
+				CompletableFuture<List<ServerTarget>> located = _serverLocator.locate(host, 0, requested,
+						nexthop_sip_uri.isSecure());
+				if (located.isDone()) {
+					try {
+						return sendRequest(msg, host, located.join(), ipv6);
+					}
+					catch (IOException | CompletionException e) {
+						return failed(host, e);
+					}
+				}
+				// The Via must be complete before the message is handed off, only its transport is
+				// adjusted on a copy when the server is known.
+				prepareVia(msg, transport, ipv6, dest_addr, null, 0);
+				SipMessage copy = new SipMessage(msg);
+				return pending(host, located.thenCompose(targets -> {
+					try {
+						return sent(sendRequest(copy, host, targets, ipv6));
+					}
+					catch (IOException e) {
+						throw new CompletionException(e);
+					}
+				}));
+			}
+
 			// for TLS and DTLS port=port+1
 			if (dest_port > 0 && isSecureTransport(transport))
 				dest_port++;
 
-			// if not present, add via
-			if (!msg.hasViaHeader()) {
-				ViaHeader via = new ViaHeader(transport, getViaAddress(nexthop_sip_uri.isIpv6()), getPort());
-				if (_sipConfig.useRport()) {
-					via.setRport();
-				}
-				via.setBranch(pickBranch());
-				msg.addViaHeader(via);
-			}
-			// update the via according to transport information
-			updateViaHeader(msg, transport, getViaAddress(SipURI.isIPv6(dest_addr)), getPort(), maddr, ttl);
-			
-			LOG.debug("using transport {}", transport);
+			prepareVia(msg, transport, nexthop_sip_uri.isIpv6(), dest_addr, maddr, ttl);
 		}
 		else {
 			// RESPONSES
@@ -713,6 +853,91 @@ public class SipProvider implements SipTransportListener {
 	}
 
 
+	/**
+	 * Sends a request to the servers located for its next hop in order, until sending succeeds.
+	 *
+	 * <p>
+	 * A server that cannot be contacted is reported to the {@link ServerLocator}, so that subsequent
+	 * requests try the next server first.
+	 * </p>
+	 */
+	private ConnectionId sendRequest(SipMessage msg, String host, List<ServerTarget> targets, boolean ipv6)
+			throws IOException {
+		IOException problem = null;
+		for (ServerTarget target : targets) {
+			LOG.debug("using server {} for {}", target, host);
+			String transport = target.getTransport();
+			prepareVia(msg, transport, ipv6, target.getAddress().toString(), null, 0);
+			try {
+				return send(msg, transport, target.getAddress(), target.getPort(), 0);
+			}
+			catch (IOException e) {
+				LOG.info("Cannot send to server {} for {}: {}", target, host, e.getMessage());
+				_serverLocator.markFailed(target);
+				problem = e;
+			}
+		}
+		if (problem == null) {
+			problem = new IOException("No server found for " + host + ".");
+		}
+		throw problem;
+	}
+
+	/**
+	 * Creates the {@link PendingConnectionId} for a message that is sent when the given future
+	 * completes.
+	 */
+	private ConnectionId pending(String host, CompletableFuture<ConnectionId> sent) {
+		sent.whenComplete((connection_id, error) -> {
+			if (error != null) {
+				LOG.warn("Cannot send message to {}, message discarded: {}", host, unwrap(error).getMessage());
+			}
+		});
+		return new PendingConnectionId(host, sent);
+	}
+
+	/**
+	 * Creates a failed {@link PendingConnectionId} for a message that could not be sent.
+	 */
+	private ConnectionId failed(String host, Throwable error) {
+		return pending(host, CompletableFuture.failedFuture(unwrap(error)));
+	}
+
+	/**
+	 * The future completing when a message sent with the given result is handed to its connection.
+	 */
+	private static CompletableFuture<ConnectionId> sent(ConnectionId connection_id) {
+		if (connection_id instanceof PendingConnectionId) {
+			return ((PendingConnectionId) connection_id).result();
+		}
+		return CompletableFuture.completedFuture(connection_id);
+	}
+
+	private static Throwable unwrap(Throwable error) {
+		return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+	}
+
+	/**
+	 * Adds a Via header field to a request, if not present, and updates it according to the
+	 * transport information.
+	 */
+	private void prepareVia(SipMessage msg, String transport, boolean ipv6, String dest_addr, String maddr, int ttl) {
+		// if not present, add via
+		if (!msg.hasViaHeader()) {
+			ViaHeader via = new ViaHeader(transport, getViaAddress(ipv6), getPort());
+			if (_sipConfig.useRport()) {
+				via.setRport();
+			}
+			via.setBranch(pickBranch());
+			msg.addViaHeader(via);
+		}
+		// update the via according to transport information
+		updateViaHeader(msg, transport, getViaAddress(SipURI.isIPv6(dest_addr)), getPort(), maddr, ttl);
+		
+		LOG.debug("using transport {}", transport);
+	}
+
+
 	/** Updates the top Via header field of a SIP message, according to the given transport information.
 	  * @param msg the message to be updated
 	  * @param proto the transport protocol
@@ -808,44 +1033,66 @@ public class SipProvider implements SipTransportListener {
 
 
 	/** Sends the <i>msg</i> message, specifing the transport portocol, nexthop address and port.
-	  * It does the same as method {@link #sendMessage(SipMessage,String,String,int,int)}, but no via address is added (if not already present) in request messages.  */
+	  * It does the same as method {@link #sendMessage(SipMessage,String,String,int,int)}, but no via address is added (if not already present) in request messages.
+	  * <p>
+	  * The destination address is resolved through the {@link #resolver()}. If it is not yet
+	  * cached, a copy of the message is sent when the lookup completes and a {@link PendingConnectionId} is returned. */
 	public ConnectionId sendRawMessage(SipMessage msg, String proto, String dest_addr, int dest_port, int ttl) {
-		try {
-			IpAddress dest_ipaddr = IpAddress.getByName(dest_addr);
-			return sendRawMessage(msg,proto,dest_ipaddr,dest_port,ttl); 
+		CompletableFuture<IpAddress> resolved=_resolver.resolveAsync(dest_addr);
+		if (resolved.isDone()) {
+			IpAddress dest_ipaddr;
+			try {
+				dest_ipaddr=resolved.join();
+			}
+			catch (CompletionException e) {
+				LOG.warn("Cannot resolve {}, message discarded.", dest_addr, unwrap(e));
+				return failed(dest_addr,e);
+			}
+			return sendRawMessage(msg,proto,dest_ipaddr,dest_port,ttl);
 		}
-		catch (Exception e) {
-			LOG.warn("Exception.", e);
-			return null;
-		}     
+		// else
+		SipMessage copy=new SipMessage(msg);
+		return pending(dest_addr,resolved.thenCompose(dest_ipaddr -> {
+			try {
+				return sent(send(copy,proto,dest_ipaddr,dest_port,ttl));
+			}
+			catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}));
 	}
 
 
 	/** Sends the <i>msg</i> message, specifing the transport protocol, nexthop address and port.
 	  * For request messages, no via address is added. */
 	private ConnectionId sendRawMessage(SipMessage msg, String proto, IpAddress dest_ipaddr, int dest_port, int ttl) {
-		if (proto==null) {
-			LOG.warn("No protocol, message discarded.");
+		try {
+			return send(msg,proto,dest_ipaddr,dest_port,ttl);
+		}
+		catch (IOException e) {
+			LOG.warn("Exception", e);
 			return null;
 		}
+	}
+
+
+	/** Sends the <i>msg</i> message through the transport of the given protocol.
+	  * @exception IOException if the message cannot be sent */
+	private ConnectionId send(SipMessage msg, String proto, IpAddress dest_ipaddr, int dest_port, int ttl) throws IOException {
+		if (proto==null) {
+			throw new IOException("No protocol.");
+		}
 		// else
 		SipTransport sip_transport = sip_transports.get(proto.toLowerCase());
 		if (sip_transport==null) {
-			LOG.warn("Unsupported protocol {}, message discarded.", proto);
-			return null;
+			throw new IOException("Unsupported protocol "+proto+".");
 		}
 		// else
-		try {
-			ConnectionId connection_id=sip_transport.sendMessage(msg,dest_ipaddr,dest_port,ttl);
+		ConnectionId connection_id=sip_transport.sendMessage(msg,dest_ipaddr,dest_port,ttl);
 
-			logMessage("Sent message to: ", proto, dest_ipaddr.toString(), dest_port, msg);
+		logMessage("Sent message to: ", proto, dest_ipaddr.toString(), dest_port, msg);
 
-			return connection_id;
-		}
-		catch (IOException e) {
-			LOG.warn("Exception", e);
-			return null;
-		}
+		return connection_id;
 	}
 
 
@@ -936,6 +1183,12 @@ public class SipProvider implements SipTransportListener {
 				return;
 			}
 
+			if (msg.isResponse() && msg.getStatusLine().getCode()==SipResponses.SERVICE_UNAVAILABLE && msg.getTransportProtocol()!=null) {
+				// RFC 3263: subsequent requests try the next server.
+				_serverLocator.markFailed(new ServerTarget(msg.getTransportProtocol().toLowerCase(),
+						IpAddress.getByName(msg.getRemoteAddress()), msg.getRemotePort()));
+			}
+
 			// look for a specific listener
 			SipProviderListener listener=getListener(msg);
 			if (listener != null) {
@@ -952,40 +1205,24 @@ public class SipProvider implements SipTransportListener {
 
 	/** Gets a listener for a given message.
 	 * @param msg the SIP message */
-	private synchronized SipProviderListener getListener(SipMessage msg) {
-		// try to look for a transaction (requests go to transaction servers and response go to transaction clients)
-		SipId transactionKey = SipId.createTransactionId(!msg.isRequest(), msg);
-		SipProviderListener transactionListener = sip_listeners.get(transactionKey);
-		if (transactionListener != null) {
-			LOG.debug("Message passed to transaction: {}", transactionKey);
-			return transactionListener;
-		}
-
-		// try to look for a dialog
-		SipId dialogKey = SipId.createDialogId(msg);
-		SipProviderListener dialogListener = sip_listeners.get(dialogKey);
-		if (dialogListener != null) {
-			LOG.debug("Message passed to dialog: {}", dialogKey);
-			return dialogListener;
-		}
-
-		// try to look for a UAS
-		SipId methodKey = SipId.createMethodId(msg);
-		SipProviderListener methodListener = sip_listeners.get(methodKey);
-		if (methodListener != null) {
-			LOG.debug("Message passed to method: {}", methodKey);
-			return methodListener;
-		}        
-
-		// try to look for a default UA
-		SipProviderListener anyListener = sip_listeners.get(SipId.ANY_METHOD);
-		if (anyListener != null) {
-			LOG.debug("Message passed to ua: {}", SipId.ANY_METHOD);
-			return anyListener;
+	private SipProviderListener getListener(SipMessage msg) {
+		SipProviderListener listener = sip_listeners.lookup(msg);
+		if (listener == null) {
+			LOG.warn("No listener found for message: {}", msg.getFirstLine());
 		}
+		return listener;
+	}
 
-		LOG.warn("No listener found for message: {}", msg.getFirstLine());
-		return null;
+	/**
+	 * The table routing received messages to selective listeners.
+	 * 
+	 * <p>
+	 * Provides per-tier hit and miss counters that show how often messages fall through to the
+	 * method or {@link SipId#ANY_METHOD} listeners.
+	 * </p>
+	 */
+	public SipListenerTable listenerTable() {
+		return sip_listeners;
 	}
 
 	/** From SipTransportListener. When SipTransport terminates. */
@@ -1001,7 +1238,7 @@ public class SipProvider implements SipTransportListener {
 				// Ignore.
 			}
 			try {
-				SipTransport udp = new UdpTransport(_sipConfig.getHostPort(), _sipConfig.getBindingIpAddr());
+				SipTransport udp = createUdpTransport(_sipConfig.getHostPort());
 				setTransport(udp);
 			}
 			catch (Exception e) {
@@ -1011,6 +1248,16 @@ public class SipProvider implements SipTransportListener {
 	}   
 
 
+	/** From SipTransportListener. When a RFC 5626 keep-alive pong is received. */
+	@Override
+	public void onReceivedPong(SipTransport transport, SocketAddress remote_soaddr) {
+		KeepAliveEngine keepAlive = _keepAlive;
+		if (keepAlive != null) {
+			keepAlive.onPong(remote_soaddr);
+		}
+	}
+
+
 	/** When a new incoming transport connection is established. It is called only for CO transport portocols. */ 
 	@Override
 	public void onIncomingTransportConnection(SipTransport transport, SocketAddress remote_soaddr) {
@@ -1022,6 +1269,9 @@ public class SipProvider implements SipTransportListener {
 	@Override
 	public void onTransportConnectionTerminated(SipTransport transport, SocketAddress remote_soaddr, Exception error) {
 		LOG.debug("connection to {}:{} terminated", transport, remote_soaddr);
+		if (error!=null) {
+			_serverLocator.markFailed(new ServerTarget(transport.getProtocol(), remote_soaddr.getAddress(), remote_soaddr.getPort()));
+		}
 	}
 
 
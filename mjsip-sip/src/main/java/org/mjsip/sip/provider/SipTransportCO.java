@@ -26,9 +26,19 @@ package org.mjsip.sip.provider;
 
 
 import java.io.IOException;
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.mjsip.sip.message.SipMessage;
 import org.slf4j.LoggerFactory;
@@ -38,13 +48,41 @@ import org.zoolu.net.SocketAddress;
 
 
 /** SipTransportCO is a generic Connection Oriented (CO) transport service for SIP.
+  * <p>
+  * Active connections are kept in a concurrent table, sending through one connection never waits for
+  * another one. If no connection to the destination of a message exists, a new connection is established
+  * in background and messages to that destination are queued until the connection is established
+  * (at most {@link #MAX_PENDING_MESSAGES}). Blocking connects run on a pool of at most {@link #MAX_CONNECT_THREADS}
+  * threads. When the maximum number of connections is exceeded, the least recently used connection is closed.
   */
 public abstract class SipTransportCO implements SipTransport/*, SipTransportConnectionListener*/ {
 
 	private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(SipTransportCO.class);
 
-	/** Table of active connections (Hashtable of <code>ConnectionId</code>,<code>SipTransportConnection</code>) */
-	protected Hashtable<ConnectionId, SipTransportConnection> connections;
+	/** Maximum number of messages waiting for a connection being established */
+	public static final int MAX_PENDING_MESSAGES=64;
+
+	/** Maximum number of connections that are established concurrently by blocking connects */
+	public static final int MAX_CONNECT_THREADS=8;
+
+	/** Time in seconds after which an idle connect thread terminates */
+	static final int CONNECT_IDLE_TIMEOUT=30;
+
+	/** Table of active connections */
+	protected ConcurrentHashMap<ConnectionId, SipTransportConnection> connections;
+
+	/** Active connections in the order of their last use, the least recently used first.
+	  * Guarded by itself, also while changing {@link #connections}, so that both tables stay consistent. */
+	final LinkedHashMap<ConnectionId, SipTransportConnection> lru=new LinkedHashMap<>(16,0.75f,true);
+
+	/** Table of connections being established */
+	final ConcurrentHashMap<ConnectionId, PendingConnection> pending_connections=new ConcurrentHashMap<>();
+
+	/** Threads establishing connections, if {@link #isNonBlockingConnect()} is false, or running TLS handshake tasks of non-blocking connections */
+	final ThreadPoolExecutor connect_executor;
+
+	/** Number of messages that have been rejected, because too much data was waiting for the destination */
+	final AtomicLong rejected=new AtomicLong();
 
 	/** SipTransport listener */
 	protected SipTransportListener listener=null;
@@ -61,6 +99,9 @@ public abstract class SipTransportCO implements SipTransport/*, SipTransportConn
 	/** Whether changing the Via protocol, sent-by, and port values of sending messages according to the transport connection */
 	boolean force_sent_by=false;   
 
+	/** Whether the transport has been halted */
+	volatile boolean halted=false;
+
 
 
 
@@ -68,7 +109,8 @@ public abstract class SipTransportCO implements SipTransport/*, SipTransportConn
 	public SipTransportCO(int local_port, int nmax_connections)
 			throws IOException {
 		this.nmax_connections=nmax_connections;
-		connections=new Hashtable<>();
+		connections=new ConcurrentHashMap<>();
+		connect_executor=createConnectExecutor();
 		this_conn_listener=new SipTransportConnectionListener() {
 			@Override
 			public void onReceivedMessage(SipTransportConnection conn, SipMessage msg) {
@@ -82,6 +124,20 @@ public abstract class SipTransportCO implements SipTransport/*, SipTransportConn
 	}
 
 
+	/** Creates the pool of threads establishing connections in background. */
+	private ThreadPoolExecutor createConnectExecutor() {
+		AtomicInteger count=new AtomicInteger();
+		ThreadPoolExecutor result=new ThreadPoolExecutor(MAX_CONNECT_THREADS,MAX_CONNECT_THREADS,CONNECT_IDLE_TIMEOUT,TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(),task -> {
+					Thread thread=new Thread(task,"Connect-"+getClass().getSimpleName()+"-"+count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		result.allowCoreThreadTimeOut(true);
+		return result;
+	}
+
+
 	/** Sets manual connection only mode.
 	  * If true, outgoing connections can be only established manually through the {@link #addConnection(IpAddress,int)} or {@link #addConnection(SipTransportConnection)} methods. */ 
 	public void setManualConnectionMode(boolean manual) {
@@ -113,6 +169,13 @@ public abstract class SipTransportCO implements SipTransport/*, SipTransportConn
 	abstract protected SipTransportConnection createTransportConnection(SocketAddress remote_soaddr) throws IOException;
 
 
+	/** Whether {@link #createTransportConnection(SocketAddress)} returns without waiting for the connection to be established.
+	  * Otherwise, connections are created on the connect threads of this transport. */
+	protected boolean isNonBlockingConnect() {
+		return false;
+	}
+
+
 	/** Creates a proper transport connection to the remote end-point. */
 	//abstract protected SipTransportConnection createTransportConnection(int local_port, SocketAddress remote_soaddr)  throws IOException;
 
@@ -131,59 +194,69 @@ public abstract class SipTransportCO implements SipTransport/*, SipTransportConn
 	/** From SipTransport. Sends a SipMessage to the given remote address and port, with a given TTL.
 	  * <p>
 	  * If the transport protocol is Connection Oriented (CO), this method first looks for a proper active
-	  * connection; if no active connection is found, a new connection is opened.
+	  * connection; if no active connection is found, a new connection is opened in background and the
+	  * message is sent as soon as the connection is established. In that case, a {@link PendingConnectionId}
+	  * is returned, that fails as soon as the connection cannot be established.
 	  * <p>
 	  * If the transport protocol is Connection Less (CL) the message is simply sent to the remote point.
 	  * @return Returns the id of the used connection for CO transport, or null for CL transport. */      
 	@Override
 	public ConnectionId sendMessage(SipMessage msg, IpAddress dest_ipaddr, int dest_port, int ttl) throws IOException {
 		ConnectionId connection_id=new ConnectionId(getProtocol(),dest_ipaddr,dest_port);
-		// BEGIN SYNCHRONIZATION
-		synchronized (connections) {
-			
-			if (connections.containsKey(connection_id))
-			try {
-				LOG.debug("already active connection found for connection-id {}", connection_id);
-				SipTransportConnection conn=connections.get(connection_id);
+		while (true) {
+			SipTransportConnection conn=connections.get(connection_id);
+			if (conn!=null) {
 				LOG.debug("sending data through already active connection {}", conn);
-				//conn.sendMessage(msg);
-				sendMessage(conn,msg);
-				return connection_id;
-			}
-			catch (Exception e) {
-				LOG.warn("error using previous connection with connection-id {}", connection_id, e);
-				removeConnection(connection_id);
-			}
-			// no active connection
-			LOG.debug("no active connection for {}", connection_id);
-			if (!manual) {
-				// AUTOMATIC CONN MODE
-				LOG.debug("open " + getProtocol() + " connection to {}:{}", dest_ipaddr, dest_port);
+				touch(connection_id);
 				try {
-					SipTransportConnection conn=addConnection(dest_ipaddr,dest_port);
-					if (conn!=null) {
-						LOG.debug("sending data through connection {}", conn);
-						//conn.sendMessage(msg);
-						sendMessage(conn,msg);
-						return new ConnectionId(conn);
-					}
-					else {
-						LOG.debug("null connection: message has not been sent");
-						return null;
-					}
+					sendMessage(conn,msg);
+					return connection_id;
+				}
+				catch (WriteQueueFullException e) {
+					throw e;
 				}
 				catch (Exception e) {
-					LOG.warn("Exception", e);
-					return null;
+					LOG.warn("error using previous connection with connection-id {}", connection_id, e);
+					removeConnection(connection_id,conn);
 				}
 			}
-			else {
+			// no active connection
+			LOG.debug("no active connection for {}", connection_id);
+			if (manual) {
 				// MANUAL CONN MODE
 				LOG.debug("only manual connections: message has not been sent");
 				return null;
 			}
+			// AUTOMATIC CONN MODE
+			PendingConnection pending=pending_connections.get(connection_id);
+			if (pending==null) {
+				PendingConnection created=new PendingConnection(connection_id,new SocketAddress(dest_ipaddr,dest_port));
+				pending=pending_connections.putIfAbsent(connection_id,created);
+				if (pending==null) {
+					created.offer(msg);
+					LOG.debug("open " + getProtocol() + " connection to {}:{}", dest_ipaddr, dest_port);
+					if (isNonBlockingConnect()) created.run();
+					else connect(created);
+					return created.connectionId();
+				}
+			}
+			if (pending.offer(msg)) {
+				LOG.debug("message queued for connection {} being established", connection_id);
+				return pending.connectionId();
+			}
+			// else: the connection has just been established (or has failed), try again
+		}
+	}
+
+
+	/** Establishes the given connection on a connect thread. */
+	private void connect(PendingConnection pending) {
+		try {
+			connect_executor.execute(pending);
+		}
+		catch (RejectedExecutionException e) {
+			pending.complete(null,new IOException("Transport halted."));
 		}
-		// END SYNCHRONIZATION      
 	}
 
 
@@ -197,20 +270,15 @@ public abstract class SipTransportCO implements SipTransport/*, SipTransportConn
 			throw new IOException("null connection-id");
 		}
 		// else
-		// BEGIN SYNCHRONIZATION
-		synchronized (connections) {
-			
-			if (!connections.containsKey(connection_id)) {
-				throw new IOException("no active connection found matching connection-id "+connection_id);
-			}
-			// else
-			LOG.debug("active connection found matching {}", connection_id);
-			SipTransportConnection conn=connections.get(connection_id);
-			//conn.sendMessage(msg);
-			sendMessage(conn,msg);
-			return conn;
+		SipTransportConnection conn=connections.get(connection_id);
+		if (conn==null) {
+			throw new IOException("no active connection found matching connection-id "+connection_id);
 		}
-		// END SYNCHRONIZATION      
+		// else
+		LOG.debug("active connection found matching {}", connection_id);
+		touch(connection_id);
+		sendMessage(conn,msg);
+		return conn;
 	}
 
 
@@ -222,18 +290,45 @@ public abstract class SipTransportCO implements SipTransport/*, SipTransportConn
 	 */
 	private void sendMessage(SipTransportConnection conn, SipMessage msg) throws IOException  {
 		if (force_sent_by) SipProvider.updateViaHeader(msg,conn.getProtocol(),conn.getLocalAddress().toString(),conn.getLocalPort());
-		conn.sendMessage(msg);
+		try {
+			conn.sendMessage(msg);
+		}
+		catch (WriteQueueFullException e) {
+			rejected.incrementAndGet();
+			throw e;
+		}
+	}
+
+
+	/** Gets the number of connections currently being established. */
+	public int getPendingConnections() {
+		return pending_connections.size();
+	}
+
+
+	/** Gets the number of bytes waiting to be sent on all active connections. */
+	public long getQueuedBytes() {
+		long result=0;
+		for (SipTransportConnection conn : connections.values()) result+=conn.getQueuedBytes();
+		return result;
+	}
+
+
+	/** Gets the number of messages that have been rejected, because too much data was waiting to be sent to the destination. */
+	public long getRejectedMessages() {
+		return rejected.get();
 	}
 
 
 	/** Stops running */
 	@Override
 	public void halt() {
+		halted=true;
+		connect_executor.shutdown();
 		// close all connections
 		if (connections!=null) {
 			LOG.trace("connections are going down");
-			for (Enumeration<SipTransportConnection> e=connections.elements(); e.hasMoreElements(); ) {
-				SipTransportConnection c=e.nextElement();
+			for (SipTransportConnection c : connections.values()) {
 				c.halt();
 			}
 			//connections=null;
@@ -244,15 +339,27 @@ public abstract class SipTransportCO implements SipTransport/*, SipTransportConn
 
 	/** When a new SIP message is received. */
 	protected void processReceivedMessage(SipTransportConnection conn, SipMessage msg) {
+		ConnectionId connection_id=msg.getConnectionId();
+		touch(connection_id!=null? connection_id : new ConnectionId(conn));
 		if (listener!=null) listener.onReceivedMessage(this,msg);
 	}
+
+
+	/** Marks the connection with the given id as most recently used. */
+	private void touch(ConnectionId connection_id) {
+		if (nmax_connections>0) {
+			synchronized (lru) {
+				lru.get(connection_id);
+			}
+		}
+	}
 	
 
 	/** When SipTransportConnection terminates. */
 	protected void processConnectionTerminated(SipTransportConnection conn, Exception error) {
 		//System.out.println("DEBUG: SipTransportCO: connection terminated");
 		ConnectionId connection_id=new ConnectionId(conn);
-		removeConnection(connection_id);
+		removeConnection(connection_id,conn);
 		LOG.debug("connection {} terminated", conn, error);
 		if (listener!=null) listener.onTransportConnectionTerminated(this,new SocketAddress(conn.getRemoteAddress(),conn.getRemotePort()),error);
 	}
@@ -271,67 +378,189 @@ public abstract class SipTransportCO implements SipTransport/*, SipTransportConn
 	}
 
 
-	/** Adds a new transport connection. */ 
+	/** Adds a new transport connection.
+	  * If the maximum number of connections is exceeded, the least recently used connection is closed. */ 
 	public void addConnection(SipTransportConnection conn) {
 		ConnectionId connection_id=new ConnectionId(conn);
-		// BEGIN SYNCHRONIZATION
-		synchronized (connections) {
-			
-			if (connections.containsKey(connection_id)) {
-				// remove the previous connection
-				LOG.info("Adding already established connection, replacing ID: {}", connection_id);
-				SipTransportConnection old_conn=connections.get(connection_id);
-				old_conn.halt();
-				connections.remove(connection_id);
+		conn.setListener(this_conn_listener);
+		SipTransportConnection old_conn;
+		synchronized (lru) {
+			old_conn=connections.put(connection_id,conn);
+			lru.put(connection_id,conn);
+		}
+		if (old_conn!=null && old_conn!=conn) {
+			// remove the previous connection
+			LOG.info("Adding already established connection, replacing ID: {}", connection_id);
+			old_conn.halt();
+		}
+		else
+		if (nmax_connections>0) {
+			SipTransportConnection lru_conn;
+			while ((lru_conn=removeLeastRecentlyUsed(conn))!=null) {
+				LOG.info("Reached maximum number of connections, closing least recently used connection {}.", lru_conn);
+				lru_conn.halt();
+				traceConnections();
 			}
-			else
-			if (connections.size()>=nmax_connections) {
-				// remove the older unused connection
-				LOG.info("Reached maximum number of connections, removing unused connections.");
-				long older_time=System.currentTimeMillis();
-				ConnectionId older_id=null;
-				for (Enumeration<SipTransportConnection> e=connections.elements(); e.hasMoreElements(); ) {
-					SipTransportConnection co= e.nextElement();
-					if (co.getLastTimeMillis()<older_time) older_id=new ConnectionId(co);
-				}
-				if (older_id!=null) removeConnection(older_id);
+		}
+		// DEBUG log:
+		if(LOG.isTraceEnabled()) {
+			LOG.trace("active connenctions:");
+			for (Map.Entry<ConnectionId, SipTransportConnection> e : connections.entrySet() ) {
+				ConnectionId id= e.getKey();
+				LOG.trace("connection-id={}:{}", id, e.getValue());
 			}
-			connections.put(connection_id,conn);
-			conn.setListener(this_conn_listener);
-			//connection_id=new ConnectionId(conn);
-			//conn=(SipTransportConnection)connections.get(connection_id);
-			// DEBUG log:
-			if(LOG.isTraceEnabled()) {
-				LOG.trace("active connenctions:");
-				for (Map.Entry<ConnectionId, SipTransportConnection> e : connections.entrySet() ) {
-					ConnectionId id= e.getKey();
-					LOG.trace("connection-id={}:{}", id, e.getValue());
-				}
+		}
+	}
+
+
+	/** Removes the connection that has not been used for the longest time, if the maximum number of connections is exceeded.
+	  * The eldest entries of the {@link #lru} table are checked, so that this takes constant time.
+	  * @param except connection that must not be removed
+	  * @return the removed connection, or null if none has been removed */ 
+	private SipTransportConnection removeLeastRecentlyUsed(SipTransportConnection except) {
+		synchronized (lru) {
+			if (connections.size()<=nmax_connections) return null;
+			// else
+			for (Iterator<Map.Entry<ConnectionId, SipTransportConnection>> it=lru.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<ConnectionId, SipTransportConnection> e=it.next();
+				SipTransportConnection co=e.getValue();
+				if (co==except) continue;
+				// else
+				it.remove();
+				connections.remove(e.getKey(),co);
+				return co;
 			}
+			return null;
 		}
-		// END SYNCHRONIZATION      
 	}
 
  
 	/** Removes a transport connection */ 
 	public void removeConnection(ConnectionId connection_id) {
-		// BEGIN SYNCHRONIZATION
-		synchronized (connections) {
-			
-			if (connections.containsKey(connection_id)) {
-				SipTransportConnection conn=connections.get(connection_id);
-				connections.remove(connection_id);
-				conn.halt();
-				// DEBUG log:
-				if(LOG.isTraceEnabled()) {
-					LOG.trace("active connenctions:");
-					for (Enumeration<SipTransportConnection> e=connections.elements(); e.hasMoreElements(); ) {
-						SipTransportConnection co= e.nextElement();
-						LOG.trace("conn {}", co);
+		SipTransportConnection conn;
+		synchronized (lru) {
+			conn=connections.remove(connection_id);
+			lru.remove(connection_id);
+		}
+		if (conn!=null) {
+			conn.halt();
+			traceConnections();
+		}
+	}
+
+
+	/** Removes the given transport connection, if it is still registered for the given connection-id. */ 
+	private void removeConnection(ConnectionId connection_id, SipTransportConnection conn) {
+		boolean removed;
+		synchronized (lru) {
+			removed=connections.remove(connection_id,conn);
+			if (removed) lru.remove(connection_id);
+		}
+		if (removed) {
+			conn.halt();
+			traceConnections();
+		}
+	}
+
+
+	private void traceConnections() {
+		// DEBUG log:
+		if(LOG.isTraceEnabled()) {
+			LOG.trace("active connenctions:");
+			for (SipTransportConnection co : connections.values()) {
+				LOG.trace("conn {}", co);
+			}
+		}
+	}
+
+
+	/** Connection to a destination that is being established, with the messages waiting for it. */
+	final class PendingConnection implements Runnable {
+
+		final ConnectionId connection_id;
+
+		final SocketAddress remote_soaddr;
+
+		final List<SipMessage> messages=new ArrayList<>();
+
+		/** Completes with the connection-id when the queued messages have been sent, or fails if the connection cannot be established. */
+		final CompletableFuture<ConnectionId> result=new CompletableFuture<>();
+
+		boolean done=false;
+
+		PendingConnection(ConnectionId connection_id, SocketAddress remote_soaddr) {
+			this.connection_id=connection_id;
+			this.remote_soaddr=remote_soaddr;
+		}
+
+		/** Queues a message.
+		  * @return false if the connection is no longer pending
+		  * @exception WriteQueueFullException if too many messages are waiting */
+		synchronized boolean offer(SipMessage msg) throws WriteQueueFullException {
+			if (done) return false;
+			if (messages.size()>=MAX_PENDING_MESSAGES) {
+				rejected.incrementAndGet();
+				throw new WriteQueueFullException("Too many messages waiting for connection "+connection_id);
+			}
+			messages.add(msg);
+			return true;
+		}
+
+		/** The id to return for a message queued for this connection.
+		  * @return the connection-id, if the connection has already been established,
+		  * otherwise a {@link PendingConnectionId} completing with the connection. */
+		ConnectionId connectionId() {
+			if (result.isDone() && !result.isCompletedExceptionally()) return connection_id;
+			// else
+			return new PendingConnectionId(remote_soaddr.toString(),result);
+		}
+
+		/** Establishes the connection and sends the queued messages. */
+		@Override
+		public void run() {
+			SipTransportConnection conn=null;
+			Exception error=null;
+			try {
+				conn=createTransportConnection(remote_soaddr);
+				if (conn==null) error=new IOException("No connection created.");
+			}
+			catch (Exception e) {
+				error=e;
+			}
+			complete(conn,error);
+		}
+
+		/** Sends the queued messages through the given connection, or fails them with the given error. */
+		void complete(SipTransportConnection conn, Exception error) {
+			synchronized (this) {
+				if (conn!=null) {
+					LOG.debug("connection {} opened", conn);
+					// send queued messages before other messages can use the connection to keep the order
+					for (SipMessage msg : messages) {
+						try {
+							sendMessage(conn,msg);
+						}
+						catch (IOException e) {
+							LOG.warn("Sending queued message through connection {} failed: {}", conn, e.getMessage());
+						}
 					}
+					if (halted) conn.halt();
+					else addConnection(conn);
 				}
+				messages.clear();
+				done=true;
+			}
+			pending_connections.remove(connection_id,this);
+			if (conn==null) {
+				LOG.info("Cannot open {} connection to {}: {}", getProtocol(), remote_soaddr, error.getMessage());
+				result.completeExceptionally(error);
+				SipTransportListener listener=SipTransportCO.this.listener;
+				if (listener!=null) listener.onTransportConnectionTerminated(SipTransportCO.this,remote_soaddr,error);
+			}
+			else {
+				result.complete(connection_id);
 			}
 		}
-		// END SYNCHRONIZATION
 	}
-}
\ No newline at end of file
+
+}
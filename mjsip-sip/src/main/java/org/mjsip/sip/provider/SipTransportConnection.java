@@ -36,6 +36,11 @@ import org.zoolu.net.IpAddress;
   */
 public interface SipTransportConnection {
 	
+	/** Maximum number of bytes that may be waiting to be sent on a connection.
+	  * A message exceeding this limit is rejected with a {@link WriteQueueFullException},
+	  * unless the queue is empty. */
+	public static final int MAX_QUEUED_BYTES=256*1024;
+	
 	/** Sets the SipTransportConnection listener. */      
 	public void setListener(SipTransportConnectionListener listener);
 
@@ -63,4 +68,19 @@ public interface SipTransportConnection {
 	/** Stops and closes the connection. */
 	public void halt();
 
+	/** Gets the number of bytes waiting to be sent. */
+	public default long getQueuedBytes() {
+		return 0;
+	}
+
+	/** Gets the maximum number of bytes that have been waiting to be sent at the same time. */
+	public default long getMaxQueuedBytes() {
+		return 0;
+	}
+
+	/** Gets the number of messages rejected, because the send queue was full. */
+	public default long getRejectedMessages() {
+		return 0;
+	}
+
 }
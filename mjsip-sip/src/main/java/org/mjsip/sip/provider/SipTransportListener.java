@@ -45,4 +45,9 @@ public interface SipTransportListener {
 
 	/** When SipTransport terminates. */
 	public void onTransportTerminated(SipTransport transport, Exception error);
+
+	/** When a RFC 5626 CRLF keep-alive pong is received. */
+	public default void onReceivedPong(SipTransport transport, SocketAddress remote_soaddr) {
+		// Ignore.
+	}
 }
@@ -26,9 +26,13 @@ package org.mjsip.sip.provider;
 
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.mjsip.sip.message.SipMessage;
-import org.mjsip.sip.message.SipMessageBuffer;
+import org.mjsip.sip.message.MalformedSipMessageException;
+import org.mjsip.sip.message.SipFrameDecoder;
+import org.mjsip.sip.message.SipMessageEncoder;
 import org.slf4j.LoggerFactory;
 import org.zoolu.net.IpAddress;
 import org.zoolu.net.TcpConnection;
@@ -38,6 +42,12 @@ import org.zoolu.net.TcpSocket;
 
 
 /** TcpTransportConnection provides a TCP trasport service for SIP.
+  * <p>
+  * Messages are encoded on the sending thread and copied to the send buffer of the connection.
+  * The first sender finding no write in progress becomes the writer: It swaps the send buffer with
+  * a second buffer and writes it to the socket, until no more data is waiting. Other senders only
+  * append to the send buffer and return, so that at most one sender blocks on the socket, no extra
+  * thread is needed per connection, and no buffer is allocated per message.
   */
 public class TcpTransportConnection implements SipTransportConnection/*, TcpConnectionListener*/ {
 	
@@ -55,12 +65,39 @@ public class TcpTransportConnection implements SipTransportConnection/*, TcpConn
 	/** The last time that has been used (in milliseconds) */
 	long last_time;
 	
-	/** Receiver buffer. */
-	SipMessageBuffer buffer=new SipMessageBuffer();
+	/** Decoder splitting the received data into messages. */
+	SipFrameDecoder decoder=new SipFrameDecoder();
 	  
 	/** SipTransportConnection listener */
 	SipTransportConnectionListener listener;   
 
+	/** Initial size of the send buffers */
+	static final int BUFFER_SIZE=8*1024;
+
+	/** Lock protecting {@link #send_buffer}, {@link #writing}, and {@link #closed} */
+	final Object send_lock=new Object();
+
+	/** Encoded messages waiting to be sent, guarded by {@link #send_lock} */
+	ByteBuffer send_buffer=ByteBuffer.allocate(BUFFER_SIZE);
+
+	/** Buffer currently written to the socket, only accessed by the current writer */
+	ByteBuffer write_buffer=ByteBuffer.allocate(BUFFER_SIZE);
+
+	/** Whether the connection has terminated, guarded by {@link #send_lock} */
+	boolean closed=false;
+
+	/** Whether a sender is writing to the socket, guarded by {@link #send_lock} */
+	boolean writing=false;
+
+	/** Number of bytes in the send buffers. */
+	final AtomicLong queued_bytes=new AtomicLong();
+
+	/** Maximum number of bytes that have been in the send queue. */
+	final AtomicLong max_queued_bytes=new AtomicLong();
+
+	/** Number of messages rejected due to a full send queue. */
+	final AtomicLong rejected=new AtomicLong();
+
 
 
 	/** Creates a new TcpTransportConnection. */ 
@@ -160,23 +197,111 @@ public class TcpTransportConnection implements SipTransportConnection/*, TcpConn
 	}
 
 
-	/** Sends a SipMessage. */      
+	/** Sends a SipMessage.
+	  * <p>
+	  * The message is appended to the send buffer. If no other sender is writing, the calling thread
+	  * writes the send buffer to the socket, otherwise the current writer also writes this message.
+	  * If more than {@link SipTransportConnection#MAX_QUEUED_BYTES} are waiting to be sent, the message
+	  * is rejected with a {@link WriteQueueFullException}. */      
 	@Override
 	public void sendMessage(SipMessage msg) throws IOException {
 		if (tcp_conn!=null) {
 			last_time=System.currentTimeMillis();
-			byte[] data=msg.getBytes();
-			tcp_conn.send(data);
-			
-			// DEBUG:
-			//int offset=data.length/2;
-			//tcp_conn.send(data,0,offset);
-			//try { Thread.sleep(20); } catch (Exception e) {}
-			//tcp_conn.send(data,offset,data.length-offset);
+			SipMessageEncoder encoder=SipMessageEncoder.local().encode(msg);
+			int length=encoder.getLength();
+			synchronized (send_lock) {
+				if (closed) throw new IOException("Connection closed: "+this);
+				// else
+				long queued=queued_bytes.addAndGet(length);
+				if (queued>MAX_QUEUED_BYTES && queued>length) {
+					queued_bytes.addAndGet(-length);
+					rejected.incrementAndGet();
+					throw new WriteQueueFullException("Send queue full: "+this);
+				}
+				if (send_buffer.remaining()<length) {
+					ByteBuffer enlarged=ByteBuffer.allocate(Math.max(send_buffer.position()+length,2*send_buffer.capacity()));
+					send_buffer.flip();
+					enlarged.put(send_buffer);
+					send_buffer=enlarged;
+				}
+				send_buffer.put(encoder.getBuffer(),0,length);
+				max_queued_bytes.accumulateAndGet(queued,Math::max);
+				if (writing) return;
+				// else
+				writing=true;
+			}
+			write();
 		}
 	}
 
 
+	/** Writes the send buffer to the socket, until no more data is waiting.
+	  * Must only be called by the sender that has set {@link #writing}. */
+	private void write() throws IOException {
+		boolean done=false;
+		try {
+			while (true) {
+				synchronized (send_lock) {
+					if (send_buffer.position()==0 || closed) {
+						writing=false;
+						done=true;
+						return;
+					}
+					// else
+					ByteBuffer full=send_buffer;
+					send_buffer=write_buffer;
+					write_buffer=full;
+				}
+				int length=write_buffer.position();
+				try {
+					TcpConnection conn=tcp_conn;
+					if (conn!=null) conn.send(write_buffer.array(),0,length);
+				}
+				finally {
+					queued_bytes.addAndGet(-length);
+				}
+				if (write_buffer.capacity()>BUFFER_SIZE*8) write_buffer=ByteBuffer.allocate(BUFFER_SIZE);
+				else write_buffer.clear();
+			}
+		}
+		catch (IOException e) {
+			LOG.warn("Sending through connection {} failed, closing: {}", this, e.getMessage());
+			TcpConnection conn=tcp_conn;
+			if (conn!=null) {
+				// closing the socket terminates the receiver of the connection reporting the error
+				conn.halt();
+				try { conn.getSocket().close(); } catch (Exception e2) {}
+			}
+			throw e;
+		}
+		finally {
+			if (!done) {
+				synchronized (send_lock) {
+					writing=false;
+				}
+			}
+		}
+	}
+
+
+	@Override
+	public long getQueuedBytes() {
+		return queued_bytes.get();
+	}
+
+
+	@Override
+	public long getMaxQueuedBytes() {
+		return max_queued_bytes.get();
+	}
+
+
+	@Override
+	public long getRejectedMessages() {
+		return rejected.get();
+	}
+
+
 	/** Stops running. */
 	@Override
 	public void halt() {
@@ -201,23 +326,33 @@ public class TcpTransportConnection implements SipTransportConnection/*, TcpConn
 		LOG.debug("Received {} bytes of data.", len);
 		last_time=System.currentTimeMillis();
 
-		buffer.append(data,0,len);
+		decoder.append(data,0,len);
 
 		// try to get one or more SIP messages from the buffer    
-		SipMessage msg;
-		while ((msg=getSipMessage())!=null) {
-			//System.out.println("DEBUG: TcpTransportConnection: onReceivedData(): msg len: "+msg.getLength());
-			msg.setRemoteAddress(tcp_conn.getRemoteAddress().toString());
-			msg.setRemotePort(tcp_conn.getRemotePort());
-			msg.setTransportProtocol(getProtocol());
-			msg.setConnectionId(connection_id);
-			if (listener!=null) listener.onReceivedMessage(this,msg);
-		}     
+		try {
+			SipMessage msg;
+			while ((msg=decoder.next())!=null) {
+				msg.setRemoteAddress(tcp_conn.getRemoteAddress().toString());
+				msg.setRemotePort(tcp_conn.getRemotePort());
+				msg.setTransportProtocol(getProtocol());
+				msg.setConnectionId(connection_id);
+				if (listener!=null) listener.onReceivedMessage(this,msg);
+			}
+		}
+		catch (MalformedSipMessageException e) {
+			LOG.warn("Invalid data received, closing connection {}: {}", this, e.getMessage());
+			tcp_conn.halt();
+		}
 	}
 
 
 	/** When TcpConnection terminates. */
 	private void processConnectionTerminated(TcpConnection tcp_conn, Exception error)   {
+		synchronized (send_lock) {
+			closed=true;
+			queued_bytes.addAndGet(-send_buffer.position());
+			send_buffer.clear();
+		}
 		if (listener!=null) listener.onConnectionTerminated(this,error);
 		TcpSocket socket=tcp_conn.getSocket();
 		if (socket!=null) try { socket.close(); } catch (Exception e) {}
@@ -225,16 +360,4 @@ public class TcpTransportConnection implements SipTransportConnection/*, TcpConn
 		this.listener=null;
 	}
 
-
-	/** Tries to get a SIP message from the receiver buffer. */
-	private SipMessage getSipMessage()   {
-		SipMessage msg=null;
-		// skip possible leading CRLF
-		byte b;
-		while (buffer.getLength()>0 && ((b=buffer.byteAt(0))=='\r' || b=='\n')) buffer.skip(1);
-		// try to get a SIP message
-		try {  msg=buffer.parseSipMessage();  } catch (Exception e) {}
-		return msg;
-	}
-
 }
@@ -25,7 +25,9 @@ package org.mjsip.sip.provider;
 import java.io.IOException;
 
 import org.mjsip.sip.message.SipMessage;
+import org.mjsip.sip.message.SipMessageEncoder;
 import org.zoolu.net.IpAddress;
+import org.zoolu.net.SocketAddress;
 import org.zoolu.net.UdpPacket;
 import org.zoolu.net.UdpProvider;
 import org.zoolu.net.UdpProviderListener;
@@ -42,6 +44,15 @@ public class UdpTransport implements SipTransport/*, UdpProviderListener*/ {
 	/** Pong data */
 	static final byte[] PONG=new byte[]{0x0d,0x0a}; // CRCF (RFC5626 PONG)
 
+	/** Datagram type of a SIP message */
+	static final int DATAGRAM_MESSAGE=0;
+
+	/** Datagram type of a keep-alive ping, which must be answered with a pong */
+	static final int DATAGRAM_PING=1;
+
+	/** Datagram type of a keep-alive pong */
+	static final int DATAGRAM_PONG=2;
+
 	/** UDP protocol type */
 	public static final String PROTO_UDP="udp";
 
@@ -128,8 +139,9 @@ public class UdpTransport implements SipTransport/*, UdpProviderListener*/ {
 	@Override
 	public ConnectionId sendMessage(SipMessage msg, IpAddress dest_ipaddr, int dest_port, int ttl) throws IOException {
 		if (udp_provider!=null) {
-			byte[] data=msg.getBytes();
-			UdpPacket packet=new UdpPacket(data,data.length);
+			// the packet is sent synchronously, the encoder buffer can be reused afterwards
+			SipMessageEncoder encoder=SipMessageEncoder.local().encode(msg);
+			UdpPacket packet=new UdpPacket(encoder.getBuffer(),0,encoder.getLength());
 			// if (ttl>0 && multicast_address) do something?
 			packet.setIpAddress(dest_ipaddr);
 			packet.setPort(dest_port);
@@ -154,20 +166,35 @@ public class UdpTransport implements SipTransport/*, UdpProviderListener*/ {
 	}
 
 
+	/** Classifies a received datagram (RFC 5626, section 3.5.1).
+	  * Only a datagram consisting of exactly a double CRLF is a ping, and only a datagram consisting of exactly a single CRLF is a pong.
+	  * @return {@link #DATAGRAM_PING}, {@link #DATAGRAM_PONG}, or {@link #DATAGRAM_MESSAGE} for anything else */
+	static int datagramType(byte[] buf, int off, int len) {
+		if (ByteUtils.match(buf,off,len,PING,0,PING.length)) return DATAGRAM_PING;
+		// else
+		if (ByteUtils.match(buf,off,len,PONG,0,PONG.length)) return DATAGRAM_PONG;
+		// else
+		return DATAGRAM_MESSAGE;
+	}
+
+
 	//************************* Callback methods *************************
 	
 	/** When a new UDP datagram is received. */
 	private void processReceivedPacket(UdpProvider udp, UdpPacket packet) {
-		if (ByteUtils.match(packet.getData(),packet.getOffset(),packet.getLength(),PING,0,PING.length)) {
+		int type=datagramType(packet.getData(),packet.getOffset(),packet.getLength());
+		if (type==DATAGRAM_PING) {
 			if (udp_provider!=null)
 			try {  udp_provider.send(new UdpPacket(PONG,packet.getIpAddress(),packet.getPort()));  } catch (Exception e) {};
 		}
 		else
-		if (ByteUtils.match(packet.getData(),packet.getOffset(),packet.getLength(),PONG,0,PONG.length)) {
-			// do something..
+		if (type==DATAGRAM_PONG) {
+			if (listener!=null) listener.onReceivedPong(this,new SocketAddress(packet.getIpAddress(),packet.getPort()));
 		}
 		else {
-			SipMessage msg=new SipMessage(packet.getData(),packet.getOffset(),packet.getLength());
+			// the message references its data, the receive buffer is reused by the UdpProvider
+			byte[] data=ByteUtils.copy(packet.getData(),packet.getOffset(),packet.getLength());
+			SipMessage msg=new SipMessage(data,0,data.length);
 			msg.setRemoteAddress(packet.getIpAddress().toString());
 			msg.setRemotePort(packet.getPort());
 			msg.setTransportProtocol(PROTO_UDP);
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.provider;
+
+import java.io.IOException;
+
+/**
+ * Signals that a message was rejected, because too much data is waiting to be sent to the same
+ * destination.
+ *
+ * <p>
+ * In contrast to other {@link IOException}s, the connection is still usable.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class WriteQueueFullException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a {@link WriteQueueFullException}.
+	 *
+	 * @param message
+	 *        The error message.
+	 */
+	public WriteQueueFullException(String message) {
+		super(message);
+	}
+
+}
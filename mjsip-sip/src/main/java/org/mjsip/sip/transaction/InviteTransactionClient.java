@@ -28,6 +28,8 @@ package org.mjsip.sip.transaction;
 import java.util.concurrent.ScheduledFuture;
 
 import org.mjsip.sip.message.SipMessage;
+import org.mjsip.sip.provider.ConnectionId;
+import org.mjsip.sip.provider.PendingConnectionId;
 import org.mjsip.sip.provider.SipId;
 import org.mjsip.sip.provider.SipProvider;
 import org.slf4j.LoggerFactory;
@@ -85,8 +87,7 @@ public class InviteTransactionClient extends TransactionClient {
 		transaction_to = sip_provider.scheduler().schedule(sip_provider.sipConfig().getTransactionTimeout(),
 				this::onTransaction);
 		sip_provider.addSelectiveListener(transaction_id,this); 
-		connection_id=sip_provider.sendMessage(request);
-		scheduleRetransmission(sip_provider.sipConfig().getRetransmissionTimeout());
+		sendRequest();
 	}  
 		
 	/** Method derived from interface SipListener.
@@ -98,7 +99,7 @@ public class InviteTransactionClient extends TransactionClient {
 			int code=msg.getStatusLine().getCode();
 			if (code>=100 && code<200 && (statusIs(STATE_TRYING) || statusIs(STATE_PROCEEDING))) {
 				if (statusIs(STATE_TRYING)) {
-					retransmission_to.cancel(false);
+					if (retransmission_to!=null) retransmission_to.cancel(false);
 					transaction_to.cancel(false);
 					changeStatus(STATE_PROCEEDING);
 				}
@@ -107,11 +108,13 @@ public class InviteTransactionClient extends TransactionClient {
 			}
 			if (code>=300 && code<700 && (statusIs(STATE_TRYING) || statusIs(STATE_PROCEEDING) || statusIs(STATE_COMPLETED))) {
 				if (statusIs(STATE_TRYING) || statusIs(STATE_PROCEEDING)) {
-					retransmission_to.cancel(false);
+					if (retransmission_to!=null) retransmission_to.cancel(false);
 					transaction_to.cancel(false);
 					ack=sip_provider.messageFactory().createNon2xxAckRequest(request,msg);
 					changeStatus(STATE_COMPLETED);
-					connection_id=sip_provider.sendMessage(ack);
+					ConnectionId ack_id=sip_provider.sendMessage(ack);
+					// the ACK uses the transport of the INVITE, keep it, if the ACK is sent later
+					if (!(ack_id instanceof PendingConnectionId)) connection_id=ack_id;
 					if (invite_tc_listener!=null) invite_tc_listener.onTransFailureResponse(this,msg);
 					invite_tc_listener=null;
 					if (connection_id==null) {
@@ -151,18 +154,24 @@ public class InviteTransactionClient extends TransactionClient {
 		invite_tc_listener=null;
 	}
 
-	private void onTransmission() {
-		LOG.info("Retransmission timeout expired");
+	@Override
+	protected void onRetransmissionTimeout() {
 		// retransmission only in case of unreliable transport 
 		if (connection_id==null) {
-			sip_provider.sendMessage(request);
-
-			scheduleRetransmission(sip_provider.sipConfig().getRetransmissionTimeout());
+			super.onRetransmissionTimeout();
 		}
 		else
 			LOG.trace("No retransmissions for reliable transport ({})", connection_id);
 	}
 
+	@Override
+	protected void onTransportError(Throwable error) {
+		LOG.info("Transport error for transaction {}: {}", transaction_id, error.getMessage());
+		doTerminate();
+		if (invite_tc_listener!=null) invite_tc_listener.onTransFailureResponse(this,createTransportErrorResponse());
+		invite_tc_listener=null;
+	}
+
 	/** Terminates the transaction. */
 	@Override
 	public void terminate() {
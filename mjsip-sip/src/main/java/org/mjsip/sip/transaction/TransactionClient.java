@@ -28,6 +28,8 @@ package org.mjsip.sip.transaction;
 import java.util.concurrent.ScheduledFuture;
 
 import org.mjsip.sip.message.SipMessage;
+import org.mjsip.sip.message.SipResponses;
+import org.mjsip.sip.provider.PendingConnectionId;
 import org.mjsip.sip.provider.SipId;
 import org.mjsip.sip.provider.SipProvider;
 import org.slf4j.LoggerFactory;
@@ -89,14 +91,63 @@ public class TransactionClient extends Transaction {
 		startTransactionTimeout();
 
 		sip_provider.addSelectiveListener(transaction_id,this);
+		sendRequest();
+	}
+
+	/** Sends the request and starts retransmissions, as soon as the transport is known to be unreliable. */
+	final void sendRequest() {
 		connection_id=sip_provider.sendMessage(request);
+		if (connection_id instanceof PendingConnectionId) {
+			// The next hop is being resolved.
+			PendingConnectionId pending=(PendingConnectionId)connection_id;
+			pending.result().whenComplete((sent_id, error) -> sip_provider.scheduler().execute(() -> {
+				if (connection_id!=pending || statusIs(STATE_TERMINATED)) return;
+				// else
+				if (error!=null) {
+					onTransportError(error);
+				}
+				else {
+					connection_id=sent_id;
+					startRetransmission();
+				}
+			}));
+		}
+		else {
+			startRetransmission();
+		}
+	}
 
+	private void startRetransmission() {
 		// Retransmission only for unreliable transport
 		if (connection_id == null) {
 			LOG.debug("Starting retransmission timeout.");
 			scheduleRetransmission(sip_provider.sipConfig().getRetransmissionTimeout());
 		}
 	}
+
+	/**
+	 * Event handler for a request that could not be sent.
+	 * 
+	 * <p>
+	 * The transport error is reported as 503 (Service Unavailable) response, see RFC 3261, Section
+	 * 8.1.3.1.
+	 * </p>
+	 */
+	protected void onTransportError(Throwable error) {
+		LOG.info("Transport error for transaction {}: {}", transaction_id, error.getMessage());
+		doTerminate();
+
+		if (transaction_listener != null) {
+			transaction_listener.onTransFailureResponse(this, createTransportErrorResponse());
+			transaction_listener = null;
+		}
+	}
+
+	/** Creates the response reported for a transport error. */
+	final SipMessage createTransportErrorResponse() {
+		return sip_provider.messageFactory().createResponse(request, SipResponses.SERVICE_UNAVAILABLE,
+				SipResponses.reasonOf(SipResponses.SERVICE_UNAVAILABLE), null);
+	}
 		
 	/** Terminates the transaction. */
 	@Override
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.media;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.mjsip.rtp.RtpPacket;
+
+/**
+ * Test case for {@link JitterBuffer}.
+ */
+@SuppressWarnings("javadoc")
+class TestJitterBuffer {
+
+	private final JitterBuffer _buffer = new JitterBuffer(16, 8000, 20, 200);
+
+	@Test
+	void testReorder() {
+		assertTrue(_buffer.put(packet(1), 0));
+		assertEquals(JitterBuffer.NONE, _buffer.poll(0));
+
+		assertTrue(_buffer.put(packet(3), 5));
+		assertTrue(_buffer.put(packet(2), 10));
+		assertEquals(3, _buffer.getDepth());
+
+		assertPlay(1, 20);
+		// Packet 2 is due 20ms after packet 1.
+		assertEquals(JitterBuffer.NONE, _buffer.poll(20));
+		assertPlay(2, 100);
+		assertPlay(3, 100);
+		assertEquals(JitterBuffer.NONE, _buffer.poll(100));
+		assertEquals(0, _buffer.getDepth());
+	}
+
+	@Test
+	void testConcealLoss() {
+		_buffer.put(packet(1), 0);
+		_buffer.put(packet(2), 20);
+		_buffer.put(packet(4), 60);
+
+		assertPlay(1, 200);
+		assertPlay(2, 200);
+		assertEquals(JitterBuffer.LOST, _buffer.poll(200));
+		assertEquals(3, _buffer.getSequenceNumber());
+		assertEquals(3 * 160, _buffer.getTimestamp());
+		assertEquals(160, _buffer.getTimestampStep());
+		assertPlay(4, 200);
+		assertEquals(1, _buffer.getConcealments());
+	}
+
+	@Test
+	void testNoConcealmentBeforeDue() {
+		_buffer.put(packet(1), 0);
+		_buffer.put(packet(3), 40);
+
+		assertPlay(1, 20);
+		// Packet 2 would be played at 40.
+		assertEquals(JitterBuffer.NONE, _buffer.poll(39));
+		assertEquals(JitterBuffer.LOST, _buffer.poll(40));
+	}
+
+	@Test
+	void testLateDrop() {
+		_buffer.put(packet(1), 0);
+		_buffer.put(packet(2), 20);
+		assertPlay(1, 100);
+		assertPlay(2, 100);
+
+		int delay = _buffer.getDelay();
+		assertFalse(_buffer.put(packet(2), 110));
+		assertFalse(_buffer.put(packet(1), 110));
+		assertEquals(2, _buffer.getLateDrops());
+		assertTrue(_buffer.getDelay() > delay);
+	}
+
+	@Test
+	void testDuplicate() {
+		assertTrue(_buffer.put(packet(5), 0));
+		assertFalse(_buffer.put(packet(5), 1));
+		assertEquals(1, _buffer.getDepth());
+	}
+
+	@Test
+	void testSequenceWrap() {
+		_buffer.put(packet(0xffff), 0);
+		_buffer.put(packet(1), 5);
+		_buffer.put(packet(0), 10);
+
+		assertPlay(0xffff, 1000);
+		assertPlay(0, 1000);
+		assertPlay(1, 1000);
+	}
+
+	@Test
+	void testResync() {
+		_buffer.put(packet(10), 0);
+		_buffer.put(packet(11), 20);
+		assertTrue(_buffer.put(packet(40000), 40));
+		assertEquals(1, _buffer.getResyncs());
+		assertEquals(1, _buffer.getDepth());
+		assertPlay(40000, 1000);
+	}
+
+	@Test
+	void testAdaptDelay() {
+		int sqn = 0;
+		long time = 0;
+		for (int n = 0; n < 200; n++) {
+			// Alternating early and late arrival by 30ms.
+			long arrival = time + ((n & 1) == 0 ? 0 : 30);
+			_buffer.put(packet(sqn++), arrival);
+			while (_buffer.poll(arrival) != JitterBuffer.NONE) {
+				// Play out.
+			}
+			time += 20;
+		}
+		assertTrue(_buffer.getJitter() >= 20, "Jitter: " + _buffer.getJitter());
+		assertTrue(_buffer.getDelay() > 20, "Delay: " + _buffer.getDelay());
+		assertTrue(_buffer.getDelay() <= 200, "Delay: " + _buffer.getDelay());
+	}
+
+	private void assertPlay(int sqn, long now) {
+		assertEquals(JitterBuffer.PLAY, _buffer.poll(now));
+		assertEquals(sqn, _buffer.getSequenceNumber());
+		assertEquals(sqn, _buffer.getPacket().getSequenceNumber());
+	}
+
+	private static RtpPacket packet(int sqn) {
+		byte[] payload = new byte[160];
+		return new RtpPacket(0, 4711, sqn, (sqn * 160L) & 0xffffffffL, payload, 0, payload.length);
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.media;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test case for {@link RtpMediaEngine}.
+ */
+@SuppressWarnings("javadoc")
+class TestRtpMediaEngine {
+
+	private static final int PACKET_SIZE = 160;
+
+	private static final int PACKETS = 30;
+
+	private ExecutorService _executor;
+
+	private RtpMediaEngine _engine;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		_executor = Executors.newCachedThreadPool();
+		_engine = new RtpMediaEngine(2, 5);
+	}
+
+	@AfterEach
+	void tearDown() {
+		_engine.halt();
+		_executor.shutdownNow();
+	}
+
+	@Test
+	void testLoopback() throws Exception {
+		StreamerOptions options = StreamerOptions.builder().build();
+
+		RtpMediaSession receiving = _engine.open(0, _executor);
+		RtpMediaSession sending = _engine.open(0, _executor);
+		assertEquals(2, _engine.getSessionCount());
+
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		RtpStreamReceiver receiver = new RtpStreamReceiver(options, received, null, null,
+			receiving.getSocket(), null);
+		receiving.execute(receiver);
+
+		byte[] data = new byte[PACKETS * PACKET_SIZE];
+		RtpStreamSender sender = new RtpStreamSender(options, new ByteArrayInputStream(data), true, 0, null, 8000, 1,
+			20, PACKET_SIZE, null, sending.getSocket(), "127.0.0.1", receiving.getLocalPort(), null, null);
+
+		long start = System.nanoTime();
+		sending.execute(sender);
+		sender.join();
+		long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+		assertFalse(sender.isRunning());
+		assertEquals(PACKETS, sender.getPacketCounter());
+		assertEquals(PACKETS, sender.getPacing().getDepartures());
+		waitFor(() -> _engine.getClock().size() == 0);
+		// The sender releases its socket after termination, the session socket keeps counting.
+		assertEquals(PACKETS, sending.getSocket().getSenderPacketCounter());
+		// Packets are paced by the media clock, not sent as burst.
+		assertTrue(elapsedMillis >= (PACKETS - 2) * 20, "Sent too fast: " + elapsedMillis + "ms");
+
+		// The receiver drops packets within its early drop time.
+		waitFor(() -> receiving.getSocket().getReceiverPacketCounter() == PACKETS);
+		assertEquals(0, received.size() % PACKET_SIZE);
+		assertTrue(received.size() > 0);
+		assertTrue(received.size() < data.length);
+
+		receiver.halt();
+		waitFor(() -> !receiver.isRunning());
+
+		sending.close();
+		receiving.close();
+		waitFor(() -> _engine.getSessionCount() == 0);
+	}
+
+	@Test
+	void testHaltSender() throws Exception {
+		StreamerOptions options = StreamerOptions.builder().build();
+		RtpMediaSession session = _engine.open(0, _executor);
+
+		byte[] data = new byte[1000 * PACKET_SIZE];
+		RtpStreamSender sender = new RtpStreamSender(options, new ByteArrayInputStream(data), true, 0, null, 8000, 1,
+			20, PACKET_SIZE, null, session.getSocket(), "127.0.0.1", 9, null, null);
+		session.execute(sender);
+
+		waitFor(() -> sender.getPacketCounter() > 2);
+		sender.halt();
+		sender.join();
+		assertTrue(sender.getPacketCounter() < 1000);
+
+		session.close();
+		waitFor(() -> _engine.getSessionCount() == 0);
+	}
+
+	private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+		long stop = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > stop) {
+				fail("Timeout.");
+			}
+			Thread.sleep(5);
+		}
+	}
+
+}
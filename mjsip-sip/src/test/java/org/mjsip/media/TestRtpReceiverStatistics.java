@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.media;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.mjsip.rtp.RtpPacket;
+
+/**
+ * Test case for {@link RtpReceiverStatistics}.
+ */
+@SuppressWarnings("javadoc")
+class TestRtpReceiverStatistics {
+
+	private static final long MS = 1_000_000L;
+
+	private final RtpReceiverStatistics _statistics = new RtpReceiverStatistics(8000);
+
+	private final long _start = System.nanoTime();
+
+	private final RtpPacket _packet = new RtpPacket(new byte[200], 0);
+
+	@Test
+	void testProbation() {
+		assertEquals(0, _statistics.getSSRC());
+		assertFalse(receive(100, 0));
+		assertEquals(4711, _statistics.getSSRC());
+		assertEquals(0, _statistics.getPacketsReceived());
+		assertEquals(0, _statistics.getExpected());
+
+		assertTrue(receive(101, 20));
+		assertEquals(1, _statistics.getPacketsReceived());
+		assertEquals(101, _statistics.getHighestSqnReceived());
+		assertEquals(0, _statistics.getCumulativePacketLost());
+	}
+
+	@Test
+	void testLoss() {
+		for (int sqn = 0; sqn < 20; sqn++) {
+			if (sqn % 5 == 4) {
+				continue;
+			}
+			receive(sqn, sqn * 20);
+		}
+		// First packet is consumed by probation, sequence 1 to 18 expected.
+		assertEquals(18, _statistics.getExpected());
+		assertEquals(3, _statistics.getCumulativePacketLost());
+		assertEquals(3 * 256 / 18, _statistics.getFractionLost());
+
+		_statistics.onReportSent();
+		assertEquals(0, _statistics.getFractionLost());
+		assertEquals(3, _statistics.getCumulativePacketLost());
+
+		receive(21, 21 * 20);
+		assertEquals(2 * 256 / 3, _statistics.getFractionLost());
+	}
+
+	@Test
+	void testSequenceWrap() {
+		for (int n = 0; n < 10; n++) {
+			receive((0xfffa + n) & 0xffff, n * 20);
+		}
+		assertEquals(0x10003, _statistics.getHighestSqnReceived());
+		assertEquals(9, _statistics.getExpected());
+		assertEquals(0, _statistics.getCumulativePacketLost());
+	}
+
+	@Test
+	void testTimestampWrap() {
+		long base = 0x100000000L - 5 * 160;
+		for (int n = 0; n < 10; n++) {
+			receive(n, n * 20, (base + n * 160) & 0xffffffffL);
+		}
+		assertEquals(0, _statistics.getInterarrivalJitter());
+
+		for (int n = 10; n < 20; n++) {
+			receive(n, n * 20 + ((n & 1) == 0 ? 0 : 10), (base + n * 160) & 0xffffffffL);
+		}
+		assertTrue(_statistics.getInterarrivalJitter() <= 80, "Jitter: " + _statistics.getInterarrivalJitter());
+	}
+
+	@Test
+	void testDuplicateAndReorder() {
+		receive(0, 0);
+		receive(1, 20);
+		receive(3, 60);
+		receive(2, 40);
+		receive(3, 60);
+		assertEquals(3, _statistics.getHighestSqnReceived());
+		// Duplicates count as received.
+		assertEquals(4, _statistics.getPacketsReceived());
+		assertEquals(-1, _statistics.getCumulativePacketLost());
+	}
+
+	@Test
+	void testRestart() {
+		receive(10, 0);
+		receive(11, 20);
+		assertFalse(receive(30000, 40));
+		assertTrue(receive(30001, 60));
+		assertEquals(30001, _statistics.getHighestSqnReceived());
+		assertEquals(1, _statistics.getPacketsReceived());
+	}
+
+	@Test
+	void testJitter() {
+		for (int sqn = 0; sqn < 100; sqn++) {
+			receive(sqn, sqn * 20);
+		}
+		assertEquals(0, _statistics.getInterarrivalJitter());
+
+		for (int sqn = 100; sqn < 300; sqn++) {
+			receive(sqn, sqn * 20 + ((sqn & 1) == 0 ? 0 : 10));
+		}
+		// 10ms alternating delay is 80 timestamp units.
+		assertTrue(_statistics.getInterarrivalJitter() > 60, "Jitter: " + _statistics.getInterarrivalJitter());
+		assertTrue(_statistics.getInterarrivalJitter() <= 80, "Jitter: " + _statistics.getInterarrivalJitter());
+		assertEquals(_statistics.getInterarrivalJitter() / 8.0, _statistics.getJitterMillis(), 0.001);
+	}
+
+	@Test
+	void testSenderReport() {
+		assertEquals(0, _statistics.getLSR());
+		assertEquals(0, _statistics.getDLSR());
+
+		_statistics.onSenderReport(0x12345678L, System.nanoTime() - 500 * MS);
+		assertEquals(0x12345678L, _statistics.getLSR());
+		long dlsr = _statistics.getDLSR();
+		assertTrue(dlsr >= 0x8000 && dlsr < 0x10000, "DLSR: " + dlsr);
+	}
+
+	private boolean receive(int sqn, long millis) {
+		return receive(sqn, millis, sqn * 160L);
+	}
+
+	private boolean receive(int sqn, long millis, long timestamp) {
+		_packet.setPacketLength(12 + 160);
+		_packet.setHeader(0, 4711, sqn, timestamp);
+		return _statistics.update(_packet, _start + millis * MS);
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.rtp;
+
+import java.lang.ref.WeakReference;
+
+import org.zoolu.net.IpAddress;
+import org.zoolu.net.SocketAddress;
+import org.zoolu.net.UdpChannelSocket;
+import org.zoolu.net.UdpSocket;
+
+/**
+ * Measures the heap allocation and time per packet in the send and receive loops of
+ * {@link RtpSocket} on a plain {@link UdpSocket} and on a {@link UdpChannelSocket}.
+ *
+ * <p>
+ * Allocation is measured as growth of the used heap. Batches during which a garbage collection
+ * happened are not counted. A steady-state RTP stream should show zero bytes per packet on a
+ * {@link UdpChannelSocket}, and no garbage collection at all. Run with a large young generation
+ * (e.g. <code>-Xmn256m</code>) to get enough samples for the plain socket.
+ * </p>
+ *
+ * <p>
+ * Usage: <code>RtpSocketBenchmark [packets]</code>
+ * </p>
+ */
+@SuppressWarnings("javadoc")
+public class RtpSocketBenchmark {
+
+	/** Number of packets sent before receiving them, must fit into the socket receive buffer. */
+	private static final int BATCH = 50;
+
+	private static final int PAYLOAD_SIZE = 160;
+
+	public static void main(String[] args) throws Exception {
+		int packets = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+		for (int round = 0; round < 3; round++) {
+			run("round " + round + ": datagram", new UdpSocket(0), new UdpSocket(0), packets);
+			run("round " + round + ": channel ", new UdpChannelSocket(0), new UdpChannelSocket(0), packets);
+		}
+	}
+
+	private static void run(String mode, UdpSocket senderSocket, UdpSocket receiverSocket, int packets)
+			throws Exception {
+		try {
+			receiverSocket.setSoTimeout(1000);
+			IpAddress localhost = IpAddress.getByName("127.0.0.1");
+			RtpSocket sender = new RtpSocket(senderSocket, new SocketAddress(localhost, receiverSocket.getLocalPort()));
+			RtpSocket receiver = new RtpSocket(receiverSocket);
+
+			byte[] payload = new byte[PAYLOAD_SIZE];
+			RtpPacket out = new RtpPacket(0, 4711, 0, 0, payload, 0, payload.length);
+			RtpPacket in = new RtpPacket(new byte[2048], 0);
+
+			long sendBytes = 0;
+			long sendTime = 0;
+			int sendSamples = 0;
+			long receiveBytes = 0;
+			long receiveTime = 0;
+			int receiveSamples = 0;
+			int collections = 0;
+			int sqn = 0;
+			System.gc();
+			WeakReference<Object> sentinel = new WeakReference<>(new Object());
+			int batches = packets / BATCH;
+			for (int batch = 0; batch < batches; batch++) {
+				long bytes = usedHeap();
+				long start = System.nanoTime();
+				for (int n = 0; n < BATCH; n++) {
+					out.setSequenceNumber(sqn++ & 0xffff);
+					out.setTimestamp(sqn * (long) PAYLOAD_SIZE & 0xffffffffL);
+					sender.send(out);
+				}
+				sendTime += System.nanoTime() - start;
+				if (sentinel.get() != null) {
+					sendBytes += usedHeap() - bytes;
+					sendSamples++;
+				} else {
+					collections++;
+					sentinel = new WeakReference<>(new Object());
+				}
+
+				bytes = usedHeap();
+				start = System.nanoTime();
+				for (int n = 0; n < BATCH; n++) {
+					receiver.receive(in);
+				}
+				receiveTime += System.nanoTime() - start;
+				if (sentinel.get() != null) {
+					receiveBytes += usedHeap() - bytes;
+					receiveSamples++;
+				} else {
+					collections++;
+					sentinel = new WeakReference<>(new Object());
+				}
+			}
+
+			int total = batches * BATCH;
+			System.out.printf("%s: send %.1f B/pkt %d ns/pkt, receive %.1f B/pkt %d ns/pkt, %d collections%n", mode,
+					perPacket(sendBytes, sendSamples), sendTime / total, perPacket(receiveBytes, receiveSamples),
+					receiveTime / total, collections);
+		} finally {
+			senderSocket.close();
+			receiverSocket.close();
+		}
+	}
+
+	private static double perPacket(long bytes, int samples) {
+		return samples == 0 ? Double.NaN : (double) bytes / (samples * BATCH);
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.message;
+
+import java.nio.charset.StandardCharsets;
+
+import org.mjsip.sip.provider.SipId;
+
+/**
+ * Measures the header accesses an inbound INVITE sees on its way through a stateful proxy, with
+ * and without the typed header cache of {@link SipMessage}.
+ *
+ * <p>
+ * A message parsed from a byte buffer uses the cache, a message parsed from a {@link String} does
+ * not, since its header fields are not immutable.
+ * </p>
+ *
+ * <p>
+ * Usage: <code>SipMessageAccessBenchmark [iterations]</code>
+ * </p>
+ */
+@SuppressWarnings("javadoc")
+public class SipMessageAccessBenchmark {
+
+	private static final String INVITE =
+			"INVITE sip:bob@example.com SIP/2.0\r\n"
+			+ "Via: SIP/2.0/UDP pc33.example.com:5060;branch=z9hG4bK776asdhds;rport\r\n"
+			+ "Via: SIP/2.0/UDP 10.0.0.1:5060;branch=z9hG4bK4b43c2ff8.1;received=192.0.2.3\r\n"
+			+ "Max-Forwards: 69\r\n"
+			+ "To: Bob <sip:bob@example.com>\r\n"
+			+ "From: Alice <sip:alice@example.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@pc33.example.com\r\n"
+			+ "CSeq: 314159 INVITE\r\n"
+			+ "Contact: <sip:alice@pc33.example.com>\r\n"
+			+ "Content-Type: application/sdp\r\n"
+			+ "Content-Length: 0\r\n"
+			+ "\r\n";
+
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		byte[] data = INVITE.getBytes(StandardCharsets.UTF_8);
+
+		for (int round = 0; round < 3; round++) {
+			SipMessage uncached = new SipMessage(INVITE);
+			SipMessage cached = new SipMessage(data, 0, data.length);
+
+			long uncachedTime = measure(uncached, iterations);
+			long cachedTime = measure(cached, iterations);
+
+			System.out.printf("round %d: uncached %d ns/msg, cached %d ns/msg%n", round,
+					uncachedTime / iterations, cachedTime / iterations);
+		}
+	}
+
+	private static long measure(SipMessage msg, int iterations) {
+		long sink = 0;
+		long start = System.nanoTime();
+		for (int n = 0; n < iterations; n++) {
+			sink += proxyPath(msg);
+		}
+		long time = System.nanoTime() - start;
+		if (sink == 42) {
+			System.out.println();
+		}
+		return time;
+	}
+
+	/**
+	 * Header accesses of SipProvider, SipId, ServerEngine, StatefulProxy and the call logger for
+	 * an inbound INVITE.
+	 */
+	private static int proxyPath(SipMessage msg) {
+		int result = 0;
+
+		// SipProvider.onReceivedMessage(): received and rport processing, listener lookup.
+		result += msg.getViaHeader().getHost().length();
+		result += msg.getViaHeader().hasRport() ? 1 : 0;
+		result += SipId.createTransactionServerId(msg).hashCode();
+		result += SipId.createDialogId(msg).hashCode();
+		result += SipId.createMethodId(msg).hashCode();
+
+		// ServerEngine: loop detection and Max-Forwards.
+		result += msg.getFromHeader().getTag().length();
+		result += msg.getCallIdHeader().getCallId().length();
+		result += (int) msg.getCSeqHeader().getSequenceNumber();
+		result += msg.getMaxForwardsHeader().getNumber();
+
+		// StatefulProxy: transaction server for the request, response routing.
+		result += SipId.createTransactionServerId(msg).hashCode();
+		result += msg.getViaHeader().getBranch().length();
+
+		// Call logger.
+		result += msg.getCSeqHeader().getMethod().length();
+		result += msg.getCallIdHeader().getCallId().length();
+		return result;
+	}
+
+}
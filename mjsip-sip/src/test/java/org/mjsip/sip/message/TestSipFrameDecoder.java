@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test case for {@link SipFrameDecoder}.
+ */
+@SuppressWarnings("javadoc")
+class TestSipFrameDecoder {
+
+	private static String message(String callId, String body) {
+		return "INVITE sip:bob@example.com SIP/2.0\r\n"
+			+ "Via: SIP/2.0/TCP 10.0.0.1:5060;branch=z9hG4bK776asdhds\r\n"
+			+ "To: <sip:bob@example.com>\r\n"
+			+ "From: <sip:alice@example.com>;tag=1928301774\r\n"
+			+ "Call-ID: " + callId + "\r\n"
+			+ "CSeq: 1 INVITE\r\n"
+			+ "Content-Type: application/sdp\r\n"
+			+ "content-length :" + body.length() + "\r\n"
+			+ "\r\n"
+			+ body;
+	}
+
+	@Test
+	void testPipelined() throws MalformedSipMessageException {
+		String stream = "\r\n\r\n" + message("a", "v=0\r\n") + message("b", "") + "\r\n" + message("c", "x");
+		SipFrameDecoder decoder = new SipFrameDecoder(16, 4096);
+		byte[] data = stream.getBytes(StandardCharsets.UTF_8);
+		decoder.append(data, 0, data.length);
+
+		List<SipMessage> messages = decode(decoder);
+		Assertions.assertEquals(3, messages.size());
+		Assertions.assertEquals("a", messages.get(0).getCallIdHeader().getCallId());
+		Assertions.assertEquals("v=0\r\n", messages.get(0).getStringBody());
+		Assertions.assertEquals("b", messages.get(1).getCallIdHeader().getCallId());
+		Assertions.assertEquals("c", messages.get(2).getCallIdHeader().getCallId());
+		Assertions.assertEquals("x", messages.get(2).getStringBody());
+		Assertions.assertEquals(0, decoder.getPending());
+		Assertions.assertEquals(16, decoder.getCapacity());
+	}
+
+	@Test
+	void testByteByByte() throws MalformedSipMessageException {
+		String stream = message("a", "v=0\r\n") + message("b", "body");
+		byte[] data = stream.getBytes(StandardCharsets.UTF_8);
+		SipFrameDecoder decoder = new SipFrameDecoder(8, 4096);
+
+		List<SipMessage> messages = new ArrayList<>();
+		for (int n = 0; n < data.length; n++) {
+			decoder.append(data, n, 1);
+			messages.addAll(decode(decoder));
+		}
+		Assertions.assertEquals(2, messages.size());
+		Assertions.assertEquals("v=0\r\n", messages.get(0).getStringBody());
+		Assertions.assertEquals("body", messages.get(1).getStringBody());
+	}
+
+	@Test
+	void testCompactHeader() throws MalformedSipMessageException {
+		String stream = "OPTIONS sip:bob@example.com SIP/2.0\nl: 2\nContent-Type: text/plain\n\nokOPTIONS";
+		byte[] data = stream.getBytes(StandardCharsets.UTF_8);
+		SipFrameDecoder decoder = new SipFrameDecoder();
+		decoder.append(data, 0, data.length);
+
+		SipMessage msg = decoder.next();
+		Assertions.assertEquals("ok", msg.getStringBody());
+		Assertions.assertNull(decoder.next());
+		Assertions.assertEquals("OPTIONS".length(), decoder.getPending());
+	}
+
+	@Test
+	void testTooLarge() {
+		byte[] data = message("a", "").replace("content-length :0", "Content-Length: 100000").getBytes(StandardCharsets.UTF_8);
+		SipFrameDecoder decoder = new SipFrameDecoder(1024, 4096);
+		decoder.append(data, 0, data.length);
+		Assertions.assertThrows(MalformedSipMessageException.class, decoder::next);
+	}
+
+	private static List<SipMessage> decode(SipFrameDecoder decoder) throws MalformedSipMessageException {
+		List<SipMessage> result = new ArrayList<>();
+		SipMessage msg;
+		while ((msg = decoder.next()) != null) {
+			result.add(msg);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.message;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mjsip.sip.header.MaxForwardsHeader;
+import org.mjsip.sip.header.SubjectHeader;
+
+/**
+ * Test case for {@link SipMessageEncoder}.
+ */
+@SuppressWarnings("javadoc")
+class TestSipMessageEncoder {
+
+	private static final String OPTIONS =
+			"OPTIONS sip:bob@example.com SIP/2.0\r\n"
+			+ "Via: SIP/2.0/UDP 10.0.0.1:5060;branch=z9hG4bK776asdhds\r\n"
+			+ "Max-Forwards: 70\r\n"
+			+ "To: <sip:bob@example.com>\r\n"
+			+ "From: <sip:alice@example.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@10.0.0.1\r\n"
+			+ "CSeq: 1 OPTIONS\r\n"
+			+ "Content-Type: text/plain\r\n"
+			+ "Content-Length: 5\r\n"
+			+ "\r\n"
+			+ "hello";
+
+	@Test
+	void testEncode() {
+		SipMessageEncoder encoder = new SipMessageEncoder(16);
+
+		SipMessage received = new SipMessage(OPTIONS.getBytes(StandardCharsets.UTF_8), 0, OPTIONS.length());
+		assertEncoded(OPTIONS, encoder.encode(received));
+		Assertions.assertEquals(OPTIONS.length(), received.getLength());
+
+		SipMessage parsed = new SipMessage(OPTIONS);
+		assertEncoded(OPTIONS, encoder.encode(parsed));
+		Assertions.assertEquals(OPTIONS.length(), parsed.getLength());
+	}
+
+	@Test
+	void testCachedLength() {
+		SipMessage msg = new SipMessage(OPTIONS.getBytes(StandardCharsets.UTF_8), 0, OPTIONS.length());
+		Assertions.assertEquals(OPTIONS.length(), msg.getLength());
+
+		msg.setMaxForwardsHeader(new MaxForwardsHeader(9));
+		Assertions.assertEquals(OPTIONS.length() - 1, msg.getLength());
+
+		msg.setBody("text/plain", "hello world".getBytes(StandardCharsets.UTF_8));
+		Assertions.assertEquals(OPTIONS.length() - 1 + 7, msg.getLength());
+		Assertions.assertEquals(msg.getLength(), msg.getBytes().length);
+
+		msg.removeBody();
+		Assertions.assertEquals(msg.getLength(), msg.getBytes().length);
+	}
+
+	@Test
+	void testNonAscii() {
+		SipMessage msg = new SipMessage(OPTIONS);
+		msg.setHeader(new SubjectHeader("Grüße"));
+
+		// Non-ASCII text uses the platform encoding like String.getBytes().
+		String encoded = new String(msg.getBytes());
+		Assertions.assertTrue(encoded.contains("Subject: " + new String("Grüße".getBytes()) + "\r\n"));
+		Assertions.assertEquals(msg.getBytes().length, msg.getLength());
+	}
+
+	private static void assertEncoded(String expected, SipMessageEncoder encoder) {
+		Assertions.assertEquals(expected,
+				new String(encoder.getBuffer(), 0, encoder.getLength(), StandardCharsets.UTF_8));
+		Assertions.assertEquals(expected, StandardCharsets.UTF_8.decode(encoder.toByteBuffer()).toString());
+	}
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.message;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mjsip.sip.header.CSeqHeader;
+import org.mjsip.sip.header.Header;
+import org.mjsip.sip.header.MaxForwardsHeader;
+import org.mjsip.sip.header.RawHeader;
+import org.mjsip.sip.header.SipHeaders;
+import org.mjsip.sip.header.ToHeader;
+import org.mjsip.sip.header.ViaHeader;
+
+/**
+ * Test case for parsing a {@link SipMessage} from a byte buffer.
+ */
+@SuppressWarnings("javadoc")
+class TestSipMessageParsing {
+
+	private static final String INVITE =
+			"INVITE sip:bob@example.com SIP/2.0\r\n"
+			+ "Via:   SIP/2.0/UDP 10.0.0.1:5060;branch=z9hG4bK776asdhds\r\n"
+			+ "Max-Forwards: 70\r\n"
+			+ "To: <sip:bob@example.com>\r\n"
+			+ "From: <sip:alice@example.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@10.0.0.1\r\n"
+			+ "CSeq: 314159 INVITE\r\n"
+			+ "Subject: folded\r\n"
+			+ " value\r\n"
+			+ "Content-Type: application/sdp\r\n"
+			+ "Content-Length: 4\r\n"
+			+ "\r\n"
+			+ "v=0\n";
+
+	@Test
+	void testParse() throws MalformedSipMessageException {
+		byte[] data = ("garbage" + INVITE + "trailing").getBytes(StandardCharsets.UTF_8);
+		SipMessage msg = new SipMessage();
+		int length = msg.setMessage(data, 7, data.length - 7);
+
+		Assertions.assertEquals(INVITE.length(), length);
+		Assertions.assertTrue(msg.isRequest(SipMethods.INVITE));
+		Assertions.assertEquals("a84b4c76e66710@10.0.0.1", msg.getCallIdHeader().getCallId());
+		Assertions.assertEquals(314159, msg.getCSeqHeader().getSequenceNumber());
+		Assertions.assertEquals("10.0.0.1", msg.getViaHeader().getHost());
+		Assertions.assertEquals("folded\r\n value", msg.getHeader(SipHeaders.Subject).getValue());
+		Assertions.assertEquals("v=0\n", msg.getStringBody());
+
+		for (Header header : msg.getHeaders()) {
+			Assertions.assertTrue(header instanceof RawHeader);
+		}
+	}
+
+	@Test
+	void testReserializeUntouched() {
+		SipMessage msg = new SipMessage(INVITE.getBytes(StandardCharsets.UTF_8), 0, INVITE.length());
+
+		Assertions.assertEquals(INVITE, new String(msg.getBytes(), StandardCharsets.UTF_8));
+		Assertions.assertEquals(INVITE.length(), msg.getLength());
+		Assertions.assertEquals(INVITE, msg.toString());
+	}
+
+	@Test
+	void testReserializeModified() {
+		SipMessage msg = new SipMessage(INVITE.getBytes(StandardCharsets.UTF_8), 0, INVITE.length());
+		msg.setMaxForwardsHeader(new MaxForwardsHeader(69));
+
+		String expected = INVITE.replace("Max-Forwards: 70", "Max-Forwards: 69");
+		Assertions.assertEquals(expected, new String(msg.getBytes(), StandardCharsets.UTF_8));
+		Assertions.assertEquals(expected.length(), msg.getLength());
+
+		SipMessage copy = new SipMessage(msg);
+		Assertions.assertEquals(expected, copy.toString());
+	}
+
+	@Test
+	void testIncomplete() {
+		byte[] data = INVITE.substring(0, INVITE.length() - 2).getBytes(StandardCharsets.UTF_8);
+		Assertions.assertThrows(MalformedSipMessageException.class,
+				() -> new SipMessage().setMessage(data, 0, data.length));
+
+		byte[] header = INVITE.substring(0, 40).getBytes(StandardCharsets.UTF_8);
+		Assertions.assertThrows(MalformedSipMessageException.class,
+				() -> new SipMessage().setMessage(header, 0, header.length));
+	}
+
+	@Test
+	void testTypedHeaderCopies() {
+		SipMessage msg = new SipMessage(INVITE.getBytes(StandardCharsets.UTF_8), 0, INVITE.length());
+
+		ToHeader to = msg.getToHeader();
+		Assertions.assertNull(to.getTag());
+		to.setTag("local");
+		Assertions.assertEquals("local", to.getTag());
+		Assertions.assertNull(msg.getToHeader().getTag());
+
+		ViaHeader via = msg.getViaHeader();
+		via.setReceived("192.168.0.1");
+		Assertions.assertNotSame(via, msg.getViaHeader());
+		Assertions.assertFalse(msg.getViaHeader().hasReceived());
+
+		CSeqHeader cseq = msg.getCSeqHeader().incSequenceNumber();
+		Assertions.assertEquals(314160, cseq.getSequenceNumber());
+		Assertions.assertEquals(314159, msg.getCSeqHeader().getSequenceNumber());
+	}
+
+	@Test
+	void testTypedHeaderInvalidation() {
+		SipMessage msg = new SipMessage(INVITE.getBytes(StandardCharsets.UTF_8), 0, INVITE.length());
+		Assertions.assertEquals(314159, msg.getCSeqHeader().getSequenceNumber());
+		Assertions.assertEquals("10.0.0.1", msg.getViaHeader().getHost());
+
+		msg.setCSeqHeader(new CSeqHeader(7, SipMethods.INVITE));
+		Assertions.assertEquals(7, msg.getCSeqHeader().getSequenceNumber());
+
+		msg.addViaHeader(new ViaHeader("udp", "10.0.0.2", 5060));
+		Assertions.assertEquals("10.0.0.2", msg.getViaHeader().getHost());
+		msg.removeViaHeader();
+		Assertions.assertEquals("10.0.0.1", msg.getViaHeader().getHost());
+
+		SipMessage copy = new SipMessage(msg);
+		ToHeader remote = copy.getToHeader();
+		remote.setTag("remote");
+		copy.setToHeader(remote);
+		Assertions.assertEquals("remote", copy.getToHeader().getTag());
+		Assertions.assertNull(msg.getToHeader().getTag());
+	}
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.provider;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.zoolu.net.SocketAddress;
+
+/**
+ * Test case for {@link KeepAliveEngine}.
+ */
+@SuppressWarnings("javadoc")
+class TestKeepAliveEngine {
+
+	private ScheduledExecutorService _executor;
+
+	private TestEngine _engine;
+
+	@BeforeEach
+	void setUp() {
+		_executor = Executors.newSingleThreadScheduledExecutor();
+		_engine = new TestEngine();
+	}
+
+	@AfterEach
+	void tearDown() {
+		_engine.halt();
+		_executor.shutdownNow();
+	}
+
+	@Test
+	void testManyBindingsOneTimer() throws InterruptedException {
+		int cnt = 1000;
+		for (int n = 0; n < cnt; n++) {
+			_engine.start(new SocketAddress("10.0.0." + (n % 250), 5060 + n), 50);
+		}
+		assertEquals(cnt, _engine.size());
+
+		waitFor(() -> _engine._pinged.size() == cnt);
+
+		KeepAliveEngine.Binding binding = _engine.start(new SocketAddress("10.1.0.1", 5060), 50);
+		binding.halt();
+		assertFalse(binding.isRunning());
+		assertEquals(cnt, _engine.size());
+	}
+
+	@Test
+	void testExpiration() throws InterruptedException {
+		KeepAliveEngine.Binding binding = _engine.start(new SocketAddress("10.0.0.1", 5060), 20);
+		binding.setExpirationTime(100);
+		assertTrue(binding.isRunning());
+
+		waitFor(() -> !binding.isRunning());
+		int sent = _engine._sent.size();
+		assertTrue(sent > 0);
+		assertEquals(0, _engine.size());
+
+		Thread.sleep(100);
+		assertEquals(sent, _engine._sent.size());
+	}
+
+	@Test
+	void testPongLiveness() throws InterruptedException {
+		SocketAddress target = new SocketAddress("10.0.0.1", 5060);
+		KeepAliveEngine.Binding binding = _engine.start(target, 30);
+		List<String> events = new CopyOnWriteArrayList<>();
+		_engine.setListener(new KeepAliveListener() {
+			@Override
+			public void onKeepAliveFailed(KeepAliveEngine.Binding b) {
+				events.add("failed");
+			}
+
+			@Override
+			public void onKeepAliveRestored(KeepAliveEngine.Binding b) {
+				events.add("restored");
+			}
+		});
+
+		_engine._answer = true;
+		waitFor(() -> binding.getLastPong() > 0);
+		assertTrue(binding.isAlive());
+
+		_engine._answer = false;
+		waitFor(() -> !binding.isAlive());
+		assertEquals(List.of("failed"), events);
+
+		_engine._answer = true;
+		waitFor(() -> binding.isAlive());
+		assertEquals(List.of("failed", "restored"), events);
+		assertTrue(binding.isRunning());
+	}
+
+	@Test
+	void testSilentPeerNotReported() throws InterruptedException {
+		KeepAliveEngine.Binding binding = _engine.start(new SocketAddress("10.0.0.1", 5060), 20);
+		List<KeepAliveEngine.Binding> failed = new CopyOnWriteArrayList<>();
+		_engine.setListener(new KeepAliveListener() {
+			@Override
+			public void onKeepAliveFailed(KeepAliveEngine.Binding b) {
+				failed.add(b);
+			}
+
+			@Override
+			public void onKeepAliveRestored(KeepAliveEngine.Binding b) {
+				fail("Not failed before.");
+			}
+		});
+
+		waitFor(() -> !binding.isAlive());
+		assertTrue(failed.isEmpty());
+		assertTrue(binding.isRunning());
+	}
+
+	@Test
+	void testUnsolicitedPong() throws InterruptedException {
+		SocketAddress target = new SocketAddress("10.0.0.1", 5060);
+		KeepAliveEngine.Binding binding = _engine.start(target, 60000);
+
+		// A CRLF keep-alive of the peer itself before the first ping.
+		_engine.onPong(target);
+		assertEquals(0, binding.getLastPong());
+	}
+
+	@Test
+	void testChangeTarget() throws InterruptedException {
+		SocketAddress before = new SocketAddress("10.0.0.1", 5060);
+		SocketAddress after = new SocketAddress("10.0.0.2", 5070);
+		KeepAliveEngine.Binding binding = _engine.start(before, 20);
+		binding.setDestSoAddress(after);
+		_engine._answer = true;
+
+		waitFor(() -> binding.getLastPong() > 0);
+		assertTrue(_engine._pinged.contains(after));
+		assertFalse(_engine._pinged.contains(before));
+	}
+
+	private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+		long stop = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > stop) {
+				fail("Timeout.");
+			}
+			Thread.sleep(5);
+		}
+	}
+
+	private class TestEngine extends KeepAliveEngine {
+
+		final List<SocketAddress> _sent = new CopyOnWriteArrayList<>();
+
+		final Set<SocketAddress> _pinged = ConcurrentHashMap.newKeySet();
+
+		volatile boolean _answer;
+
+		TestEngine() {
+			super(null, () -> _executor, null, 0.2, 40);
+		}
+
+		@Override
+		protected void send(SocketAddress target) {
+			_sent.add(target);
+			_pinged.add(target);
+			if (_answer) {
+				_executor.schedule(() -> onPong(target), 1, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+}
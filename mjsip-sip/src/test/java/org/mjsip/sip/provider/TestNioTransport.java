@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.provider;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mjsip.net.SelectorPool;
+import org.mjsip.sip.message.SipMessage;
+import org.zoolu.net.IpAddress;
+import org.zoolu.net.SocketAddress;
+
+/**
+ * Test case for {@link NioTransport}.
+ */
+@SuppressWarnings("javadoc")
+class TestNioTransport {
+
+	private static final String OPTIONS =
+			"OPTIONS sip:bob@example.com SIP/2.0\r\n"
+			+ "Via: SIP/2.0/TCP 127.0.0.1:5060;branch=z9hG4bK776asdhds\r\n"
+			+ "To: <sip:bob@example.com>\r\n"
+			+ "From: <sip:alice@example.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@10.0.0.1\r\n"
+			+ "CSeq: 1 OPTIONS\r\n"
+			+ "Content-Length: 0\r\n"
+			+ "\r\n";
+
+	@Test
+	void testTcp() throws Exception {
+		SelectorPool pool = new SelectorPool("test-io", 2);
+		NioTransport server = new NioTransport(SipProvider.PROTO_TCP, 0, null, 8, pool, null);
+		NioTransport client = new NioTransport(SipProvider.PROTO_TCP, 0, null, 8, pool, null);
+		try {
+			BlockingQueue<SipMessage> received = new ArrayBlockingQueue<>(10);
+			server.setListener(new Receiver(received));
+
+			IpAddress localhost = IpAddress.getByName("127.0.0.1");
+			for (int n = 1; n <= 3; n++) {
+				ConnectionId id = client.sendMessage(new SipMessage(OPTIONS.replace("CSeq: 1", "CSeq: " + n)),
+						localhost, server.getLocalPort(), 0);
+				Assertions.assertNotNull(id);
+			}
+
+			for (int n = 1; n <= 3; n++) {
+				SipMessage msg = received.poll(5, TimeUnit.SECONDS);
+				Assertions.assertNotNull(msg);
+				Assertions.assertEquals(n, msg.getCSeqHeader().getSequenceNumber());
+				Assertions.assertEquals("tcp", msg.getTransportProtocol());
+				Assertions.assertNotNull(msg.getConnectionId());
+			}
+		} finally {
+			client.halt();
+			server.halt();
+			pool.halt();
+		}
+	}
+
+	@Test
+	void testTls() throws Exception {
+		SSLContext context = createTestContext();
+		SelectorPool pool = new SelectorPool("test-io", 2);
+		NioTransport server = new NioTransport(SipProvider.PROTO_TLS, 0, null, 8, pool, context);
+		NioTransport client = new NioTransport(SipProvider.PROTO_TLS, 0, null, 8, pool, context);
+		try {
+			BlockingQueue<SipMessage> received = new ArrayBlockingQueue<>(10);
+			Receiver serverReceiver = new Receiver(received);
+			server.setListener(serverReceiver);
+
+			// A body spanning several TLS records.
+			StringBuilder body = new StringBuilder();
+			while (body.length() < 50000) {
+				body.append("0123456789abcdef");
+			}
+			String large = OPTIONS.replace("Content-Length: 0", "Content-Length: " + body.length()) + body;
+
+			IpAddress localhost = IpAddress.getByName("127.0.0.1");
+			ConnectionId id = null;
+			for (int n = 1; n <= 3; n++) {
+				String msg = n == 2 ? large : OPTIONS;
+				id = client.sendMessage(new SipMessage(msg.replace("CSeq: 1", "CSeq: " + n)), localhost,
+						server.getLocalPort(), 0);
+				Assertions.assertNotNull(id);
+			}
+
+			for (int n = 1; n <= 3; n++) {
+				SipMessage msg = received.poll(5, TimeUnit.SECONDS);
+				Assertions.assertNotNull(msg);
+				Assertions.assertEquals(n, msg.getCSeqHeader().getSequenceNumber());
+				Assertions.assertEquals("tls", msg.getTransportProtocol());
+				Assertions.assertEquals(n == 2 ? body.length() : 0, msg.getBody() == null ? 0 : msg.getBody().length);
+			}
+
+			// Closing the client sends close_notify, which terminates the server side connection.
+			client.halt();
+			Assertions.assertNotNull(serverReceiver._terminated.poll(5, TimeUnit.SECONDS));
+		} finally {
+			client.halt();
+			server.halt();
+			pool.halt();
+		}
+	}
+
+	/**
+	 * Context with a self-signed certificate that trusts itself.
+	 */
+	private static SSLContext createTestContext() throws Exception {
+		char[] password = "changeit".toCharArray();
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		try (InputStream in = TestNioTransport.class.getResourceAsStream("test-keystore.p12")) {
+			keyStore.load(in, password);
+		}
+		KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagers.init(keyStore, password);
+		TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagers.init(keyStore);
+
+		SSLContext result = SSLContext.getInstance("TLS");
+		result.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+		return result;
+	}
+
+	private static final class Receiver implements SipTransportListener {
+		private final BlockingQueue<SipMessage> _received;
+
+		final BlockingQueue<SocketAddress> _terminated = new ArrayBlockingQueue<>(10);
+
+		Receiver(BlockingQueue<SipMessage> received) {
+			_received = received;
+		}
+
+		@Override
+		public void onReceivedMessage(SipTransport transport, SipMessage msg) {
+			_received.add(msg);
+		}
+
+		@Override
+		public void onIncomingTransportConnection(SipTransport transport, SocketAddress remote_soaddr) {
+			// Ignore.
+		}
+
+		@Override
+		public void onTransportConnectionTerminated(SipTransport transport, SocketAddress remote_soaddr,
+				Exception error) {
+			_terminated.add(remote_soaddr);
+		}
+
+		@Override
+		public void onTransportTerminated(SipTransport transport, Exception error) {
+			// Ignore.
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.provider;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mjsip.sip.message.SipMessage;
+import org.zoolu.net.IpAddress;
+import org.zoolu.net.SocketAddress;
+
+/**
+ * Test case for {@link ParallelUdpTransport}.
+ */
+@SuppressWarnings("javadoc")
+class TestParallelUdpTransport {
+
+	private static final String OPTIONS =
+			"OPTIONS sip:bob@example.com SIP/2.0\r\n"
+			+ "Via: SIP/2.0/UDP 127.0.0.1:5060;branch=z9hG4bK776asdhds\r\n"
+			+ "To: <sip:bob@example.com>\r\n"
+			+ "From: <sip:alice@example.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@10.0.0.1\r\n"
+			+ "CSeq: 1 OPTIONS\r\n"
+			+ "Content-Length: 0\r\n"
+			+ "\r\n";
+
+	@Test
+	void testCallIdHash() {
+		int hash = hash(OPTIONS);
+		Assertions.assertNotEquals(0, hash);
+		Assertions.assertEquals(hash, hash(OPTIONS.replace("Call-ID: ", "call-id:\t")));
+		Assertions.assertEquals(hash, hash(OPTIONS.replace("Call-ID: ", "i: ")));
+		Assertions.assertNotEquals(hash, hash(OPTIONS.replace("a84b4c76e66710", "a84b4c76e66711")));
+		Assertions.assertEquals(0, hash(OPTIONS.replace("Call-ID: ", "X-Call-ID: ")));
+	}
+
+	private static int hash(String msg) {
+		byte[] data = msg.getBytes();
+		return ParallelUdpTransport.callIdHash(data, 0, data.length);
+	}
+
+	@Test
+	void testReceive() throws Exception {
+		ParallelUdpTransport transport = new ParallelUdpTransport(0, null, 2);
+		try {
+			BlockingQueue<SipMessage> received = new ArrayBlockingQueue<>(10);
+			transport.setListener(new SipTransportListener() {
+				@Override
+				public void onReceivedMessage(SipTransport transport, SipMessage msg) {
+					received.add(msg);
+				}
+
+				@Override
+				public void onIncomingTransportConnection(SipTransport transport, SocketAddress remote_soaddr) {
+					// Ignore.
+				}
+
+				@Override
+				public void onTransportConnectionTerminated(SipTransport transport, SocketAddress remote_soaddr,
+						Exception error) {
+					// Ignore.
+				}
+
+				@Override
+				public void onTransportTerminated(SipTransport transport, Exception error) {
+					// Ignore.
+				}
+			});
+
+			transport.sendMessage(new SipMessage(OPTIONS), IpAddress.getByName("127.0.0.1"),
+					transport.getLocalPort(), 0);
+
+			SipMessage msg = received.poll(5, TimeUnit.SECONDS);
+			Assertions.assertNotNull(msg);
+			Assertions.assertEquals("a84b4c76e66710@10.0.0.1", msg.getCallIdHeader().getCallId());
+			Assertions.assertEquals("udp", msg.getTransportProtocol());
+			Assertions.assertEquals(transport.getLocalPort(), msg.getRemotePort());
+		} finally {
+			transport.halt();
+		}
+	}
+
+	@Test
+	void testDatagramType() {
+		Assertions.assertEquals(UdpTransport.DATAGRAM_PING, type("\r\n\r\n"));
+		Assertions.assertEquals(UdpTransport.DATAGRAM_PONG, type("\r\n"));
+		Assertions.assertEquals(UdpTransport.DATAGRAM_MESSAGE, type("\r\n\r\n\r\n"));
+		Assertions.assertEquals(UdpTransport.DATAGRAM_MESSAGE, type("\r\n\r"));
+		Assertions.assertEquals(UdpTransport.DATAGRAM_MESSAGE, type("\n"));
+		Assertions.assertEquals(UdpTransport.DATAGRAM_MESSAGE, type(OPTIONS));
+	}
+
+	private static int type(String data) {
+		byte[] buf = ("xx" + data).getBytes();
+		return UdpTransport.datagramType(buf, 2, buf.length - 2);
+	}
+
+	@Test
+	void testPingPong() throws Exception {
+		ParallelUdpTransport transport = new ParallelUdpTransport(0, null, 2);
+		try (DatagramSocket peer = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"))) {
+			peer.setSoTimeout(5000);
+			BlockingQueue<SocketAddress> pongs = new ArrayBlockingQueue<>(10);
+			BlockingQueue<SipMessage> received = new ArrayBlockingQueue<>(10);
+			transport.setListener(new SipTransportListener() {
+				@Override
+				public void onReceivedMessage(SipTransport transport, SipMessage msg) {
+					received.add(msg);
+				}
+
+				@Override
+				public void onReceivedPong(SipTransport transport, SocketAddress remote_soaddr) {
+					pongs.add(remote_soaddr);
+				}
+
+				@Override
+				public void onIncomingTransportConnection(SipTransport transport, SocketAddress remote_soaddr) {
+					// Ignore.
+				}
+
+				@Override
+				public void onTransportConnectionTerminated(SipTransport transport, SocketAddress remote_soaddr,
+						Exception error) {
+					// Ignore.
+				}
+
+				@Override
+				public void onTransportTerminated(SipTransport transport, Exception error) {
+					// Ignore.
+				}
+			});
+			InetAddress local = InetAddress.getByName("127.0.0.1");
+
+			// A ping is answered with a pong and is not reported as pong.
+			byte[] ping = "\r\n\r\n".getBytes();
+			peer.send(new DatagramPacket(ping, ping.length, local, transport.getLocalPort()));
+			DatagramPacket answer = new DatagramPacket(new byte[100], 100);
+			peer.receive(answer);
+			Assertions.assertEquals("\r\n", new String(answer.getData(), 0, answer.getLength()));
+
+			// A pong is reported and not answered.
+			byte[] pong = "\r\n".getBytes();
+			peer.send(new DatagramPacket(pong, pong.length, local, transport.getLocalPort()));
+			SocketAddress source = pongs.poll(5, TimeUnit.SECONDS);
+			Assertions.assertNotNull(source);
+			Assertions.assertEquals(peer.getLocalPort(), source.getPort());
+			Assertions.assertTrue(pongs.isEmpty());
+			Assertions.assertTrue(received.isEmpty());
+
+			peer.setSoTimeout(100);
+			Assertions.assertThrows(SocketTimeoutException.class, () -> peer.receive(answer));
+		} finally {
+			transport.halt();
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.provider;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mjsip.sip.message.SipMessage;
+import org.mjsip.sip.message.SipMethods;
+
+/**
+ * Test case for {@link SipId}.
+ */
+@SuppressWarnings("javadoc")
+class TestSipId {
+
+	private static final String INVITE =
+			"INVITE sip:bob@example.com SIP/2.0\r\n"
+			+ "Via: SIP/2.0/UDP 10.0.0.1:5060;branch=z9hG4bK776asdhds\r\n"
+			+ "To: <sip:bob@example.com>\r\n"
+			+ "From: <sip:alice@example.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@10.0.0.1\r\n"
+			+ "CSeq: 314159 INVITE\r\n"
+			+ "Content-Length: 0\r\n"
+			+ "\r\n";
+
+	@Test
+	void testTransactionId() {
+		SipMessage invite = new SipMessage(INVITE.getBytes(), 0, INVITE.length());
+		SipMessage ack = new SipMessage(INVITE.replace("INVITE", "ACK"));
+
+		SipId server = SipId.createTransactionServerId(invite);
+		assertEqualIds(SipId.createTransactionServerId("a84b4c76e66710@10.0.0.1", 314159, SipMethods.INVITE,
+				"10.0.0.1:5060", "z9hG4bK776asdhds"), server);
+		assertEqualIds(server, SipId.createTransactionServerId(ack));
+		Assertions.assertNotEquals(server, SipId.createTransactionClientId(invite));
+		Assertions.assertNotEquals(server, SipId.createTransactionServerId(new SipMessage(INVITE.replace("314159", "314160"))));
+
+		Assertions.assertEquals("a84b4c76e66710@10.0.0.1-314159-INVITE-server-z9hG4bK776asdhds", server.toString());
+	}
+
+	@Test
+	void testTransactionIdWithoutBranch() {
+		SipMessage invite = new SipMessage(INVITE.replace(";branch=z9hG4bK776asdhds", ""));
+		assertEqualIds(SipId.createTransactionServerId("a84b4c76e66710@10.0.0.1", 314159, SipMethods.INVITE,
+				"10.0.0.1:5060", null), SipId.createTransactionServerId(invite));
+	}
+
+	@Test
+	void testDialogId() {
+		SipMessage invite = new SipMessage(INVITE);
+
+		SipId dialog = SipId.createDialogId(invite);
+		assertEqualIds(SipId.createDialogId("a84b4c76e66710@10.0.0.1", null, "1928301774"), dialog);
+		Assertions.assertNotEquals(SipId.createDialogId("a84b4c76e66710@10.0.0.1", "1928301774", null), dialog);
+		Assertions.assertEquals("a84b4c76e66710@10.0.0.1-null-1928301774", dialog.toString());
+	}
+
+	@Test
+	void testMethodId() {
+		SipMessage invite = new SipMessage(INVITE);
+
+		assertEqualIds(SipId.createMethodId(SipMethods.INVITE), SipId.createMethodId(invite));
+		assertEqualIds(SipId.createMethodId(SipMethods.INVITE), SipId.createTransactionServerId(SipMethods.INVITE));
+		Assertions.assertNotEquals(SipId.ANY_METHOD, SipId.createMethodId(invite));
+		Assertions.assertEquals("ANY", SipId.ANY_METHOD.toString());
+	}
+
+	private static void assertEqualIds(SipId expected, SipId actual) {
+		Assertions.assertEquals(expected, actual);
+		Assertions.assertEquals(expected.hashCode(), actual.hashCode());
+		Assertions.assertEquals(expected.getHash(), actual.getHash());
+	}
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.provider;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mjsip.sip.message.SipMessage;
+import org.mjsip.sip.provider.SipListenerTable.Tier;
+
+/**
+ * Test case for {@link SipListenerTable}.
+ */
+@SuppressWarnings("javadoc")
+class TestSipListenerTable {
+
+	private static final String INVITE =
+			"INVITE sip:bob@example.com SIP/2.0\r\n"
+			+ "Via: SIP/2.0/UDP 10.0.0.1:5060;branch=z9hG4bK776asdhds\r\n"
+			+ "Max-Forwards: 70\r\n"
+			+ "To: <sip:bob@example.com>\r\n"
+			+ "From: <sip:alice@example.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@10.0.0.1\r\n"
+			+ "CSeq: 314159 INVITE\r\n"
+			+ "Content-Length: 0\r\n"
+			+ "\r\n";
+
+	private static final SipProviderListener TRANSACTION = (provider, msg) -> {
+		// Ignore.
+	};
+
+	private static final SipProviderListener METHOD = (provider, msg) -> {
+		// Ignore.
+	};
+
+	private static final SipProviderListener ANY = (provider, msg) -> {
+		// Ignore.
+	};
+
+	@Test
+	void testLookupOrder() {
+		SipListenerTable table = new SipListenerTable();
+		SipMessage msg = new SipMessage(INVITE);
+
+		Assertions.assertNull(table.lookup(msg));
+
+		table.put(SipId.ANY_METHOD, ANY);
+		Assertions.assertSame(ANY, table.lookup(msg));
+
+		table.put(SipId.createMethodId("INVITE"), METHOD);
+		Assertions.assertSame(METHOD, table.lookup(msg));
+
+		table.put(SipId.createTransactionServerId(msg), TRANSACTION);
+		Assertions.assertSame(TRANSACTION, table.lookup(msg));
+
+		table.remove(SipId.createTransactionServerId(msg));
+		Assertions.assertSame(METHOD, table.lookup(msg));
+	}
+
+	@Test
+	void testStatistics() {
+		SipListenerTable table = new SipListenerTable();
+		SipMessage msg = new SipMessage(INVITE);
+
+		table.put(SipId.ANY_METHOD, ANY);
+		table.lookup(msg);
+		table.lookup(msg);
+
+		Assertions.assertEquals(0, table.getHits(Tier.TRANSACTION));
+		Assertions.assertEquals(2, table.getMisses(Tier.TRANSACTION));
+		Assertions.assertEquals(2, table.getMisses(Tier.DIALOG));
+		Assertions.assertEquals(2, table.getMisses(Tier.METHOD));
+		Assertions.assertEquals(2, table.getHits(Tier.ANY));
+
+		table.resetStatistics();
+		Assertions.assertEquals(0, table.getHits(Tier.ANY));
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.provider;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mjsip.net.DnsResolver;
+import org.mjsip.sip.message.SipMessage;
+import org.mjsip.sip.message.SipResponses;
+import org.mjsip.sip.transaction.TransactionClient;
+import org.mjsip.sip.transaction.TransactionClientListener;
+import org.mjsip.time.ConfiguredScheduler;
+import org.mjsip.time.SchedulerConfig;
+
+/**
+ * Test case for sending messages through a {@link SipProvider} whose next hop is not yet resolved.
+ */
+@SuppressWarnings("javadoc")
+class TestSipProviderResolution {
+
+	private static final String OPTIONS =
+			"OPTIONS sip:bob@HOST SIP/2.0\r\n"
+			+ "Via: SIP/2.0/UDP 127.0.0.1:5060;branch=z9hG4bK776asdhds\r\n"
+			+ "To: <sip:bob@example.com>\r\n"
+			+ "From: <sip:alice@example.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@10.0.0.1\r\n"
+			+ "CSeq: 1 OPTIONS\r\n"
+			+ "Content-Length: 0\r\n"
+			+ "\r\n";
+
+	private final List<Runnable> _lookups = new ArrayList<>();
+
+	private DatagramSocket _server;
+
+	private SipProvider _provider;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		_server = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		_server.setSoTimeout(5000);
+
+		SipConfig sipConfig = new SipConfig();
+		sipConfig.setTransportProtocols(new String[] { SipProvider.PROTO_UDP });
+		sipConfig.setTransportPorts(new int[] { 0 });
+		sipConfig.setViaAddrIPv4("127.0.0.1");
+		sipConfig.setViaAddrIPv6("::1");
+		sipConfig.normalize();
+
+		DnsResolver resolver = new DnsResolver(host -> {
+			if ("proxy.example.com".equals(host)) {
+				return List.of(InetAddress.getByName("127.0.0.1"));
+			}
+			throw new UnknownHostException(host);
+		}, 60000, 60000, _lookups::add);
+		_provider = new SipProvider(sipConfig, new ConfiguredScheduler(new SchedulerConfig()), resolver);
+	}
+
+	@AfterEach
+	void tearDown() {
+		_provider.halt();
+		_server.close();
+	}
+
+	@Test
+	void testPendingSend() throws Exception {
+		SipMessage msg = options("proxy.example.com:" + _server.getLocalPort());
+		String original = msg.toString();
+
+		ConnectionId connectionId = _provider.sendMessage(msg);
+		Assertions.assertTrue(connectionId instanceof PendingConnectionId);
+		PendingConnectionId pending = (PendingConnectionId) connectionId;
+		Assertions.assertFalse(pending.result().isDone());
+		Assertions.assertEquals(1, _lookups.size());
+
+		_lookups.get(0).run();
+		// Sent over connection-less transport.
+		Assertions.assertNull(pending.result().get(5, TimeUnit.SECONDS));
+
+		DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+		_server.receive(packet);
+		SipMessage received = new SipMessage(packet.getData(), 0, packet.getLength());
+		Assertions.assertEquals("OPTIONS", received.getTransactionMethod());
+
+		// The message of the caller is not touched after sendMessage() has returned.
+		Assertions.assertEquals(original, msg.toString());
+
+		// Now cached.
+		Assertions.assertNull(_provider.sendMessage(msg));
+	}
+
+	@Test
+	void testTransportError() throws Exception {
+		BlockingQueue<SipMessage> failures = new ArrayBlockingQueue<>(10);
+		TransactionClient transaction = new TransactionClient(_provider, options("unknown.example.com:5060"),
+				new TransactionClientListener() {
+					@Override
+					public void onTransProvisionalResponse(TransactionClient tc, SipMessage resp) {
+						Assertions.fail("Unexpected response.");
+					}
+
+					@Override
+					public void onTransSuccessResponse(TransactionClient tc, SipMessage resp) {
+						Assertions.fail("Unexpected response.");
+					}
+
+					@Override
+					public void onTransFailureResponse(TransactionClient tc, SipMessage resp) {
+						failures.add(resp);
+					}
+
+					@Override
+					public void onTransTimeout(TransactionClient tc) {
+						Assertions.fail("Unexpected timeout.");
+					}
+				});
+		transaction.request();
+		Assertions.assertTrue(transaction.getTransportConnId() instanceof PendingConnectionId);
+		Assertions.assertEquals(1, _lookups.size());
+
+		_lookups.get(0).run();
+		SipMessage failure = failures.poll(5, TimeUnit.SECONDS);
+		Assertions.assertNotNull(failure);
+		Assertions.assertEquals(SipResponses.SERVICE_UNAVAILABLE, failure.getStatusLine().getCode());
+		Assertions.assertTrue(transaction.isTerminated());
+	}
+
+	private static SipMessage options(String host) {
+		return new SipMessage(OPTIONS.replace("HOST", host));
+	}
+
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.sip.provider;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mjsip.sip.message.SipMessage;
+import org.zoolu.net.IpAddress;
+import org.zoolu.net.SocketAddress;
+
+/**
+ * Test case for the connection management of {@link SipTransportCO}.
+ */
+@SuppressWarnings("javadoc")
+class TestSipTransportCO {
+
+	private static final String OPTIONS =
+			"OPTIONS sip:bob@example.com SIP/2.0\r\n"
+			+ "Via: SIP/2.0/TCP 127.0.0.1:5060;branch=z9hG4bK776asdhds\r\n"
+			+ "To: <sip:bob@example.com>\r\n"
+			+ "From: <sip:alice@example.com>;tag=1928301774\r\n"
+			+ "Call-ID: a84b4c76e66710@10.0.0.1\r\n"
+			+ "CSeq: 1 OPTIONS\r\n"
+			+ "Content-Length: 0\r\n"
+			+ "\r\n";
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static SipMessage options(int cseq) {
+		return new SipMessage(OPTIONS.replace("CSeq: 1", "CSeq: " + cseq));
+	}
+
+	@Test
+	void testQueuedWhileConnecting() throws Exception {
+		TcpTransport server = new TcpTransport(freePort(), 8);
+		TcpTransport client = new TcpTransport(freePort(), 8);
+		try {
+			BlockingQueue<SipMessage> received = new ArrayBlockingQueue<>(100);
+			server.setListener(new Receiver(received));
+
+			IpAddress localhost = IpAddress.getByName("127.0.0.1");
+			for (int n = 1; n <= 20; n++) {
+				Assertions.assertNotNull(client.sendMessage(options(n), localhost, server.getLocalPort(), 0));
+			}
+			for (int n = 1; n <= 20; n++) {
+				SipMessage msg = received.poll(5, TimeUnit.SECONDS);
+				Assertions.assertNotNull(msg);
+				Assertions.assertEquals(n, msg.getCSeqHeader().getSequenceNumber());
+			}
+			awaitConnected(client);
+			Assertions.assertEquals(1, client.connections.size());
+		} finally {
+			client.halt();
+			server.halt();
+		}
+	}
+
+	@Test
+	void testSlowConnectDoesNotBlockOthers() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		TcpTransport server = new TcpTransport(freePort(), 8);
+		int stuckPort = 1;
+		TcpTransport client = new TcpTransport(freePort(), 8) {
+			@Override
+			protected SipTransportConnection createTransportConnection(SocketAddress remote_soaddr)
+					throws IOException {
+				if (remote_soaddr.getPort() == stuckPort) {
+					try {
+						release.await();
+					} catch (InterruptedException ex) {
+						// Ignore.
+					}
+					throw new IOException("Unreachable.");
+				}
+				return super.createTransportConnection(remote_soaddr);
+			}
+		};
+		try {
+			BlockingQueue<SipMessage> received = new ArrayBlockingQueue<>(10);
+			server.setListener(new Receiver(received));
+
+			IpAddress localhost = IpAddress.getByName("127.0.0.1");
+			for (int n = 0; n < SipTransportCO.MAX_PENDING_MESSAGES; n++) {
+				client.sendMessage(options(n), localhost, stuckPort, 0);
+			}
+			Assertions.assertThrows(WriteQueueFullException.class,
+				() -> client.sendMessage(options(0), localhost, stuckPort, 0));
+			Assertions.assertEquals(1, client.getRejectedMessages());
+
+			client.sendMessage(options(1), localhost, server.getLocalPort(), 0);
+			Assertions.assertNotNull(received.poll(5, TimeUnit.SECONDS));
+
+			release.countDown();
+			awaitConnected(client);
+			Assertions.assertEquals(1, client.connections.size());
+		} finally {
+			release.countDown();
+			client.halt();
+			server.halt();
+		}
+	}
+
+	@Test
+	void testConnectFailure() throws Exception {
+		TcpTransport client = new TcpTransport(freePort(), 8) {
+			@Override
+			protected SipTransportConnection createTransportConnection(SocketAddress remote_soaddr)
+					throws IOException {
+				throw new IOException("Unreachable.");
+			}
+		};
+		try {
+			IpAddress localhost = IpAddress.getByName("127.0.0.1");
+			ConnectionId id = client.sendMessage(options(1), localhost, 1, 0);
+			Assertions.assertTrue(id instanceof PendingConnectionId);
+
+			// Queued messages fail as soon as the connect fails.
+			ExecutionException failure = Assertions.assertThrows(ExecutionException.class,
+				() -> ((PendingConnectionId) id).result().get(5, TimeUnit.SECONDS));
+			Assertions.assertEquals("Unreachable.", failure.getCause().getMessage());
+			awaitConnected(client);
+			Assertions.assertEquals(0, client.connections.size());
+		} finally {
+			client.halt();
+		}
+	}
+
+	@Test
+	void testBoundedConnects() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger connecting = new AtomicInteger();
+		AtomicInteger maxConnecting = new AtomicInteger();
+		TcpTransport client = new TcpTransport(freePort(), 8) {
+			@Override
+			protected SipTransportConnection createTransportConnection(SocketAddress remote_soaddr)
+					throws IOException {
+				maxConnecting.accumulateAndGet(connecting.incrementAndGet(), Math::max);
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					// Ignore.
+				} finally {
+					connecting.decrementAndGet();
+				}
+				throw new IOException("Unreachable.");
+			}
+		};
+		try {
+			IpAddress localhost = IpAddress.getByName("127.0.0.1");
+			int destinations = 2 * SipTransportCO.MAX_CONNECT_THREADS;
+			for (int port = 1; port <= destinations; port++) {
+				client.sendMessage(options(1), localhost, port, 0);
+			}
+			Assertions.assertEquals(destinations, client.getPendingConnections());
+
+			long timeout = System.currentTimeMillis() + 5000;
+			while (connecting.get() < SipTransportCO.MAX_CONNECT_THREADS && System.currentTimeMillis() < timeout) {
+				Thread.sleep(10);
+			}
+			Thread.sleep(50);
+			Assertions.assertEquals(SipTransportCO.MAX_CONNECT_THREADS, maxConnecting.get());
+
+			release.countDown();
+			awaitConnected(client);
+			Assertions.assertEquals(SipTransportCO.MAX_CONNECT_THREADS, maxConnecting.get());
+		} finally {
+			release.countDown();
+			client.halt();
+		}
+	}
+
+	@Test
+	void testLeastRecentlyUsedEviction() throws Exception {
+		TcpTransport[] servers = { new TcpTransport(freePort(), 8), new TcpTransport(freePort(), 8), new TcpTransport(freePort(), 8) };
+		TcpTransport client = new TcpTransport(0, 2);
+		try {
+			BlockingQueue<SipMessage> received = new ArrayBlockingQueue<>(10);
+			for (TcpTransport server : servers) {
+				server.setListener(new Receiver(received));
+			}
+
+			IpAddress localhost = IpAddress.getByName("127.0.0.1");
+			int[] order = { 0, 1, 0, 2 };
+			for (int index : order) {
+				client.sendMessage(options(1), localhost, servers[index].getLocalPort(), 0);
+				Assertions.assertNotNull(received.poll(5, TimeUnit.SECONDS));
+				awaitConnected(client);
+				Thread.sleep(20);
+			}
+
+			Assertions.assertEquals(2, client.connections.size());
+			Assertions.assertEquals(client.connections.keySet(), client.lru.keySet());
+			Assertions.assertTrue(client.connections.containsKey(
+				new ConnectionId(SipProvider.PROTO_TCP, localhost, servers[0].getLocalPort())));
+			Assertions.assertTrue(client.connections.containsKey(
+				new ConnectionId(SipProvider.PROTO_TCP, localhost, servers[2].getLocalPort())));
+		} finally {
+			client.halt();
+			for (TcpTransport server : servers) {
+				server.halt();
+			}
+		}
+	}
+
+	private static void awaitConnected(SipTransportCO transport) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 5000;
+		while (transport.getPendingConnections() > 0 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		Assertions.assertEquals(0, transport.getPendingConnections());
+	}
+
+	private static final class Receiver implements SipTransportListener {
+		private final BlockingQueue<SipMessage> _received;
+
+		Receiver(BlockingQueue<SipMessage> received) {
+			_received = received;
+		}
+
+		@Override
+		public void onReceivedMessage(SipTransport transport, SipMessage msg) {
+			_received.add(msg);
+		}
+
+		@Override
+		public void onIncomingTransportConnection(SipTransport transport, SocketAddress remote_soaddr) {
+			// Ignore.
+		}
+
+		@Override
+		public void onTransportConnectionTerminated(SipTransport transport, SocketAddress remote_soaddr,
+				Exception error) {
+			// Ignore.
+		}
+
+		@Override
+		public void onTransportTerminated(SipTransport transport, Exception error) {
+			// Ignore.
+		}
+	}
+
+}
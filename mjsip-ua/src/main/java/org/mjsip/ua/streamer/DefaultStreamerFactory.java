@@ -7,10 +7,13 @@ import java.util.concurrent.Executor;
 
 import org.mjsip.media.AudioStreamer;
 import org.mjsip.media.FlowSpec;
+import org.mjsip.media.MediaClockExecutor;
 import org.mjsip.media.MediaStreamer;
+import org.mjsip.media.RtpMediaEngine;
 import org.mjsip.media.StreamerOptions;
 import org.mjsip.media.rx.AudioReceiver;
 import org.mjsip.media.tx.AudioTransmitter;
+import org.mjsip.time.MediaClock;
 
 /**
  * {@link StreamerFactory} creating an {@link AudioStreamer} based on {@link StreamerOptions},
@@ -21,11 +24,38 @@ public class DefaultStreamerFactory implements StreamerFactory {
 	private final AudioReceiver _rx;
 	private final AudioTransmitter _tx;
 	private final StreamerOptions _options;
+	private final RtpMediaEngine _engine;
+	private final MediaClock _clock;
 
 	/** 
 	 * Creates a {@link DefaultStreamerFactory}.
 	 */
 	public DefaultStreamerFactory(StreamerOptions options, AudioReceiver rx, AudioTransmitter tx) {
+		this(null, options, rx, tx);
+	}
+
+	/** 
+	 * Creates a {@link DefaultStreamerFactory} whose streamers are driven by the given {@link RtpMediaEngine}.
+	 * 
+	 * @param engine
+	 *        The engine to use, or <code>null</code> to run each stream in its own thread.
+	 */
+	public DefaultStreamerFactory(RtpMediaEngine engine, StreamerOptions options, AudioReceiver rx, AudioTransmitter tx) {
+		this(engine, null, options, rx, tx);
+	}
+
+	/** 
+	 * Creates a {@link DefaultStreamerFactory} whose senders are paced by the given {@link MediaClock}.
+	 * 
+	 * @param engine
+	 *        The engine to use, or <code>null</code> to run each stream in its own thread.
+	 * @param clock
+	 *        The clock pacing the senders that are not driven by the engine, or <code>null</code> to
+	 *        pace each sender by its own thread.
+	 */
+	public DefaultStreamerFactory(RtpMediaEngine engine, MediaClock clock, StreamerOptions options, AudioReceiver rx, AudioTransmitter tx) {
+		_engine = engine;
+		_clock = clock;
 		_options = options;
 		_rx = rx;
 		_tx = tx;
@@ -33,7 +63,8 @@ public class DefaultStreamerFactory implements StreamerFactory {
 
 	@Override
 	public MediaStreamer createMediaStreamer(Executor executor, FlowSpec flow_spec) {
-		return new AudioStreamer(executor, flow_spec, _tx, _rx, _options);
+		Executor streamExecutor = (_clock != null) ? new MediaClockExecutor(_clock, executor) : executor;
+		return new AudioStreamer(_engine, streamExecutor, flow_spec, _tx, _rx, _options);
 	}
 
 }
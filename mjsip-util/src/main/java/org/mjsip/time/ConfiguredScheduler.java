@@ -5,9 +5,13 @@ package org.mjsip.time;
 
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * Service for scheduling tasks.
  *
@@ -15,6 +19,8 @@ import java.util.concurrent.ThreadFactory;
  */
 public class ConfiguredScheduler implements Scheduler {
 
+	private static final Logger LOG = LoggerFactory.getLogger(ConfiguredScheduler.class);
+
 	/**
 	 * Inner non-daemon scheduler. The program terminates only when all non-daemon timers
 	 * (associated to this scheduler) have ended (for timeout or explicitly halted)
@@ -27,19 +33,77 @@ public class ConfiguredScheduler implements Scheduler {
 	 */
 	private ScheduledThreadPoolExecutor daemonExecutor;
 
+	/**
+	 * Factory for threads executing tasks passed to {@link #execute(Runnable)}, or
+	 * <code>null</code> if those tasks run in the thread pool.
+	 */
+	private ThreadFactory taskFactory;
+
+	/**
+	 * Timing wheel for timers, or <code>null</code> if timers are scheduled in the thread pool.
+	 */
+	private TimingWheelScheduler timers;
+
 	/**
 	 * Creates a {@link ConfiguredScheduler}.
+	 *
+	 * <p>
+	 * The virtual thread option only affects tasks passed to {@link #execute(Runnable)}. To also
+	 * run the I/O loops of the process on virtual threads, the application must call
+	 * {@link ThreadSupport#configure(SchedulerConfig)}.
+	 * </p>
 	 */
 	public ConfiguredScheduler(SchedulerConfig config) {
 		executor = new ScheduledThreadPoolExecutor(config.getThreadPoolSize(),
 				config.useDaemonThreads() ? new DaemonFactory() : Executors.defaultThreadFactory());
+
+		if (config.useVirtualThreads()) {
+			taskFactory = ThreadSupport.virtualThreadFactory();
+			if (taskFactory == null) {
+				LOG.warn("Virtual threads are not supported by this JVM, using platform threads.");
+			}
+		}
+
+		if (config.getTimerTick() > 0) {
+			timers = new TimingWheelScheduler(executor, executor, config.getTimerTick(),
+					TimingWheelScheduler.DEFAULT_WHEEL_SIZE);
+		}
 	}
 	
+	/**
+	 * Executes the given command.
+	 * 
+	 * <p>
+	 * In virtual thread mode, each command runs on a new virtual thread, since commands passed
+	 * here may be long-running blocking loops such as RTP senders and receivers. Otherwise, the
+	 * command runs in the thread pool.
+	 * </p>
+	 */
 	@Override
 	public void execute(Runnable command) {
-		executor.execute(command);
+		if (taskFactory != null) {
+			taskFactory.newThread(command).start();
+		} else {
+			executor.execute(command);
+		}
 	}
 	
+	@Override
+	public ScheduledFuture<?> schedule(long delay, Runnable task) {
+		if (timers != null) {
+			return timers.schedule(delay, task);
+		}
+		return Scheduler.super.schedule(delay, task);
+	}
+
+	@Override
+	public ScheduledFuture<?> schedulerWithFixedDelay(long delay, Runnable task) {
+		if (timers != null) {
+			return timers.schedulerWithFixedDelay(delay, task);
+		}
+		return Scheduler.super.schedulerWithFixedDelay(delay, task);
+	}
+
 	@Override
 	public ScheduledExecutorService scheduler() {
 		return executor;
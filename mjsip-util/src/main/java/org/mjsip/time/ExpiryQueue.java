@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.time;
+
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Index of entries ordered by due time with a single timer for the earliest one.
+ *
+ * <p>
+ * Adding and removing an entry costs a logarithmic index update. After changing the index, the
+ * owner calls {@link #schedule()} to make sure that its action runs not later than the earliest
+ * due time. The action then removes all due entries with {@link #pollDue(long)} and schedules
+ * again.
+ * </p>
+ *
+ * <p>
+ * The queue is not thread-safe. All accesses must be synchronized on the lock passed to the
+ * constructor, which is also held while the timer is reset before running the action. The action
+ * itself is called without holding the lock.
+ * </p>
+ *
+ * @param <E>
+ *        The entry type.
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class ExpiryQueue<E extends ExpiryQueue.Entry> implements Iterable<E> {
+
+	private final Object _lock;
+
+	private final Scheduler _scheduler;
+
+	private final Runnable _action;
+
+	private final TreeSet<E> _queue = new TreeSet<>();
+
+	private long _sequence;
+
+	private ScheduledFuture<?> _timer;
+
+	private long _timerTime;
+
+	/**
+	 * Creates a {@link ExpiryQueue}.
+	 *
+	 * @param lock
+	 *        The lock guarding all accesses to the queue.
+	 * @param scheduler
+	 *        The scheduler running the timer.
+	 * @param action
+	 *        The action to run when the earliest entry is due.
+	 */
+	public ExpiryQueue(Object lock, Scheduler scheduler, Runnable action) {
+		_lock = lock;
+		_scheduler = scheduler;
+		_action = action;
+	}
+
+	/**
+	 * Adds an entry that is not yet in the queue.
+	 *
+	 * <p>
+	 * Entries with the same due time are ordered by the time they were added.
+	 * </p>
+	 *
+	 * @param entry
+	 *        The entry to add.
+	 * @param due
+	 *        The time in milliseconds when the entry is due.
+	 */
+	public void add(E entry, long due) {
+		Entry indexed = entry;
+		indexed._due = due;
+		indexed._sequence = _sequence++;
+		_queue.add(entry);
+	}
+
+	/**
+	 * Removes the given entry.
+	 *
+	 * @return Whether the entry was in the queue.
+	 */
+	public boolean remove(E entry) {
+		return _queue.remove(entry);
+	}
+
+	/**
+	 * Removes the earliest entry, if it is due at the given time.
+	 *
+	 * @return The removed entry, or <code>null</code> if no entry is due.
+	 */
+	public E pollDue(long now) {
+		if (_queue.isEmpty() || _queue.first().getDue() > now) {
+			return null;
+		}
+		return _queue.pollFirst();
+	}
+
+	/**
+	 * The number of queued entries.
+	 */
+	public int size() {
+		return _queue.size();
+	}
+
+	/**
+	 * Whether no entry is queued.
+	 */
+	public boolean isEmpty() {
+		return _queue.isEmpty();
+	}
+
+	/**
+	 * Removes all entries and cancels the timer.
+	 */
+	public void clear() {
+		_queue.clear();
+		if (_timer != null) {
+			_timer.cancel(false);
+			_timer = null;
+		}
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return _queue.iterator();
+	}
+
+	/**
+	 * Makes sure that the timer fires not later than the earliest due time.
+	 */
+	public void schedule() {
+		if (_queue.isEmpty()) {
+			return;
+		}
+		long next = _queue.first().getDue();
+		if (_timer != null) {
+			if (_timerTime <= next) {
+				return;
+			}
+			_timer.cancel(false);
+		}
+		_timerTime = next;
+		_timer = _scheduler.schedule(Math.max(0, next - System.currentTimeMillis()), this::fire);
+	}
+
+	private void fire() {
+		synchronized (_lock) {
+			_timer = null;
+		}
+		_action.run();
+	}
+
+	/**
+	 * Base class for entries of an {@link ExpiryQueue}.
+	 */
+	public static class Entry implements Comparable<Entry> {
+
+		/** The ordering key in the queue. */
+		private long _due;
+
+		/** Tie-breaker for entries with the same due time. */
+		private long _sequence;
+
+		/**
+		 * The time in milliseconds when this entry is due.
+		 */
+		public long getDue() {
+			return _due;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			int result = Long.compare(_due, other._due);
+			return result != 0 ? result : Long.compare(_sequence, other._sequence);
+		}
+
+	}
+
+}
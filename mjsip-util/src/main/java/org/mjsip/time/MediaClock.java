@@ -0,0 +1,446 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.time;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared clock timing the packet departures of many media streams from a single thread.
+ *
+ * <p>
+ * Each stream registers a {@link Pacer} that is called whenever its next packet is due. The
+ * clock advances in fixed ticks on the monotonic {@link System#nanoTime()} time base. Tick
+ * deadlines are absolute, so that a late wakeup does not shift subsequent ticks. The clock
+ * measures how much the thread oversleeps a requested park time and wakes up earlier by that
+ * amount. Departure times of a stream are computed from the previous scheduled departure, not
+ * from the actual send time, so that the packet rate does not drift.
+ * </p>
+ *
+ * <p>
+ * Registered streams are kept in the same kind of {@link TimingWheel} as the timers of a
+ * {@link TimingWheelScheduler}. A newly registered stream starts in the least loaded tick of the
+ * next {@link #DEFAULT_SPREAD spread} ticks, so that streams with the same packet time depart in
+ * different ticks instead of all in the same one.
+ * </p>
+ *
+ * <p>
+ * For each stream, the clock reports the lateness of departures and the pacing jitter, which is
+ * the smoothed variation of the lateness, computed like the interarrival jitter of RFC 3550.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class MediaClock {
+
+	private static final Logger LOG = LoggerFactory.getLogger(MediaClock.class);
+
+	/** Default tick duration in nanoseconds. */
+	public static final long DEFAULT_TICK = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/** Default number of ticks across which new streams are spread, one common packet time. */
+	public static final int DEFAULT_SPREAD = 20;
+
+	/** Number of buckets of the wheel. */
+	private static final int WHEEL_SIZE = 256;
+
+	/**
+	 * Maximum number of packets sent for a single stream in one tick. If a stream falls further
+	 * behind, its schedule continues from the current time instead of sending a burst.
+	 */
+	private static final int MAX_BURST = 4;
+
+	/**
+	 * Callback of a registered stream.
+	 */
+	public interface Pacer {
+
+		/**
+		 * Sends the packet that is due now.
+		 *
+		 * @param now
+		 *        The current {@link System#nanoTime()}.
+		 * @return The time in nanoseconds from the scheduled departure of this packet to the
+		 *         departure of the next one, <code>0</code> if no packet was available, so that
+		 *         the clock retries on the next tick, or a negative value to end the registration.
+		 */
+		long depart(long now);
+
+	}
+
+	private final long _tickNanos;
+
+	private final int _spread;
+
+	/** The buckets, only accessed by the clock thread. */
+	private final TimingWheel<Registration> _wheel;
+
+	/** The number of registrations in each bucket. */
+	private final int[] _load;
+
+	private final Consumer<Registration> _expire = this::expire;
+
+	private final Queue<Registration> _added = new ConcurrentLinkedQueue<>();
+
+	private final Thread _thread;
+
+	/** The {@link System#nanoTime()} of the tick being processed. */
+	private long _now;
+
+	/** The tick being processed. */
+	private long _current;
+
+	/** Estimated oversleep of the clock thread in nanoseconds. */
+	private volatile long _oversleep;
+
+	private volatile int _size;
+
+	private volatile boolean _stopped;
+
+	/**
+	 * Creates a {@link MediaClock} with default tick and spread.
+	 *
+	 * @param name
+	 *        The name of the clock thread.
+	 */
+	public MediaClock(String name) {
+		this(name, DEFAULT_TICK, DEFAULT_SPREAD);
+	}
+
+	/**
+	 * Creates a {@link MediaClock}.
+	 *
+	 * @param name
+	 *        The name of the clock thread.
+	 * @param tickNanos
+	 *        The duration of a tick in nanoseconds, the resolution of departure times.
+	 * @param spread
+	 *        The number of ticks across which newly registered streams are spread.
+	 */
+	public MediaClock(String name, long tickNanos, int spread) {
+		this(tickNanos, spread, name);
+	}
+
+	/**
+	 * Creates a {@link MediaClock} without thread that is only advanced by
+	 * {@link #process(long)}.
+	 */
+	MediaClock(long tickNanos, int spread) {
+		this(tickNanos, spread, null);
+	}
+
+	private MediaClock(long tickNanos, int spread, String name) {
+		_wheel = new TimingWheel<>(WHEEL_SIZE, tickNanos);
+		_tickNanos = tickNanos;
+		_spread = Math.max(1, Math.min(spread, WHEEL_SIZE - 1));
+		_load = new int[WHEEL_SIZE];
+
+		if (name == null) {
+			_thread = null;
+		} else {
+			_thread = new Thread(this::run, name);
+			_thread.setDaemon(true);
+			_thread.setPriority(Thread.MAX_PRIORITY);
+			_thread.start();
+		}
+	}
+
+	/**
+	 * Registers a stream that starts in the least loaded of the next ticks.
+	 *
+	 * @param pacer
+	 *        The callback sending the packets of the stream.
+	 * @return The registration to cancel and monitor the stream.
+	 */
+	public Registration register(Pacer pacer) {
+		return add(new Registration(pacer));
+	}
+
+	/**
+	 * Registers a stream with a given first departure.
+	 *
+	 * @param pacer
+	 *        The callback sending the packets of the stream.
+	 * @param departure
+	 *        The {@link System#nanoTime()} of the first departure.
+	 * @return The registration to cancel and monitor the stream.
+	 */
+	public Registration register(Pacer pacer, long departure) {
+		Registration registration = new Registration(pacer);
+		registration._due = departure;
+		registration._scheduled = true;
+		return add(registration);
+	}
+
+	private Registration add(Registration registration) {
+		if (_stopped) {
+			throw new IllegalStateException("Media clock stopped.");
+		}
+		_added.add(registration);
+		return registration;
+	}
+
+	/**
+	 * The number of registered streams.
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * The tick duration in nanoseconds.
+	 */
+	public long getTick() {
+		return _tickNanos;
+	}
+
+	/**
+	 * The estimated time in nanoseconds the clock thread wakes up later than requested, which is
+	 * compensated by waking up earlier.
+	 */
+	public long getOversleep() {
+		return _oversleep;
+	}
+
+	/**
+	 * The {@link System#nanoTime()} of tick zero.
+	 */
+	long getStart() {
+		return _wheel.getStart();
+	}
+
+	/**
+	 * Stops the clock. Registered streams are no longer called after this method returns, unless
+	 * it is called by a {@link Pacer}.
+	 */
+	public void stop() {
+		_stopped = true;
+		if (_thread == null) {
+			return;
+		}
+		LockSupport.unpark(_thread);
+		if (Thread.currentThread() != _thread) {
+			try {
+				_thread.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void run() {
+		long deadline = _wheel.getStart() + _tickNanos;
+		while (!_stopped) {
+			long now = System.nanoTime();
+			long remaining = deadline - now;
+			long oversleep = _oversleep;
+			if (remaining > oversleep) {
+				long park = remaining - oversleep;
+				LockSupport.parkNanos(this, park);
+				long late = System.nanoTime() - now - park;
+				// Smooth the oversleep, but at most compensate half a tick.
+				_oversleep = Math.max(0, Math.min(_tickNanos / 2, oversleep + ((late - oversleep) >> 3)));
+				continue;
+			}
+
+			try {
+				process(now);
+			} catch (RuntimeException ex) {
+				LOG.error("Media clock tick failed.", ex);
+			}
+
+			deadline += _tickNanos;
+			if (now - deadline > _tickNanos) {
+				// Missed ticks have been processed in a single run, continue from now.
+				deadline = now + _tickNanos;
+			}
+		}
+	}
+
+	/**
+	 * Adds new registrations and processes all ticks up to the current time.
+	 */
+	void process(long now) {
+		long current = _wheel.tickOf(now);
+
+		for (Registration added; (added = _added.poll()) != null;) {
+			if (added._cancelled) {
+				continue;
+			}
+			if (!added._scheduled) {
+				added._due = _wheel.getStart() + leastLoaded(current) * _tickNanos;
+				added._scheduled = true;
+			}
+			insert(added, current);
+			_size++;
+		}
+
+		_now = now;
+		_current = current;
+		_wheel.advance(current, _expire);
+	}
+
+	private void expire(Registration registration) {
+		_load[_wheel.bucket(registration._expiration)]--;
+		if (registration._cancelled || !depart(registration, _now)) {
+			registration._cancelled = true;
+			_size--;
+		} else {
+			insert(registration, _current);
+		}
+	}
+
+	/**
+	 * Sends all due packets of the given registration.
+	 *
+	 * @return Whether the registration remains active.
+	 */
+	private boolean depart(Registration registration, long now) {
+		long interval = 0;
+		for (int burst = 0; burst < MAX_BURST; burst++) {
+			try {
+				interval = registration._pacer.depart(now);
+			} catch (RuntimeException ex) {
+				LOG.error("Media stream failed, unregistering.", ex);
+				return false;
+			}
+			if (interval < 0) {
+				return false;
+			}
+			if (interval == 0) {
+				// Nothing to send, retry on next tick.
+				registration._due = now;
+				return true;
+			}
+			registration.onDeparture(now);
+			registration._due += interval;
+			if (registration._due - now > 0) {
+				return true;
+			}
+		}
+		// Far behind schedule, continue from now without catching up.
+		registration._due = now + interval;
+		return true;
+	}
+
+	private void insert(Registration registration, long current) {
+		long expiration = Math.max(_wheel.expirationOf(registration._due), current + 1);
+		_wheel.link(registration, expiration);
+		_load[_wheel.bucket(expiration)]++;
+	}
+
+	private long leastLoaded(long current) {
+		long result = current + 1;
+		int min = Integer.MAX_VALUE;
+		for (long tick = current + 1; tick <= current + _spread; tick++) {
+			int load = _load[_wheel.bucket(tick)];
+			if (load < min) {
+				min = load;
+				result = tick;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * A stream registered with a {@link MediaClock}.
+	 */
+	public static final class Registration extends TimingWheel.Node {
+
+		final Pacer _pacer;
+
+		long _due;
+
+		boolean _scheduled;
+
+		volatile boolean _cancelled;
+
+		private long _lastLateness;
+
+		private volatile long _departures;
+
+		private volatile long _lateness;
+
+		private volatile long _maxLateness;
+
+		/** Pacing jitter in nanoseconds, scaled by 16. */
+		private volatile long _jitter;
+
+		Registration(Pacer pacer) {
+			_pacer = pacer;
+		}
+
+		/**
+		 * Ends this registration. The {@link Pacer} is not called anymore after the current tick.
+		 */
+		public void cancel() {
+			_cancelled = true;
+		}
+
+		/**
+		 * Whether this registration has ended, either by {@link #cancel()} or by the
+		 * {@link Pacer}.
+		 */
+		public boolean isCancelled() {
+			return _cancelled;
+		}
+
+		/**
+		 * The number of packets sent.
+		 */
+		public long getDepartures() {
+			return _departures;
+		}
+
+		/**
+		 * The lateness of the last departure in nanoseconds, negative if it was early.
+		 */
+		public long getLateness() {
+			return _lateness;
+		}
+
+		/**
+		 * The maximum lateness of a departure in nanoseconds.
+		 */
+		public long getMaxLateness() {
+			return _maxLateness;
+		}
+
+		/**
+		 * The pacing jitter in nanoseconds, the smoothed variation of the lateness between
+		 * consecutive departures.
+		 */
+		public long getJitter() {
+			return _jitter >> 4;
+		}
+
+		void onDeparture(long now) {
+			long lateness = now - _due;
+			if (_departures > 0) {
+				long d = Math.abs(lateness - _lastLateness);
+				_jitter += d - ((_jitter + 8) >> 4);
+			}
+			_lastLateness = lateness;
+			_lateness = lateness;
+			if (lateness > _maxLateness) {
+				_maxLateness = lateness;
+			}
+			_departures++;
+		}
+
+		@Override
+		public String toString() {
+			return "departures=" + _departures + ", jitter=" + getJitter() + "ns, max lateness=" + _maxLateness
+				+ "ns";
+		}
+
+	}
+
+}
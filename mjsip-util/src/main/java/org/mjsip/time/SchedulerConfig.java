@@ -19,6 +19,12 @@ public class SchedulerConfig {
 	@Option(name = "--use-daemon-treads", handler = YesNoHandler.class)
 	private boolean _daemonThreads = true;
 
+	@Option(name = "--virtual-threads", handler = YesNoHandler.class, usage = "Whether to run executed tasks and, if applied through ThreadSupport, blocking I/O loops on virtual threads (requires Java 21).")
+	private boolean _virtualThreads = false;
+
+	@Option(name = "--timer-tick", usage = "Resolution in milliseconds of a timing wheel for timers, 0 to keep timers in the thread pool's queue.")
+	private long _timerTick = 0;
+
 	/**
 	 * The core pool size of the scheduler's thread pool.
 	 */
@@ -33,4 +39,34 @@ public class SchedulerConfig {
 		return _daemonThreads;
 	}
 
+	/**
+	 * Whether tasks passed to {@link Scheduler#execute(Runnable)} run on virtual threads.
+	 * 
+	 * <p>
+	 * Blocking I/O loops only run on virtual threads, if the application explicitly applies this
+	 * setting with {@link ThreadSupport#configure(SchedulerConfig)}.
+	 * </p>
+	 */
+	public boolean useVirtualThreads() {
+		return _virtualThreads;
+	}
+
+	/** @see #useVirtualThreads() */
+	public void setVirtualThreads(boolean virtualThreads) {
+		_virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * The tick duration in milliseconds of the {@link TimingWheelScheduler} used for timers, or
+	 * <code>0</code>, if timers are scheduled directly in the thread pool.
+	 */
+	public long getTimerTick() {
+		return _timerTick;
+	}
+
+	/** @see #getTimerTick() */
+	public void setTimerTick(long timerTick) {
+		_timerTick = timerTick;
+	}
+
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.time;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pluggable creation of the threads running blocking I/O loops.
+ *
+ * <p>
+ * By default, each loop runs on its own platform thread. When a {@link ThreadFactory} is installed
+ * with {@link #setThreadFactory(ThreadFactory)} or {@link #configure(SchedulerConfig)}, all loops
+ * started through this class run on threads created by that factory, e.g. on virtual threads (see
+ * {@link #virtualThreadFactory()}).
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class ThreadSupport {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ThreadSupport.class);
+
+	private static volatile ThreadFactory _factory;
+
+	/**
+	 * The currently installed {@link ThreadFactory}, or <code>null</code> if loops run on their
+	 * own platform threads.
+	 */
+	public static ThreadFactory getThreadFactory() {
+		return _factory;
+	}
+
+	/**
+	 * Installs the {@link ThreadFactory} for subsequently started loops.
+	 *
+	 * @param factory
+	 *        The factory to use, or <code>null</code> to run loops on their own platform threads.
+	 */
+	public static void setThreadFactory(ThreadFactory factory) {
+		_factory = factory;
+	}
+
+	/**
+	 * Starts the given loop on a new thread.
+	 *
+	 * @param name
+	 *        The name of the new thread.
+	 * @param daemon
+	 *        Whether a platform thread should be a daemon thread. Ignored for factory-created
+	 *        threads.
+	 * @return The started thread.
+	 */
+	public static Thread start(Runnable loop, String name, boolean daemon) {
+		ThreadFactory factory = _factory;
+		Thread thread;
+		if (factory == null) {
+			thread = new Thread(loop, name);
+			thread.setDaemon(daemon);
+		} else {
+			thread = factory.newThread(loop);
+			thread.setName(name);
+		}
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Installs the virtual thread factory for all subsequently started loops, if requested by the
+	 * given configuration.
+	 *
+	 * <p>
+	 * This changes the threading of the whole process and must be called explicitly by the
+	 * application, before creating its providers.
+	 * </p>
+	 *
+	 * @return Whether loops now run on virtual threads.
+	 *
+	 * @see SchedulerConfig#useVirtualThreads()
+	 */
+	public static boolean configure(SchedulerConfig config) {
+		if (!config.useVirtualThreads()) {
+			return false;
+		}
+		ThreadFactory factory = virtualThreadFactory();
+		if (factory == null) {
+			LOG.warn("Virtual threads are not supported by this JVM, using platform threads.");
+			return false;
+		}
+		setThreadFactory(factory);
+		return true;
+	}
+
+	/**
+	 * Creates a {@link ThreadFactory} for virtual threads.
+	 *
+	 * @return The factory, or <code>null</code> if the running JVM does not support virtual
+	 *         threads.
+	 */
+	public static ThreadFactory virtualThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Whether the running JVM supports virtual threads.
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return virtualThreadFactory() != null;
+	}
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.time;
+
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel of {@link Node}s on the {@link System#nanoTime()} time base.
+ *
+ * <p>
+ * Nodes are kept in a fixed number of buckets, each covering one tick. A node is linked into the
+ * bucket of its expiration tick, nodes further away than one revolution of the wheel share the
+ * bucket with earlier ones and are skipped until their tick is reached. Linking and unlinking a
+ * node are constant time operations that do not allocate.
+ * </p>
+ *
+ * <p>
+ * The wheel is not thread-safe, it must only be accessed by the thread advancing it.
+ * </p>
+ *
+ * @param <N>
+ *        The node type.
+ *
+ * @see TimingWheelScheduler
+ * @see MediaClock
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+final class TimingWheel<N extends TimingWheel.Node> {
+
+	private final Node[] _buckets;
+
+	private final int _mask;
+
+	private final long _tickNanos;
+
+	private final long _start;
+
+	/** The next tick to process. */
+	private long _tick;
+
+	/**
+	 * Creates a {@link TimingWheel} starting now.
+	 *
+	 * @param size
+	 *        The minimum number of buckets, rounded up to a power of two.
+	 * @param tickNanos
+	 *        The duration of a tick in nanoseconds.
+	 */
+	TimingWheel(int size, long tickNanos) {
+		if (tickNanos <= 0) {
+			throw new IllegalArgumentException("Tick must be positive: " + tickNanos);
+		}
+		int buckets = Integer.highestOneBit(Math.max(size, 2) - 1) << 1;
+		_buckets = new Node[buckets];
+		for (int n = 0; n < buckets; n++) {
+			_buckets[n] = new Node();
+		}
+		_mask = buckets - 1;
+		_tickNanos = tickNanos;
+		_start = System.nanoTime();
+	}
+
+	/**
+	 * The number of buckets.
+	 */
+	int size() {
+		return _buckets.length;
+	}
+
+	/**
+	 * The duration of a tick in nanoseconds.
+	 */
+	long getTickNanos() {
+		return _tickNanos;
+	}
+
+	/**
+	 * The {@link System#nanoTime()} of tick zero.
+	 */
+	long getStart() {
+		return _start;
+	}
+
+	/**
+	 * The next tick to process.
+	 */
+	long nextTick() {
+		return _tick;
+	}
+
+	/**
+	 * The tick of the given {@link System#nanoTime()}, not before the next tick to process.
+	 */
+	long tickOf(long now) {
+		return Math.max(_tick, (now - _start) / _tickNanos);
+	}
+
+	/**
+	 * The first tick not before the given {@link System#nanoTime()} deadline.
+	 */
+	long expirationOf(long deadline) {
+		return (deadline - _start + _tickNanos - 1) / _tickNanos;
+	}
+
+	/**
+	 * The bucket index of the given tick.
+	 */
+	int bucket(long tick) {
+		return (int) tick & _mask;
+	}
+
+	/**
+	 * Links a node that is not in the wheel into the bucket of the given tick.
+	 */
+	void link(N node, long expiration) {
+		node._expiration = expiration;
+		node.linkBefore(_buckets[bucket(expiration)]);
+	}
+
+	/**
+	 * Unlinks all nodes expired up to the given tick and passes them to the given action.
+	 *
+	 * <p>
+	 * At most one revolution of the wheel is processed. The action may link the expired node
+	 * again, but only to a tick after the given one.
+	 * </p>
+	 *
+	 * @param current
+	 *        The current tick, see {@link #tickOf(long)}.
+	 * @param action
+	 *        Callback for each expired node.
+	 */
+	@SuppressWarnings("unchecked")
+	void advance(long current, Consumer<? super N> action) {
+		long last = Math.min(current, _tick + _mask);
+		for (long tick = _tick; tick <= last; tick++) {
+			Node head = _buckets[bucket(tick)];
+			for (Node node = head._next; node != head;) {
+				Node next = node._next;
+				if (node._expiration <= current) {
+					node.unlink();
+					action.accept((N) node);
+				}
+				node = next;
+			}
+		}
+		_tick = current + 1;
+	}
+
+	/**
+	 * Entry of a {@link TimingWheel}. An instance of this class itself serves as bucket head.
+	 */
+	static class Node {
+
+		/** The tick this node expires in. */
+		long _expiration;
+
+		Node _prev = this;
+
+		Node _next = this;
+
+		void linkBefore(Node head) {
+			_next = head;
+			_prev = head._prev;
+			_prev._next = this;
+			head._prev = this;
+		}
+
+		/**
+		 * Removes this node from the wheel, if linked.
+		 */
+		void unlink() {
+			_prev._next = _next;
+			_next._prev = _prev;
+			_prev = this;
+			_next = this;
+		}
+
+	}
+
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.time;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link Scheduler} that keeps its timers in a hashed timing wheel.
+ *
+ * <p>
+ * Timers are kept in a fixed number of buckets, each covering one tick. A timer is linked into the
+ * bucket of its expiration tick, timers further away than one revolution of the wheel share the
+ * bucket with earlier ones and are skipped until their tick is reached. Scheduling and cancelling
+ * a timer are constant time operations that neither allocate queue nodes nor leave cancelled
+ * entries behind, as opposed to the heap of a {@link ScheduledExecutorService}.
+ * </p>
+ *
+ * <p>
+ * Expiration is rounded up to the next tick. Expired tasks are passed to the executor, the wheel
+ * itself is advanced by a single periodic task of the given {@link ScheduledExecutorService}.
+ * </p>
+ *
+ * <p>
+ * The buckets are only accessed by the ticker task. Threads scheduling or cancelling timers do
+ * not lock the scheduler. They push the timer onto a lock-free list of added or cancelled timers,
+ * which the ticker drains before processing the next ticks, and change the state of a timer
+ * atomically.
+ * </p>
+ *
+ * @author <a href="mailto:haui@haumacher.de">Bernhard Haumacher</a>
+ */
+public class TimingWheelScheduler implements Scheduler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+	private static final AtomicIntegerFieldUpdater<Timer> STATE =
+		AtomicIntegerFieldUpdater.newUpdater(Timer.class, "_state");
+
+	/** Default tick duration in milliseconds. */
+	public static final long DEFAULT_TICK = 10;
+
+	/** Default number of buckets of the wheel. */
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private final ScheduledExecutorService _scheduler;
+
+	private final Executor _executor;
+
+	/**
+	 * The buckets, only accessed by the ticker task.
+	 */
+	private final TimingWheel<Timer> _wheel;
+
+	private final Consumer<Timer> _expire = this::expire;
+
+	/**
+	 * Timers to link into the wheel, chained through {@link Timer#_nextAdded}.
+	 */
+	private final AtomicReference<Timer> _added = new AtomicReference<>();
+
+	/**
+	 * Cancelled timers to unlink from the wheel, chained through {@link Timer#_nextCancelled}.
+	 */
+	private final AtomicReference<Timer> _cancelled = new AtomicReference<>();
+
+	private final AtomicInteger _size = new AtomicInteger();
+
+	private final ScheduledFuture<?> _ticker;
+
+	/**
+	 * Creates a {@link TimingWheelScheduler} with default tick and wheel size.
+	 *
+	 * @param scheduler
+	 *        The scheduler advancing the wheel and executing expired tasks.
+	 */
+	public TimingWheelScheduler(ScheduledExecutorService scheduler) {
+		this(scheduler, scheduler, DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+	}
+
+	/**
+	 * Creates a {@link TimingWheelScheduler}.
+	 *
+	 * @param scheduler
+	 *        The scheduler advancing the wheel.
+	 * @param executor
+	 *        The executor running expired tasks.
+	 * @param tick
+	 *        The duration of a tick in milliseconds, the resolution of timers.
+	 * @param wheelSize
+	 *        The number of buckets, rounded up to a power of two.
+	 */
+	public TimingWheelScheduler(ScheduledExecutorService scheduler, Executor executor, long tick, int wheelSize) {
+		if (tick <= 0) {
+			throw new IllegalArgumentException("Tick must be positive: " + tick);
+		}
+		_scheduler = scheduler;
+		_executor = executor;
+		_wheel = new TimingWheel<>(wheelSize, TimeUnit.MILLISECONDS.toNanos(tick));
+
+		_ticker = scheduler.scheduleAtFixedRate(this::advance, tick, tick, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public ScheduledExecutorService scheduler() {
+		return _scheduler;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		_executor.execute(command);
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(long delay, Runnable task) {
+		Timer result = new Timer(task, 0);
+		enqueue(result, TimeUnit.MILLISECONDS.toNanos(delay));
+		return result;
+	}
+
+	@Override
+	public ScheduledFuture<?> schedulerWithFixedDelay(long delay, Runnable task) {
+		Timer result = new Timer(task, TimeUnit.MILLISECONDS.toNanos(delay));
+		enqueue(result, result._period);
+		return result;
+	}
+
+	/**
+	 * Stops advancing the wheel. Pending timers no longer expire.
+	 */
+	public void shutdown() {
+		_ticker.cancel(false);
+	}
+
+	/**
+	 * The number of timers waiting for expiration.
+	 */
+	public int size() {
+		return _size.get();
+	}
+
+	/**
+	 * Hands the given timer over to the tick thread, which links it into the wheel.
+	 */
+	private void enqueue(Timer timer, long delayNanos) {
+		timer._deadline = System.nanoTime() + delayNanos;
+		timer._state = Timer.WAITING;
+		_size.incrementAndGet();
+		push(timer);
+	}
+
+	private void push(Timer timer) {
+		Timer head;
+		do {
+			head = _added.get();
+			timer._nextAdded = head;
+		} while (!_added.compareAndSet(head, timer));
+	}
+
+	/**
+	 * Hands the given cancelled timer over to the tick thread, which unlinks it from the wheel.
+	 */
+	void dequeue(Timer timer) {
+		_size.decrementAndGet();
+		Timer head;
+		do {
+			head = _cancelled.get();
+			timer._nextCancelled = head;
+		} while (!_cancelled.compareAndSet(head, timer));
+	}
+
+	/**
+	 * Processes all ticks up to the current time.
+	 *
+	 * <p>
+	 * Only called by the single ticker task, which exclusively owns the buckets of the wheel.
+	 * </p>
+	 */
+	void advance() {
+		// Link new timers before unlinking cancelled ones, a timer may be in both lists.
+		for (Timer timer = _added.getAndSet(null); timer != null;) {
+			Timer next = timer._nextAdded;
+			timer._nextAdded = null;
+			if (timer._state == Timer.WAITING) {
+				_wheel.link(timer, Math.max(_wheel.expirationOf(timer._deadline), _wheel.nextTick()));
+			}
+			timer = next;
+		}
+		for (Timer timer = _cancelled.getAndSet(null); timer != null;) {
+			Timer next = timer._nextCancelled;
+			timer._nextCancelled = null;
+			timer.unlink();
+			timer = next;
+		}
+
+		_wheel.advance(_wheel.tickOf(System.nanoTime()), _expire);
+	}
+
+	private void expire(Timer timer) {
+		if (STATE.compareAndSet(timer, Timer.WAITING, Timer.PENDING)) {
+			_size.decrementAndGet();
+			try {
+				_executor.execute(timer);
+			} catch (RuntimeException ex) {
+				LOG.error("Failed to execute expired timer.", ex);
+			}
+		}
+	}
+
+	/**
+	 * A timer linked into a bucket of the wheel.
+	 *
+	 * <p>
+	 * The links into the wheel are only accessed by the ticker task. All other threads only change
+	 * the state atomically and pass the timer to the ticker through the lists of added and
+	 * cancelled timers.
+	 * </p>
+	 */
+	private final class Timer extends TimingWheel.Node implements ScheduledFuture<Object>, Runnable {
+
+		static final int WAITING = 0;
+
+		static final int PENDING = 1;
+
+		static final int RUNNING = 2;
+
+		static final int DONE = 3;
+
+		static final int CANCELLED = 4;
+
+		final Runnable _task;
+
+		final long _period;
+
+		volatile long _deadline;
+
+		volatile int _state;
+
+		volatile Throwable _problem;
+
+		/** Next timer in the list of added timers. */
+		Timer _nextAdded;
+
+		/** Next timer in the list of cancelled timers. */
+		Timer _nextCancelled;
+
+		Timer(Runnable task, long period) {
+			_task = task;
+			_period = period;
+		}
+
+		@Override
+		public void run() {
+			if (!STATE.compareAndSet(this, PENDING, RUNNING)) {
+				return;
+			}
+
+			Throwable problem = null;
+			try {
+				_task.run();
+			} catch (Throwable ex) {
+				problem = ex;
+				LOG.error("Timer task failed.", ex);
+			}
+
+			if (_period > 0 && problem == null) {
+				_deadline = System.nanoTime() + _period;
+				_size.incrementAndGet();
+				if (STATE.compareAndSet(this, RUNNING, WAITING)) {
+					push(this);
+					return;
+				}
+				// Cancelled during execution.
+				_size.decrementAndGet();
+			} else {
+				_problem = problem;
+				STATE.compareAndSet(this, RUNNING, DONE);
+			}
+			signal();
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			while (true) {
+				int state = _state;
+				switch (state) {
+				case WAITING:
+					if (STATE.compareAndSet(this, WAITING, CANCELLED)) {
+						dequeue(this);
+						signal();
+						return true;
+					}
+					break;
+				case PENDING:
+					if (STATE.compareAndSet(this, PENDING, CANCELLED)) {
+						signal();
+						return true;
+					}
+					break;
+				case RUNNING:
+					if (_period <= 0) {
+						return false;
+					}
+					// Prevent re-scheduling, the current execution completes.
+					if (STATE.compareAndSet(this, RUNNING, CANCELLED)) {
+						return true;
+					}
+					break;
+				default:
+					return false;
+				}
+			}
+		}
+
+		private synchronized void signal() {
+			notifyAll();
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return _state == CANCELLED;
+		}
+
+		@Override
+		public boolean isDone() {
+			return _state >= DONE;
+		}
+
+		@Override
+		public synchronized Object get() throws InterruptedException, ExecutionException {
+			while (_state < DONE) {
+				wait();
+			}
+			return result();
+		}
+
+		@Override
+		public synchronized Object get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException, TimeoutException {
+			long end = System.nanoTime() + unit.toNanos(timeout);
+			while (_state < DONE) {
+				long remaining = end - System.nanoTime();
+				if (remaining <= 0) {
+					throw new TimeoutException();
+				}
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+			return result();
+		}
+
+		private Object result() throws ExecutionException {
+			if (_state == CANCELLED) {
+				throw new CancellationException();
+			}
+			if (_problem != null) {
+				throw new ExecutionException(_problem);
+			}
+			return null;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(_deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+		}
+
+	}
+
+}
@@ -38,7 +38,13 @@ public class Identifier {
 	/** Creates a new Identifier.
 	  * @param i an identifier */
 	public Identifier(Identifier i) {
-		this.id=i.id;
+		this.id=i.toString();
+	}
+
+	/** Creates a new Identifier without a stored string value.
+	  * Subclasses using this constructor must override {@link #equals(Object)}, {@link #hashCode()}, and {@link #toString()}. */
+	protected Identifier() {
+		this.id=null;
 	}
 
 
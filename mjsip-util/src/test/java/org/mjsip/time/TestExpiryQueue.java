@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.time;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test case for {@link ExpiryQueue}.
+ */
+@SuppressWarnings("javadoc")
+class TestExpiryQueue {
+
+	private ScheduledThreadPoolExecutor _executor;
+
+	private final BlockingQueue<String> _expired = new LinkedBlockingQueue<>();
+
+	private ExpiryQueue<Item> _queue;
+
+	@BeforeEach
+	void setUp() {
+		_executor = new ScheduledThreadPoolExecutor(1);
+	}
+
+	@AfterEach
+	void tearDown() {
+		_executor.shutdownNow();
+	}
+
+	@Test
+	void testOrder() {
+		ExpiryQueue<Item> queue = new ExpiryQueue<>(this, () -> _executor, () -> {
+			// Not scheduled.
+		});
+		Item a = new Item("a");
+		Item b = new Item("b");
+		Item c = new Item("c");
+		Item d = new Item("d");
+		queue.add(c, 30);
+		queue.add(a, 10);
+		queue.add(b, 20);
+		// Same due time, ordered by insertion.
+		queue.add(d, 10);
+		Assertions.assertEquals(4, queue.size());
+
+		Assertions.assertTrue(queue.remove(b));
+		Assertions.assertFalse(queue.remove(b));
+
+		Assertions.assertNull(queue.pollDue(9));
+		List<String> due = new ArrayList<>();
+		Item next;
+		while ((next = queue.pollDue(30)) != null) {
+			due.add(next._name);
+		}
+		Assertions.assertEquals(List.of("a", "d", "c"), due);
+		Assertions.assertTrue(queue.isEmpty());
+
+		// Re-added with a new due time.
+		queue.add(a, 40);
+		Assertions.assertEquals(40, a.getDue());
+		Assertions.assertSame(a, queue.pollDue(40));
+	}
+
+	@Test
+	void testTimer() throws InterruptedException {
+		_queue = new ExpiryQueue<>(this, () -> _executor, this::expire);
+
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			_queue.add(new Item("late"), now + 200);
+			_queue.schedule();
+
+			// Moves the timer to an earlier time.
+			_queue.add(new Item("early"), now + 50);
+			_queue.schedule();
+		}
+
+		Assertions.assertEquals("early", _expired.poll(5, TimeUnit.SECONDS));
+		Assertions.assertTrue(System.currentTimeMillis() - now < 200);
+		Assertions.assertEquals("late", _expired.poll(5, TimeUnit.SECONDS));
+
+		synchronized (this) {
+			_queue.add(new Item("cancelled"), System.currentTimeMillis() + 50);
+			_queue.schedule();
+			_queue.clear();
+		}
+		Assertions.assertNull(_expired.poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	private synchronized void expire() {
+		long now = System.currentTimeMillis();
+		Item item;
+		while ((item = _queue.pollDue(now)) != null) {
+			_expired.add(item._name);
+		}
+		_queue.schedule();
+	}
+
+	private static final class Item extends ExpiryQueue.Entry {
+
+		final String _name;
+
+		Item(String name) {
+			_name = name;
+		}
+
+	}
+
+}
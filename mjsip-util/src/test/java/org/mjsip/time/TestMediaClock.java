@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.time;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test case for {@link MediaClock}.
+ */
+@SuppressWarnings("javadoc")
+class TestMediaClock {
+
+	private static final long TICK = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private MediaClock _clock;
+
+	@BeforeEach
+	void setUp() {
+		// Advanced manually by process().
+		_clock = new MediaClock(TICK, 4);
+	}
+
+	@AfterEach
+	void tearDown() {
+		_clock.stop();
+	}
+
+	@Test
+	void testSpread() {
+		List<List<Integer>> departures = new ArrayList<>();
+		for (int n = 0; n < 4; n++) {
+			int stream = n;
+			departures.add(new ArrayList<>());
+			_clock.register(now -> {
+				departures.get(stream).add(tickOf(now));
+				return 4 * TICK;
+			});
+		}
+
+		for (int tick = 0; tick <= 20; tick++) {
+			process(tick);
+		}
+		assertEquals(4, _clock.size());
+
+		// Each stream departs every 4 ticks, each in its own phase.
+		assertEquals(List.of(1, 5, 9, 13, 17), departures.get(0));
+		assertEquals(List.of(2, 6, 10, 14, 18), departures.get(1));
+		assertEquals(List.of(3, 7, 11, 15, 19), departures.get(2));
+		assertEquals(List.of(4, 8, 12, 16, 20), departures.get(3));
+	}
+
+	@Test
+	void testRetryAndEnd() {
+		long[] results = { 0, 2 * TICK, 2 * TICK, -1 };
+		List<Integer> departures = new ArrayList<>();
+		MediaClock.Registration registration = _clock.register(now -> {
+			departures.add(tickOf(now));
+			return results[departures.size() - 1];
+		}, time(2));
+
+		for (int tick = 0; tick <= 10; tick++) {
+			process(tick);
+		}
+		// No data at tick 2, retried at tick 3, the schedule continues from tick 2.
+		assertEquals(List.of(2, 3, 4, 6), departures);
+		assertEquals(2, registration.getDepartures());
+		assertTrue(registration.isCancelled());
+		assertEquals(0, _clock.size());
+	}
+
+	@Test
+	void testCancel() {
+		List<Integer> departures = new ArrayList<>();
+		MediaClock.Registration registration = _clock.register(now -> {
+			departures.add(tickOf(now));
+			return TICK;
+		}, time(1));
+
+		process(0);
+		process(1);
+		process(2);
+		registration.cancel();
+		process(3);
+		process(4);
+		assertEquals(List.of(1, 2), departures);
+		assertEquals(0, _clock.size());
+	}
+
+	@Test
+	void testNoBurst() {
+		List<Integer> departures = new ArrayList<>();
+		MediaClock.Registration registration = _clock.register(now -> {
+			departures.add(tickOf(now));
+			return TICK;
+		}, time(1));
+
+		process(0);
+		process(1);
+		// The clock was stalled for 10 ticks.
+		process(11);
+		process(12);
+		process(13);
+		assertEquals(List.of(1, 11, 11, 11, 11, 12, 13), departures);
+		assertEquals(9 * TICK, registration.getMaxLateness());
+	}
+
+	@Test
+	void testJitter() {
+		MediaClock.Registration registration = _clock.register(now -> 2 * TICK, time(1));
+		for (int tick = 0; tick <= 40; tick++) {
+			process(tick);
+		}
+		assertEquals(20, registration.getDepartures());
+		assertEquals(0, registration.getJitter());
+		assertEquals(0, registration.getMaxLateness());
+
+		// Alternating late departures.
+		for (int tick = 41; tick <= 200; tick++) {
+			_clock.process(time(tick) + ((tick & 2) == 0 ? TICK / 2 : 0));
+		}
+		assertTrue(registration.getJitter() > TICK / 4, "Jitter: " + registration.getJitter());
+		assertEquals(TICK / 2, registration.getMaxLateness());
+	}
+
+	@Test
+	void testPacing() throws InterruptedException {
+		_clock = new MediaClock("test-clock", TICK, 4);
+		long interval = TimeUnit.MILLISECONDS.toNanos(5);
+		long[] first = { 0 };
+		long[] last = { 0 };
+		MediaClock.Registration registration = _clock.register(now -> {
+			if (first[0] == 0) {
+				first[0] = now;
+			}
+			last[0] = now;
+			return interval;
+		});
+
+		Thread.sleep(300);
+		_clock.stop();
+
+		long departures = registration.getDepartures();
+		long expected = (last[0] - first[0]) / interval + 1;
+		assertTrue(departures >= 50, "Departures: " + departures);
+		// Departures follow the schedule without drift.
+		assertTrue(Math.abs(departures - expected) <= 1, "Departures: " + departures + ", expected: " + expected);
+		assertTrue(registration.getMaxLateness() < interval * 4, registration.toString());
+	}
+
+	private void process(int tick) {
+		_clock.process(time(tick));
+	}
+
+	private long time(int tick) {
+		return _clock.getStart() + tick * TICK;
+	}
+
+	private int tickOf(long now) {
+		return (int) ((now - _clock.getStart()) / TICK);
+	}
+
+}
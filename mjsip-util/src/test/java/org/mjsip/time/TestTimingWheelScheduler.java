@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.time;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test case for {@link TimingWheelScheduler}.
+ */
+@SuppressWarnings("javadoc")
+class TestTimingWheelScheduler {
+
+	private ScheduledThreadPoolExecutor _executor;
+
+	private TimingWheelScheduler _scheduler;
+
+	@BeforeEach
+	void setUp() {
+		_executor = new ScheduledThreadPoolExecutor(1);
+		_scheduler = new TimingWheelScheduler(_executor, _executor, 5, 8);
+	}
+
+	@AfterEach
+	void tearDown() {
+		_scheduler.shutdown();
+		_executor.shutdownNow();
+	}
+
+	@Test
+	void testOrder() throws Exception {
+		List<Integer> fired = new CopyOnWriteArrayList<>();
+		CountDownLatch done = new CountDownLatch(3);
+
+		// Exceeds one revolution of the wheel (8 * 5ms).
+		_scheduler.schedule(120, () -> { fired.add(3); done.countDown(); });
+		_scheduler.schedule(10, () -> { fired.add(1); done.countDown(); });
+		ScheduledFuture<?> second = _scheduler.schedule(60, () -> { fired.add(2); done.countDown(); });
+
+		long start = System.nanoTime();
+		Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+		Assertions.assertEquals(List.of(1, 2, 3), fired);
+		Assertions.assertNull(second.get());
+		Assertions.assertTrue(second.isDone());
+		Assertions.assertEquals(0, _scheduler.size());
+	}
+
+	@Test
+	void testCancel() throws Exception {
+		AtomicInteger fired = new AtomicInteger();
+		ScheduledFuture<?> cancelled = _scheduler.schedule(20, fired::incrementAndGet);
+		ScheduledFuture<?> kept = _scheduler.schedule(40, fired::incrementAndGet);
+		Assertions.assertEquals(2, _scheduler.size());
+
+		Assertions.assertTrue(cancelled.cancel(false));
+		Assertions.assertTrue(cancelled.isCancelled());
+		Assertions.assertTrue(cancelled.isDone());
+		Assertions.assertEquals(1, _scheduler.size());
+
+		kept.get(5, TimeUnit.SECONDS);
+		Assertions.assertEquals(1, fired.get());
+		Assertions.assertFalse(kept.cancel(false));
+		Assertions.assertThrows(CancellationException.class, cancelled::get);
+	}
+
+	@Test
+	void testConcurrentScheduleCancel() throws Exception {
+		int threads = 4;
+		int timers = 2000;
+		AtomicInteger fired = new AtomicInteger();
+		AtomicInteger firedCancelled = new AtomicInteger();
+		AtomicInteger cancelled = new AtomicInteger();
+		CountDownLatch scheduled = new CountDownLatch(threads);
+		List<ScheduledFuture<?>> kept = new CopyOnWriteArrayList<>();
+
+		for (int t = 0; t < threads; t++) {
+			new Thread(() -> {
+				for (int n = 0; n < timers; n++) {
+					boolean cancel = (n & 1) == 0;
+					ScheduledFuture<?> timer = _scheduler.schedule(n % 50,
+						cancel ? firedCancelled::incrementAndGet : fired::incrementAndGet);
+					if (cancel) {
+						if (timer.cancel(false)) {
+							cancelled.incrementAndGet();
+						}
+					} else {
+						kept.add(timer);
+					}
+				}
+				scheduled.countDown();
+			}).start();
+		}
+
+		Assertions.assertTrue(scheduled.await(5, TimeUnit.SECONDS));
+		for (ScheduledFuture<?> timer : kept) {
+			timer.get(5, TimeUnit.SECONDS);
+		}
+		int total = threads * timers;
+		Assertions.assertEquals(total / 2, fired.get());
+		// A timer with a short delay may have fired before it could be cancelled.
+		Assertions.assertEquals(total / 2, cancelled.get() + firedCancelled.get());
+		Assertions.assertEquals(0, _scheduler.size());
+	}
+
+	@Test
+	void testFixedDelay() throws Exception {
+		CountDownLatch repeated = new CountDownLatch(3);
+		ScheduledFuture<?> timer = _scheduler.schedulerWithFixedDelay(10, repeated::countDown);
+
+		Assertions.assertTrue(repeated.await(5, TimeUnit.SECONDS));
+		Assertions.assertTrue(timer.cancel(false));
+		Assertions.assertTrue(timer.isCancelled());
+	}
+
+}
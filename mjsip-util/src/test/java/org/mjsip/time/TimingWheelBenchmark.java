@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2023 Bernhard Haumacher et al. All Rights Reserved.
+ */
+package org.mjsip.time;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Compares the {@link ScheduledThreadPoolExecutor} queue with the {@link TimingWheelScheduler} for
+ * the timer pattern of SIP transactions.
+ *
+ * <p>
+ * For each transaction, an INVITE client transaction schedules timers A (retransmission) and B
+ * (timeout), cancels both when the final response arrives, and schedules timer D (clearing). A
+ * non-INVITE client transaction does the same with timers E, F and K. All live transactions are
+ * finally cleared by cancelling D and K.
+ * </p>
+ *
+ * <p>
+ * Usage: <code>TimingWheelBenchmark [transactions]</code>
+ * </p>
+ */
+@SuppressWarnings("javadoc")
+public class TimingWheelBenchmark {
+
+	private static final long T1 = 500;
+
+	private static final Runnable NOOP = () -> {
+		// Never expires during the benchmark.
+	};
+
+	public static void main(String[] args) {
+		int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+		for (int round = 0; round < 5; round++) {
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+			executor.setRemoveOnCancelPolicy(true);
+			try {
+				long queue = measure(new Scheduler() {
+					@Override
+					public ScheduledThreadPoolExecutor scheduler() {
+						return executor;
+					}
+				}, transactions);
+
+				TimingWheelScheduler wheel = new TimingWheelScheduler(executor);
+				long timingWheel = measure(wheel, transactions);
+				wheel.shutdown();
+
+				System.out.printf("round %d: executor queue %d ns/transaction, timing wheel %d ns/transaction%n",
+						round, queue / transactions, timingWheel / transactions);
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	private static long measure(Scheduler scheduler, int transactions) {
+		ScheduledFuture<?>[] clearing = new ScheduledFuture<?>[transactions];
+
+		long start = System.nanoTime();
+		for (int n = 0; n < transactions; n++) {
+			boolean invite = (n & 1) == 0;
+
+			// Timer A/E and B/F.
+			ScheduledFuture<?> retransmission = scheduler.schedule(T1, NOOP);
+			ScheduledFuture<?> timeout = scheduler.schedule(64 * T1, NOOP);
+
+			// Final response.
+			retransmission.cancel(false);
+			timeout.cancel(false);
+
+			// Timer D (32s) or K (T4 = 5s).
+			clearing[n] = scheduler.schedule(invite ? 32000 : 5000, NOOP);
+		}
+		for (ScheduledFuture<?> timer : clearing) {
+			timer.cancel(false);
+		}
+		return System.nanoTime() - start;
+	}
+
+}